@@ -0,0 +1,245 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+import com.keeping.itemstrack.data.source.ItemsCloud;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsDiff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory {@link ItemsCloud} that stamps every write with a counter, answering and sending
+ * observed changes on the calling thread. Items are returned stamped with the counter and the
+ * version they were written with. Bucket hashes are summed from the item hashes it keeps, which
+ * items written with {@link #putWithoutHash(Item)} lack.
+ */
+class FakeItemsCloud implements ItemsCloud {
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    /**
+     * The content hash kept for each item, apart from the items, as the real cloud keeps them.
+     */
+    private final Map<String, Long> mItemHashes = new HashMap<>();
+
+    private final List<ChangeListener> mListeners = new ArrayList<>();
+
+    private long mClock = 0;
+
+    int mItemsWritten = 0;
+
+    int mWriteCount = 0;
+
+    /**
+     * Items and deletes read by bucket pulls.
+     */
+    int mBucketItemsRead = 0;
+
+    /**
+     * Calls to {@link #repairLeafHashes(List, List, List, WriteCallback)}.
+     */
+    int mHashRepairs = 0;
+
+    /**
+     * Writes after this many fail.
+     */
+    int mWritesBeforeFailure = Integer.MAX_VALUE;
+
+    @Override
+    public void writeItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                           @NonNull WriteCallback callback) {
+        if (mWriteCount++ >= mWritesBeforeFailure) {
+            callback.onWriteFailed(new IOException("Connection lost"));
+            return;
+        }
+        long updatedAt = ++mClock;
+        for (Item item : items) {
+            put(item.getId(), new Entry(item, updatedAt));
+        }
+        for (String itemId : deletedItemIds) {
+            put(itemId, new Entry(null, updatedAt));
+        }
+        mItemsWritten += items.size() + deletedItemIds.size();
+        callback.onWriteSucceeded();
+    }
+
+    @Override
+    public void pullChanges(long since, @NonNull PullCallback callback) {
+        List<Item> items = new ArrayList<>();
+        List<String> deletedItemIds = new ArrayList<>();
+        long pulledUpTo = since;
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            Entry value = entry.getValue();
+            if (value.mUpdatedAt < since) {
+                continue;
+            }
+            if (value.mItem == null) {
+                deletedItemIds.add(entry.getKey());
+            } else {
+                items.add(value.mItem);
+            }
+            pulledUpTo = Math.max(pulledUpTo, value.mUpdatedAt);
+        }
+        callback.onChangesPulled(items, deletedItemIds, pulledUpTo);
+    }
+
+    @NonNull
+    @Override
+    public ItemsDataSource.Subscription observeChanges(long since,
+                                                       @NonNull final ChangeListener listener) {
+        for (Map.Entry<String, Entry> entry : new ArrayList<>(mEntries.entrySet())) {
+            if (entry.getValue().mUpdatedAt >= since) {
+                send(listener, entry.getKey(), entry.getValue());
+            }
+        }
+        mListeners.add(listener);
+        return new ItemsDataSource.Subscription() {
+            @Override
+            public void unsubscribe() {
+                mListeners.remove(listener);
+            }
+        };
+    }
+
+    @Override
+    public void getBucketHashes(@NonNull List<String> prefixes,
+                                @NonNull BucketHashesCallback callback) {
+        ItemBuckets buckets = new ItemBuckets(prefixes);
+        for (Map.Entry<String, Long> hash : mItemHashes.entrySet()) {
+            buckets.add(hash.getKey(), hash.getValue());
+        }
+        callback.onBucketHashesLoaded(buckets.getHashes());
+    }
+
+    @Override
+    public void pullBuckets(@NonNull List<List<String>> prefixRuns,
+                            @NonNull PullCallback callback) {
+        List<String> prefixes = new ArrayList<>();
+        for (List<String> run : prefixRuns) {
+            prefixes.addAll(run);
+        }
+        List<Item> items = new ArrayList<>();
+        List<String> deletedItemIds = new ArrayList<>();
+        long pulledUpTo = 0;
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            for (String prefix : prefixes) {
+                if (entry.getKey().startsWith(prefix)) {
+                    Entry value = entry.getValue();
+                    if (value.mItem == null) {
+                        deletedItemIds.add(entry.getKey());
+                    } else {
+                        items.add(value.mItem);
+                    }
+                    pulledUpTo = Math.max(pulledUpTo, value.mUpdatedAt);
+                    mBucketItemsRead++;
+                    break;
+                }
+            }
+        }
+        callback.onChangesPulled(items, deletedItemIds, pulledUpTo);
+    }
+
+    @Override
+    public void repairLeafHashes(@NonNull List<String> leaves, @NonNull List<Item> items,
+                                 @NonNull List<String> deletedItemIds,
+                                 @NonNull WriteCallback callback) {
+        for (Item item : items) {
+            if (leaves.contains(ItemBuckets.bucketOf(item.getId(),
+                    ItemBuckets.LEAF_PREFIX_LENGTH))) {
+                mItemHashes.put(item.getId(), ItemsDiff.contentHash(item));
+            }
+        }
+        mItemHashes.keySet().removeAll(deletedItemIds);
+        mHashRepairs++;
+        callback.onWriteSucceeded();
+    }
+
+    /**
+     * Writes {@code item} as another device would.
+     */
+    void putFromOtherDevice(@NonNull Item item) {
+        put(item.getId(), new Entry(item, ++mClock));
+    }
+
+    /**
+     * Deletes the item as another device would.
+     */
+    void deleteFromOtherDevice(@NonNull String itemId) {
+        put(itemId, new Entry(null, ++mClock));
+    }
+
+    /**
+     * Writes {@code item} stamped before every other change, as a device whose clock lags would,
+     * so that pulls since an earlier change miss it.
+     */
+    void putWithStaleStamp(@NonNull Item item) {
+        put(item.getId(), new Entry(item, 0));
+    }
+
+    /**
+     * Writes {@code item} without its hash, as a client from before the cloud kept hashes would.
+     */
+    void putWithoutHash(@NonNull Item item) {
+        put(item.getId(), new Entry(item, ++mClock));
+        mItemHashes.remove(item.getId());
+    }
+
+    /**
+     * Drops the item without leaving a tombstone, as if its write never reached the cloud.
+     */
+    void lose(@NonNull String itemId) {
+        mEntries.remove(itemId);
+        mItemHashes.remove(itemId);
+    }
+
+    int getObserverCount() {
+        return mListeners.size();
+    }
+
+    private void put(@NonNull String itemId, @NonNull Entry entry) {
+        mEntries.put(itemId, entry);
+        if (entry.mItem == null) {
+            mItemHashes.remove(itemId);
+        } else {
+            mItemHashes.put(itemId, ItemsDiff.contentHash(entry.mItem));
+        }
+        for (ChangeListener listener : new ArrayList<>(mListeners)) {
+            send(listener, itemId, entry);
+        }
+    }
+
+    private static void send(@NonNull ChangeListener listener, @NonNull String itemId,
+                             @NonNull Entry entry) {
+        if (entry.mItem == null) {
+            listener.onItemDeleted(itemId, entry.mUpdatedAt);
+        } else {
+            listener.onItemSaved(entry.mItem, entry.mUpdatedAt);
+        }
+    }
+
+    boolean contains(@NonNull String itemId) {
+        Entry entry = mEntries.get(itemId);
+        return entry != null && entry.mItem != null;
+    }
+
+    private static final class Entry {
+
+        final Item mItem;
+
+        final long mUpdatedAt;
+
+        Entry(Item item, long updatedAt) {
+            // Stamped like the items a real cloud returns.
+            mItem = item == null ? null : item.withSync(updatedAt, item.getVersion());
+            mUpdatedAt = updatedAt;
+        }
+    }
+}
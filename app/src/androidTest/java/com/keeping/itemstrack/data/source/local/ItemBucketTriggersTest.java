@@ -0,0 +1,174 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the item buckets follow every kind of write to the items table, by comparing them
+ * with the buckets hashed from the items.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemBucketTriggersTest {
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsDao mItemsDao;
+
+    @Before
+    public void initDb() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+        mItemsDao = mDatabase.itemDao();
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void inserts_areHashedAtEveryLevel() {
+        // When inserting items, one with an id shorter than the leaves
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "abc1"),
+                new Item("b", "", "2", "office", "", "abd2"),
+                new Item("c", "", "", "", "", "b")));
+
+        // Then the buckets are those of the items
+        assertThat(storedBuckets(), is(bucketsOfItems()));
+        assertThat(storedBuckets().size(), is(7));
+    }
+
+    @Test
+    public void replacingAnItem_replacesItsHash() {
+        // Given an item
+        mItemsDao.insertItem(new Item("a", "", "10", "office", "", "abc1"));
+
+        // When it is saved again with another title
+        mItemsDao.insertItem(new Item("a edited", "", "10", "office", "", "abc1"));
+
+        // Then it is only counted once, with its new hash
+        assertThat(storedBuckets(), is(bucketsOfItems()));
+        assertThat(mDatabase.itemBucketDao().getAllBuckets().get(0).getItemCount(), is(1));
+    }
+
+    @Test
+    public void updatingAnItem_replacesItsHash() {
+        // Given two items in the same buckets
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "abc1"),
+                new Item("b", "", "2", "office", "", "abc2")));
+
+        // When one is updated in place
+        mItemsDao.updateItem(new Item("a edited", "", "10", "office", "", "abc1"));
+
+        // Then the buckets are those of the items
+        assertThat(storedBuckets(), is(bucketsOfItems()));
+    }
+
+    @Test
+    public void deletingItems_removesEmptyBuckets() {
+        // Given items in two buckets
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "abc1"),
+                new Item("b", "", "2", "office", "", "abd2"),
+                new Item("c", "", "", "", "", "bcd3")));
+
+        // When deleting one, then all items
+        mItemsDao.deleteItemById("abd2");
+        assertThat(storedBuckets(), is(bucketsOfItems()));
+        mItemsDao.deleteItems();
+
+        // Then no bucket is left
+        assertThat(storedBuckets().isEmpty(), is(true));
+    }
+
+    @Test
+    public void rebuild_matchesTheTriggers() {
+        // Given items written through the triggers
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "abc1"),
+                new Item("b", "", "2", "office", "", "abd2"),
+                new Item("c", "", "", "", "", "b")));
+        List<String> maintained = storedBuckets();
+
+        // When rebuilding the buckets
+        ItemBucketTriggers.rebuild(mDatabase.getOpenHelper().getWritableDatabase());
+
+        // Then they are the same
+        assertThat(storedBuckets(), is(maintained));
+    }
+
+    @Test
+    public void getBuckets_readsOneLevelBelowThePrefixes() {
+        // Given items in several buckets
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "abc1"),
+                new Item("b", "", "2", "office", "", "abd2"),
+                new Item("c", "", "", "", "", "bcd3")));
+
+        // When reading the buckets below "ab"
+        List<ItemBucket> buckets = mDatabase.itemBucketDao().getBuckets(3, 2,
+                Collections.singletonList("ab"));
+
+        // Then only its two leaves are read
+        assertThat(buckets.size(), is(2));
+    }
+
+    /**
+     * Returns the stored buckets as "level prefix hash itemCount", in level and prefix order.
+     */
+    private List<String> storedBuckets() {
+        List<String> buckets = new ArrayList<>();
+        for (ItemBucket bucket : mDatabase.itemBucketDao().getAllBuckets()) {
+            buckets.add(bucket.getLevel() + " " + bucket.getPrefix() + " " + bucket.getHash()
+                    + " " + bucket.getItemCount());
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the buckets hashed from the items, in the format of {@link #storedBuckets()}.
+     */
+    private List<String> bucketsOfItems() {
+        List<String> buckets = new ArrayList<>();
+        for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+            Map<String, Long> hashes = new TreeMap<>();
+            Map<String, Integer> counts = new TreeMap<>();
+            for (Item item : mItemsDao.getItems()) {
+                String bucket = ItemBuckets.bucketOf(item.getId(), level);
+                Long hash = hashes.get(bucket);
+                Integer count = counts.get(bucket);
+                long itemHash = ItemBuckets.bucketHash(item.getContentHash());
+                hashes.put(bucket, hash == null ? itemHash : hash + itemHash);
+                counts.put(bucket, count == null ? 1 : count + 1);
+            }
+            for (Map.Entry<String, Long> hash : hashes.entrySet()) {
+                buckets.add(level + " " + hash.getKey() + " " + hash.getValue() + " "
+                        + counts.get(hash.getKey()));
+            }
+        }
+        return buckets;
+    }
+}
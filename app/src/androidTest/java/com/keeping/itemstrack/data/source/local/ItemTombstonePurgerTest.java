@@ -0,0 +1,83 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Integration test for the {@link ItemTombstonePurger}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemTombstonePurgerTest {
+
+    private static final long NOW = 100L * ItemTombstonePurger.RETENTION_MILLIS;
+
+    private ItemsDatabase mDatabase;
+
+    private ItemTombstonePurger mPurger;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .build();
+        mPurger = new ItemTombstonePurger(new SingleExecutors(), mDatabase,
+                mock(ScheduledExecutorService.class));
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void purge_deletesExpiredTombstonesOnly() {
+        // Given one tombstone past its retention and one within it
+        long expiredAt = NOW - ItemTombstonePurger.RETENTION_MILLIS - 1;
+        long keptAt = NOW - ItemTombstonePurger.RETENTION_MILLIS + 1;
+        List<ItemTombstone> tombstones = new ArrayList<>();
+        tombstones.add(new ItemTombstone("expired", expiredAt));
+        tombstones.add(new ItemTombstone("kept", keptAt));
+        mDatabase.itemTombstoneDao().insertTombstones(tombstones);
+
+        // When purged
+        mPurger.purge(NOW);
+
+        // Then only the recent tombstone is left
+        List<ItemTombstone> left = mDatabase.itemTombstoneDao().getTombstonesSince(0);
+        assertThat(left.size(), is(1));
+        assertThat(left.get(0).getItemId(), is("kept"));
+    }
+
+    @Test
+    public void purge_deletesMoreThanOneBatch() {
+        // Given more than two batches of expired tombstones
+        int count = 2 * ItemTombstonePurger.BATCH_SIZE + 1;
+        List<ItemTombstone> tombstones = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tombstones.add(new ItemTombstone("id" + i, i));
+        }
+        mDatabase.itemTombstoneDao().insertTombstones(tombstones);
+
+        // When purged
+        mPurger.purge(NOW);
+
+        // Then all of them are deleted
+        assertThat(mDatabase.itemTombstoneDao().getTombstonesSince(-1).size(), is(0));
+    }
+}
@@ -0,0 +1,92 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the write throughput of one autocommit insert per item with a single batched insert.
+ * Uses an on-disk database, since the cost being measured is the journal sync of each commit.
+ * Results are logged under the {@code ItemsBenchmark} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsBatchWriteBenchmark {
+
+    private static final String TAG = "ItemsBenchmark";
+
+    private static final String DATABASE_NAME = "items-batch-benchmark.db";
+
+    private static final int ROW_COUNT = 1000;
+
+    private Context mContext;
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void initDb() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, DATABASE_NAME).build();
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void batchInsert_isFasterThanOneInsertPerItem() {
+        ItemsDao dao = mDatabase.itemDao();
+
+        List<Item> singleItems = newItems("single");
+        long start = SystemClock.elapsedRealtime();
+        for (Item item : singleItems) {
+            dao.insertItem(item);
+        }
+        long singleMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        List<Item> batchItems = newItems("batch");
+        start = SystemClock.elapsedRealtime();
+        dao.insertItems(batchItems);
+        long batchMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        Log.i(TAG, "insertItem x" + ROW_COUNT + ": " + rowsPerSecond(singleMillis) + " rows/s");
+        Log.i(TAG, "insertItems(" + ROW_COUNT + "): " + rowsPerSecond(batchMillis) + " rows/s");
+
+        assertThat(dao.getItems().size(), is(2 * ROW_COUNT));
+        assertTrue(batchMillis <= singleMillis);
+    }
+
+    private static List<Item> newItems(String prefix) {
+        List<Item> items = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            items.add(new Item(prefix + " title " + i, "description " + i, String.valueOf(i),
+                    "location", "", prefix + "-" + i));
+        }
+        return items;
+    }
+
+    private static long rowsPerSecond(long millis) {
+        return ROW_COUNT * 1000L / millis;
+    }
+}
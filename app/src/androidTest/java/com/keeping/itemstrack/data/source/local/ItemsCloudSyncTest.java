@@ -0,0 +1,486 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsRepository;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+import com.keeping.itemstrack.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+/**
+ * Integration test for the {@link ItemsCloudSync}, against an in-memory cloud. Pulled changes are
+ * applied through the {@link ItemsRepository} wired as in the app, with an outbox whose writes to
+ * the backend are recorded.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsCloudSyncTest {
+
+    /**
+     * One frame at 60 frames per second.
+     */
+    private static final long MAIN_THREAD_BUDGET_MILLIS = 16;
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsLocalDataSource mLocalDataSource;
+
+    private FakeItemsCloud mCloud;
+
+    private RemoteItemsWriter mOutboxWriter;
+
+    private ItemsCloudSync mSync;
+
+    private RecordingCallback mCallback;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+        SingleExecutors executors = new SingleExecutors();
+        ItemsLocalDataSource.clearInstance();
+        mLocalDataSource = ItemsLocalDataSource.getInstance(executors, mDatabase);
+        mCloud = new FakeItemsCloud();
+        mOutboxWriter = mock(RemoteItemsWriter.class);
+        mSync = new ItemsCloudSync(executors, mDatabase, mCloud,
+                newRepository(executors, mLocalDataSource), mock(ScheduledExecutorService.class));
+        mCallback = new RecordingCallback();
+    }
+
+    @After
+    public void cleanUp() {
+        mSync.stop();
+        mDatabase.close();
+        ItemsLocalDataSource.clearInstance();
+        ItemsRepository.destroyInstance();
+    }
+
+    @Test
+    public void sync_pushesOnlyItemsChangedSinceLastPush() {
+        // Given more than a page of items already synced
+        List<Item> items = newItems(ItemsCloudSync.PAGE_SIZE + 1);
+        mLocalDataSource.saveItems(items);
+        mSync.sync(mCallback);
+        assertThat(mCallback.mItemsPushed, is(items.size()));
+        int writtenBefore = mCloud.mItemsWritten;
+
+        // When one item is changed, another deleted, and the items synced again
+        mLocalDataSource.saveItem(new Item("changed", "", "", "", "", "id1"));
+        mLocalDataSource.deleteItem("id2");
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then only these two changes are pushed
+        assertThat(callback.mError, is(nullValue()));
+        assertThat(callback.mItemsPushed, is(2));
+        assertThat(mCloud.mItemsWritten - writtenBefore, is(2));
+        assertFalse(mCloud.contains("id2"));
+    }
+
+    @Test
+    public void sync_sendsChangesInBatches() {
+        // Given more than two batches of changes
+        int count = 2 * ItemsCloudSync.MAX_BATCH_SIZE + 1;
+        mLocalDataSource.saveItems(newItems(count));
+
+        // When synced
+        mSync.sync(mCallback);
+
+        // Then they are sent in three writes
+        assertThat(mCallback.mItemsPushed, is(count));
+        assertThat(mCloud.mWriteCount, is(3));
+    }
+
+    @Test
+    public void syncFailure_resumesAfterLastConfirmedBatch() {
+        // Given three batches of items, each written at its own time
+        List<Item> items = newItems(3 * ItemsCloudSync.MAX_BATCH_SIZE);
+        for (List<Item> batch : Lists.partition(items, ItemsCloudSync.MAX_BATCH_SIZE)) {
+            mLocalDataSource.saveItems(batch);
+        }
+
+        // When the connection is lost after two batches were sent
+        mCloud.mWritesBeforeFailure = 2;
+        mSync.sync(mCallback);
+        assertThat(mCallback.mError, is(notNullValue()));
+
+        // Then the next sync pushes the items of the first batch written at the time of the
+        // second, which it can't tell apart, and the rest
+        mCloud.mWritesBeforeFailure = Integer.MAX_VALUE;
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+        assertThat(callback.mError, is(nullValue()));
+        assertThat(callback.mItemsPushed, is(2 * ItemsCloudSync.MAX_BATCH_SIZE));
+    }
+
+    @Test
+    public void sync_appliesOnlyCloudChangesSinceLastPull() {
+        // Given synced items
+        mLocalDataSource.saveItems(newItems(3));
+        mSync.sync(mCallback);
+
+        // When another device changes one item, deletes another and adds a third
+        mCloud.putFromOtherDevice(new Item("remote title", "", "", "", "", "id0"));
+        mCloud.deleteFromOtherDevice("id1");
+        mCloud.putFromOtherDevice(new Item("new", "", "", "", "", "remote"));
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then these changes are applied locally
+        assertThat(callback.mItemsPulled, is(3));
+        assertThat(mDatabase.itemDao().getItemById("id0").getTitle(), is("remote title"));
+        assertThat(mDatabase.itemDao().getItemById("id1"), is(nullValue()));
+        assertThat(mDatabase.itemDao().getItemById("remote").getTitle(), is("new"));
+    }
+
+    @Test
+    public void sync_doesNotWritePushedItemsBackLocally() {
+        // Given a synced item
+        mLocalDataSource.saveItem(new Item("title", "", "", "", "", "id"));
+        mSync.sync(mCallback);
+        long version = mDatabase.itemDao().getItemById("id").getVersion();
+
+        // When synced again
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then the item pulled back isn't written again, and nothing is left to push
+        assertThat(callback.mItemsPushed, is(0));
+        assertThat(callback.mItemsPulled, is(0));
+        assertThat(mDatabase.itemDao().getItemById("id").getVersion(), is(version));
+    }
+
+    @Test
+    public void sync_doesNotPushPulledChangesBack() {
+        // Given items written by another device, version 3 of one of them
+        mCloud.putFromOtherDevice(new Item("remote", "", "", "", "", "id0").withWrite(10, 3));
+        mCloud.putFromOtherDevice(new Item("remote", "", "", "", "", "id1"));
+
+        // When pulled, then synced again
+        mSync.sync(mCallback);
+        int writtenBefore = mCloud.mItemsWritten;
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then they keep the cloud's stamps, and are neither queued nor pushed back
+        assertThat(mCallback.mItemsPulled, is(2));
+        Item pulled = mDatabase.itemDao().getItemById("id0");
+        assertThat(pulled.getUpdatedAt(), is(1L));
+        assertThat(pulled.getVersion(), is(3L));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+        verifyZeroInteractions(mOutboxWriter);
+        assertThat(callback.mItemsPushed, is(0));
+        assertThat(mCloud.mItemsWritten, is(writtenBefore));
+    }
+
+    @Test
+    public void sync_recordsWatermarks() {
+        mLocalDataSource.saveItem(new Item("title", "", "", "", "", "id"));
+
+        assertTrue(mSync.sync(mCallback));
+
+        SyncWatermarks watermarks =
+                mDatabase.syncWatermarksDao().getWatermarks(ItemsCloudSync.SYNC_ID);
+        assertThat(watermarks.getPushedUpTo(),
+                is(mDatabase.itemDao().getItemById("id").getUpdatedAt()));
+        assertThat(watermarks.getPulledUpTo(), is(1L));
+    }
+
+    @Test
+    public void start_observesCloudWithOneSubscription() {
+        // When started twice
+        mSync.start();
+        mSync.start();
+
+        // Then the cloud is observed once, until stopped
+        assertThat(mCloud.getObserverCount(), is(1));
+        mSync.stop();
+        assertThat(mCloud.getObserverCount(), is(0));
+    }
+
+    @Test
+    public void observedChanges_areAppliedLocally() {
+        // Given synced items, and the changes of other devices observed
+        mLocalDataSource.saveItems(newItems(2));
+        mSync.sync(mCallback);
+        mSync.start();
+
+        // When another device changes one item, deletes the other and adds a third
+        mCloud.putFromOtherDevice(new Item("remote title", "", "", "", "", "id0"));
+        mCloud.deleteFromOtherDevice("id1");
+        mCloud.putFromOtherDevice(new Item("new", "", "", "", "", "remote"));
+        mSync.applyObservedChanges();
+
+        // Then these changes are applied, and the next sync doesn't pull them again
+        assertThat(mDatabase.itemDao().getItemById("id0").getTitle(), is("remote title"));
+        assertThat(mDatabase.itemDao().getItemById("id1"), is(nullValue()));
+        assertThat(mDatabase.itemDao().getItemById("remote").getTitle(), is("new"));
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+        assertThat(callback.mItemsPulled, is(0));
+    }
+
+    @Test
+    public void observedChanges_areAppliedOnceTheyFillABatch() {
+        // Given the changes of other devices observed
+        mSync.start();
+
+        // When another device writes a full batch of items
+        List<Item> items = newItems(ItemsCloudSync.MAX_BATCH_SIZE);
+        for (Item item : items) {
+            mCloud.putFromOtherDevice(item);
+        }
+
+        // Then they are applied without waiting, and not queued for the backend
+        assertThat(mDatabase.itemDao().getItems().size(), is(items.size()));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+        verifyZeroInteractions(mOutboxWriter);
+    }
+
+    @Test
+    public void observedChanges_keepLocalChangesNotPushedYet() {
+        // Given a synced item changed locally since, and the cloud observed
+        mLocalDataSource.saveItem(new Item("title", "", "", "", "", "id"));
+        mSync.sync(mCallback);
+        mLocalDataSource.saveItem(new Item("local title", "", "", "", "", "id"));
+        mSync.start();
+
+        // When another device changes it too
+        mCloud.putFromOtherDevice(new Item("remote title", "", "", "", "", "id"));
+        mSync.applyObservedChanges();
+
+        // Then the local change is kept, to be pushed by the next sync
+        assertThat(mDatabase.itemDao().getItemById("id").getTitle(), is("local title"));
+    }
+
+    @Test
+    public void observedChanges_keepLocalDeletesNotPushedYet() {
+        // Given a synced item deleted locally since, and the cloud observed
+        mLocalDataSource.saveItem(new Item("title", "", "", "", "", "id"));
+        mSync.sync(mCallback);
+        mLocalDataSource.deleteItem("id");
+        mSync.start();
+
+        // When another device changes it
+        mCloud.putFromOtherDevice(new Item("remote title", "", "", "", "", "id"));
+        mSync.applyObservedChanges();
+
+        // Then the item stays deleted, and the next sync pushes the delete
+        assertThat(mDatabase.itemDao().getItemById("id"), is(nullValue()));
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+        assertThat(callback.mItemsPushed, is(1));
+        assertFalse(mCloud.contains("id"));
+    }
+
+    @Test
+    public void sync_reconcilesChangesMissedByPull() {
+        // Given many synced items
+        int count = 2000;
+        List<Item> items = newItemsWithRandomIds(count);
+        mLocalDataSource.saveItems(items);
+        mSync.sync(mCallback);
+
+        // When another device changes one with a stamp earlier than the last pull, and synced
+        Item changed = items.get(0);
+        mCloud.putWithStaleStamp(new Item("remote title", "", "", "", "", changed.getId()));
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then the change is applied, and only the items of its bucket are read
+        assertThat(callback.mItemsPulled, is(1));
+        assertThat(mDatabase.itemDao().getItemById(changed.getId()).getTitle(),
+                is("remote title"));
+        assertTrue("Read " + mCloud.mBucketItemsRead + " items",
+                mCloud.mBucketItemsRead < count / 100);
+    }
+
+    @Test
+    public void sync_pushesItemsTheCloudLost() {
+        // Given synced items, one of which the cloud lost
+        List<Item> items = newItemsWithRandomIds(10);
+        mLocalDataSource.saveItems(items);
+        mSync.sync(mCallback);
+        mCloud.lose(items.get(0).getId());
+
+        // When synced again
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then the item is pushed again
+        assertThat(callback.mItemsPushed, is(1));
+        assertTrue(mCloud.contains(items.get(0).getId()));
+    }
+
+    @Test
+    public void syncOfItemsWithoutCloudHashes_repairsThemOnce() {
+        // Given items written to the cloud by a client from before it kept their hashes, and
+        // synced once
+        for (Item item : newItemsWithRandomIds(200)) {
+            mCloud.putWithoutHash(item);
+        }
+        mSync.sync(mCallback);
+
+        // When synced again
+        mCloud.mBucketItemsRead = 0;
+        RecordingCallback callback = new RecordingCallback();
+        mSync.sync(callback);
+
+        // Then the first sync repaired the cloud hashes, so no leaf is read again
+        assertThat(mCloud.mHashRepairs, is(1));
+        assertThat(mCloud.mBucketItemsRead, is(0));
+        assertThat(callback.mItemsPulled, is(0));
+    }
+
+    @Test
+    public void sync_appliesLargePullInShortMainThreadTasks() {
+        // Given many items written by another device, and executors queuing the disk writes and
+        // the main thread tasks like the real ones would
+        int count = 10 * ItemsCloudSync.MAX_BATCH_SIZE;
+        for (Item item : newItems(count)) {
+            mCloud.putFromOtherDevice(item);
+        }
+        TimedLooper looper = new TimedLooper();
+        SingleExecutors executors = new SingleExecutors(looper.mDiskWrite, looper.mMainThread);
+        ItemsLocalDataSource.clearInstance();
+        ItemsLocalDataSource localDataSource = ItemsLocalDataSource.getInstance(executors,
+                mDatabase);
+        ItemsRepository.destroyInstance();
+        ItemsCloudSync sync = new ItemsCloudSync(executors, mDatabase, mCloud,
+                newRepository(executors, localDataSource), mock(ScheduledExecutorService.class));
+
+        // When synced
+        sync.sync(mCallback);
+        looper.runAll();
+
+        // Then the items are applied in chunks, none of which holds the main thread for more
+        // than a frame
+        assertThat(mCallback.mItemsPulled, is(count));
+        assertThat(mDatabase.itemDao().getItems().size(), is(count));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+        assertTrue(looper.mMainThreadTaskCount > count / ItemsCloudSync.MAX_BATCH_SIZE);
+        assertTrue("Longest main thread task took " + looper.getLongestMainThreadTaskMillis()
+                        + " ms",
+                looper.getLongestMainThreadTaskMillis() <= MAIN_THREAD_BUDGET_MILLIS);
+    }
+
+    private ItemsRepository newRepository(@NonNull SingleExecutors executors,
+                                          @NonNull ItemsLocalDataSource localDataSource) {
+        ItemsLocalOutbox outbox = new ItemsLocalOutbox(executors, mDatabase, mOutboxWriter,
+                mock(ScheduledExecutorService.class));
+        return ItemsRepository.getInstance(mock(ItemsDataSource.class), localDataSource, outbox);
+    }
+
+    private static List<Item> newItems(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new Item("title " + i, "", String.valueOf(i), "", "", "id" + i));
+        }
+        return items;
+    }
+
+    private static List<Item> newItemsWithRandomIds(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new Item("title " + i, "", String.valueOf(i), "", ""));
+        }
+        return items;
+    }
+
+    /**
+     * Queues the disk writes and the main thread tasks in the order they are submitted, and times
+     * the main thread tasks.
+     */
+    private static final class TimedLooper {
+
+        final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        int mMainThreadTaskCount = 0;
+
+        long mLongestMainThreadTaskNanos = 0;
+
+        final Executor mDiskWrite = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mTasks.add(command);
+            }
+        };
+
+        final Executor mMainThread = new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                mTasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        long startedAt = System.nanoTime();
+                        command.run();
+                        mMainThreadTaskCount++;
+                        mLongestMainThreadTaskNanos = Math.max(mLongestMainThreadTaskNanos,
+                                System.nanoTime() - startedAt);
+                    }
+                });
+            }
+        };
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        long getLongestMainThreadTaskMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mLongestMainThreadTaskNanos);
+        }
+    }
+
+    private static final class RecordingCallback implements ItemsCloudSync.SyncCallback {
+
+        int mItemsPushed = -1;
+
+        int mItemsPulled = -1;
+
+        Exception mError;
+
+        @Override
+        public void onSyncFinished(int itemsPushed, int itemsPulled) {
+            mItemsPushed = itemsPushed;
+            mItemsPulled = itemsPulled;
+        }
+
+        @Override
+        public void onSyncFailed(@NonNull Exception error) {
+            mError = error;
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.keeping.itemstrack.data.source.local;
 
 import android.arch.persistence.room.Room;
+import android.database.Cursor;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.google.common.collect.Lists;
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 
 import org.junit.After;
 import org.junit.Before;
@@ -64,6 +67,20 @@ public class ItemsDaoTest {
         assertTask(loaded, "id", "title2", "description2");
     }
 
+    @Test
+    public void getItemHashes_returnsTheStoredHashes() {
+        // When inserting a task
+        mDatabase.itemDao().insertItem(TASK);
+
+        // When getting the hashes from the database
+        List<ItemHash> hashes = mDatabase.itemDao().getItemHashes();
+
+        // There is the hash of the task
+        assertThat(hashes.size(), is(1));
+        assertThat(hashes.get(0).getItemId(), is(TASK.getId()));
+        assertThat(hashes.get(0).getContentHash(), is(TASK.getContentHash()));
+    }
+
     @Test
     public void insertTaskAndGetTasks() {
         // When inserting a task
@@ -124,6 +141,142 @@ public class ItemsDaoTest {
     }
 
 
+    @Test
+    public void getItemsPages_keysetPaginationReturnsItemsInIdOrder() {
+        // Given three items inserted out of id order
+        mDatabase.itemDao().insertItem(new Item("title", "", "", "", "", "b"));
+        mDatabase.itemDao().insertItem(new Item("title", "", "", "", "", "c"));
+        mDatabase.itemDao().insertItem(new Item("title", "", "", "", "", "a"));
+
+        // When getting the first page of two items
+        List<Item> firstPage = mDatabase.itemDao().getItemsPage(2);
+
+        // Then the two lowest ids are returned in order
+        assertThat(firstPage.size(), is(2));
+        assertThat(firstPage.get(0).getId(), is("a"));
+        assertThat(firstPage.get(1).getId(), is("b"));
+
+        // When getting the page following the last id
+        List<Item> secondPage = mDatabase.itemDao().getItemsPageAfter("b", 2);
+
+        // Then only the remaining item is returned
+        assertThat(secondPage.size(), is(1));
+        assertThat(secondPage.get(0).getId(), is("c"));
+    }
+
+    @Test
+    public void getItemsChangedAfter_pagesThroughItemsWrittenTogether() {
+        // Given two items written in one transaction and one written later
+        mDatabase.itemDao().insertItems(Lists.newArrayList(
+                new Item("title", "", "", "", "", "b").withWrite(100, 1),
+                new Item("title", "", "", "", "", "a").withWrite(100, 1)));
+        mDatabase.itemDao().insertItem(new Item("title", "", "", "", "", "c").withWrite(200, 1));
+
+        // When getting the first page of one item
+        List<Item> firstPage = mDatabase.itemDao().getItemsChangedAfter(0, "", 1);
+
+        // Then the first write is returned in id order
+        assertThat(firstPage.size(), is(1));
+        assertThat(firstPage.get(0).getId(), is("a"));
+
+        // When getting the page following the last item
+        List<Item> secondPage = mDatabase.itemDao().getItemsChangedAfter(100, "a", 2);
+
+        // Then the other item of the same write and the later write are returned
+        assertThat(secondPage.size(), is(2));
+        assertThat(secondPage.get(0).getId(), is("b"));
+        assertThat(secondPage.get(1).getId(), is("c"));
+        assertThat(mDatabase.itemDao().getLastUpdatedAt(), is(200L));
+    }
+
+    @Test
+    public void getItemRowsBetween_readsThePageBounds() {
+        // Given items on both sides of a page
+        for (String id : new String[]{"a", "b", "c", "d"}) {
+            mDatabase.itemDao().insertItem(new Item("title", "", "", "", "", id));
+        }
+
+        // When reading the rows after "a" up to "c"
+        List<ItemListRow> rows = mDatabase.itemDao().getItemRowsBetween("a", "c");
+
+        // Then only the rows between are returned, the last one included
+        assertThat(rows.size(), is(2));
+        assertThat(rows.get(0).getId(), is("b"));
+        assertThat(rows.get(1).getId(), is("c"));
+    }
+
+    @Test
+    public void getItemRowsPages_projectListColumnsInIdOrder() {
+        // Given an item with a title and one without but with a long description
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            description.append('d');
+        }
+        mDatabase.itemDao().insertItem(new Item("title", "description", "12", "", "path", "b"));
+        mDatabase.itemDao().insertItem(new Item("", description.toString(), "", "", "", "a"));
+
+        // When getting the rows a page at a time
+        List<ItemListRow> firstPage = mDatabase.itemDao().getItemRowsPage(1);
+        List<ItemListRow> secondPage = mDatabase.itemDao().getItemRowsPageAfter("a", 1);
+
+        // Then the item without title shows the start of its description
+        assertThat(firstPage.size(), is(1));
+        assertThat(firstPage.get(0).getId(), is("a"));
+        assertThat(firstPage.get(0).getTitleForList().length(),
+                is(ItemListRow.MAX_TITLE_LENGTH));
+        // And the other one its title, as the row made from the whole item
+        assertThat(secondPage.size(), is(1));
+        assertThat(secondPage.get(0), is(ItemListRow.fromItem(
+                mDatabase.itemDao().getItemById("b"))));
+    }
+
+    @Test
+    public void getItemsInCostRange_returnsMatchingItemsCheapestFirst() {
+        // Given items with numeric and free-form costs
+        mDatabase.itemDao().insertItem(new Item("title", "", "$12.50", "", "", "a"));
+        mDatabase.itemDao().insertItem(new Item("title", "", "3", "", "", "b"));
+        mDatabase.itemDao().insertItem(new Item("title", "", "99,99", "", "", "c"));
+        mDatabase.itemDao().insertItem(new Item("title", "", "free", "", "", "d"));
+
+        // When getting the items between 1 and 20
+        List<Item> items = mDatabase.itemDao().getItemsInCostRange(100, 2000);
+
+        // Then the items in range are returned in cost order, with their cost in minor units
+        assertThat(items.size(), is(2));
+        assertThat(items.get(0).getId(), is("b"));
+        assertThat(items.get(0).getCostMinor(), is(300L));
+        assertThat(items.get(1).getId(), is("a"));
+        assertThat(items.get(1).getCostMinor(), is(1250L));
+    }
+
+    @Test
+    public void costQueries_areServedFromTheCostIndex() {
+        // When asking SQLite how it runs the cost queries
+        String rangePlan = explainQueryPlan("SELECT * FROM items "
+                + "WHERE costMinor BETWEEN 100 AND 2000 ORDER BY costMinor");
+        String orderPlan = explainQueryPlan("SELECT * FROM items ORDER BY costMinor");
+
+        // Then both use the index, without a temporary b-tree to sort
+        assertThat(rangePlan.contains("index_items_costMinor"), is(true));
+        assertThat(rangePlan.contains("TEMP B-TREE"), is(false));
+        assertThat(orderPlan.contains("index_items_costMinor"), is(true));
+        assertThat(orderPlan.contains("TEMP B-TREE"), is(false));
+    }
+
+    private String explainQueryPlan(String query) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDatabase.query("EXPLAIN QUERY PLAN " + query, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
     private void assertTask(Item task, String id, String title,
                             String description) {
         assertThat(task, notNullValue());
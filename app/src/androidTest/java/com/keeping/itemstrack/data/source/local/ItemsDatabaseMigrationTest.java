@@ -0,0 +1,269 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
+import android.arch.persistence.room.Room;
+import android.arch.persistence.room.testing.MigrationTestHelper;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.LocationSummary;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Opens databases written by older versions of the app. The whole chain is checked from the first
+ * version, created from its exported schema. The other tests start from later versions, created
+ * with the statements Room used for them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemsDatabaseMigrationTest {
+
+    private static final String TEST_DB = "migration-test.db";
+
+    private static final String HELPER_TEST_DB = "migration-helper-test.db";
+
+    @Rule
+    public MigrationTestHelper mMigrationTestHelper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            ItemsDatabase.class.getCanonicalName(),
+            new FrameworkSQLiteOpenHelperFactory());
+
+    private Context mContext;
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void deleteDb() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB);
+    }
+
+    @After
+    public void closeDb() {
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+        mContext.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void migrate1ToLatest_matchesTheExportedSchema() throws IOException {
+        // Given a version 1 database, as created by Room, with an item
+        SupportSQLiteDatabase db = mMigrationTestHelper.createDatabase(HELPER_TEST_DB, 1);
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `cost`) VALUES ('a', 'A', '$12.50')");
+        db.close();
+
+        // When running every migration up to the current version. The search index isn't an
+        // entity, so tables missing from the schema are allowed.
+        db = mMigrationTestHelper.runMigrationsAndValidate(HELPER_TEST_DB, 11, false,
+                ItemsDatabase.MIGRATIONS);
+
+        // Then the tables match the exported schema and the item was carried over
+        Cursor cursor = db.query("SELECT `costMinor`, `version`, `contentHash` FROM `items` "
+                + "WHERE `entryid` = 'a'");
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertThat(cursor.getLong(0), is(1250L));
+            assertThat(cursor.getLong(1), is(1L));
+            assertThat(cursor.getLong(2),
+                    is(new Item("A", null, "$12.50", null, null, "a").getContentHash()));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void migrate2To3_backfillsCostInMinorUnits() {
+        // Given a version 2 database with items
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE IF NOT EXISTS `items` (`entryid` TEXT NOT NULL, `title` TEXT, "
+                + "`description` TEXT, `cost` TEXT, `location` TEXT, `imagePath` TEXT, "
+                + "PRIMARY KEY(`entryid`))");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`itemid` TEXT NOT NULL, "
+                + "`operation` INTEGER NOT NULL, `sequence` INTEGER NOT NULL, "
+                + "`attempts` INTEGER NOT NULL, `nextAttemptAt` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`itemid`))");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `cost`) VALUES ('a', 'A', '$12.50')");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `cost`) VALUES ('b', 'B', 'free')");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `cost`) VALUES ('c', 'C', '3')");
+        db.setVersion(2);
+        db.close();
+
+        // When opening it with the current version
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, TEST_DB)
+                .addMigrations(ItemsDatabase.MIGRATION_1_2, ItemsDatabase.MIGRATION_2_3,
+                        ItemsDatabase.MIGRATION_3_4, ItemsDatabase.MIGRATION_4_5,
+                        ItemsDatabase.MIGRATION_5_6, ItemsDatabase.MIGRATION_6_7,
+                        ItemsDatabase.MIGRATION_7_8, ItemsDatabase.MIGRATION_8_9,
+                        ItemsDatabase.MIGRATION_9_10, ItemsDatabase.MIGRATION_10_11)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+
+        // Then the numeric costs are filled in and can be queried by range
+        assertThat(mDatabase.itemDao().getItemById("a").getCostMinor(), is(1250L));
+        assertThat(mDatabase.itemDao().getItemById("b").getCostMinor(), is(nullValue()));
+        List<Item> items = mDatabase.itemDao().getItemsInCostRange(0, 10000);
+        assertThat(items.size(), is(2));
+        assertThat(items.get(0).getId(), is("c"));
+        assertThat(items.get(1).getId(), is("a"));
+    }
+
+    @Test
+    public void migrate3To4_indexesExistingItems() {
+        // Given a version 3 database with an item
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        createVersion3Tables(db);
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `location`) "
+                + "VALUES ('a', 'Desk lamp', 'office')");
+        db.setVersion(3);
+        db.close();
+
+        // When opening it with the current version
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, TEST_DB)
+                .addMigrations(ItemsDatabase.MIGRATION_3_4, ItemsDatabase.MIGRATION_4_5,
+                        ItemsDatabase.MIGRATION_5_6, ItemsDatabase.MIGRATION_6_7,
+                        ItemsDatabase.MIGRATION_7_8, ItemsDatabase.MIGRATION_8_9,
+                        ItemsDatabase.MIGRATION_9_10, ItemsDatabase.MIGRATION_10_11)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+
+        // Then the existing item can be found, and new items are indexed as they are written
+        assertThat(ItemsSearchIndex.search(mDatabase, "lamp", 10).size(), is(1));
+        mDatabase.itemDao().insertItem(new Item("Floor lamp", "", "", "", "", "b"));
+        assertThat(ItemsSearchIndex.search(mDatabase, "lamp", 10).size(), is(2));
+    }
+
+    @Test
+    public void migrate4To5_summarizesExistingItems() {
+        // Given a version 4 database with items, without the search index that is left out here
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        createVersion3Tables(db);
+        db.execSQL("INSERT INTO `items` (`entryid`, `location`, `cost`, `costMinor`) "
+                + "VALUES ('a', 'office', '10', 1000)");
+        db.execSQL("INSERT INTO `items` (`entryid`, `location`, `cost`, `costMinor`) "
+                + "VALUES ('b', 'office', '2', 200)");
+        db.execSQL("INSERT INTO `items` (`entryid`, `cost`) VALUES ('c', 'free')");
+        db.setVersion(4);
+        db.close();
+
+        // When opening it with the current version
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, TEST_DB)
+                .addMigrations(ItemsDatabase.MIGRATION_4_5, ItemsDatabase.MIGRATION_5_6,
+                        ItemsDatabase.MIGRATION_6_7, ItemsDatabase.MIGRATION_7_8,
+                        ItemsDatabase.MIGRATION_8_9,
+                        ItemsDatabase.MIGRATION_9_10, ItemsDatabase.MIGRATION_10_11)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+
+        // Then the existing items are summed up, and new items are added as they are written
+        LocationSummaryDao summaryDao = mDatabase.locationSummaryDao();
+        assertThat(summaryDao.getLocationSummary(""), is(new LocationSummary("", 1, 0)));
+        assertThat(summaryDao.getLocationSummary("office"),
+                is(new LocationSummary("office", 2, 1200)));
+        mDatabase.itemDao().insertItem(new Item("", "", "1", "office", "", "d"));
+        assertThat(summaryDao.getLocationSummary("office"),
+                is(new LocationSummary("office", 3, 1300)));
+    }
+
+    @Test
+    public void migrate6To7_stampsExistingItems() {
+        // Given a version 6 database with an item, without the search index and summary triggers
+        // that are left out here
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        createVersion3Tables(db);
+        db.execSQL("CREATE TABLE IF NOT EXISTS `location_summaries` "
+                + "(`location` TEXT NOT NULL, `itemCount` INTEGER NOT NULL, "
+                + "`totalCostMinor` INTEGER NOT NULL, PRIMARY KEY(`location`))");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `import_checkpoints` "
+                + "(`importId` TEXT NOT NULL, `committedRecords` INTEGER NOT NULL, "
+                + "`updatedAt` INTEGER NOT NULL, PRIMARY KEY(`importId`))");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`) VALUES ('a', 'A')");
+        db.setVersion(6);
+        db.close();
+
+        // When opening it with the current version
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, TEST_DB)
+                .addMigrations(ItemsDatabase.MIGRATION_6_7, ItemsDatabase.MIGRATION_7_8,
+                        ItemsDatabase.MIGRATION_8_9,
+                        ItemsDatabase.MIGRATION_9_10, ItemsDatabase.MIGRATION_10_11)
+                .build();
+
+        // Then the existing item counts as written once, by the migration, on this device
+        Item item = mDatabase.itemDao().getItemById("a");
+        assertThat(item.getVersion(), is(1L));
+        assertFalse(item.isSynced());
+        assertThat(mDatabase.itemDao().getItemsChangedSince(0).size(), is(1));
+        assertThat(mDatabase.itemDao().getItemsChangedSince(item.getUpdatedAt()).size(), is(0));
+    }
+
+    @Test
+    public void migrate10To11_hashesExistingItems() {
+        // Given a version 6 database with items, without the search index and summary triggers
+        // that are left out here
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB, Context.MODE_PRIVATE, null);
+        createVersion3Tables(db);
+        db.execSQL("CREATE TABLE IF NOT EXISTS `location_summaries` "
+                + "(`location` TEXT NOT NULL, `itemCount` INTEGER NOT NULL, "
+                + "`totalCostMinor` INTEGER NOT NULL, PRIMARY KEY(`location`))");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `import_checkpoints` "
+                + "(`importId` TEXT NOT NULL, `committedRecords` INTEGER NOT NULL, "
+                + "`updatedAt` INTEGER NOT NULL, PRIMARY KEY(`importId`))");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`) VALUES ('ab', 'A')");
+        db.execSQL("INSERT INTO `items` (`entryid`, `title`, `cost`) VALUES ('ac', 'C', '3')");
+        db.setVersion(6);
+        db.close();
+
+        // When opening it with the current version
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, TEST_DB)
+                .addMigrations(ItemsDatabase.MIGRATION_6_7, ItemsDatabase.MIGRATION_7_8,
+                        ItemsDatabase.MIGRATION_8_9,
+                        ItemsDatabase.MIGRATION_9_10, ItemsDatabase.MIGRATION_10_11)
+                .build();
+
+        // Then the existing items are hashed as new items are, and their buckets summed up
+        Item item = mDatabase.itemDao().getItemById("ab");
+        assertThat(item.getContentHash(),
+                is(new Item("A", null, null, null, null, "ab").getContentHash()));
+        List<ItemBucket> buckets = mDatabase.itemBucketDao().getBuckets(1, 0,
+                Collections.singletonList(""));
+        assertThat(buckets.size(), is(1));
+        assertThat(buckets.get(0).getPrefix(), is("a"));
+        assertThat(buckets.get(0).getItemCount(), is(2));
+        assertThat(buckets.get(0).getHash(),
+                is(ItemBuckets.bucketHash(item.getContentHash()) + ItemBuckets.bucketHash(
+                        mDatabase.itemDao().getItemById("ac").getContentHash())));
+    }
+
+    private static void createVersion3Tables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS `items` (`entryid` TEXT NOT NULL, `title` TEXT, "
+                + "`description` TEXT, `cost` TEXT, `location` TEXT, `imagePath` TEXT, "
+                + "`costMinor` INTEGER, PRIMARY KEY(`entryid`))");
+        db.execSQL("CREATE INDEX `index_items_costMinor` ON `items` (`costMinor`)");
+        db.execSQL("CREATE INDEX `index_items_title` ON `items` (`title`)");
+        db.execSQL("CREATE INDEX `index_items_location` ON `items` (`location`)");
+        db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`itemid` TEXT NOT NULL, "
+                + "`operation` INTEGER NOT NULL, `sequence` INTEGER NOT NULL, "
+                + "`attempts` INTEGER NOT NULL, `nextAttemptAt` INTEGER NOT NULL, "
+                + "PRIMARY KEY(`itemid`))");
+    }
+}
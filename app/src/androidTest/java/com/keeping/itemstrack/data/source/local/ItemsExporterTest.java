@@ -0,0 +1,191 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.imports.ItemFileFormat;
+import com.keeping.itemstrack.data.source.imports.ItemRecord;
+import com.keeping.itemstrack.data.source.imports.ItemRecordReader;
+import com.keeping.itemstrack.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integration test for the {@link ItemsExporter}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsExporterTest {
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsExporter mExporter;
+
+    private File mFile;
+
+    private RecordingCallback mCallback;
+
+    @Before
+    public void setup() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDatabase = Room.inMemoryDatabaseBuilder(context, ItemsDatabase.class).build();
+        mExporter = new ItemsExporter(new SingleExecutors(), mDatabase);
+        mFile = new File(context.getCacheDir(), "items-export");
+        mFile.delete();
+        mCallback = new RecordingCallback();
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void exportCsv_writesEveryItemInChunks() throws IOException {
+        // Given more than two chunks of items
+        List<Item> items = newItems(2 * ItemsExporter.CHUNK_SIZE + 1);
+        mDatabase.itemDao().insertItems(items);
+
+        // When exported
+        mExporter.exportItems(mFile, ItemFileFormat.CSV, mCallback);
+
+        // Then the file holds every item, and progress was reported per full chunk
+        assertThat(mCallback.mError, is(nullValue()));
+        assertThat(mCallback.mExported, is(items.size()));
+        assertThat(mCallback.mProgressCount, is(2));
+        assertThat(readItems(ItemFileFormat.CSV), is(items));
+    }
+
+    @Test
+    public void exportJson_isReadBack() throws IOException {
+        // Given items with empty and missing fields
+        List<Item> items = new ArrayList<>();
+        items.add(new Item("Lamp", null, "12.50", "Shed", "", "1"));
+        items.add(new Item("", "Quoted \"description\"\non two lines", null, null, "", "2"));
+        mDatabase.itemDao().insertItems(items);
+
+        // When exported
+        mExporter.exportItems(mFile, ItemFileFormat.JSON, mCallback);
+
+        // Then the file reads back as the same items
+        assertThat(readItems(ItemFileFormat.JSON), is(items));
+    }
+
+    @Test
+    public void exportEmptyTable_writesEmptyFile() throws IOException {
+        mExporter.exportItems(mFile, ItemFileFormat.JSON, mCallback);
+
+        assertThat(mCallback.mExported, is(0));
+        assertThat(readItems(ItemFileFormat.JSON).size(), is(0));
+    }
+
+    @Test
+    public void cancel_stopsExportWithoutLeavingFile() {
+        // Given an export cancelled after its first chunk, started once the handle is set
+        mDatabase.itemDao().insertItems(newItems(3 * ItemsExporter.CHUNK_SIZE));
+        final List<Runnable> diskReads = new ArrayList<>();
+        Executor deferred = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                diskReads.add(command);
+            }
+        };
+        ItemsExporter exporter = new ItemsExporter(new SingleExecutors(deferred), mDatabase);
+        mCallback.mCancelOnProgress = true;
+        mCallback.mExport = exporter.exportItems(mFile, ItemFileFormat.CSV, mCallback);
+
+        // When exported
+        diskReads.get(0).run();
+
+        // Then the export stops and neither the file nor the partial file exist
+        assertTrue(mCallback.mCancelled);
+        assertThat(mCallback.mProgressCount, is(1));
+        assertFalse(mFile.exists());
+        assertFalse(new File(mFile.getPath() + ".part").exists());
+    }
+
+    private static List<Item> newItems(int count) {
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new Item("title " + i, "description, " + i, String.valueOf(i), "location",
+                    "", String.format("id%05d", i)));
+        }
+        return items;
+    }
+
+    private List<Item> readItems(ItemFileFormat format) throws IOException {
+        List<Item> items = new ArrayList<>();
+        ItemRecordReader reader =
+                format.newReader(new InputStreamReader(new FileInputStream(mFile), "UTF-8"));
+        try {
+            ItemRecord record;
+            while ((record = reader.next()) != null) {
+                items.add(record.toItem("missing"));
+            }
+        } finally {
+            reader.close();
+        }
+        return items;
+    }
+
+    private static final class RecordingCallback implements ItemsExporter.ExportCallback {
+
+        boolean mCancelOnProgress;
+
+        ItemsExporter.Export mExport;
+
+        int mProgressCount;
+
+        int mExported = -1;
+
+        boolean mCancelled;
+
+        Exception mError;
+
+        @Override
+        public void onProgress(int itemsExported, int itemCount) {
+            mProgressCount++;
+            if (mCancelOnProgress) {
+                mExport.cancel();
+            }
+        }
+
+        @Override
+        public void onExportFinished(@NonNull File file, int itemsExported) {
+            mExported = itemsExported;
+        }
+
+        @Override
+        public void onExportCancelled() {
+            mCancelled = true;
+        }
+
+        @Override
+        public void onExportFailed(@NonNull Exception error) {
+            mError = error;
+        }
+    }
+}
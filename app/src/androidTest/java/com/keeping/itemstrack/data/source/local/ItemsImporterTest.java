@@ -0,0 +1,224 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemsOutbox;
+import com.keeping.itemstrack.data.source.imports.ImportProgress;
+import com.keeping.itemstrack.data.source.imports.ItemFileFormat;
+import com.keeping.itemstrack.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Integration test for the {@link ItemsImporter}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String IMPORT_ID = "content://files/items.csv";
+
+    private static final Executor INSTANT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsOutbox mOutbox;
+
+    private ItemsImporter mImporter;
+
+    private RecordingCallback mCallback;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .build();
+        mOutbox = mock(ItemsOutbox.class);
+        mImporter = new ItemsImporter(new SingleExecutors(), INSTANT, mDatabase, mOutbox);
+        mCallback = new RecordingCallback();
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void importCsv_insertsItemsInBatches() {
+        // Given a file of more than two batches
+        int recordCount = 2 * ItemsImporter.BATCH_SIZE + 1;
+        byte[] csv = newCsv(recordCount);
+
+        // When imported
+        mImporter.importItems(IMPORT_ID, new ByteArrayInputStream(csv), csv.length,
+                ItemFileFormat.CSV, mCallback);
+
+        // Then every item is written, progress is reported per batch and the checkpoint removed
+        assertThat(mCallback.mError, is(nullValue()));
+        assertThat(mCallback.mFinished.getRecordsImported(), is(recordCount));
+        assertThat(mCallback.mFinished.getBytesRead(), is((long) csv.length));
+        assertThat(mCallback.mProgressCount, is(2));
+        assertThat(mDatabase.itemDao().getItems().size(), is(recordCount));
+        assertThat(mDatabase.itemDao().getItemById("id7"),
+                is(new Item("title 7", "description 7", "7", "location", "", "id7")));
+        assertThat(mDatabase.importCheckpointDao().getCheckpoint(IMPORT_ID), is(nullValue()));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(recordCount));
+        verify(mOutbox).replay();
+    }
+
+    @Test
+    public void importJson_insertsItems() {
+        // Given a JSON array with a number, a null, a nested value and an empty object
+        byte[] json = ("[{\"id\": \"1\", \"title\": \"Lamp\", \"cost\": 12.5, "
+                + "\"location\": null, \"tags\": [\"a\"]}, {}]").getBytes(UTF_8);
+
+        // When imported
+        mImporter.importItems(IMPORT_ID, new ByteArrayInputStream(json), json.length,
+                ItemFileFormat.JSON, mCallback);
+
+        // Then the item is written and the empty object skipped
+        assertThat(mCallback.mFinished.getRecordsImported(), is(1));
+        assertThat(mCallback.mFinished.getRecordsSkipped(), is(1));
+        assertThat(mDatabase.itemDao().getItemById("1"),
+                is(new Item("Lamp", null, "12.5", null, "", "1")));
+    }
+
+    @Test
+    public void importInterrupted_resumesAfterLastCommittedBatch() {
+        // Given an import whose file fails to read near its end
+        int recordCount = 6 * ItemsImporter.BATCH_SIZE;
+        byte[] csv = newCsv(recordCount);
+        mImporter.importItems(IMPORT_ID, new FailingInputStream(csv, csv.length - 100),
+                csv.length, ItemFileFormat.CSV, mCallback);
+        assertThat(mCallback.mError, is(notNullValue()));
+        ImportCheckpoint checkpoint = mDatabase.importCheckpointDao().getCheckpoint(IMPORT_ID);
+        int committed = checkpoint.getCommittedRecords();
+        assertTrue(committed > 0 && committed < recordCount);
+        assertThat(committed % ItemsImporter.BATCH_SIZE, is(0));
+        assertThat(mDatabase.itemDao().getItems().size(), is(committed));
+        // And every committed item is queued for the backend
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(committed));
+
+        // When importing the same file again
+        RecordingCallback resumeCallback = new RecordingCallback();
+        mImporter.importItems(IMPORT_ID, new ByteArrayInputStream(csv), csv.length,
+                ItemFileFormat.CSV, resumeCallback);
+
+        // Then only the records after the checkpoint are imported
+        assertThat(resumeCallback.mFinished.getRecordsResumed(), is(committed));
+        assertThat(resumeCallback.mFinished.getRecordsImported(), is(recordCount));
+        assertThat(mDatabase.itemDao().getItems().size(), is(recordCount));
+        assertThat(mDatabase.importCheckpointDao().getCheckpoint(IMPORT_ID), is(nullValue()));
+    }
+
+    @Test
+    public void importWithoutIds_resumesWithSameIds() {
+        // Given records without ids
+        byte[] csv = "title\nLamp\nChair\n".getBytes(UTF_8);
+
+        // When imported twice under the same id
+        mImporter.importItems(IMPORT_ID, new ByteArrayInputStream(csv), csv.length,
+                ItemFileFormat.CSV, mCallback);
+        mImporter.importItems(IMPORT_ID, new ByteArrayInputStream(csv), csv.length,
+                ItemFileFormat.CSV, new RecordingCallback());
+
+        // Then the items aren't duplicated
+        assertThat(mDatabase.itemDao().getItems().size(), is(2));
+    }
+
+    private static byte[] newCsv(int recordCount) {
+        StringBuilder csv = new StringBuilder("id,title,description,cost,location\n");
+        for (int i = 0; i < recordCount; i++) {
+            csv.append("id").append(i)
+                    .append(",title ").append(i)
+                    .append(",\"description ").append(i).append("\"")
+                    .append(',').append(i)
+                    .append(",location\n");
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Reads {@code bytes} and fails once {@code failAt} of them were read.
+     */
+    private static final class FailingInputStream extends InputStream {
+
+        private final ByteArrayInputStream mInput;
+
+        private int mRemaining;
+
+        FailingInputStream(byte[] bytes, int failAt) {
+            mInput = new ByteArrayInputStream(bytes);
+            mRemaining = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining <= 0) {
+                throw new IOException("Connection lost");
+            }
+            int read = mInput.read(buffer, offset, Math.min(length, mRemaining));
+            mRemaining -= read;
+            return read;
+        }
+    }
+
+    private static final class RecordingCallback implements ItemsImporter.ImportCallback {
+
+        int mProgressCount;
+
+        ImportProgress mFinished;
+
+        Exception mError;
+
+        @Override
+        public void onProgress(@NonNull ImportProgress progress) {
+            mProgressCount++;
+        }
+
+        @Override
+        public void onImportFinished(@NonNull ImportProgress progress) {
+            mFinished = progress;
+        }
+
+        @Override
+        public void onImportFailed(@NonNull Exception error, @NonNull ImportProgress progress) {
+            mError = error;
+        }
+    }
+}
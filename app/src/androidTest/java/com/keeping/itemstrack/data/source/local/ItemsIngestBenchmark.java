@@ -0,0 +1,102 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Compares the write throughput of {@link ItemsDao#insertItem(Item)} called for every item with
+ * the {@link ItemsIngestWriter}, committing the same chunks of items in both cases so that only
+ * the cost of binding and executing the rows differs. Uses an on-disk database. Results are
+ * logged under the {@code ItemsBenchmark} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsIngestBenchmark {
+
+    private static final String TAG = "ItemsBenchmark";
+
+    private static final String DATABASE_NAME = "items-ingest-benchmark.db";
+
+    private static final int ROW_COUNT = 20000;
+
+    private static final int CHUNK_SIZE = ItemsIngestWriter.DEFAULT_CHUNK_SIZE;
+
+    private Context mContext;
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void initDb() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, DATABASE_NAME).build();
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void ingestWriter_comparedToInsertItem() {
+        final ItemsDao dao = mDatabase.itemDao();
+
+        List<Item> daoItems = newItems("dao");
+        long start = SystemClock.elapsedRealtime();
+        for (final List<Item> chunk : Lists.partition(daoItems, CHUNK_SIZE)) {
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (Item item : ItemWrites.stamp(mDatabase, chunk)) {
+                        dao.insertItem(item);
+                    }
+                }
+            });
+        }
+        long daoMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        List<Item> ingestItems = newItems("ingest");
+        start = SystemClock.elapsedRealtime();
+        new ItemsIngestWriter(mDatabase, CHUNK_SIZE).write(ingestItems);
+        long ingestMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        Log.i(TAG, "insertItem x" + ROW_COUNT + ": " + rowsPerSecond(daoMillis) + " rows/s");
+        Log.i(TAG, "ItemsIngestWriter(" + ROW_COUNT + "): " + rowsPerSecond(ingestMillis)
+                + " rows/s");
+
+        assertThat(dao.getItems().size(), is(2 * ROW_COUNT));
+    }
+
+    private static List<Item> newItems(String prefix) {
+        List<Item> items = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            items.add(new Item(prefix + " title " + i, "description " + i, String.valueOf(i),
+                    "location " + (i % 20), "", prefix + "-" + i));
+        }
+        return items;
+    }
+
+    private static long rowsPerSecond(long millis) {
+        return ROW_COUNT * 1000L / millis;
+    }
+}
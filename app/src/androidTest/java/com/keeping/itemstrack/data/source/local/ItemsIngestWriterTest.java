@@ -0,0 +1,96 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Integration test for the {@link ItemsIngestWriter}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemsIngestWriterTest {
+
+    private static final int CHUNK_SIZE = 10;
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsIngestWriter mWriter;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .build();
+        mWriter = new ItemsIngestWriter(mDatabase, CHUNK_SIZE);
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void write_insertsEveryChunk() {
+        // Given more than two chunks of items
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 2 * CHUNK_SIZE + 1; i++) {
+            items.add(new Item("title " + i, "description " + i, String.valueOf(i), "location",
+                    "", "id" + i));
+        }
+
+        // When written
+        int written = mWriter.write(items);
+
+        // Then all of them are stored
+        assertThat(written, is(items.size()));
+        assertThat(mDatabase.itemDao().getItems().size(), is(items.size()));
+        assertThat(mDatabase.itemDao().getItemById("id7"), is(items.get(7)));
+    }
+
+    @Test
+    public void write_bindsNullFields() {
+        // Given an item with missing fields
+        Item item = new Item(null, null, null, null, null, "id");
+
+        // When written
+        mWriter.write(Lists.newArrayList(item));
+
+        // Then they are read back as null
+        Item stored = mDatabase.itemDao().getItemById("id");
+        assertThat(stored, is(item));
+        assertThat(stored.getCostMinor(), is(nullValue()));
+    }
+
+    @Test
+    public void write_replacesAndStampsExistingItems() {
+        // Given a stored item
+        Item item = new Item("title", "", "1", "", "", "id");
+        mWriter.write(Lists.newArrayList(item));
+        Item first = mDatabase.itemDao().getItemById("id");
+
+        // When written again with changes
+        Item changed = new Item("new title", "", "2", "", "", "id");
+        mWriter.write(Lists.newArrayList(changed));
+
+        // Then it is replaced as its next version, written later
+        Item stored = mDatabase.itemDao().getItemById("id");
+        assertThat(stored, is(changed));
+        assertThat(stored.getVersion(), is(first.getVersion() + 1));
+        assertThat(stored.getUpdatedAt() > first.getUpdatedAt(), is(true));
+    }
+}
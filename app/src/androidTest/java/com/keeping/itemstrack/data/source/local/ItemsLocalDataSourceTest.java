@@ -1,12 +1,17 @@
 package com.keeping.itemstrack.data.source.local;
 
 import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.LargeTest;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.LocalItemsDataSource;
 import com.keeping.itemstrack.util.SingleExecutors;
 
 import org.junit.After;
@@ -14,7 +19,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertNotNull;
@@ -22,8 +32,11 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -35,6 +48,8 @@ public class ItemsLocalDataSourceTest {
 
     private final static String TITLE = "title";
 
+    private final static int OBSERVER_TIMEOUT_MILLIS = 2000;
+
     private ItemsLocalDataSource mLocalDataSource;
 
     private ItemsDatabase mDatabase;
@@ -44,12 +59,12 @@ public class ItemsLocalDataSourceTest {
         // using an in-memory database for testing, since it doesn't survive killing the process
         mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
                 ItemsDatabase.class)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
                 .build();
-        ItemsDao tasksDao = mDatabase.itemDao();
 
         // Make sure that we're not keeping a reference to the wrong instance.
         ItemsLocalDataSource.clearInstance();
-        mLocalDataSource = ItemsLocalDataSource.getInstance(new SingleExecutors(), tasksDao);
+        mLocalDataSource = ItemsLocalDataSource.getInstance(new SingleExecutors(), mDatabase);
     }
 
     @After
@@ -126,6 +141,258 @@ public class ItemsLocalDataSourceTest {
         verify(callback, never()).onItemsLoaded(anyList());
     }
 
+    @Test
+    public void saveItems_retrievesAllItems() {
+        // Given two new items saved as one batch
+        Item first = new Item(TITLE, "", "", "", "");
+        Item second = new Item(TITLE, "", "", "", "");
+        ItemsDataSource.LoadItemsCallback callback = mock(ItemsDataSource.LoadItemsCallback.class);
+
+        mLocalDataSource.saveItems(Lists.newArrayList(first, second));
+
+        // Then both items are retrieved in insertion order
+        mLocalDataSource.getItems(callback);
+        verify(callback).onItemsLoaded(Lists.newArrayList(first, second));
+    }
+
+    @Test
+    public void deleteItems_deletesOnlyGivenIds() {
+        // Given more items than fit in a single delete statement
+        List<Item> items = new ArrayList<>();
+        List<String> idsToDelete = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            Item item = new Item(TITLE, "", "", "", "");
+            items.add(item);
+            idsToDelete.add(item.getId());
+        }
+        Item kept = new Item(TITLE, "", "", "", "");
+        items.add(kept);
+        mLocalDataSource.saveItems(items);
+        ItemsDataSource.LoadItemsCallback callback = mock(ItemsDataSource.LoadItemsCallback.class);
+
+        // When all but one of them are deleted in one batch
+        mLocalDataSource.deleteItems(idsToDelete);
+
+        // Then only the kept item remains
+        mLocalDataSource.getItems(callback);
+        verify(callback).onItemsLoaded(Lists.newArrayList(kept));
+    }
+
+    @Test
+    public void replaceAllItems_appliesOnlyTheDifference() {
+        // Given two items of the backend in the persistent repository
+        Item unchanged = new Item(TITLE, "", "", "", "");
+        Item removed = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.writePulledItems(Lists.newArrayList(unchanged, removed),
+                new ArrayList<String>());
+        ItemsDataSource.LoadItemsCallback callback = mock(ItemsDataSource.LoadItemsCallback.class);
+
+        // When the content is replaced by the unchanged item and a new one
+        Item added = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.replaceAllItems(Lists.newArrayList(unchanged, added));
+
+        // Then the removed item is gone and the unchanged one kept its place
+        mLocalDataSource.getItems(callback);
+        verify(callback).onItemsLoaded(Lists.newArrayList(unchanged, added));
+    }
+
+    @Test
+    public void saveItem_stampsEveryWrite() {
+        // Given an item saved once
+        Item item = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(item);
+        Item first = mDatabase.itemDao().getItemById(item.getId());
+
+        // When saved again
+        mLocalDataSource.saveItem(new Item("edited", "", "", "", "", item.getId()));
+
+        // Then its version and time of writing increased
+        Item second = mDatabase.itemDao().getItemById(item.getId());
+        assertThat(first.getVersion(), is(1L));
+        assertThat(second.getVersion(), is(2L));
+        assertTrue(second.getUpdatedAt() > first.getUpdatedAt());
+        assertThat(mDatabase.itemDao().getItemsChangedSince(first.getUpdatedAt()),
+                is(Lists.newArrayList(second)));
+    }
+
+    @Test
+    public void replaceAllItems_stampsOnlyChangedItems() {
+        // Given two items of the backend in the persistent repository
+        Item unchanged = new Item(TITLE, "", "", "", "").withSync(100, 1);
+        Item changed = new Item(TITLE, "", "", "", "").withSync(100, 1);
+        mLocalDataSource.writePulledItems(Lists.newArrayList(unchanged, changed),
+                new ArrayList<String>());
+        long savedAt = mDatabase.itemDao().getLastUpdatedAt();
+
+        // When the content is replaced by the unchanged item and an edit of the other one
+        Item edited = new Item("edited", "", "", "", "", changed.getId());
+        mLocalDataSource.replaceAllItems(Lists.newArrayList(unchanged, edited));
+
+        // Then only the edited item counts as changed
+        List<Item> changedItems = mDatabase.itemDao().getItemsChangedSince(savedAt);
+        assertThat(changedItems, is(Lists.newArrayList(edited)));
+        assertThat(changedItems.get(0).getVersion(), is(2L));
+        assertThat(mDatabase.itemDao().getItemById(unchanged.getId()).getVersion(), is(1L));
+    }
+
+    @Test
+    public void deleteItem_leavesTombstoneAfterLastWrite() {
+        // Given a saved item
+        Item item = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(item);
+        long savedAt = mDatabase.itemDao().getItemById(item.getId()).getUpdatedAt();
+
+        // When deleted
+        mLocalDataSource.deleteItem(item.getId());
+
+        // Then a tombstone records the delete as a later change
+        List<ItemTombstone> tombstones = mDatabase.itemTombstoneDao().getTombstonesSince(savedAt);
+        assertThat(tombstones.size(), is(1));
+        assertThat(tombstones.get(0).getItemId(), is(item.getId()));
+    }
+
+    @Test
+    public void replaceAllItems_leavesOutDeletedItems() {
+        // Given an item deleted here that the backend still has
+        Item deleted = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(deleted);
+        mLocalDataSource.deleteItem(deleted.getId());
+        ItemsDataSource.LoadItemsCallback callback = mock(ItemsDataSource.LoadItemsCallback.class);
+
+        // When the content is replaced by the backend's
+        Item other = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.replaceAllItems(Lists.newArrayList(deleted, other));
+
+        // Then the deleted item doesn't come back
+        mLocalDataSource.getItems(callback);
+        verify(callback).onItemsLoaded(Lists.newArrayList(other));
+    }
+
+    @Test
+    public void replaceAllItems_keepsItemsNotSentYet() {
+        // Given an item of the backend edited here and an item saved here, both not sent yet
+        Item remote = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.writePulledItems(Lists.newArrayList(remote), new ArrayList<String>());
+        Item edited = new Item("edited", "", "", "", "", remote.getId());
+        Item savedOffline = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItems(Lists.newArrayList(edited, savedOffline));
+        ItemsDataSource.LoadItemsCallback callback = mock(ItemsDataSource.LoadItemsCallback.class);
+
+        // When the content is replaced by the backend's, which has neither change
+        mLocalDataSource.replaceAllItems(Lists.newArrayList(remote));
+
+        // Then both local changes are kept until the outbox sends them
+        mLocalDataSource.getItems(callback);
+        verify(callback).onItemsLoaded(Lists.newArrayList(edited, savedOffline));
+        assertThat(mDatabase.itemTombstoneDao().getTombstonesSince(0).size(), is(0));
+    }
+
+    @Test
+    public void saveItem_removesTombstone() {
+        // Given a deleted item
+        Item item = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(item);
+        mLocalDataSource.deleteItem(item.getId());
+
+        // When saved again
+        mLocalDataSource.saveItem(item);
+
+        // Then it is no longer deleted
+        assertThat(mDatabase.itemTombstoneDao().getTombstonesSince(0).size(), is(0));
+        assertThat(mDatabase.itemDao().getItemById(item.getId()), is(item));
+    }
+
+    @Test
+    public void observeItem_pushesChangesOfTheObservedItemOnly() {
+        // Given an item in the persistent repository that is being observed
+        Item item = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(item);
+        ItemsDataSource.GetItemCallback callback = mock(ItemsDataSource.GetItemCallback.class);
+        ItemsDataSource.Subscription subscription =
+                mLocalDataSource.observeItem(item.getId(), callback);
+        verify(callback).onItemLoaded(item);
+
+        // When the item is edited, another item is saved and the item is edited again
+        Item edited = new Item(TITLE, "edited", "", "", "", item.getId());
+        mLocalDataSource.saveItem(edited);
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemLoaded(edited);
+        mLocalDataSource.saveItem(new Item("other", "", "", "", ""));
+        Item editedAgain = new Item(TITLE, "edited again", "", "", "", item.getId());
+        mLocalDataSource.saveItem(editedAgain);
+
+        // Then every edit is pushed once and the unrelated write isn't pushed at all
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemLoaded(editedAgain);
+        verify(callback).onItemLoaded(edited);
+
+        // And nothing is pushed once unsubscribed
+        subscription.unsubscribe();
+        mLocalDataSource.deleteItem(item.getId());
+        verify(callback, never()).onDataNotAvailable();
+    }
+
+    @Test
+    public void observeItemRows_pushesChangesOfTheObservedRows() {
+        // Given two items, the first of which is observed
+        Item first = new Item(TITLE, "", "", "", "", "a");
+        Item second = new Item(TITLE, "", "", "", "", "b");
+        mLocalDataSource.saveItems(Lists.newArrayList(first, second));
+        ItemsDataSource.LoadItemRowsPageCallback callback =
+                mock(ItemsDataSource.LoadItemRowsPageCallback.class);
+        ItemsDataSource.Subscription subscription = mLocalDataSource.observeItemRows(1, callback);
+        verify(callback).onItemRowsPageLoaded(
+                Lists.newArrayList(ItemListRow.fromItem(first)), first.getId());
+
+        // When the first item is edited
+        Item edited = new Item("edited", "", "", "", "", first.getId());
+        mLocalDataSource.saveItem(edited);
+
+        // Then its new row is pushed, with the same page key
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemRowsPageLoaded(
+                Lists.newArrayList(ItemListRow.fromItem(edited)), first.getId());
+        subscription.unsubscribe();
+    }
+
+    @Test
+    public void observeItemRowsOfEmptyTable_pushesAnEmptyPage() {
+        // Given no items
+        ItemsDataSource.LoadItemRowsPageCallback callback =
+                mock(ItemsDataSource.LoadItemRowsPageCallback.class);
+
+        // When observing the rows
+        ItemsDataSource.Subscription subscription = mLocalDataSource.observeItemRows(1, callback);
+
+        // Then an empty page is pushed, not a failure
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemRowsPageLoaded(
+                new ArrayList<ItemListRow>(), null);
+        verify(callback, never()).onDataNotAvailable();
+        subscription.unsubscribe();
+    }
+
+    @Test
+    public void observeItemChanges_reportsTheWrittenIds() {
+        // Given an observer of the writes
+        LocalItemsDataSource.ItemChangesCallback callback =
+                mock(LocalItemsDataSource.ItemChangesCallback.class);
+        ItemsDataSource.Subscription subscription =
+                mLocalDataSource.observeItemChanges(callback);
+
+        // When items are saved, then one of them deleted
+        mLocalDataSource.saveItems(Lists.newArrayList(
+                new Item(TITLE, "", "", "", "", "a"), new Item(TITLE, "", "", "", "", "b")));
+        mLocalDataSource.deleteItem("a");
+
+        // Then the ids of each write are reported
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemsChanged(
+                Sets.newHashSet("a", "b"));
+        verify(callback, timeout(OBSERVER_TIMEOUT_MILLIS)).onItemsChanged(
+                Collections.singleton("a"));
+
+        // And nothing is reported once unsubscribed
+        subscription.unsubscribe();
+        mLocalDataSource.deleteAllItems();
+        verify(callback, never()).onItemsChanged(null);
+    }
+
     @Test
     public void getTasks_retrieveSavedTasks() {
         // Given 2 new tasks in the persistent repository
@@ -161,4 +428,74 @@ public class ItemsLocalDataSourceTest {
             }
         });
     }
+
+    @Test
+    public void localWrites_areQueuedForTheBackend_pulledOnesAreNot() {
+        // Given an item saved and another one deleted on this device
+        Item saved = new Item(TITLE, "", "", "", "");
+        Item deleted = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItems(Lists.newArrayList(saved, deleted));
+        mLocalDataSource.deleteItem(deleted.getId());
+
+        // When an item pulled from the backend is written
+        mLocalDataSource.writePulledItems(Lists.newArrayList(new Item(TITLE, "", "", "", "")),
+                new ArrayList<String>());
+
+        // Then only the local writes have outbox entries, the latest one for each item
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(2));
+        assertThat(mDatabase.itemDao().getItems().size(), is(2));
+    }
+
+    @Test
+    public void writePulledItems_keepsTheCloudStamps() {
+        // Given an item written on this device
+        Item local = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.saveItem(local);
+        long savedAt = mDatabase.itemDao().getLastUpdatedAt();
+
+        // When an item pulled from the backend is written, and the local one deleted there
+        Item pulled = new Item(TITLE, "", "", "", "").withSync(savedAt + 1000, 7);
+        mLocalDataSource.writePulledItems(Lists.newArrayList(pulled),
+                Lists.newArrayList(local.getId()));
+
+        // Then it keeps the backend's stamps, and neither change is read as a local one
+        Item stored = mDatabase.itemDao().getItemById(pulled.getId());
+        assertThat(stored.getUpdatedAt(), is(savedAt + 1000));
+        assertThat(stored.getVersion(), is(7L));
+        assertTrue(stored.isSynced());
+        assertThat(mDatabase.itemDao().getLastUpdatedAt(), is(savedAt));
+        assertThat(mDatabase.itemDao().getItemsChangedSince(0).size(), is(0));
+        assertThat(mDatabase.itemTombstoneDao().getTombstonesSince(0).size(), is(0));
+    }
+
+    @Test
+    public void getItemsPage_waitsForPendingRefresh() {
+        // Given a refresh queued on a disk write executor that hasn't run yet
+        final Queue<Runnable> diskWrites = new ArrayDeque<>();
+        Executor queuedDiskWrites = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                diskWrites.add(command);
+            }
+        };
+        ItemsLocalDataSource.clearInstance();
+        mLocalDataSource = ItemsLocalDataSource.getInstance(
+                new SingleExecutors(queuedDiskWrites, new SingleExecutors().mainThread()),
+                mDatabase);
+        Item item = new Item(TITLE, "", "", "", "");
+        mLocalDataSource.replaceAllItems(Lists.newArrayList(item));
+
+        // When a page is requested before the refresh is written
+        ItemsDataSource.LoadItemsPageCallback callback =
+                mock(ItemsDataSource.LoadItemsPageCallback.class);
+        mLocalDataSource.getItemsPage(10, null, callback);
+
+        // Then the page is read after the refresh, from the refreshed table
+        verify(callback, never()).onDataNotAvailable();
+        while (!diskWrites.isEmpty()) {
+            diskWrites.poll().run();
+        }
+        verify(callback).onItemsPageLoaded(eq(Lists.newArrayList(item)), isNull(String.class));
+        verify(callback, never()).onDataNotAvailable();
+    }
 }
@@ -0,0 +1,133 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.arch.persistence.room.RoomDatabase.JournalMode;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency of reading one item by id while {@link #WRITE_ROW_COUNT} rows are written
+ * in a single transaction, with and without write-ahead logging. Uses an on-disk database, since
+ * the journal is what is being compared. Results are logged under the {@code ItemsBenchmark} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsReadContentionBenchmark {
+
+    private static final String TAG = "ItemsBenchmark";
+
+    private static final String DATABASE_NAME = "items-contention-benchmark.db";
+
+    private static final int WRITE_ROW_COUNT = 10000;
+
+    private static final String READ_ITEM_ID = "read";
+
+    private Context mContext;
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void deleteDb() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void closeDb() {
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void writeAheadLogging_servesReadsDuringBulkWrite() throws InterruptedException {
+        long[] truncateMillis = readWhileWriting(JournalMode.TRUNCATE);
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        long[] walMillis = readWhileWriting(JournalMode.WRITE_AHEAD_LOGGING);
+
+        log("TRUNCATE", truncateMillis);
+        log("WRITE_AHEAD_LOGGING", walMillis);
+
+        // Without write-ahead logging the reader waits for the connection until the commit,
+        // with it reads keep completing while the write is in progress.
+        assertTrue("no read completed during the write", walMillis.length > 1);
+        assertTrue(median(walMillis) <= median(truncateMillis));
+    }
+
+    /**
+     * Returns how long each read by id took while a bulk write was running.
+     */
+    private long[] readWhileWriting(JournalMode journalMode) throws InterruptedException {
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, DATABASE_NAME)
+                .setJournalMode(journalMode)
+                .build();
+        final ItemsDao dao = mDatabase.itemDao();
+        dao.insertItem(new Item("title", "description", "1", "location", "", READ_ITEM_ID));
+
+        final List<Item> items = newItems();
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch writeFinished = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeStarted.countDown();
+                dao.insertItems(items);
+                writeFinished.countDown();
+            }
+        }).start();
+
+        writeStarted.await();
+        List<Long> latencies = new ArrayList<>();
+        do {
+            long start = System.nanoTime();
+            dao.getItemById(READ_ITEM_ID);
+            latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } while (!writeFinished.await(0, TimeUnit.MILLISECONDS));
+
+        long[] millis = new long[latencies.size()];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = latencies.get(i);
+        }
+        Arrays.sort(millis);
+        return millis;
+    }
+
+    private static List<Item> newItems() {
+        List<Item> items = new ArrayList<>(WRITE_ROW_COUNT);
+        for (int i = 0; i < WRITE_ROW_COUNT; i++) {
+            items.add(new Item("title " + i, "description " + i, String.valueOf(i), "location",
+                    "", "id" + i));
+        }
+        return items;
+    }
+
+    private static long median(long[] sortedMillis) {
+        return sortedMillis[sortedMillis.length / 2];
+    }
+
+    private static void log(String journalMode, long[] sortedMillis) {
+        Log.i(TAG, "getItemById during insertItems(" + WRITE_ROW_COUNT + "), " + journalMode
+                + ": " + sortedMillis.length + " reads, median " + median(sortedMillis)
+                + " ms, max " + sortedMillis[sortedMillis.length - 1] + " ms");
+    }
+}
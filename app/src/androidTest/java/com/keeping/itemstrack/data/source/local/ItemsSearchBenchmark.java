@@ -0,0 +1,114 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures full-text searches over a synthetic dataset of {@link #ROW_COUNT} items stored in an
+ * on-disk database. Results are logged under the {@code ItemsBenchmark} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsSearchBenchmark {
+
+    private static final String TAG = "ItemsBenchmark";
+
+    private static final String DATABASE_NAME = "items-search-benchmark.db";
+
+    private static final int ROW_COUNT = 50000;
+
+    private static final int RUNS = 20;
+
+    private static final long MAX_MEDIAN_MILLIS = 50;
+
+    private static final String[] WORDS = {"oak", "pine", "steel", "glass", "chair", "table",
+            "lamp", "shelf", "desk", "sofa", "rug", "mirror", "vase", "clock", "box", "frame",
+            "kitchen", "garage", "attic", "office", "bedroom", "hallway", "red", "blue", "green",
+            "vintage", "modern", "broken", "spare", "gift"};
+
+    private static final String[] QUERIES = {"lamp", "vintage desk", "gar", "item4242",
+            "blue glass vase"};
+
+    private Context mContext;
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void initDb() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDatabase = Room.databaseBuilder(mContext, ItemsDatabase.class, DATABASE_NAME)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+        mDatabase.itemDao().insertItems(newItems());
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void search_medianUnderFiftyMillis() {
+        for (String query : QUERIES) {
+            // Warm up the page cache and the statement cache.
+            ItemsSearchIndex.search(mDatabase, query, 50);
+
+            long[] millis = new long[RUNS];
+            int resultCount = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                resultCount = ItemsSearchIndex.search(mDatabase, query, 50).size();
+                millis[run] = (System.nanoTime() - start) / 1000000;
+            }
+            Arrays.sort(millis);
+            long median = millis[RUNS / 2];
+            Log.i(TAG, "searchItems(\"" + query + "\", 50) over " + ROW_COUNT + " items: "
+                    + resultCount + " results, median " + median + " ms, max "
+                    + millis[RUNS - 1] + " ms");
+            assertTrue("median of \"" + query + "\" was " + median + " ms",
+                    median < MAX_MEDIAN_MILLIS);
+        }
+    }
+
+    private static List<Item> newItems() {
+        Random random = new Random(42);
+        List<Item> items = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            items.add(new Item(randomWords(random, 2) + " item" + i, randomWords(random, 8),
+                    String.valueOf(random.nextInt(1000)), randomWords(random, 1), "",
+                    "id" + i));
+        }
+        return items;
+    }
+
+    private static String randomWords(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the full-text index follows the writes to the items table and ranks its matches.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ItemsSearchTest {
+
+    private ItemsDatabase mDatabase;
+
+    @Before
+    public void initDb() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void search_matchesWordPrefixesInAnyColumn() {
+        // Given items with the searched word in different columns
+        mDatabase.itemDao().insertItems(Arrays.asList(
+                new Item("Desk lamp", "", "", "office", "", "a"),
+                new Item("Chair", "goes with the desk", "", "office", "", "b"),
+                new Item("Bed", "", "", "bedroom", "", "c")));
+
+        // When searching for a prefix of the word
+        List<Item> items = ItemsSearchIndex.search(mDatabase, "DES", 10);
+
+        // Then the item with the word in its title ranks first
+        assertThat(ids(items), is(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void search_requiresEveryWord() {
+        // Given two items sharing a word
+        mDatabase.itemDao().insertItems(Arrays.asList(
+                new Item("Desk lamp", "", "", "office", "", "a"),
+                new Item("Floor lamp", "", "", "living room", "", "b")));
+
+        // When searching for the shared word and a word of one item
+        List<Item> items = ItemsSearchIndex.search(mDatabase, "lamp living", 10);
+
+        // Then only that item matches
+        assertThat(ids(items), is(Arrays.asList("b")));
+    }
+
+    @Test
+    public void search_followsReplacesUpdatesAndDeletes() {
+        // Given an item that is replaced, then updated
+        ItemsDao dao = mDatabase.itemDao();
+        dao.insertItem(new Item("Old title", "", "", "", "", "a"));
+        dao.insertItem(new Item("Replaced title", "", "", "", "", "a"));
+        dao.updateItem(new Item("Updated title", "", "", "", "", "a"));
+
+        // Then only its last title is indexed
+        assertThat(ItemsSearchIndex.search(mDatabase, "old", 10).size(), is(0));
+        assertThat(ItemsSearchIndex.search(mDatabase, "replaced", 10).size(), is(0));
+        assertThat(ids(ItemsSearchIndex.search(mDatabase, "updated", 10)),
+                is(Arrays.asList("a")));
+
+        // When it is deleted
+        dao.deleteItemById("a");
+
+        // Then it isn't found anymore
+        assertThat(ItemsSearchIndex.search(mDatabase, "title", 10).size(), is(0));
+    }
+
+    @Test
+    public void search_returnsAtMostLimitItems() {
+        // Given more matching items than the limit
+        for (int i = 0; i < 20; i++) {
+            mDatabase.itemDao().insertItem(new Item("Box " + i, "", "", "", "", "id" + i));
+        }
+
+        // When searching with a limit
+        List<Item> items = ItemsSearchIndex.search(mDatabase, "box", 5);
+
+        // Then only the limit is returned
+        assertThat(items.size(), is(5));
+    }
+
+    private static List<String> ids(List<Item> items) {
+        String[] ids = new String[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).getId();
+        }
+        return Arrays.asList(ids);
+    }
+}
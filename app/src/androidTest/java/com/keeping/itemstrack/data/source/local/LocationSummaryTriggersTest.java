@@ -0,0 +1,144 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.LocationSummary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks that the location summaries follow every kind of write to the items table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LocationSummaryTriggersTest {
+
+    private ItemsDatabase mDatabase;
+
+    private ItemsDao mItemsDao;
+
+    private LocationSummaryDao mSummaryDao;
+
+    @Before
+    public void initDb() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .addCallback(ItemsDatabase.EXTRA_SCHEMA_CALLBACK)
+                .build();
+        mItemsDao = mDatabase.itemDao();
+        mSummaryDao = mDatabase.locationSummaryDao();
+    }
+
+    @After
+    public void closeDb() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void inserts_areCountedAndSummedPerLocation() {
+        // When inserting items at two locations, one without a numeric cost
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "a"),
+                new Item("b", "", "2.50", "office", "", "b"),
+                new Item("c", "", "free", "attic", "", "c"),
+                new Item("d", "", "1", null, "", "d")));
+
+        // Then each location has its count and total, items without location are under ""
+        assertThat(mSummaryDao.getLocationSummaries(), is(Arrays.asList(
+                new LocationSummary("", 1, 100),
+                new LocationSummary("attic", 1, 0),
+                new LocationSummary("office", 2, 1250))));
+    }
+
+    @Test
+    public void replacingAnItem_movesItBetweenLocations() {
+        // Given an item in the office
+        mItemsDao.insertItem(new Item("a", "", "10", "office", "", "a"));
+
+        // When it is saved again in the attic with another cost
+        mItemsDao.insertItem(new Item("a", "", "3", "attic", "", "a"));
+
+        // Then it is only counted in the attic, and the empty office summary is gone
+        assertThat(mSummaryDao.getLocationSummaries(), is(Arrays.asList(
+                new LocationSummary("attic", 1, 300))));
+    }
+
+    @Test
+    public void updatingAnItem_adjustsItsSummary() {
+        // Given two items in the office
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "a"),
+                new Item("b", "", "5", "office", "", "b")));
+
+        // When one of them gets another cost
+        mItemsDao.updateItem(new Item("a", "", "20", "office", "", "a"));
+
+        // Then the total follows
+        assertThat(mSummaryDao.getLocationSummary("office"),
+                is(new LocationSummary("office", 2, 2500)));
+    }
+
+    @Test
+    public void deletes_areSubtracted() {
+        // Given items at two locations
+        mItemsDao.insertItems(Arrays.asList(
+                new Item("a", "", "10", "office", "", "a"),
+                new Item("b", "", "5", "office", "", "b"),
+                new Item("c", "", "1", "attic", "", "c")));
+
+        // When deleting one item, then the last item of a location
+        mItemsDao.deleteItemById("a");
+        mItemsDao.deleteItemsByIds(Arrays.asList("c"));
+
+        // Then only the remaining item is summed up
+        assertThat(mSummaryDao.getLocationSummaries(), is(Arrays.asList(
+                new LocationSummary("office", 1, 500))));
+
+        // When deleting all items
+        mItemsDao.deleteItems();
+
+        // Then there are no summaries left
+        assertThat(mSummaryDao.getLocationSummaries().size(), is(0));
+        assertThat(mSummaryDao.getLocationSummary("office"), is(nullValue()));
+    }
+
+    @Test
+    public void manyWrites_matchSummariesRebuiltFromScratch() {
+        // Given many inserts, replaces, updates and deletes
+        String[] locations = {"office", "attic", "garage", null};
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            items.add(new Item("t" + i, "", String.valueOf(i), locations[i % 4], "", "id" + i));
+        }
+        mItemsDao.insertItems(items);
+        for (int i = 0; i < 200; i += 3) {
+            mItemsDao.insertItem(new Item("t" + i, "", "1", locations[(i + 1) % 4], "", "id" + i));
+        }
+        for (int i = 1; i < 200; i += 5) {
+            mItemsDao.updateItem(new Item("t" + i, "", "7", locations[(i + 2) % 4], "", "id" + i));
+        }
+        for (int i = 2; i < 200; i += 7) {
+            mItemsDao.deleteItemById("id" + i);
+        }
+        List<LocationSummary> maintained = mSummaryDao.getLocationSummaries();
+
+        // When rebuilding the summaries from the items
+        LocationSummaryTriggers.rebuild(mDatabase.getOpenHelper().getWritableDatabase());
+
+        // Then they are the same
+        assertThat(mSummaryDao.getLocationSummaries(), is(maintained));
+    }
+}
@@ -0,0 +1,138 @@
+package com.keeping.itemstrack.data.source.remote;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares writing items one by one to a backend that charges a fixed latency per round trip,
+ * as the per-item setValue calls of the sync did, with writing them through a
+ * {@link BatchingItemsWriter}. Only the round trips are asserted, timings are logged under the
+ * {@code ItemsBenchmark} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class BatchingItemsWriterBenchmark {
+
+    private static final String TAG = "ItemsBenchmark";
+
+    private static final int ITEM_COUNT = 200;
+
+    private static final long ROUND_TRIP_MILLIS = 5;
+
+    private static final int MAX_BATCH_SIZE = 50;
+
+    private static final List<String> NO_IDS = Collections.emptyList();
+
+    private ScheduledExecutorService mScheduler;
+
+    private LatencyWriter mRemote;
+
+    @Before
+    public void setup() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mRemote = new LatencyWriter();
+    }
+
+    @After
+    public void cleanUp() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void batchedWrites_takeFewerRoundTrips() throws InterruptedException {
+        List<Item> items = new ArrayList<>(ITEM_COUNT);
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(new Item("title " + i, "description " + i, String.valueOf(i), "location",
+                    "", "id" + i));
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (Item item : items) {
+            mRemote.writeItems(Collections.singletonList(item), NO_IDS, new CountingCallback());
+        }
+        long singleMillis = SystemClock.elapsedRealtime() - start;
+        int singleRoundTrips = mRemote.mRoundTrips.getAndSet(0);
+
+        BatchingItemsWriter writer =
+                new BatchingItemsWriter(mRemote, MAX_BATCH_SIZE, 100, mScheduler);
+        final CountDownLatch written = new CountDownLatch(ITEM_COUNT);
+        start = SystemClock.elapsedRealtime();
+        for (Item item : items) {
+            writer.writeItems(Collections.singletonList(item), NO_IDS, new CountingCallback() {
+                @Override
+                public void onWriteSucceeded() {
+                    written.countDown();
+                }
+            });
+        }
+        writer.flush();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        long batchedMillis = SystemClock.elapsedRealtime() - start;
+        int batchedRoundTrips = mRemote.mRoundTrips.get();
+
+        Log.i(TAG, "one write per item x" + ITEM_COUNT + ": " + singleRoundTrips
+                + " round trips, " + singleMillis + " ms");
+        Log.i(TAG, "BatchingItemsWriter(" + MAX_BATCH_SIZE + ") x" + ITEM_COUNT + ": "
+                + batchedRoundTrips + " round trips, " + batchedMillis + " ms");
+
+        assertThat(singleRoundTrips, is(ITEM_COUNT));
+        assertThat(batchedRoundTrips, is(ITEM_COUNT / MAX_BATCH_SIZE));
+    }
+
+    /**
+     * Applies every write after {@link #ROUND_TRIP_MILLIS}, on the calling thread.
+     */
+    private static class LatencyWriter implements RemoteItemsWriter {
+
+        final AtomicInteger mRoundTrips = new AtomicInteger();
+
+        @Override
+        public void writeItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                               @NonNull WriteCallback callback) {
+            mRoundTrips.incrementAndGet();
+            try {
+                Thread.sleep(ROUND_TRIP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                callback.onWriteFailed(e);
+                return;
+            }
+            callback.onWriteSucceeded();
+        }
+    }
+
+    private static class CountingCallback implements RemoteItemsWriter.WriteCallback {
+
+        @Override
+        public void onWriteSucceeded() {
+        }
+
+        @Override
+        public void onWriteFailed(@NonNull Exception error) {
+        }
+    }
+}
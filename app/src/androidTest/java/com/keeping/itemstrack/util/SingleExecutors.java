@@ -16,6 +16,21 @@ public class SingleExecutors extends AppExecutors {
     };
 
     public SingleExecutors() {
-        super(instant, instant, instant);
+        super(instant, instant, instant, instant);
+    }
+
+    /**
+     * Runs disk reads on {@code diskRead}, for tests that need to act before a read starts.
+     */
+    public SingleExecutors(Executor diskRead) {
+        super(diskRead, instant, instant, instant);
+    }
+
+    /**
+     * Runs disk writes and main thread tasks on the given executors, for tests that look at what
+     * runs on the main thread.
+     */
+    public SingleExecutors(Executor diskWrite, Executor mainThread) {
+        super(instant, diskWrite, instant, mainThread);
     }
 }
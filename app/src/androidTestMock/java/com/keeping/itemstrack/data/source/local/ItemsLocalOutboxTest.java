@@ -0,0 +1,156 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.keeping.itemstrack.data.FakeItemsRemoteDataSource;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.util.SingleExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Integration test for {@link ItemsLocalOutbox} replaying to {@link FakeItemsRemoteDataSource}.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ItemsLocalOutboxTest {
+
+    private static final long NOW = 1000000L;
+
+    private ItemsDatabase mDatabase;
+
+    private FakeItemsRemoteDataSource mRemote;
+
+    private ItemsLocalOutbox mOutbox;
+
+    @Before
+    public void setup() {
+        mDatabase = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getContext(),
+                ItemsDatabase.class)
+                .build();
+        mRemote = FakeItemsRemoteDataSource.getInstance();
+        mRemote.deleteAllItems();
+        mRemote.resetWriteCount();
+        // Retries are driven by the test through replay(long), nothing is run by the scheduler.
+        mOutbox = new ItemsLocalOutbox(new SingleExecutors(), mDatabase, mRemote,
+                mock(ScheduledExecutorService.class));
+    }
+
+    @After
+    public void cleanUp() {
+        mDatabase.close();
+        mRemote.deleteAllItems();
+        mRemote.resetWriteCount();
+    }
+
+    @Test
+    public void editsOfTheSameItem_areSentOnceWithTheLatestVersion() {
+        // Given an item saved three times and another one deleted
+        mRemote.addTasks(new Item("old", "", "", "", "", "2"));
+        Item item = null;
+        for (int i = 0; i < 3; i++) {
+            item = new Item("title " + i, "", "", "", "", "1");
+            mDatabase.itemDao().insertItem(item);
+            enqueueSaves(Collections.singletonList("1"));
+        }
+        enqueueDeletes(Collections.singletonList("2"));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(2));
+
+        // When the outbox is replayed
+        mOutbox.replay(NOW);
+
+        // Then a single batch brings the backend up to date and the outbox is empty
+        assertThat(mRemote.getWriteCount(), is(1));
+        assertRemoteItem("1", item);
+        assertRemoteItem("2", null);
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void failedWrites_areRetriedWithBackoff() {
+        // Given a saved item and a backend that fails twice
+        Item item = new Item("title", "", "", "", "", "1");
+        mDatabase.itemDao().insertItem(item);
+        enqueueSaves(Collections.singletonList("1"));
+        mRemote.failNextWrites(2);
+
+        // When the outbox is replayed, the write fails and is kept
+        mOutbox.replay(NOW);
+        assertThat(mRemote.getWriteCount(), is(1));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(1));
+
+        // And it isn't retried before its backoff elapsed
+        mOutbox.replay(NOW + ItemsLocalOutbox.INITIAL_BACKOFF_MILLIS - 1);
+        assertThat(mRemote.getWriteCount(), is(1));
+
+        // Then the retries wait longer and longer until the write goes through
+        long secondAttemptAt = NOW + ItemsLocalOutbox.getBackoffMillis(1);
+        mOutbox.replay(secondAttemptAt);
+        assertThat(mRemote.getWriteCount(), is(2));
+        mOutbox.replay(secondAttemptAt + ItemsLocalOutbox.getBackoffMillis(2));
+        assertThat(mRemote.getWriteCount(), is(3));
+        assertRemoteItem("1", item);
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+    }
+
+    @Test
+    public void manyWrites_areSentInBatches() {
+        // Given more saved items than fit in a batch
+        List<Item> items = new ArrayList<>();
+        List<String> itemIds = new ArrayList<>();
+        for (int i = 0; i <= ItemsLocalOutbox.BATCH_SIZE; i++) {
+            items.add(new Item("title " + i, "", "", "", "", "id" + i));
+            itemIds.add("id" + i);
+        }
+        mDatabase.itemDao().insertItems(items);
+        enqueueSaves(itemIds);
+
+        // When the outbox is replayed
+        mOutbox.replay(NOW);
+
+        // Then every item is sent, in two batches
+        assertThat(mRemote.getWriteCount(), is(2));
+        assertThat(mDatabase.outboxDao().getEntryCount(), is(0));
+    }
+
+    private void enqueueSaves(final List<String> itemIds) {
+        mDatabase.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                OutboxWrites.enqueueSaves(mDatabase, itemIds);
+            }
+        });
+    }
+
+    private void enqueueDeletes(final List<String> itemIds) {
+        mDatabase.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                OutboxWrites.enqueueDeletes(mDatabase, itemIds);
+            }
+        });
+    }
+
+    private void assertRemoteItem(String itemId, Item expected) {
+        ItemsDataSource.GetItemCallback callback = mock(ItemsDataSource.GetItemCallback.class);
+        mRemote.getItem(itemId, callback);
+        verify(callback).onItemLoaded(expected);
+    }
+}
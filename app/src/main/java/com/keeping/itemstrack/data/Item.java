@@ -3,21 +3,30 @@ package com.keeping.itemstrack.data;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.Ignore;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.util.UUID;
 
 /**
  * Immutable model class for a Item.
  */
-@Entity(tableName = "items")
+@Entity(tableName = "items",
+        indices = {@Index("costMinor"), @Index("title"), @Index("location"),
+                @Index({"updatedAt", "entryid"})})
 public final class Item {
 
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
     @PrimaryKey
     @NonNull
     @ColumnInfo(name = "entryid")
@@ -44,6 +53,44 @@ public final class Item {
     @ColumnInfo(name = "imagePath")
     private final String mImagePath;
 
+    /**
+     * {@link #mCost} in minor units, or null if it isn't a number. Derived from the cost, so it
+     * isn't part of the item's identity.
+     */
+    @Nullable
+    @ColumnInfo(name = "costMinor")
+    private final Long mCostMinor;
+
+    /**
+     * When the item was last written to the database, in milliseconds. Assigned by the database
+     * on every write, strictly increasing from one write transaction to the next, so 0 for items
+     * that were never stored. Items pulled from the cloud keep the time the cloud gave them, see
+     * {@link #mSynced}. Not part of the item's identity.
+     */
+    @ColumnInfo(name = "updatedAt")
+    private final long mUpdatedAt;
+
+    /**
+     * Number of times the item was written to the database, 0 for items that were never stored.
+     * Not part of the item's identity.
+     */
+    @ColumnInfo(name = "version")
+    private final long mVersion;
+
+    /**
+     * Whether the item is stored as pulled from the cloud, with the cloud's {@link #mUpdatedAt}
+     * and {@link #mVersion}, rather than written on this device. Not part of the item's identity.
+     */
+    @ColumnInfo(name = "synced")
+    private final boolean mSynced;
+
+    /**
+     * 64 bit hash of the id and fields, see {@link #getContentHash()}. Derived from them, so it
+     * isn't part of the item's identity.
+     */
+    @ColumnInfo(name = "contentHash")
+    private final long mContentHash;
+
     /**
      * Use this constructor to create a new completed Item.
      *
@@ -67,14 +114,68 @@ public final class Item {
      * @param location    location of the item
      * @param id          id of the item
      */
+    @Ignore
     public Item(@Nullable String title, @Nullable String description, @Nullable String cost, @Nullable String location, @Nullable String imagePath,
                 @NonNull String id) {
+        this(title, description, cost, location, imagePath, id, ItemCosts.parseMinorUnits(cost));
+    }
+
+    /**
+     * Use this constructor to specify an Item with the cost in minor units that was computed
+     * along with it.
+     *
+     * @param costMinor cost in minor units, as computed by {@link ItemCosts#parseMinorUnits}
+     */
+    @Ignore
+    public Item(@Nullable String title, @Nullable String description, @Nullable String cost, @Nullable String location, @Nullable String imagePath,
+                @NonNull String id, @Nullable Long costMinor) {
+        this(title, description, cost, location, imagePath, id, costMinor, 0, 0, false,
+                contentHash(id, title, description, cost, location, imagePath));
+    }
+
+    /**
+     * Used by Room to read items back, with the values that were stored along with them.
+     *
+     * @param costMinor   cost in minor units, as computed by {@link ItemCosts#parseMinorUnits}
+     * @param updatedAt   time of the last write to the database
+     * @param version     number of writes to the database
+     * @param synced      whether the item was stored as pulled from the cloud
+     * @param contentHash hash of the id and fields, as computed by {@link #getContentHash()}
+     */
+    public Item(@Nullable String title, @Nullable String description, @Nullable String cost, @Nullable String location, @Nullable String imagePath,
+                @NonNull String id, @Nullable Long costMinor, long updatedAt, long version,
+                boolean synced, long contentHash) {
         mId = id;
         mTitle = title;
         mDescription = description;
         mCost = cost;
         mLocation = location;
         mImagePath = imagePath;
+        mCostMinor = costMinor;
+        mUpdatedAt = updatedAt;
+        mVersion = version;
+        mSynced = synced;
+        mContentHash = contentHash;
+    }
+
+    /**
+     * Returns a copy of this item as written to the database at {@code updatedAt}, for the
+     * {@code version}th time.
+     */
+    @NonNull
+    public Item withWrite(long updatedAt, long version) {
+        return new Item(mTitle, mDescription, mCost, mLocation, mImagePath, mId, mCostMinor,
+                updatedAt, version, false, mContentHash);
+    }
+
+    /**
+     * Returns a copy of this item as pulled from the cloud, which last wrote it at
+     * {@code updatedAt}, for the {@code version}th time.
+     */
+    @NonNull
+    public Item withSync(long updatedAt, long version) {
+        return new Item(mTitle, mDescription, mCost, mLocation, mImagePath, mId, mCostMinor,
+                updatedAt, version, true, mContentHash);
     }
 
     @NonNull
@@ -106,6 +207,45 @@ public final class Item {
         return mCost;
     }
 
+    /**
+     * Returns the cost in minor units (cents), or null if the cost isn't a number.
+     */
+    @Nullable
+    public Long getCostMinor() {
+        return mCostMinor;
+    }
+
+    /**
+     * Returns when the item was last written to the database, or 0 if it never was.
+     */
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    /**
+     * Returns how many times the item was written to the database.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns true if the item is stored as pulled from the cloud, false if it was last written
+     * on this device.
+     */
+    public boolean isSynced() {
+        return mSynced;
+    }
+
+    /**
+     * Returns a hash of the id and every field of the item, computed once when it is created and
+     * stored along with it. Two items with the same hash are considered equal when diffing and
+     * syncing.
+     */
+    public long getContentHash() {
+        return mContentHash;
+    }
+
     @Nullable
     public String getLocation() {
         return mLocation;
@@ -147,4 +287,28 @@ public final class Item {
     public String toString() {
         return "Item with title " + mTitle;
     }
+
+    private static long contentHash(@NonNull String id, @Nullable String title,
+                                    @Nullable String description, @Nullable String cost,
+                                    @Nullable String location, @Nullable String imagePath) {
+        Hasher hasher = CONTENT_HASH.newHasher();
+        putField(hasher, id);
+        putField(hasher, title);
+        putField(hasher, description);
+        putField(hasher, cost);
+        putField(hasher, location);
+        putField(hasher, imagePath);
+        return hasher.hash().asLong();
+    }
+
+    private static void putField(Hasher hasher, @Nullable String value) {
+        // Prefix each field with its length so that ("ab", "c") and ("a", "bc") differ, and null
+        // with -1 so that it differs from the empty string.
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length());
+            hasher.putString(value, Charsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,71 @@
+package com.keeping.itemstrack.data;
+
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Strings;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts the free-form cost typed by the user into an amount in minor units (cents), which can
+ * be stored in an integer column and sorted or compared by SQLite.
+ */
+public final class ItemCosts {
+
+    private ItemCosts() {
+    }
+
+    /**
+     * Parses costs such as {@code "12"}, {@code "12.5"}, {@code "$1,234.56"} or {@code "9,99 EUR"}.
+     * Currency symbols and spaces are ignored. A comma followed by one or two final digits is a
+     * decimal separator, any other comma groups thousands.
+     *
+     * @return the cost in minor units, rounded half up, or null if {@code cost} isn't a number
+     */
+    @Nullable
+    public static Long parseMinorUnits(@Nullable String cost) {
+        if (Strings.isNullOrEmpty(cost)) {
+            return null;
+        }
+        StringBuilder number = new StringBuilder(cost.length());
+        for (int i = 0; i < cost.length(); i++) {
+            char c = cost.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '.' || c == ',' || c == '-') {
+                number.append(c);
+            }
+        }
+        String normalized = normalizeSeparators(number.toString());
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        try {
+            return new BigDecimal(normalized)
+                    .movePointRight(2)
+                    .setScale(0, RoundingMode.HALF_UP)
+                    .longValueExact();
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code number} with a '.' decimal separator and no grouping separators.
+     */
+    private static String normalizeSeparators(String number) {
+        int lastDot = number.lastIndexOf('.');
+        int lastComma = number.lastIndexOf(',');
+        if (lastComma > lastDot) {
+            int digitsAfterComma = number.length() - lastComma - 1;
+            boolean commaIsDecimal =
+                    lastDot >= 0 || digitsAfterComma == 1 || digitsAfterComma == 2;
+            if (commaIsDecimal) {
+                // "1.234,56" or "9,99": dots group thousands.
+                return number.substring(0, lastComma).replace(".", "").replace(",", "")
+                        + "." + number.substring(lastComma + 1);
+            }
+        }
+        // "1,234.56" or "1,234": commas group thousands.
+        return number.replace(",", "");
+    }
+}
@@ -0,0 +1,114 @@
+package com.keeping.itemstrack.data;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable projection of an {@link Item} with only what a row of the list shows. Descriptions
+ * can be long and are only read, truncated, for items without a title.
+ */
+public final class ItemListRow {
+
+    /**
+     * Longest title shown in a row, longer ones are cut.
+     */
+    public static final int MAX_TITLE_LENGTH = 200;
+
+    @NonNull
+    @ColumnInfo(name = "entryid")
+    private final String mId;
+
+    @Nullable
+    @ColumnInfo(name = "titleForList")
+    private final String mTitleForList;
+
+    @Nullable
+    @ColumnInfo(name = "cost")
+    private final String mCost;
+
+    @Nullable
+    @ColumnInfo(name = "imagePath")
+    private final String mImagePath;
+
+    public ItemListRow(@NonNull String id, @Nullable String titleForList, @Nullable String cost,
+                       @Nullable String imagePath) {
+        mId = id;
+        mTitleForList = titleForList;
+        mCost = cost;
+        mImagePath = imagePath;
+    }
+
+    /**
+     * Returns the row showing {@code item}.
+     */
+    @NonNull
+    public static ItemListRow fromItem(@NonNull Item item) {
+        String titleForList = item.getTitleForList();
+        if (titleForList != null && titleForList.length() > MAX_TITLE_LENGTH) {
+            titleForList = titleForList.substring(0, MAX_TITLE_LENGTH);
+        }
+        return new ItemListRow(item.getId(), titleForList, item.getCost(), item.getImagePath());
+    }
+
+    /**
+     * Returns the rows showing {@code items}, in the same order.
+     */
+    @NonNull
+    public static List<ItemListRow> fromItems(@NonNull List<Item> items) {
+        List<ItemListRow> rows = new ArrayList<>(items.size());
+        for (Item item : items) {
+            rows.add(fromItem(item));
+        }
+        return rows;
+    }
+
+    @NonNull
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Returns the title, or the start of the description if the item has no title.
+     */
+    @Nullable
+    public String getTitleForList() {
+        return mTitleForList;
+    }
+
+    @Nullable
+    public String getCost() {
+        return mCost;
+    }
+
+    @Nullable
+    public String getImagePath() {
+        return mImagePath;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ItemListRow row = (ItemListRow) o;
+        return Objects.equal(mId, row.mId) &&
+                Objects.equal(mTitleForList, row.mTitleForList) &&
+                Objects.equal(mCost, row.mCost) &&
+                Objects.equal(mImagePath, row.mImagePath);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mId, mTitleForList, mCost, mImagePath);
+    }
+
+    @Override
+    public String toString() {
+        return "Item row with title " + mTitleForList;
+    }
+}
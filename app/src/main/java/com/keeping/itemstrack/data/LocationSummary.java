@@ -0,0 +1,75 @@
+package com.keeping.itemstrack.data;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+import com.google.common.base.Objects;
+
+/**
+ * Immutable number and total cost of the {@link Item}s at a location.
+ * <p>
+ * Summaries are stored in their own table, which the database keeps up to date as items are
+ * written, so reading them doesn't depend on the number of items.
+ */
+@Entity(tableName = "location_summaries")
+public final class LocationSummary {
+
+    /**
+     * Location of the summary, the empty string for items without a location.
+     */
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "location")
+    private final String mLocation;
+
+    @ColumnInfo(name = "itemCount")
+    private final int mItemCount;
+
+    /**
+     * Sum of {@link Item#getCostMinor()}, items without a numeric cost count as zero.
+     */
+    @ColumnInfo(name = "totalCostMinor")
+    private final long mTotalCostMinor;
+
+    public LocationSummary(@NonNull String location, int itemCount, long totalCostMinor) {
+        mLocation = location;
+        mItemCount = itemCount;
+        mTotalCostMinor = totalCostMinor;
+    }
+
+    @NonNull
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public long getTotalCostMinor() {
+        return mTotalCostMinor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LocationSummary summary = (LocationSummary) o;
+        return mItemCount == summary.mItemCount &&
+                mTotalCostMinor == summary.mTotalCostMinor &&
+                Objects.equal(mLocation, summary.mLocation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(mLocation, mItemCount, mTotalCostMinor);
+    }
+
+    @Override
+    public String toString() {
+        return "LocationSummary of " + mLocation + ": " + mItemCount + " items, "
+                + mTotalCostMinor + " total";
+    }
+}
@@ -17,6 +17,24 @@ public class CloudItem {
     public String location;
     public String imagePath;
 
+    /**
+     * Time of the last change, set by the cloud when the item is written. Null for items written
+     * before changes were stamped.
+     */
+    public Long updatedAt;
+
+    /**
+     * Version of the item on the device that wrote it. Null for items written before versions
+     * were sent.
+     */
+    public Long version;
+
+    /**
+     * Whether the item was deleted. Deleted items are kept as tombstones without their fields so
+     * that the devices pulling changes learn about the delete.
+     */
+    public boolean deleted;
+
     @Keep
     public CloudItem() {
     }
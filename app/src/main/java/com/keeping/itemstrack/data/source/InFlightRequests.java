@@ -0,0 +1,76 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks the callbacks waiting for loads that are in flight, so that concurrent requests for the
+ * same data share a single load.
+ * <p>
+ * A caller {@link #join(String, Object) joins} the load of a key and starts it only if it was
+ * the first one to do so. When the load finishes, {@link #complete(String)} hands back every
+ * callback that joined it in the meantime.
+ *
+ * @param <C> type of the callbacks
+ */
+public final class InFlightRequests<C> {
+
+    private final Map<String, List<C>> mWaitingCallbacks = new HashMap<>();
+
+    private long mStartedCount = 0;
+
+    private long mCoalescedCount = 0;
+
+    /**
+     * Registers {@code callback} for the load of {@code key}.
+     *
+     * @return true if no load of {@code key} is in flight, in which case the caller must start it
+     */
+    public synchronized boolean join(@NonNull String key, @NonNull C callback) {
+        checkNotNull(key);
+        checkNotNull(callback);
+        List<C> callbacks = mWaitingCallbacks.get(key);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            mCoalescedCount++;
+            return false;
+        }
+        callbacks = new ArrayList<>(1);
+        callbacks.add(callback);
+        mWaitingCallbacks.put(key, callbacks);
+        mStartedCount++;
+        return true;
+    }
+
+    /**
+     * Marks the load of {@code key} as finished.
+     *
+     * @return the callbacks to notify, in the order they joined
+     */
+    @NonNull
+    public synchronized List<C> complete(@NonNull String key) {
+        List<C> callbacks = mWaitingCallbacks.remove(checkNotNull(key));
+        return callbacks == null ? Collections.<C>emptyList() : callbacks;
+    }
+
+    /**
+     * Returns the number of loads that were actually started.
+     */
+    public synchronized long getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * Returns the number of requests that were served by a load started by another request.
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+}
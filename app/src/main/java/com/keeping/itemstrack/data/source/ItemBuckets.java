@@ -0,0 +1,151 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hash tree over a set of items, used to find the items two copies of the set disagree on
+ * without comparing every item.
+ * <p>
+ * Items are bucketed by id prefix: the bucket of an item one level below the bucket
+ * {@code prefix} is the first {@code prefix.length() + 1} characters of its id, down to buckets
+ * of {@link #LEAF_PREFIX_LENGTH} characters. The hash of a bucket is the sum of the
+ * {@link #bucketHash(long)} of its items, so it doesn't depend on the order the items are read
+ * in, and can be kept up to date by adding and subtracting the items written. Two copies
+ * compare the hashes of the buckets below the root, then of the buckets below the ones that
+ * differ, and only exchange the items of the leaf buckets that still differ. With ids being
+ * random UUIDs, a level has 16 buckets and the tree 4096 leaves.
+ */
+public final class ItemBuckets {
+
+    /**
+     * Length of the prefix of the leaf buckets, whose items are compared one by one.
+     */
+    public static final int LEAF_PREFIX_LENGTH = 3;
+
+    private final Map<String, Long> mHashes = new HashMap<>();
+
+    private final List<String> mPrefixes;
+
+    /**
+     * Creates the hashes of the buckets one level below each of {@code prefixes}, empty until
+     * items are added.
+     */
+    public ItemBuckets(@NonNull List<String> prefixes) {
+        mPrefixes = checkNotNull(prefixes);
+    }
+
+    /**
+     * Adds an item to the hash of its bucket, if it is below one of the prefixes.
+     */
+    public void add(@NonNull String itemId, long contentHash) {
+        for (String prefix : mPrefixes) {
+            if (itemId.startsWith(prefix)) {
+                String bucket = bucketOf(itemId, prefix.length() + 1);
+                Long hash = mHashes.get(bucket);
+                long itemHash = bucketHash(contentHash);
+                mHashes.put(bucket, hash == null ? itemHash : hash + itemHash);
+                return;
+            }
+        }
+    }
+
+    public void add(@NonNull Item item) {
+        add(item.getId(), ItemsDiff.contentHash(item));
+    }
+
+    /**
+     * Returns the hash an item with the given {@link ItemsDiff#contentHash(Item)} adds to its
+     * buckets: the low 32 bits of the hash, so that the sum of the hashes of up to 2^31 items
+     * fits in a long without overflowing, which stores that can't wrap around, such as SQLite,
+     * require.
+     */
+    public static long bucketHash(long contentHash) {
+        return contentHash & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Returns the hash of every non-empty bucket, by bucket prefix.
+     */
+    @NonNull
+    public Map<String, Long> getHashes() {
+        return mHashes;
+    }
+
+    /**
+     * Returns the bucket of {@code itemId} at {@code prefixLength} characters: its id if it is
+     * shorter.
+     */
+    @NonNull
+    public static String bucketOf(@NonNull String itemId, int prefixLength) {
+        return itemId.length() <= prefixLength ? itemId : itemId.substring(0, prefixLength);
+    }
+
+    /**
+     * Returns true if the items of {@code bucket} are compared one by one rather than through
+     * the buckets below it: it is a leaf, or holds a single id shorter than the leaves.
+     *
+     * @param level the length of the prefixes of the buckets at the level of {@code bucket}
+     */
+    public static boolean isLeaf(@NonNull String bucket, int level) {
+        return level >= LEAF_PREFIX_LENGTH || bucket.length() < level;
+    }
+
+    /**
+     * Returns the buckets whose hashes differ between two copies, buckets missing from one of
+     * them included.
+     */
+    @NonNull
+    public static List<String> differingBuckets(@NonNull Map<String, Long> hashes,
+                                                @NonNull Map<String, Long> otherHashes) {
+        Set<String> buckets = new HashSet<>(hashes.keySet());
+        buckets.addAll(otherHashes.keySet());
+        List<String> differing = new ArrayList<>();
+        for (String bucket : buckets) {
+            Long hash = hashes.get(bucket);
+            if (hash == null || !hash.equals(otherHashes.get(bucket))) {
+                differing.add(bucket);
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * Like {@link #differingBuckets(Map, Map)}, but returns the differing buckets in key order,
+     * grouped into runs that no bucket of either copy the two agree on separates. The items, or
+     * the buckets below, of a whole run can then be read with a single range of keys, which only
+     * covers differing buckets.
+     */
+    @NonNull
+    public static List<List<String>> differingRuns(@NonNull Map<String, Long> hashes,
+                                                   @NonNull Map<String, Long> otherHashes) {
+        Set<String> buckets = new TreeSet<>(hashes.keySet());
+        buckets.addAll(otherHashes.keySet());
+        List<List<String>> runs = new ArrayList<>();
+        List<String> run = null;
+        for (String bucket : buckets) {
+            Long hash = hashes.get(bucket);
+            if (hash != null && hash.equals(otherHashes.get(bucket))) {
+                run = null;
+                continue;
+            }
+            if (run == null) {
+                run = new ArrayList<>();
+                runs.add(run);
+            }
+            run.add(bucket);
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,245 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Thread-safe in-memory cache of {@link Item}s used by {@link ItemsRepository}.
+ * <p>
+ * Items keep the order in which they were first added, like a {@link java.util.LinkedHashMap}:
+ * replacing an item keeps its position, removing and adding it again moves it to the end.
+ * <p>
+ * Reads don't take a lock. Writers to the same id are serialised by one of a fixed number of
+ * striped locks, so writers to different ids rarely contend. Bulk replacement takes every stripe;
+ * a snapshot that overlaps one is retried, so readers never observe a half replaced cache.
+ */
+public final class ItemsCache {
+
+    private static final int STRIPE_COUNT = 16;
+
+    private static final int MAX_OPTIMISTIC_READS = 3;
+
+    private final ConcurrentMap<String, Entry> mEntriesById = new ConcurrentHashMap<>();
+
+    private final ConcurrentNavigableMap<Long, Entry> mEntriesInOrder =
+            new ConcurrentSkipListMap<>();
+
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    private final Object[] mStripes = new Object[STRIPE_COUNT];
+
+    /**
+     * Written under the stripe locks, read without any lock.
+     */
+    private volatile boolean mInitialized = false;
+
+    /**
+     * Odd while a bulk replacement is in progress, bumped twice by each one.
+     */
+    private volatile long mBulkVersion = 0;
+
+    public ItemsCache() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns whether an item was ever put into this cache since it was created or last
+     * {@link #invalidate() invalidated}. Removing items doesn't count, as an empty cache that was
+     * never loaded isn't a complete snapshot.
+     */
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    @Nullable
+    public Item get(@NonNull String itemId) {
+        Entry entry = mEntriesById.get(checkNotNull(itemId));
+        return entry == null ? null : entry.item;
+    }
+
+    public boolean containsKey(@NonNull String itemId) {
+        return mEntriesById.containsKey(checkNotNull(itemId));
+    }
+
+    public int size() {
+        return mEntriesById.size();
+    }
+
+    public boolean isEmpty() {
+        return mEntriesById.isEmpty();
+    }
+
+    /**
+     * Returns a snapshot of the cached items in insertion order. The returned list is owned by the
+     * caller and is never modified by the cache.
+     */
+    @NonNull
+    public List<Item> values() {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_READS; attempt++) {
+            long version = mBulkVersion;
+            if ((version & 1) == 0) {
+                List<Item> items = collectValues();
+                if (version == mBulkVersion) {
+                    return items;
+                }
+            }
+        }
+        // Bulk writers keep racing us, wait for them instead.
+        final List<List<Item>> result = new ArrayList<>(1);
+        withAllStripes(0, new Runnable() {
+            @Override
+            public void run() {
+                result.add(collectValues());
+            }
+        });
+        return result.get(0);
+    }
+
+    public void put(@NonNull Item item) {
+        checkNotNull(item);
+        String itemId = item.getId();
+        synchronized (stripeFor(itemId)) {
+            Entry previous = mEntriesById.get(itemId);
+            long sequence = previous == null ? mNextSequence.incrementAndGet() : previous.sequence;
+            Entry entry = new Entry(sequence, item);
+            mEntriesInOrder.put(sequence, entry);
+            mEntriesById.put(itemId, entry);
+            mInitialized = true;
+        }
+    }
+
+    /**
+     * Removes the item with id {@code itemId}, if cached. Leaves {@link #isInitialized()} as it
+     * is.
+     */
+    public void remove(@NonNull String itemId) {
+        checkNotNull(itemId);
+        synchronized (stripeFor(itemId)) {
+            Entry removed = mEntriesById.remove(itemId);
+            if (removed != null) {
+                mEntriesInOrder.remove(removed.sequence);
+            }
+        }
+    }
+
+    /**
+     * Replaces the whole content of the cache with {@code items}, keeping their order.
+     */
+    public void replaceAll(@NonNull final List<Item> items) {
+        checkNotNull(items);
+        withAllStripes(0, new Runnable() {
+            @Override
+            public void run() {
+                mBulkVersion++;
+                mEntriesById.clear();
+                mEntriesInOrder.clear();
+                for (Item item : items) {
+                    Entry previous = mEntriesById.get(item.getId());
+                    long sequence = previous == null
+                            ? mNextSequence.incrementAndGet() : previous.sequence;
+                    Entry entry = new Entry(sequence, item);
+                    mEntriesInOrder.put(sequence, entry);
+                    mEntriesById.put(item.getId(), entry);
+                }
+                mInitialized = true;
+                mBulkVersion++;
+            }
+        });
+    }
+
+    /**
+     * Removes every item, leaving the cache initialized and empty.
+     */
+    public void clear() {
+        replaceAll(new ArrayList<Item>(0));
+    }
+
+    /**
+     * Removes every item and marks the cache as never loaded.
+     */
+    public void invalidate() {
+        withAllStripes(0, new Runnable() {
+            @Override
+            public void run() {
+                mBulkVersion++;
+                mEntriesById.clear();
+                mEntriesInOrder.clear();
+                mInitialized = false;
+                mBulkVersion++;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of entries kept in insertion order, which is {@link #size()} once no
+     * write is in progress.
+     */
+    @VisibleForTesting
+    int orderedEntryCount() {
+        return mEntriesInOrder.size();
+    }
+
+    /**
+     * A concurrent remove and re-add of the same id can briefly leave both entries visible to an
+     * iterator, so only the first one seen is kept.
+     */
+    private List<Item> collectValues() {
+        List<Item> items = new ArrayList<>(mEntriesById.size());
+        Set<String> seenIds = new HashSet<>();
+        for (Entry entry : mEntriesInOrder.values()) {
+            if (seenIds.add(entry.item.getId())) {
+                items.add(entry.item);
+            }
+        }
+        return items;
+    }
+
+    private Object stripeFor(@NonNull String itemId) {
+        // Spread the hash so ids differing only in high bits land on different stripes.
+        int hash = itemId.hashCode();
+        hash ^= (hash >>> 16);
+        return mStripes[(hash & 0x7fffffff) % STRIPE_COUNT];
+    }
+
+    /**
+     * Acquires all stripes in a fixed order, so two bulk writers can never deadlock.
+     */
+    private void withAllStripes(int index, Runnable action) {
+        if (index == STRIPE_COUNT) {
+            action.run();
+            return;
+        }
+        synchronized (mStripes[index]) {
+            withAllStripes(index + 1, action);
+        }
+    }
+
+    private static final class Entry {
+
+        final long sequence;
+
+        final Item item;
+
+        Entry(long sequence, Item item) {
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cloud copy of the items, which devices push their changes to and pull the changes of the
+ * other devices from. Every write to the cloud is stamped with a change time on the cloud's
+ * clock, so that a device only pulls what changed since its last pull. The cloud also hashes its
+ * items into {@link ItemBuckets}, so that devices find the changes a pull missed by comparing
+ * bucket hashes.
+ */
+public interface ItemsCloud extends RemoteItemsWriter {
+
+    interface PullCallback {
+
+        /**
+         * @param items          the items saved since the requested time
+         * @param deletedItemIds the ids of the items deleted since the requested time
+         * @param pulledUpTo     the latest change time pulled, to request the next changes from
+         */
+        void onChangesPulled(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                             long pulledUpTo);
+
+        void onPullFailed(@NonNull Exception error);
+    }
+
+    interface ChangeListener {
+
+        /**
+         * @param updatedAt the change time of the item, or 0 if it isn't known
+         */
+        void onItemSaved(@NonNull Item item, long updatedAt);
+
+        /**
+         * @param deletedAt the change time of the delete, or 0 if it isn't known
+         */
+        void onItemDeleted(@NonNull String itemId, long deletedAt);
+
+        /**
+         * Called when the cloud stops sending changes, for instance because it refused the
+         * read. No other method is called afterwards.
+         */
+        void onObserveFailed(@NonNull Exception error);
+    }
+
+    interface BucketHashesCallback {
+
+        /**
+         * @param bucketHashes the hash of every non-empty bucket one level below the requested
+         *                     ones, by bucket prefix
+         */
+        void onBucketHashesLoaded(@NonNull Map<String, Long> bucketHashes);
+
+        void onBucketHashesFailed(@NonNull Exception error);
+    }
+
+    /**
+     * Reads the changes made since {@code since}, a change time returned by a previous pull, or
+     * every item if it is 0. Changes made exactly at {@code since} may be returned again.
+     * {@code callback} may be called on any thread.
+     */
+    void pullChanges(long since, @NonNull PullCallback callback);
+
+    /**
+     * Sends {@code listener} the changes made since {@code since}, as {@link #pullChanges} would
+     * read them, then every later change as it reaches the cloud, until the returned
+     * {@link ItemsDataSource.Subscription} is unsubscribed. {@code listener} may be called on any
+     * thread, but is called for one change at a time, in the order the changes were made.
+     */
+    @NonNull
+    ItemsDataSource.Subscription observeChanges(long since, @NonNull ChangeListener listener);
+
+    /**
+     * Reads the {@link ItemBuckets} hashes of the buckets one level below each of
+     * {@code prefixes}, which all have the same length, the empty prefix being the root.
+     * {@code callback} may be called on any thread.
+     */
+    void getBucketHashes(@NonNull List<String> prefixes, @NonNull BucketHashesCallback callback);
+
+    /**
+     * Reads the items and deletes whose ids start with one of the prefixes of
+     * {@code prefixRuns}, whenever they were made. Each run lists prefixes in key order, as
+     * {@link ItemBuckets#differingRuns(Map, Map)} returns them, and may be read as the single
+     * range of ids from its first prefix to its last. {@code callback} may be called on any
+     * thread, and is given the latest change time read.
+     */
+    void pullBuckets(@NonNull List<List<String>> prefixRuns, @NonNull PullCallback callback);
+
+    /**
+     * Replaces the hashes the cloud keeps for the items of the leaf buckets {@code leaves} with
+     * those of {@code items}, and drops the ones of {@code deletedItemIds}, then sets the hashes
+     * of the leaves to the sum of their items and corrects the buckets above them by as much.
+     * Called with the items and deletes of the leaves read by {@link #pullBuckets}, when they
+     * don't add up to the hash of their leaf, for instance because they were written before the
+     * cloud kept hashes. {@code callback} may be called on any thread.
+     */
+    void repairLeafHashes(@NonNull List<String> leaves, @NonNull List<Item> items,
+                          @NonNull List<String> deletedItemIds, @NonNull WriteCallback callback);
+}
@@ -1,8 +1,11 @@
 package com.keeping.itemstrack.data.source;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
+import com.keeping.itemstrack.data.LocationSummary;
 
 import java.util.List;
 
@@ -30,15 +33,124 @@ public interface ItemsDataSource {
         void onDataNotAvailable();
     }
 
+    interface LoadItemsPageCallback {
+
+        /**
+         * @param items       the items of the requested page, in page order
+         * @param nextPageKey key to request the following page with, or null if this was the last
+         *                    page
+         */
+        void onItemsPageLoaded(List<Item> items, @Nullable String nextPageKey);
+
+        void onDataNotAvailable();
+    }
+
+    interface LoadItemRowsPageCallback {
+
+        /**
+         * @param rows        the list rows of the requested page, in page order
+         * @param nextPageKey key to request the following page with, or null if this was the last
+         *                    page
+         */
+        void onItemRowsPageLoaded(List<ItemListRow> rows, @Nullable String nextPageKey);
+
+        void onDataNotAvailable();
+    }
+
+    interface LoadLocationSummariesCallback {
+
+        void onLocationSummariesLoaded(List<LocationSummary> summaries);
+
+        void onDataNotAvailable();
+    }
+
+    /**
+     * Handle of an observation started with {@link #observeItems(LoadItemsCallback)} or
+     * {@link #observeItem(String, GetItemCallback)}.
+     */
+    interface Subscription {
+
+        /**
+         * Stops the observation. No callback is called after this returns.
+         */
+        void unsubscribe();
+    }
+
     void getItems(@NonNull LoadItemsCallback callback);
 
+    /**
+     * Like {@link #getItems(LoadItemsCallback)}, but {@code callback} is called again every time
+     * the items change, until the returned {@link Subscription} is unsubscribed.
+     */
+    @NonNull
+    Subscription observeItems(@NonNull LoadItemsCallback callback);
+
+    /**
+     * Loads at most {@code pageSize} items following the page identified by {@code pageKey}.
+     *
+     * @param pageSize maximum number of items in the page
+     * @param pageKey  opaque key returned with the previous page, or null for the first page
+     */
+    void getItemsPage(int pageSize, @Nullable String pageKey,
+                      @NonNull LoadItemsPageCallback callback);
+
+    /**
+     * Like {@link #getItemsPage(int, String, LoadItemsPageCallback)}, but only loads what the
+     * rows of the list show, with the same page keys.
+     */
+    void getItemRowsPage(int pageSize, @Nullable String pageKey,
+                         @NonNull LoadItemRowsPageCallback callback);
+
+    /**
+     * Like {@link #getItemRowsPage(int, String, LoadItemRowsPageCallback)} for the first
+     * {@code limit} rows, but {@code callback} is called again every time these rows change, until
+     * the returned {@link Subscription} is unsubscribed. The page key follows the last row.
+     */
+    @NonNull
+    Subscription observeItemRows(int limit, @NonNull LoadItemRowsPageCallback callback);
+
+    /**
+     * Finds at most {@code limit} items whose title, description or location contain every word
+     * of {@code query}, best match first.
+     */
+    void searchItems(@NonNull String query, int limit, @NonNull LoadItemsCallback callback);
+
+    /**
+     * Loads the number and total cost of the items at each location, in location order.
+     */
+    void getLocationSummaries(@NonNull LoadLocationSummariesCallback callback);
+
     void getItem(@NonNull String itemId, @NonNull GetItemCallback callback);
 
+    /**
+     * Like {@link #getItem(String, GetItemCallback)}, but {@code callback} is called again every
+     * time the item changes or is deleted, until the returned {@link Subscription} is
+     * unsubscribed.
+     */
+    @NonNull
+    Subscription observeItem(@NonNull String itemId, @NonNull GetItemCallback callback);
+
     void saveItem(@NonNull Item item);
 
+    /**
+     * Saves all {@code items} at once, replacing existing items with the same ids.
+     */
+    void saveItems(@NonNull List<Item> items);
+
     void refreshItems();
 
+    /**
+     * Makes the content of this data source equal to {@code items}, writing only the items that
+     * were added, changed or removed.
+     */
+    void replaceAllItems(@NonNull List<Item> items);
+
     void deleteAllItems();
 
     void deleteItem(@NonNull String itemId);
+
+    /**
+     * Deletes all items whose id is in {@code itemIds} at once.
+     */
+    void deleteItems(@NonNull List<String> itemIds);
 }
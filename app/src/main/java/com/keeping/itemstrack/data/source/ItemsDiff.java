@@ -0,0 +1,124 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The inserts, updates and deletes that turn one set of {@link Item}s into another. Items are
+ * compared by a 64 bit hash of their content, so the current side can be given as hashes only.
+ */
+public final class ItemsDiff {
+
+    private final List<Item> mInsertedItems;
+
+    private final List<Item> mUpdatedItems;
+
+    private final List<String> mDeletedItemIds;
+
+    private ItemsDiff(List<Item> insertedItems, List<Item> updatedItems,
+                      List<String> deletedItemIds) {
+        mInsertedItems = insertedItems;
+        mUpdatedItems = updatedItems;
+        mDeletedItemIds = deletedItemIds;
+    }
+
+    /**
+     * Computes the changes that turn {@code currentItems} into {@code targetItems}.
+     */
+    @NonNull
+    public static ItemsDiff between(@NonNull List<Item> currentItems,
+                                    @NonNull List<Item> targetItems) {
+        checkNotNull(currentItems);
+        Map<String, Long> currentHashes = new HashMap<>(currentItems.size());
+        for (Item item : currentItems) {
+            currentHashes.put(item.getId(), contentHash(item));
+        }
+        return fromHashes(currentHashes, targetItems);
+    }
+
+    /**
+     * Computes the changes that turn the items whose content hashes are {@code currentHashes} into
+     * {@code targetItems}.
+     *
+     * @param currentHashes {@link #contentHash(Item)} of each current item, by item id
+     */
+    @NonNull
+    public static ItemsDiff fromHashes(@NonNull Map<String, Long> currentHashes,
+                                       @NonNull List<Item> targetItems) {
+        checkNotNull(currentHashes);
+        checkNotNull(targetItems);
+        List<Item> inserted = new ArrayList<>();
+        List<Item> updated = new ArrayList<>();
+        Set<String> targetIds = new HashSet<>(targetItems.size());
+        for (Item item : targetItems) {
+            if (!targetIds.add(item.getId())) {
+                // Keep the first occurrence, like ItemsCache does.
+                continue;
+            }
+            Long currentHash = currentHashes.get(item.getId());
+            if (currentHash == null) {
+                inserted.add(item);
+            } else if (currentHash != contentHash(item)) {
+                updated.add(item);
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (String itemId : currentHashes.keySet()) {
+            if (!targetIds.contains(itemId)) {
+                deleted.add(itemId);
+            }
+        }
+        return new ItemsDiff(inserted, updated, deleted);
+    }
+
+    /**
+     * Returns a hash of every field of {@code item}. Two items with the same hash are considered
+     * equal when diffing.
+     */
+    public static long contentHash(@NonNull Item item) {
+        return item.getContentHash();
+    }
+
+    @NonNull
+    public List<Item> getInsertedItems() {
+        return mInsertedItems;
+    }
+
+    @NonNull
+    public List<Item> getUpdatedItems() {
+        return mUpdatedItems;
+    }
+
+    @NonNull
+    public List<String> getDeletedItemIds() {
+        return mDeletedItemIds;
+    }
+
+    public boolean isEmpty() {
+        return mInsertedItems.isEmpty() && mUpdatedItems.isEmpty() && mDeletedItemIds.isEmpty();
+    }
+
+    /**
+     * Returns the number of rows written when applying this diff.
+     */
+    public int size() {
+        return mInsertedItems.size() + mUpdatedItems.size() + mDeletedItemIds.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ItemsDiff{inserted=" + mInsertedItems.size()
+                + ", updated=" + mUpdatedItems.size()
+                + ", deleted=" + mDeletedItemIds.size() + "}";
+    }
+}
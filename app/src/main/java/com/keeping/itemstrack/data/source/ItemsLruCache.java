@@ -0,0 +1,127 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.keeping.itemstrack.data.Item;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Least recently used {@link Item}s, bounded by their estimated size on the heap rather than by
+ * their number, since a few long descriptions can weigh more than hundreds of short items.
+ * <p>
+ * Safe to use from multiple threads.
+ */
+public final class ItemsLruCache {
+
+    /**
+     * Budget used when none is configured, enough for a few thousand typical items.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    // Object header, seven references, two longs and the hash map entry pointing to the item.
+    private static final int ITEM_OVERHEAD_BYTES = 16 + 7 * 4 + 2 * 8 + 32;
+
+    // Boxed cost in minor units.
+    private static final int LONG_BYTES = 16;
+
+    // String object and the header of its char array.
+    private static final int STRING_OVERHEAD_BYTES = 24 + 16;
+
+    private static final Weigher<String, Item> ITEM_WEIGHER = new Weigher<String, Item>() {
+        @Override
+        public int weigh(@NonNull String itemId, @NonNull Item item) {
+            return estimateSize(item);
+        }
+    };
+
+    private final Cache<String, Item> mCache;
+
+    private final long mMaxBytes;
+
+    public ItemsLruCache(long maxBytes) {
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        mMaxBytes = maxBytes;
+        mCache = CacheBuilder.newBuilder()
+                // A single segment keeps the eviction order global and lets an item use the whole
+                // budget. The cache is small and short-held, so contention isn't a concern.
+                .concurrencyLevel(1)
+                .maximumWeight(maxBytes)
+                .weigher(ITEM_WEIGHER)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the estimated number of bytes {@code item} retains on the heap. Strings are counted
+     * as two bytes per char, as they are stored on Android.
+     */
+    public static int estimateSize(@NonNull Item item) {
+        long size = ITEM_OVERHEAD_BYTES
+                + estimateSize(item.getId())
+                + estimateSize(item.getTitle())
+                + estimateSize(item.getDescription())
+                + estimateSize(item.getCost())
+                + estimateSize(item.getLocation())
+                + estimateSize(item.getImagePath())
+                + (item.getCostMinor() == null ? 0 : LONG_BYTES);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static long estimateSize(@Nullable String value) {
+        return value == null ? 0 : STRING_OVERHEAD_BYTES + 2L * value.length();
+    }
+
+    /**
+     * Returns the cached item with id {@code itemId}, marking it as recently used, or null if it
+     * isn't cached.
+     */
+    @Nullable
+    public Item get(@NonNull String itemId) {
+        return mCache.getIfPresent(checkNotNull(itemId));
+    }
+
+    public boolean containsKey(@NonNull String itemId) {
+        return mCache.asMap().containsKey(checkNotNull(itemId));
+    }
+
+    /**
+     * Caches {@code item}, evicting the least recently used items if the budget is exceeded. An
+     * item larger than the whole budget isn't kept.
+     */
+    public void put(@NonNull Item item) {
+        checkNotNull(item);
+        mCache.put(item.getId(), item);
+    }
+
+    public void remove(@NonNull String itemId) {
+        mCache.invalidate(checkNotNull(itemId));
+    }
+
+    public void clear() {
+        mCache.invalidateAll();
+    }
+
+    public int size() {
+        mCache.cleanUp();
+        return (int) mCache.size();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts since this cache was created.
+     */
+    @NonNull
+    public CacheStats stats() {
+        return mCache.stats();
+    }
+}
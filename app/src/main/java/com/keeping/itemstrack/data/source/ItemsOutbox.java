@@ -0,0 +1,15 @@
+package com.keeping.itemstrack.data.source;
+
+/**
+ * Durable queue of the writes that still have to reach the backend. Writes are recorded per item
+ * id by the {@link LocalItemsDataSource}, in the transaction that makes them, so several edits of
+ * the same item are sent as one, and are replayed in batches through a {@link RemoteItemsWriter},
+ * retrying with backoff until they succeed.
+ */
+public interface ItemsOutbox {
+
+    /**
+     * Starts sending the pending writes that are due, unless that is already in progress.
+     */
+    void replay();
+}
@@ -0,0 +1,85 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keyset pagination over in-memory lists of {@link Item}s, using the same ordering and page keys
+ * as the paged queries in {@link com.keeping.itemstrack.data.source.local.ItemsDao}: items are
+ * ordered by id and a page key is the id of the last item of the previous page.
+ */
+public final class ItemsPaging {
+
+    private static final Comparator<Item> BY_ID = new Comparator<Item>() {
+        @Override
+        public int compare(Item first, Item second) {
+            return first.getId().compareTo(second.getId());
+        }
+    };
+
+    private ItemsPaging() {
+    }
+
+    /**
+     * Returns the key to pass with the page following {@code page}, given that {@code page} was
+     * queried with a limit of {@code pageSize + 1} to find out whether another page exists. Drops
+     * that extra look-ahead item from {@code page}.
+     */
+    @Nullable
+    public static String trimToPageAndGetNextKey(@NonNull List<Item> page, int pageSize) {
+        if (page.size() <= pageSize) {
+            return null;
+        }
+        page.subList(pageSize, page.size()).clear();
+        return page.get(pageSize - 1).getId();
+    }
+
+    /**
+     * Like {@link #trimToPageAndGetNextKey(List, int)}, for a page of list rows.
+     */
+    @Nullable
+    public static String trimRowsToPageAndGetNextKey(@NonNull List<ItemListRow> page,
+                                                     int pageSize) {
+        if (page.size() <= pageSize) {
+            return null;
+        }
+        page.subList(pageSize, page.size()).clear();
+        return page.get(pageSize - 1).getId();
+    }
+
+    /**
+     * Delivers the page of {@code items} identified by {@code pageKey} to {@code callback}.
+     */
+    public static void deliverPage(@NonNull List<Item> items, int pageSize,
+                                   @Nullable String pageKey,
+                                   @NonNull ItemsDataSource.LoadItemsPageCallback callback) {
+        checkNotNull(items);
+        checkNotNull(callback);
+        checkArgument(pageSize > 0, "pageSize must be positive");
+
+        List<Item> sorted = new ArrayList<>(items);
+        Collections.sort(sorted, BY_ID);
+        List<Item> page = new ArrayList<>(pageSize + 1);
+        for (Item item : sorted) {
+            if (pageKey == null || item.getId().compareTo(pageKey) > 0) {
+                page.add(item);
+                if (page.size() > pageSize) {
+                    break;
+                }
+            }
+        }
+        String nextPageKey = trimToPageAndGetNextKey(page, pageSize);
+        callback.onItemsPageLoaded(page, nextPageKey);
+    }
+}
@@ -3,14 +3,14 @@ package com.keeping.itemstrack.data.source;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
+import com.google.common.cache.CacheStats;
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -21,30 +21,63 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * obtained from the server, by using the remote data source only if the local database doesn't
  * exist or is empty.
  */
-public class ItemsRepository implements ItemsDataSource {
+public class ItemsRepository implements ItemsDataSource, PulledItemsWriter {
 
     private static ItemsRepository INSTANCE = null;
 
+    private static final String LOAD_FROM_LOCAL = "local";
+
+    private static final String LOAD_FROM_REMOTE = "remote";
+
     private final ItemsDataSource mItemsRemoteDataSource;
 
-    private final ItemsDataSource mItemsLocalDataSource;
+    private final LocalItemsDataSource mItemsLocalDataSource;
+
+    private final ItemsOutbox mItemsOutbox;
 
     /**
+     * Recently used items, bounded in size, serving {@link #getItem(String, GetItemCallback)}.
      * This variable has package local visibility so it can be accessed from tests.
      */
-    Map<String, Item> mCachedItems;
+    final ItemsLruCache mCachedItems;
+
+    /**
+     * The last full list of items, serving {@link #getItems(LoadItemsCallback)}. Only kept up to
+     * date once a full list was loaded, single items never populate it. This variable has package
+     * local visibility so it can be accessed from tests.
+     */
+    final ItemsCache mItemsSnapshot = new ItemsCache();
+
+    /**
+     * Ids that neither data source had when last looked up. This variable has package local
+     * visibility so it can be accessed from tests.
+     */
+    final MissingItemsCache mMissingItems = new MissingItemsCache();
 
     /**
      * Marks the cache as invalid, to force an update the next time data is requested. This variable
      * has package local visibility so it can be accessed from tests.
      */
-    boolean mCacheIsDirty = false;
+    volatile boolean mCacheIsDirty = false;
+
+    private final InFlightRequests<LoadItemsCallback> mItemsLoads = new InFlightRequests<>();
+
+    private final InFlightRequests<LoadItemsPageCallback> mPageLoads = new InFlightRequests<>();
+
+    private final InFlightRequests<LoadItemRowsPageCallback> mRowPageLoads =
+            new InFlightRequests<>();
+
+    private final InFlightRequests<GetItemCallback> mItemLoads = new InFlightRequests<>();
 
     // Prevent direct instantiation.
     private ItemsRepository(@NonNull ItemsDataSource tasksRemoteDataSource,
-                            @NonNull ItemsDataSource tasksLocalDataSource) {
+                            @NonNull LocalItemsDataSource tasksLocalDataSource,
+                            @NonNull ItemsOutbox itemsOutbox,
+                            long cacheMaxBytes) {
         mItemsRemoteDataSource = checkNotNull(tasksRemoteDataSource);
         mItemsLocalDataSource = checkNotNull(tasksLocalDataSource);
+        mItemsOutbox = checkNotNull(itemsOutbox);
+        mCachedItems = new ItemsLruCache(cacheMaxBytes);
     }
 
     /**
@@ -52,19 +85,40 @@ public class ItemsRepository implements ItemsDataSource {
      *
      * @param tasksRemoteDataSource the backend data source
      * @param tasksLocalDataSource  the device storage data source
+     * @param itemsOutbox           the queue of writes to send to the backend
      * @return the {@link ItemsRepository} instance
      */
     public static ItemsRepository getInstance(ItemsDataSource tasksRemoteDataSource,
-                                              ItemsDataSource tasksLocalDataSource) {
+                                              LocalItemsDataSource tasksLocalDataSource,
+                                              ItemsOutbox itemsOutbox) {
+        return getInstance(tasksRemoteDataSource, tasksLocalDataSource, itemsOutbox,
+                ItemsLruCache.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Returns the single instance of this class, creating it if necessary.
+     *
+     * @param tasksRemoteDataSource the backend data source
+     * @param tasksLocalDataSource  the device storage data source
+     * @param itemsOutbox           the queue of writes to send to the backend
+     * @param cacheMaxBytes         heap budget of the cache of recently used items, only used
+     *                              when the instance is created
+     * @return the {@link ItemsRepository} instance
+     */
+    public static ItemsRepository getInstance(ItemsDataSource tasksRemoteDataSource,
+                                              LocalItemsDataSource tasksLocalDataSource,
+                                              ItemsOutbox itemsOutbox,
+                                              long cacheMaxBytes) {
         if (INSTANCE == null) {
-            INSTANCE = new ItemsRepository(tasksRemoteDataSource, tasksLocalDataSource);
+            INSTANCE = new ItemsRepository(tasksRemoteDataSource, tasksLocalDataSource,
+                    itemsOutbox, cacheMaxBytes);
         }
         return INSTANCE;
     }
 
     /**
-     * Used to force {@link #getInstance(ItemsDataSource, ItemsDataSource)} to create a new instance
-     * next time it's called.
+     * Used to force {@link #getInstance(ItemsDataSource, LocalItemsDataSource, ItemsOutbox)} to create a
+     * new instance next time it's called.
      */
     public static void destroyInstance() {
         INSTANCE = null;
@@ -72,63 +126,374 @@ public class ItemsRepository implements ItemsDataSource {
 
     /**
      * Gets tasks from cache, local data source (SQLite) or remote data source, whichever is
-     * available first.
+     * available first. After {@link #refreshItems()} the remote data source is read first.
      * <p>
      * Note: {@link LoadItemsCallback#onDataNotAvailable()} is fired if all data sources fail to
      * get the data.
+     *
+     * @see #getItems(ReadPolicy, LoadItemsCallback)
      */
     @Override
-    public void getItems(@NonNull final LoadItemsCallback callback) {
+    public void getItems(@NonNull LoadItemsCallback callback) {
+        getItems(mCacheIsDirty ? ReadPolicy.REMOTE_FIRST : ReadPolicy.LOCAL_FIRST, callback);
+    }
+
+    /**
+     * Gets tasks from the data sources chosen by {@code policy}.
+     * <p>
+     * Concurrent calls that need the same load share it: only the first one queries the data
+     * sources and all of them are notified with its result.
+     * <p>
+     * Note: {@link LoadItemsCallback#onDataNotAvailable()} is fired if none of the data sources
+     * allowed by {@code policy} has the data.
+     */
+    public void getItems(@NonNull ReadPolicy policy, @NonNull final LoadItemsCallback callback) {
+        checkNotNull(policy);
         checkNotNull(callback);
 
-        // Respond immediately with cache if available and not dirty
-        if (mCachedItems != null && !mCacheIsDirty) {
-            callback.onItemsLoaded(new ArrayList<>(mCachedItems.values()));
+        switch (policy) {
+            case CACHE_ONLY:
+                if (mItemsSnapshot.isInitialized()) {
+                    callback.onItemsLoaded(mItemsSnapshot.values());
+                } else {
+                    callback.onDataNotAvailable();
+                }
+                break;
+            case LOCAL_FIRST:
+                // Respond immediately with cache if available and not dirty
+                if (mItemsSnapshot.isInitialized() && !mCacheIsDirty) {
+                    callback.onItemsLoaded(mItemsSnapshot.values());
+                } else {
+                    loadItems(LOAD_FROM_LOCAL, callback);
+                }
+                break;
+            case REMOTE_FIRST:
+                loadItems(LOAD_FROM_REMOTE, callback);
+                break;
+            case STALE_WHILE_REVALIDATE:
+                getItemsAndRevalidate(callback);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown read policy " + policy);
+        }
+    }
+
+    /**
+     * Serves whatever the cache or the local data source has, then revalidates it against the
+     * remote data source and serves the result again if it differs.
+     */
+    private void getItemsAndRevalidate(@NonNull final LoadItemsCallback callback) {
+        if (mItemsSnapshot.isInitialized()) {
+            List<Item> staleItems = mItemsSnapshot.values();
+            callback.onItemsLoaded(staleItems);
+            revalidate(staleItems, callback);
             return;
         }
+        mItemsLocalDataSource.getItems(new LoadItemsCallback() {
+            @Override
+            public void onItemsLoaded(List<Item> staleItems) {
+                callback.onItemsLoaded(new ArrayList<>(staleItems));
+                revalidate(staleItems, callback);
+            }
 
-        if (mCacheIsDirty) {
-            // If the cache is dirty we need to fetch new data from the network.
-            getTasksFromRemoteDataSource(callback);
+            @Override
+            public void onDataNotAvailable() {
+                revalidate(null, callback);
+            }
+        });
+    }
+
+    private void revalidate(@Nullable final List<Item> servedItems,
+                            @NonNull final LoadItemsCallback callback) {
+        if (!mItemsLoads.join(LOAD_FROM_REMOTE, new LoadItemsCallback() {
+            @Override
+            public void onItemsLoaded(List<Item> items) {
+                if (servedItems == null || !ItemsDiff.between(servedItems, items).isEmpty()) {
+                    callback.onItemsLoaded(items);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                // Keep showing the stale items if there were any.
+                if (servedItems == null) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        })) {
+            // A network load is already in flight and will revalidate for us.
+            return;
+        }
+        // The same load as REMOTE_FIRST, local fallback included, since callers of either
+        // policy may join it.
+        startLoad(LOAD_FROM_REMOTE);
+    }
+
+    /**
+     * Loads the items from {@code loadKey}'s data source first, unless the same load is already
+     * in flight, in which case {@code callback} is notified when it completes.
+     */
+    private void loadItems(@NonNull String loadKey, @NonNull LoadItemsCallback callback) {
+        if (!mItemsLoads.join(loadKey, callback)) {
+            // The same load is already in flight and will notify this callback too.
+            return;
+        }
+        startLoad(loadKey);
+    }
+
+    /**
+     * Starts the load of {@code loadKey}, notifying the callbacks that joined it.
+     */
+    private void startLoad(@NonNull String loadKey) {
+        final LoadItemsCallback loadCallback = completingCallback(loadKey);
+        if (LOAD_FROM_REMOTE.equals(loadKey)) {
+            mItemsRemoteDataSource.getItems(new LoadItemsCallback() {
+                @Override
+                public void onItemsLoaded(List<Item> tasks) {
+                    refreshCache(tasks);
+                    refreshLocalDataSource(tasks);
+                    loadCallback.onItemsLoaded(mItemsSnapshot.values());
+                }
+
+                @Override
+                public void onDataNotAvailable() {
+                    // The network failed, serve what this device has.
+                    getTasksFromLocalDataSource(loadCallback);
+                }
+            });
         } else {
             // Query the local storage if available. If not, query the network.
             mItemsLocalDataSource.getItems(new LoadItemsCallback() {
                 @Override
                 public void onItemsLoaded(List<Item> tasks) {
                     refreshCache(tasks);
-                    callback.onItemsLoaded(new ArrayList<>(mCachedItems.values()));
+                    loadCallback.onItemsLoaded(mItemsSnapshot.values());
                 }
 
                 @Override
                 public void onDataNotAvailable() {
-                    getTasksFromRemoteDataSource(callback);
+                    getTasksFromRemoteDataSource(loadCallback);
                 }
             });
         }
     }
 
+    /**
+     * Returns a callback notifying every caller waiting for the load of {@code loadKey}.
+     */
+    @NonNull
+    private LoadItemsCallback completingCallback(@NonNull final String loadKey) {
+        return new LoadItemsCallback() {
+            @Override
+            public void onItemsLoaded(List<Item> items) {
+                for (LoadItemsCallback waiting : mItemsLoads.complete(loadKey)) {
+                    // Each caller gets its own copy of the list.
+                    waiting.onItemsLoaded(new ArrayList<>(items));
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                for (LoadItemsCallback waiting : mItemsLoads.complete(loadKey)) {
+                    waiting.onDataNotAvailable();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gets a page of items from the local data source, or from the remote data source if the
+     * cache is dirty or the local data source has no data yet. Pages are never served from the
+     * in-memory cache, so paging doesn't require the whole list to be loaded.
+     * <p>
+     * Concurrent requests for the same page share a single load.
+     * <p>
+     * Note: {@link LoadItemsPageCallback#onDataNotAvailable()} is fired if all data sources fail
+     * to get the data.
+     */
+    @Override
+    public void getItemsPage(final int pageSize, @Nullable final String pageKey,
+                             @NonNull LoadItemsPageCallback callback) {
+        checkNotNull(callback);
+
+        final boolean fromRemote = mCacheIsDirty && pageKey == null;
+        final String loadKey = (fromRemote ? LOAD_FROM_REMOTE : LOAD_FROM_LOCAL)
+                + ":" + pageSize + ":" + pageKey;
+        if (!mPageLoads.join(loadKey, callback)) {
+            // The same page is already being loaded and will notify this callback too.
+            return;
+        }
+        final LoadItemsPageCallback loadCallback = new LoadItemsPageCallback() {
+            @Override
+            public void onItemsPageLoaded(List<Item> items, @Nullable String nextPageKey) {
+                for (LoadItemsPageCallback waiting : mPageLoads.complete(loadKey)) {
+                    waiting.onItemsPageLoaded(new ArrayList<>(items), nextPageKey);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                for (LoadItemsPageCallback waiting : mPageLoads.complete(loadKey)) {
+                    waiting.onDataNotAvailable();
+                }
+            }
+        };
+
+        if (fromRemote) {
+            // A forced refresh starts over from the first page, which comes from the network.
+            // Later pages are read from the local data source, after the refresh is written.
+            getTasksPageFromRemoteDataSource(pageSize, loadCallback);
+            return;
+        }
+
+        mItemsLocalDataSource.getItemsPage(pageSize, pageKey, new LoadItemsPageCallback() {
+            @Override
+            public void onItemsPageLoaded(List<Item> items, @Nullable String nextPageKey) {
+                loadCallback.onItemsPageLoaded(items, nextPageKey);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (pageKey == null) {
+                    getTasksPageFromRemoteDataSource(pageSize, loadCallback);
+                } else {
+                    loadCallback.onDataNotAvailable();
+                }
+            }
+        });
+    }
+
+    /**
+     * Like {@link #getItemsPage(int, String, LoadItemsPageCallback)}, reading the rows from the
+     * local data source. Only a forced refresh, or an empty local data source, loads whole items
+     * from the remote data source, which rows are then made from.
+     * <p>
+     * Rows aren't cached: they are cheap to read and the cache holds whole items.
+     */
+    @Override
+    public void getItemRowsPage(final int pageSize, @Nullable final String pageKey,
+                                @NonNull LoadItemRowsPageCallback callback) {
+        checkNotNull(callback);
+
+        final boolean fromRemote = mCacheIsDirty && pageKey == null;
+        final String loadKey = (fromRemote ? LOAD_FROM_REMOTE : LOAD_FROM_LOCAL)
+                + ":" + pageSize + ":" + pageKey;
+        if (!mRowPageLoads.join(loadKey, callback)) {
+            // The same page is already being loaded and will notify this callback too.
+            return;
+        }
+        final LoadItemRowsPageCallback loadCallback = new LoadItemRowsPageCallback() {
+            @Override
+            public void onItemRowsPageLoaded(List<ItemListRow> rows,
+                                             @Nullable String nextPageKey) {
+                for (LoadItemRowsPageCallback waiting : mRowPageLoads.complete(loadKey)) {
+                    waiting.onItemRowsPageLoaded(new ArrayList<>(rows), nextPageKey);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                for (LoadItemRowsPageCallback waiting : mRowPageLoads.complete(loadKey)) {
+                    waiting.onDataNotAvailable();
+                }
+            }
+        };
+        final LoadItemsPageCallback remoteCallback = new LoadItemsPageCallback() {
+            @Override
+            public void onItemsPageLoaded(List<Item> items, @Nullable String nextPageKey) {
+                loadCallback.onItemRowsPageLoaded(ItemListRow.fromItems(items), nextPageKey);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                loadCallback.onDataNotAvailable();
+            }
+        };
+
+        if (fromRemote) {
+            getTasksPageFromRemoteDataSource(pageSize, remoteCallback);
+            return;
+        }
+
+        mItemsLocalDataSource.getItemRowsPage(pageSize, pageKey, new LoadItemRowsPageCallback() {
+            @Override
+            public void onItemRowsPageLoaded(List<ItemListRow> rows,
+                                             @Nullable String nextPageKey) {
+                loadCallback.onItemRowsPageLoaded(rows, nextPageKey);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (pageKey == null) {
+                    getTasksPageFromRemoteDataSource(pageSize, remoteCallback);
+                } else {
+                    loadCallback.onDataNotAvailable();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the summaries of the local data source, which holds every item the backend sent and
+     * every item saved on this device.
+     * <p>
+     * Note: {@link LoadLocationSummariesCallback#onDataNotAvailable()} is fired if there are no
+     * items.
+     */
+    @Override
+    public void getLocationSummaries(@NonNull LoadLocationSummariesCallback callback) {
+        mItemsLocalDataSource.getLocationSummaries(checkNotNull(callback));
+    }
+
+    /**
+     * Searches the local data source only, which holds every item the backend sent and every
+     * item saved on this device. Results aren't cached since they depend on the query.
+     * <p>
+     * Note: {@link LoadItemsCallback#onDataNotAvailable()} is fired if no item matches.
+     */
+    @Override
+    public void searchItems(@NonNull String query, int limit,
+                            @NonNull LoadItemsCallback callback) {
+        mItemsLocalDataSource.searchItems(checkNotNull(query), limit, checkNotNull(callback));
+    }
+
+    /**
+     * Saves the item locally, which queues it for the backend in the same transaction, so the
+     * save survives being offline.
+     */
     @Override
     public void saveItem(@NonNull Item task) {
         checkNotNull(task);
-        mItemsRemoteDataSource.saveItem(task);
         mItemsLocalDataSource.saveItem(task);
+        mItemsOutbox.replay();
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedItems == null) {
-            mCachedItems = new LinkedHashMap<>();
+        cacheItem(task);
+    }
+
+    @Override
+    public void saveItems(@NonNull List<Item> items) {
+        checkNotNull(items);
+        mItemsLocalDataSource.saveItems(items);
+        mItemsOutbox.replay();
+
+        // Do in memory cache update to keep the app UI up to date
+        for (Item item : items) {
+            cacheItem(item);
         }
-        mCachedItems.put(task.getId(), task);
     }
 
     /**
      * Gets tasks from local data source (sqlite) unless the table is new or empty. In that case it
      * uses the network data source. This is done to simplify the sample.
      * <p>
+     * Concurrent requests for the same item share a single load.
+     * <p>
      * Note: {@link GetItemCallback#onDataNotAvailable()} is fired if both data sources fail to
      * get the data.
      */
     @Override
-    public void getItem(@NonNull final String taskId, @NonNull final GetItemCallback callback) {
+    public void getItem(@NonNull final String taskId, @NonNull GetItemCallback callback) {
         checkNotNull(taskId);
         checkNotNull(callback);
 
@@ -140,6 +505,33 @@ public class ItemsRepository implements ItemsDataSource {
             return;
         }
 
+        // Or fail immediately if the item was just found missing everywhere
+        if (mMissingItems.isMissing(taskId)) {
+            callback.onDataNotAvailable();
+            return;
+        }
+
+        if (!mItemLoads.join(taskId, callback)) {
+            // The same item is already being loaded and will notify this callback too.
+            return;
+        }
+        callback = new GetItemCallback() {
+            @Override
+            public void onItemLoaded(Item item) {
+                for (GetItemCallback waiting : mItemLoads.complete(taskId)) {
+                    waiting.onItemLoaded(item);
+                }
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                for (GetItemCallback waiting : mItemLoads.complete(taskId)) {
+                    waiting.onDataNotAvailable();
+                }
+            }
+        };
+        final GetItemCallback loadCallback = callback;
+
         // Load from server/persisted if needed.
 
         // Is the task in the local data source? If not, query the network.
@@ -147,11 +539,8 @@ public class ItemsRepository implements ItemsDataSource {
             @Override
             public void onItemLoaded(Item task) {
                 // Do in memory cache update to keep the app UI up to date
-                if (mCachedItems == null) {
-                    mCachedItems = new LinkedHashMap<>();
-                }
-                mCachedItems.put(task.getId(), task);
-                callback.onItemLoaded(task);
+                cacheItem(task);
+                loadCallback.onItemLoaded(task);
             }
 
             @Override
@@ -159,54 +548,216 @@ public class ItemsRepository implements ItemsDataSource {
                 mItemsRemoteDataSource.getItem(taskId, new GetItemCallback() {
                     @Override
                     public void onItemLoaded(Item task) {
-                        // Do in memory cache update to keep the app UI up to date
-                        if (mCachedItems == null) {
-                            mCachedItems = new LinkedHashMap<>();
+                        if (task == null) {
+                            onDataNotAvailable();
+                            return;
                         }
-                        mCachedItems.put(task.getId(), task);
-                        callback.onItemLoaded(task);
+                        // Do in memory cache update to keep the app UI up to date
+                        cacheItem(task);
+                        loadCallback.onItemLoaded(task);
                     }
 
                     @Override
                     public void onDataNotAvailable() {
-                        callback.onDataNotAvailable();
+                        mMissingItems.markMissing(taskId);
+                        loadCallback.onDataNotAvailable();
                     }
                 });
             }
         });
     }
 
+    /**
+     * Observes the items of the local data source, which every write of this repository goes
+     * through, so {@code callback} is pushed the new items after each save or delete.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItems(@NonNull LoadItemsCallback callback) {
+        checkNotNull(callback);
+        return mItemsLocalDataSource.observeItems(callback);
+    }
+
+    /**
+     * Observes the first rows of the local data source, which every write of this repository and
+     * every refresh goes through. After {@link #refreshItems()}, the items are reloaded with
+     * {@link ReadPolicy#REMOTE_FIRST} and stored locally, which pushes the new rows to
+     * {@code callback} like any other change. The rows stored so far are pushed meanwhile.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItemRows(int limit, @NonNull LoadItemRowsPageCallback callback) {
+        checkNotNull(callback);
+        if (mCacheIsDirty) {
+            getItems(ReadPolicy.REMOTE_FIRST, new LoadItemsCallback() {
+                @Override
+                public void onItemsLoaded(List<Item> items) {
+                    // The rows are pushed by the observation once the items are stored.
+                }
+
+                @Override
+                public void onDataNotAvailable() {
+                    // The local items stay as they are.
+                }
+            });
+        }
+        return mItemsLocalDataSource.observeItemRows(limit, callback);
+    }
+
+    /**
+     * Observes the writes of the local data source, which every write of this repository and
+     * every refresh goes through. See
+     * {@link LocalItemsDataSource#observeItemChanges(LocalItemsDataSource.ItemChangesCallback)}.
+     */
+    @NonNull
+    public Subscription observeItemChanges(
+            @NonNull LocalItemsDataSource.ItemChangesCallback callback) {
+        checkNotNull(callback);
+        return mItemsLocalDataSource.observeItemChanges(callback);
+    }
+
+    /**
+     * Reloads a page of rows from the local data source. See
+     * {@link LocalItemsDataSource#getItemRowsBetween(String, String, LoadItemRowsPageCallback)}.
+     */
+    public void getItemRowsBetween(@NonNull String afterKey, @NonNull String lastKey,
+                                   @NonNull LoadItemRowsPageCallback callback) {
+        checkNotNull(callback);
+        mItemsLocalDataSource.getItemRowsBetween(afterKey, lastKey, callback);
+    }
+
+    /**
+     * Observes an item of the local data source, keeping the cache up to date with every change
+     * pushed to {@code callback}. If the local data source doesn't have the item when the
+     * observation starts, it is fetched once from the network and stored locally, which pushes it
+     * to {@code callback} like any other change.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItem(@NonNull final String itemId,
+                                    @NonNull final GetItemCallback callback) {
+        checkNotNull(itemId);
+        checkNotNull(callback);
+        final AtomicBoolean unsubscribed = new AtomicBoolean(false);
+        final AtomicBoolean firstResult = new AtomicBoolean(true);
+        final Subscription localSubscription = mItemsLocalDataSource.observeItem(itemId,
+                new GetItemCallback() {
+                    @Override
+                    public void onItemLoaded(Item item) {
+                        firstResult.set(false);
+                        cacheItem(item);
+                        callback.onItemLoaded(item);
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        if (firstResult.getAndSet(false)) {
+                            getItemFromRemoteDataSource(itemId, unsubscribed, callback);
+                        } else {
+                            // The item was deleted.
+                            callback.onDataNotAvailable();
+                        }
+                    }
+                });
+        return new Subscription() {
+            @Override
+            public void unsubscribe() {
+                unsubscribed.set(true);
+                localSubscription.unsubscribe();
+            }
+        };
+    }
+
+    private void getItemFromRemoteDataSource(@NonNull String itemId,
+                                             @NonNull final AtomicBoolean unsubscribed,
+                                             @NonNull final GetItemCallback callback) {
+        mItemsRemoteDataSource.getItem(itemId, new GetItemCallback() {
+            @Override
+            public void onItemLoaded(Item item) {
+                if (unsubscribed.get()) {
+                    return;
+                }
+                if (item == null) {
+                    callback.onDataNotAvailable();
+                    return;
+                }
+                cacheItem(item);
+                mItemsLocalDataSource.writePulledItems(Collections.singletonList(item),
+                        Collections.<String>emptyList());
+                callback.onItemLoaded(item);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                if (!unsubscribed.get()) {
+                    callback.onDataNotAvailable();
+                }
+            }
+        });
+    }
+
     @Override
     public void refreshItems() {
         mCacheIsDirty = true;
     }
 
+    /**
+     * Stores {@code items} as the content of the backend, like a refresh does: the local data
+     * source applies the difference, keeping the changes not sent yet, and the backend isn't
+     * written to. Every write to the backend goes through the {@link ItemsOutbox}, so that it is
+     * retried until it succeeds.
+     */
+    @Override
+    public void replaceAllItems(@NonNull List<Item> items) {
+        checkNotNull(items);
+        mItemsLocalDataSource.replaceAllItems(items);
+        refreshCache(items);
+    }
+
     @Override
     public void deleteAllItems() {
-        mItemsRemoteDataSource.deleteAllItems();
         mItemsLocalDataSource.deleteAllItems();
+        mItemsOutbox.replay();
 
-        if (mCachedItems == null) {
-            mCachedItems = new LinkedHashMap<>();
-        }
         mCachedItems.clear();
+        mItemsSnapshot.clear();
     }
 
     @Override
     public void deleteItem(@NonNull String itemId) {
-        mItemsRemoteDataSource.deleteItem(checkNotNull(itemId));
         mItemsLocalDataSource.deleteItem(checkNotNull(itemId));
+        mItemsOutbox.replay();
 
-        try {
-            if (!itemId.isEmpty()) {
-                FirebaseDatabase mFirebaseInstance = FirebaseDatabase.getInstance();
-                DatabaseReference mFirebaseDatabase = mFirebaseInstance.getReference("items");
-                mFirebaseDatabase.child(itemId).removeValue();
-            }
-        } catch (Exception e) {
+        uncacheItem(itemId);
+    }
+
+    @Override
+    public void deleteItems(@NonNull List<String> itemIds) {
+        checkNotNull(itemIds);
+        mItemsLocalDataSource.deleteItems(itemIds);
+        mItemsOutbox.replay();
+
+        for (String itemId : itemIds) {
+            uncacheItem(itemId);
         }
+    }
 
-        mCachedItems.remove(itemId);
+    /**
+     * Stores the changes read from the backend locally, without replaying them to the backend,
+     * and keeps the cache in line with them.
+     */
+    @Override
+    public void writePulledItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds) {
+        checkNotNull(items);
+        checkNotNull(deletedItemIds);
+        mItemsLocalDataSource.writePulledItems(items, deletedItemIds);
+
+        for (Item item : items) {
+            cacheItem(item);
+        }
+        for (String itemId : deletedItemIds) {
+            uncacheItem(itemId);
+        }
     }
 
     private void getTasksFromRemoteDataSource(@NonNull final LoadItemsCallback callback) {
@@ -215,7 +766,39 @@ public class ItemsRepository implements ItemsDataSource {
             public void onItemsLoaded(List<Item> tasks) {
                 refreshCache(tasks);
                 refreshLocalDataSource(tasks);
-                callback.onItemsLoaded(new ArrayList<>(mCachedItems.values()));
+                callback.onItemsLoaded(mItemsSnapshot.values());
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    private void getTasksFromLocalDataSource(@NonNull final LoadItemsCallback callback) {
+        mItemsLocalDataSource.getItems(new LoadItemsCallback() {
+            @Override
+            public void onItemsLoaded(List<Item> tasks) {
+                // Still stale, so the cache stays dirty.
+                callback.onItemsLoaded(tasks);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    private void getTasksPageFromRemoteDataSource(final int pageSize,
+                                                  @NonNull final LoadItemsPageCallback callback) {
+        mItemsRemoteDataSource.getItems(new LoadItemsCallback() {
+            @Override
+            public void onItemsLoaded(List<Item> tasks) {
+                refreshCache(tasks);
+                refreshLocalDataSource(tasks);
+                ItemsPaging.deliverPage(tasks, pageSize, null, callback);
             }
 
             @Override
@@ -226,30 +809,73 @@ public class ItemsRepository implements ItemsDataSource {
     }
 
     private void refreshCache(List<Item> tasks) {
-        if (mCachedItems == null) {
-            mCachedItems = new LinkedHashMap<>();
-        }
+        mItemsSnapshot.replaceAll(tasks);
+        // The snapshot now has every item, drop recently used ones that may be stale.
         mCachedItems.clear();
-        for (Item task : tasks) {
-            mCachedItems.put(task.getId(), task);
-        }
+        mMissingItems.invalidateAll();
         mCacheIsDirty = false;
     }
 
-    private void refreshLocalDataSource(List<Item> tasks) {
-        mItemsLocalDataSource.deleteAllItems();
-        for (Item task : tasks) {
-            mItemsLocalDataSource.saveItem(task);
+    private void cacheItem(@NonNull Item item) {
+        mMissingItems.invalidate(item.getId());
+        mCachedItems.put(item);
+        if (mItemsSnapshot.isInitialized()) {
+            mItemsSnapshot.put(item);
+        }
+    }
+
+    private void uncacheItem(@NonNull String itemId) {
+        mCachedItems.remove(itemId);
+        if (mItemsSnapshot.isInitialized()) {
+            mItemsSnapshot.remove(itemId);
         }
     }
 
+    private void refreshLocalDataSource(List<Item> tasks) {
+        mItemsLocalDataSource.replaceAllItems(tasks);
+    }
+
+    /**
+     * Returns the number of loads that actually queried a data source.
+     */
+    public long getStartedLoadCount() {
+        return mItemsLoads.getStartedCount() + mPageLoads.getStartedCount()
+                + mRowPageLoads.getStartedCount() + mItemLoads.getStartedCount();
+    }
+
+    /**
+     * Returns the number of requests that were served by a load already in flight instead of
+     * starting their own.
+     */
+    public long getCoalescedLoadCount() {
+        return mItemsLoads.getCoalescedCount() + mPageLoads.getCoalescedCount()
+                + mRowPageLoads.getCoalescedCount() + mItemLoads.getCoalescedCount();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache of recently used items.
+     */
+    @NonNull
+    public CacheStats getCacheStats() {
+        return mCachedItems.stats();
+    }
+
+    /**
+     * Returns the hit and miss counts of the cache of missing item ids. A hit is a lookup that
+     * failed fast without querying the data sources.
+     */
+    @NonNull
+    public CacheStats getMissingItemsCacheStats() {
+        return mMissingItems.stats();
+    }
+
     @Nullable
     private Item getTaskWithId(@NonNull String id) {
         checkNotNull(id);
-        if (mCachedItems == null || mCachedItems.isEmpty()) {
-            return null;
-        } else {
-            return mCachedItems.get(id);
+        Item item = mCachedItems.get(id);
+        if (item == null && mItemsSnapshot.isInitialized() && !mCacheIsDirty) {
+            item = mItemsSnapshot.get(id);
         }
+        return item;
     }
 }
@@ -0,0 +1,43 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Set;
+
+/**
+ * The data source of the items stored on this device. Its saves and deletes are the changes made
+ * on this device: each one is recorded in the {@link ItemsOutbox} by the transaction that makes
+ * it, so that no committed change is kept from the backend, even if the process dies right after.
+ * The changes read from the backend are stored with
+ * {@link #writePulledItems(java.util.List, java.util.List)} instead, which doesn't queue them.
+ */
+public interface LocalItemsDataSource extends ItemsDataSource, PulledItemsWriter {
+
+    interface ItemChangesCallback {
+
+        /**
+         * @param itemIds ids of the items written or deleted, or null if any item may have
+         *                changed
+         */
+        void onItemsChanged(@Nullable Set<String> itemIds);
+    }
+
+    /**
+     * Calls {@code callback} on the main thread after every write of this data source commits,
+     * with the ids it wrote, until the returned {@link Subscription} is unsubscribed. Unlike
+     * {@link #observeItemRows(int, LoadItemRowsPageCallback)}, nothing is read: observers can
+     * reload only what the written items touch.
+     */
+    @NonNull
+    Subscription observeItemChanges(@NonNull ItemChangesCallback callback);
+
+    /**
+     * Loads the rows of the items whose ids follow {@code afterKey} up to {@code lastKey}
+     * included, however many there are, to reload a page that was read with
+     * {@link #getItemRowsPage(int, String, LoadItemRowsPageCallback)}. The page key passed to
+     * {@code callback} is {@code lastKey}.
+     */
+    void getItemRowsBetween(@NonNull String afterKey, @NonNull String lastKey,
+                            @NonNull LoadItemRowsPageCallback callback);
+}
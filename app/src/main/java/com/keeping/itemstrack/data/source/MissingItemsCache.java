@@ -0,0 +1,80 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Ids recently found in none of the data sources, so that looking them up again fails fast
+ * instead of querying the disk and the network. Entries expire shortly after being added, since
+ * the item may be created elsewhere in the meantime.
+ * <p>
+ * Safe to use from multiple threads.
+ */
+public final class MissingItemsCache {
+
+    /**
+     * How long an id is remembered as missing when no other duration is configured.
+     */
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Bounds the memory used when many unknown ids are looked up, e.g. by a broken deep link.
+     */
+    private static final int MAX_SIZE = 256;
+
+    private final Cache<String, Boolean> mCache;
+
+    public MissingItemsCache() {
+        this(DEFAULT_TTL_MILLIS, Ticker.systemTicker());
+    }
+
+    public MissingItemsCache(long ttlMillis, @NonNull Ticker ticker) {
+        checkArgument(ttlMillis > 0, "ttlMillis must be positive");
+        mCache = CacheBuilder.newBuilder()
+                .maximumSize(MAX_SIZE)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .ticker(checkNotNull(ticker))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns true if {@code itemId} was recently found missing. Counts as a hit if so, and as a
+     * miss otherwise.
+     */
+    public boolean isMissing(@NonNull String itemId) {
+        return mCache.getIfPresent(checkNotNull(itemId)) != null;
+    }
+
+    public void markMissing(@NonNull String itemId) {
+        mCache.put(checkNotNull(itemId), Boolean.TRUE);
+    }
+
+    /**
+     * Forgets that {@code itemId} was missing, because it was just saved or loaded.
+     */
+    public void invalidate(@NonNull String itemId) {
+        mCache.invalidate(checkNotNull(itemId));
+    }
+
+    public void invalidateAll() {
+        mCache.invalidateAll();
+    }
+
+    /**
+     * Returns the hit and miss counts since this cache was created.
+     */
+    @NonNull
+    public CacheStats stats() {
+        return mCache.stats();
+    }
+}
@@ -0,0 +1,22 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.List;
+
+/**
+ * Stores on this device the changes read from the backend. Unlike the saves and deletes of an
+ * {@link ItemsDataSource}, they are written locally only and never queued in the
+ * {@link ItemsOutbox}: the backend has them already.
+ */
+public interface PulledItemsWriter {
+
+    /**
+     * Saves {@code items} and deletes the items with ids {@code deletedItemIds} as one batch. The
+     * items are stored with the {@link Item#getUpdatedAt()} and {@link Item#getVersion()} the
+     * backend gave them.
+     */
+    void writePulledItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds);
+}
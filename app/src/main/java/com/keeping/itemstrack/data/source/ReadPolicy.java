@@ -0,0 +1,33 @@
+package com.keeping.itemstrack.data.source;
+
+/**
+ * Where {@link ItemsRepository#getItems(ReadPolicy, ItemsDataSource.LoadItemsCallback)} reads
+ * the items from, trading freshness for latency.
+ */
+public enum ReadPolicy {
+
+    /**
+     * Only the in-memory cache is read. Never touches the disk or the network, and fires
+     * {@code onDataNotAvailable()} if no list has been loaded yet.
+     */
+    CACHE_ONLY,
+
+    /**
+     * The cache if it's up to date, otherwise the local data source, and the network only if the
+     * local data source is empty.
+     */
+    LOCAL_FIRST,
+
+    /**
+     * The network, falling back to the local data source if it fails. The local data source and
+     * the cache are refreshed with the network result.
+     */
+    REMOTE_FIRST,
+
+    /**
+     * The cache or the local data source right away, even if stale, then the network in the
+     * background. If the network result differs from what was served, the callback is called a
+     * second time with the reconciled items.
+     */
+    STALE_WHILE_REVALIDATE
+}
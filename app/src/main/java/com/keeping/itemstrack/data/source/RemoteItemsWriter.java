@@ -0,0 +1,28 @@
+package com.keeping.itemstrack.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.util.List;
+
+/**
+ * Writes to the backend that report whether they were applied, so that failed writes can be
+ * retried by the {@link ItemsOutbox}.
+ */
+public interface RemoteItemsWriter {
+
+    interface WriteCallback {
+
+        void onWriteSucceeded();
+
+        void onWriteFailed(@NonNull Exception error);
+    }
+
+    /**
+     * Saves {@code items} and deletes the items with ids {@code deletedItemIds} as one batch.
+     * {@code callback} may be called on any thread.
+     */
+    void writeItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                    @NonNull WriteCallback callback);
+}
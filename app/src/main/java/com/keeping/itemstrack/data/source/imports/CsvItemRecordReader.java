@@ -0,0 +1,151 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads records from CSV as described by RFC 4180: fields separated by commas, optionally quoted
+ * with double quotes, quotes doubled inside quoted fields, and quoted fields spanning lines. The
+ * first row names the columns, columns that aren't item fields are ignored and blank rows are
+ * skipped.
+ * <p>
+ * Only one row is held in memory at a time, wrap {@code reader} in a
+ * {@link java.io.BufferedReader} for speed.
+ */
+public class CsvItemRecordReader implements ItemRecordReader {
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private static final int END = -1;
+
+    private final Reader mReader;
+
+    private final StringBuilder mField = new StringBuilder();
+
+    private String[] mHeader;
+
+    // Character read ahead of the current row, or END if none.
+    private int mPushedBack = END;
+
+    private boolean mStarted;
+
+    public CsvItemRecordReader(@NonNull Reader reader) {
+        mReader = checkNotNull(reader);
+    }
+
+    @Nullable
+    @Override
+    public ItemRecord next() throws IOException {
+        if (mHeader == null) {
+            List<String> header = readRow();
+            if (header == null) {
+                return null;
+            }
+            mHeader = header.toArray(new String[header.size()]);
+        }
+        List<String> row = readRow();
+        if (row == null) {
+            return null;
+        }
+        ItemRecord record = new ItemRecord();
+        for (int i = 0; i < row.size() && i < mHeader.length; i++) {
+            record.set(mHeader[i], row.get(i));
+        }
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Returns the fields of the next row that isn't blank, or null at the end of the input.
+     */
+    @Nullable
+    private List<String> readRow() throws IOException {
+        int c = read();
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == END) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        while (true) {
+            mField.setLength(0);
+            if (c == '"') {
+                c = readQuotedField();
+            } else {
+                while (c != ',' && c != '\r' && c != '\n' && c != END) {
+                    mField.append((char) c);
+                    c = read();
+                }
+            }
+            fields.add(mField.toString());
+            if (c == ',') {
+                c = read();
+            } else {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        mPushedBack = next;
+                    }
+                }
+                return fields;
+            }
+        }
+    }
+
+    /**
+     * Reads a quoted field into {@link #mField}, the opening quote having been read, and returns
+     * the character following it.
+     *
+     * @throws IOException if the input ends inside the quotes
+     */
+    private int readQuotedField() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == END) {
+                throw new IOException("Unterminated quoted field");
+            }
+            if (c == '"') {
+                c = read();
+                if (c != '"') {
+                    // Characters between the closing quote and the separator aren't valid, keep
+                    // them rather than losing data.
+                    while (c != ',' && c != '\r' && c != '\n' && c != END) {
+                        mField.append((char) c);
+                        c = read();
+                    }
+                    return c;
+                }
+            }
+            mField.append((char) c);
+        }
+    }
+
+    private int read() throws IOException {
+        int c;
+        if (mPushedBack != END) {
+            c = mPushedBack;
+            mPushedBack = END;
+        } else {
+            c = mReader.read();
+        }
+        if (!mStarted) {
+            mStarted = true;
+            if (c == BYTE_ORDER_MARK) {
+                c = mReader.read();
+            }
+        }
+        return c;
+    }
+}
@@ -0,0 +1,97 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes records as CSV read back by {@link CsvItemRecordReader}: a header row naming the fields,
+ * then one row per record with CRLF line endings. Fields are quoted when they contain separators,
+ * quotes or line breaks. Null fields are written as empty fields.
+ */
+public class CsvItemRecordWriter implements ItemRecordWriter {
+
+    private static final String LINE_END = "\r\n";
+
+    private final Writer mWriter;
+
+    private boolean mHeaderWritten;
+
+    public CsvItemRecordWriter(@NonNull Writer writer) {
+        mWriter = checkNotNull(writer);
+    }
+
+    @Override
+    public void write(@NonNull ItemRecord record) throws IOException {
+        writeHeaderIfNeeded();
+        writeRow(record.getValues());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writeHeaderIfNeeded();
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void writeHeaderIfNeeded() throws IOException {
+        if (!mHeaderWritten) {
+            mHeaderWritten = true;
+            writeRow(ItemRecord.FIELDS);
+        }
+    }
+
+    private void writeRow(@NonNull String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                mWriter.write(',');
+            }
+            writeField(fields[i]);
+        }
+        mWriter.write(LINE_END);
+    }
+
+    private void writeField(@Nullable String field) throws IOException {
+        if (field == null || field.isEmpty()) {
+            return;
+        }
+        if (!needsQuotes(field)) {
+            mWriter.write(field);
+            return;
+        }
+        mWriter.write('"');
+        int start = 0;
+        for (int i = 0; i < field.length(); i++) {
+            if (field.charAt(i) == '"') {
+                mWriter.write(field, start, i + 1 - start);
+                mWriter.write('"');
+                start = i + 1;
+            }
+        }
+        mWriter.write(field, start, field.length() - start);
+        mWriter.write('"');
+    }
+
+    private static boolean needsQuotes(@NonNull String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package com.keeping.itemstrack.data.source.imports;
+
+/**
+ * Immutable snapshot of how far an import is.
+ */
+public final class ImportProgress {
+
+    private final int mRecordsImported;
+
+    private final int mRecordsResumed;
+
+    private final int mRecordsSkipped;
+
+    private final long mBytesRead;
+
+    private final long mTotalBytes;
+
+    private final long mElapsedMillis;
+
+    /**
+     * @param recordsImported records committed to the database, including those of earlier runs
+     * @param recordsResumed  records committed by earlier runs of the same import
+     * @param recordsSkipped  empty records, which aren't imported
+     * @param bytesRead       bytes read from the file
+     * @param totalBytes      size of the file, or -1 if it isn't known
+     * @param elapsedMillis   time since this run started
+     */
+    public ImportProgress(int recordsImported, int recordsResumed, int recordsSkipped,
+                          long bytesRead, long totalBytes, long elapsedMillis) {
+        mRecordsImported = recordsImported;
+        mRecordsResumed = recordsResumed;
+        mRecordsSkipped = recordsSkipped;
+        mBytesRead = bytesRead;
+        mTotalBytes = totalBytes;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    public int getRecordsImported() {
+        return mRecordsImported;
+    }
+
+    public int getRecordsResumed() {
+        return mRecordsResumed;
+    }
+
+    public int getRecordsSkipped() {
+        return mRecordsSkipped;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Returns the size of the file, or -1 if it isn't known.
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * Returns the records imported per second by this run, not counting resumed records.
+     */
+    public double getRecordsPerSecond() {
+        if (mElapsedMillis <= 0) {
+            return 0;
+        }
+        return (mRecordsImported - mRecordsResumed) * 1000.0 / mElapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Import progress: " + mRecordsImported + " records, " + mBytesRead + "/"
+                + mTotalBytes + " bytes";
+    }
+}
@@ -0,0 +1,52 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Formats items are imported from and exported to.
+ */
+public enum ItemFileFormat {
+
+    /**
+     * Comma-separated values with a header row, see {@link CsvItemRecordReader}.
+     */
+    CSV {
+        @NonNull
+        @Override
+        public ItemRecordReader newReader(@NonNull Reader reader) {
+            return new CsvItemRecordReader(reader);
+        }
+
+        @NonNull
+        @Override
+        public ItemRecordWriter newWriter(@NonNull Writer writer) {
+            return new CsvItemRecordWriter(writer);
+        }
+    },
+
+    /**
+     * An array of objects, see {@link JsonItemRecordReader}.
+     */
+    JSON {
+        @NonNull
+        @Override
+        public ItemRecordReader newReader(@NonNull Reader reader) {
+            return new JsonItemRecordReader(reader);
+        }
+
+        @NonNull
+        @Override
+        public ItemRecordWriter newWriter(@NonNull Writer writer) {
+            return new JsonItemRecordWriter(writer);
+        }
+    };
+
+    @NonNull
+    public abstract ItemRecordReader newReader(@NonNull Reader reader);
+
+    @NonNull
+    public abstract ItemRecordWriter newWriter(@NonNull Writer writer);
+}
@@ -0,0 +1,120 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Strings;
+import com.keeping.itemstrack.data.Item;
+
+import java.util.Locale;
+
+/**
+ * One item as read from an import file or written to an export file. Fields missing from the file
+ * are null.
+ */
+public final class ItemRecord {
+
+    /**
+     * Names of the fields, as found in CSV headers and JSON keys. Matched ignoring case when
+     * reading.
+     */
+    static final String ID = "id";
+
+    static final String TITLE = "title";
+
+    static final String DESCRIPTION = "description";
+
+    static final String COST = "cost";
+
+    static final String LOCATION = "location";
+
+    static final String IMAGE_PATH = "imagepath";
+
+    /**
+     * The field names in the order files are written.
+     */
+    static final String[] FIELDS = {ID, TITLE, DESCRIPTION, COST, LOCATION, IMAGE_PATH};
+
+    private String mId;
+
+    private String mTitle;
+
+    private String mDescription;
+
+    private String mCost;
+
+    private String mLocation;
+
+    private String mImagePath;
+
+    ItemRecord() {
+    }
+
+    public ItemRecord(@Nullable String id, @Nullable String title, @Nullable String description,
+                      @Nullable String cost, @Nullable String location,
+                      @Nullable String imagePath) {
+        mId = id;
+        mTitle = title;
+        mDescription = description;
+        mCost = cost;
+        mLocation = location;
+        mImagePath = imagePath;
+    }
+
+    /**
+     * Sets the field named {@code name}, ignoring names that aren't item fields.
+     */
+    void set(@NonNull String name, @Nullable String value) {
+        switch (name.trim().toLowerCase(Locale.US)) {
+            case ID:
+                mId = value;
+                break;
+            case TITLE:
+                mTitle = value;
+                break;
+            case DESCRIPTION:
+                mDescription = value;
+                break;
+            case COST:
+                mCost = value;
+                break;
+            case LOCATION:
+                mLocation = value;
+                break;
+            case IMAGE_PATH:
+                mImagePath = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Returns the values of the fields, in the order of {@link #FIELDS}.
+     */
+    @NonNull
+    String[] getValues() {
+        return new String[]{mId, mTitle, mDescription, mCost, mLocation, mImagePath};
+    }
+
+    /**
+     * Returns true if the record has nothing to import, like the empty rows spreadsheets leave.
+     */
+    public boolean isEmpty() {
+        return Strings.isNullOrEmpty(mTitle) && Strings.isNullOrEmpty(mDescription)
+                && Strings.isNullOrEmpty(mCost) && Strings.isNullOrEmpty(mLocation)
+                && Strings.isNullOrEmpty(mImagePath);
+    }
+
+    /**
+     * Returns the item of this record.
+     *
+     * @param fallbackId id of the item if the record has none
+     */
+    @NonNull
+    public Item toItem(@NonNull String fallbackId) {
+        String id = Strings.isNullOrEmpty(mId) ? fallbackId : mId;
+        return new Item(mTitle, mDescription, mCost, mLocation, Strings.nullToEmpty(mImagePath),
+                id);
+    }
+}
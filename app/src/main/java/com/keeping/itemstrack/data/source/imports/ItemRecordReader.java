@@ -0,0 +1,21 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the records of an import file one at a time, so that files of any size can be imported
+ * with a constant amount of memory.
+ */
+public interface ItemRecordReader extends Closeable {
+
+    /**
+     * Returns the next record, or null at the end of the file.
+     *
+     * @throws IOException if the file can't be read or isn't well-formed
+     */
+    @Nullable
+    ItemRecord next() throws IOException;
+}
@@ -0,0 +1,21 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Writes records to a file one at a time, in a format an {@link ItemRecordReader} reads back.
+ */
+public interface ItemRecordWriter extends Closeable, Flushable {
+
+    void write(@NonNull ItemRecord record) throws IOException;
+
+    /**
+     * Writes the end of the file and flushes it, without closing it. Nothing can be written
+     * afterwards. A file closed without being finished may be incomplete.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,61 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads records from a JSON array of objects, such as
+ * {@code [{"id": "1", "title": "Lamp", "cost": 12.5}]}. Strings and numbers are read as text,
+ * keys that aren't item fields and nested values are ignored.
+ * <p>
+ * The array is parsed as it is read, only one object is held in memory at a time.
+ */
+public class JsonItemRecordReader implements ItemRecordReader {
+
+    private final JsonReader mReader;
+
+    private boolean mStarted;
+
+    public JsonItemRecordReader(@NonNull Reader reader) {
+        mReader = new JsonReader(checkNotNull(reader));
+    }
+
+    @Nullable
+    @Override
+    public ItemRecord next() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            mReader.beginArray();
+        }
+        if (!mReader.hasNext()) {
+            return null;
+        }
+        ItemRecord record = new ItemRecord();
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            JsonToken token = mReader.peek();
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                record.set(name, mReader.nextString());
+            } else if (token == JsonToken.NULL) {
+                mReader.nextNull();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,61 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import android.support.annotation.NonNull;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes records as a JSON array of objects read back by {@link JsonItemRecordReader}. Null
+ * fields are left out of the objects.
+ */
+public class JsonItemRecordWriter implements ItemRecordWriter {
+
+    private final JsonWriter mWriter;
+
+    private boolean mStarted;
+
+    public JsonItemRecordWriter(@NonNull Writer writer) {
+        mWriter = new JsonWriter(checkNotNull(writer));
+    }
+
+    @Override
+    public void write(@NonNull ItemRecord record) throws IOException {
+        startIfNeeded();
+        String[] values = record.getValues();
+        mWriter.beginObject();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                mWriter.name(ItemRecord.FIELDS[i]).value(values[i]);
+            }
+        }
+        mWriter.endObject();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        startIfNeeded();
+        mWriter.endArray();
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+    private void startIfNeeded() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            mWriter.beginArray();
+        }
+    }
+}
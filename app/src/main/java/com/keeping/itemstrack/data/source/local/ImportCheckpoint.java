@@ -0,0 +1,55 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+/**
+ * How far an import got, committed with each batch of imported items so that an interrupted
+ * import can resume after the last batch instead of starting over.
+ */
+@Entity(tableName = "import_checkpoints")
+public final class ImportCheckpoint {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "importId")
+    private final String mImportId;
+
+    /**
+     * Number of records of the file that were read and committed, empty ones included.
+     */
+    @ColumnInfo(name = "committedRecords")
+    private final int mCommittedRecords;
+
+    /**
+     * Wall clock time of the last commit, in milliseconds.
+     */
+    @ColumnInfo(name = "updatedAt")
+    private final long mUpdatedAt;
+
+    public ImportCheckpoint(@NonNull String importId, int committedRecords, long updatedAt) {
+        mImportId = importId;
+        mCommittedRecords = committedRecords;
+        mUpdatedAt = updatedAt;
+    }
+
+    @NonNull
+    public String getImportId() {
+        return mImportId;
+    }
+
+    public int getCommittedRecords() {
+        return mCommittedRecords;
+    }
+
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportCheckpoint{" + mImportId + ", committedRecords=" + mCommittedRecords + "}";
+    }
+}
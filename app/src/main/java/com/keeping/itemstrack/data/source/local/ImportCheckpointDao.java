@@ -0,0 +1,38 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+/**
+ * Data Access Object for the import checkpoints table.
+ */
+@Dao
+public interface ImportCheckpointDao {
+
+    /**
+     * Select the checkpoint of an import.
+     *
+     * @param importId the import id.
+     * @return the checkpoint, or null if the import never committed a batch or finished.
+     */
+    @Query("SELECT * FROM import_checkpoints WHERE importId = :importId")
+    ImportCheckpoint getCheckpoint(String importId);
+
+    /**
+     * Insert a checkpoint, replacing the previous one of the same import.
+     *
+     * @param checkpoint the checkpoint to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertCheckpoint(ImportCheckpoint checkpoint);
+
+    /**
+     * Delete the checkpoint of an import.
+     *
+     * @param importId the import id.
+     */
+    @Query("DELETE FROM import_checkpoints WHERE importId = :importId")
+    void deleteCheckpoint(String importId);
+}
@@ -0,0 +1,66 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.source.ItemBuckets;
+
+/**
+ * The hash of one bucket of the {@link ItemBuckets} tree of the local items, kept up to date by
+ * the triggers of {@link ItemBucketTriggers} so that comparing buckets with the cloud doesn't
+ * read the items. Buckets of short ids have the same prefix at several levels, hence the level
+ * in the key.
+ */
+@Entity(tableName = "item_buckets", primaryKeys = {"level", "prefix"})
+public final class ItemBucket {
+
+    /**
+     * Length of the prefixes of the level of the bucket, from 1 to
+     * {@link ItemBuckets#LEAF_PREFIX_LENGTH}.
+     */
+    @ColumnInfo(name = "level")
+    private final int mLevel;
+
+    @NonNull
+    @ColumnInfo(name = "prefix")
+    private final String mPrefix;
+
+    /**
+     * Sum of the {@link ItemBuckets#bucketHash(long)} of the items of the bucket.
+     */
+    @ColumnInfo(name = "hash")
+    private final long mHash;
+
+    @ColumnInfo(name = "itemCount")
+    private final int mItemCount;
+
+    public ItemBucket(int level, @NonNull String prefix, long hash, int itemCount) {
+        mLevel = level;
+        mPrefix = prefix;
+        mHash = hash;
+        mItemCount = itemCount;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    @NonNull
+    public String getPrefix() {
+        return mPrefix;
+    }
+
+    public long getHash() {
+        return mHash;
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ItemBucket{" + mLevel + ", " + mPrefix + ", hash=" + mHash + "}";
+    }
+}
@@ -0,0 +1,35 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the item buckets table. The table is only written by the triggers of
+ * {@link ItemBucketTriggers}.
+ */
+@Dao
+public interface ItemBucketDao {
+
+    /**
+     * Select the buckets of a level below the given prefixes. Callers must pass at most 998
+     * prefixes, all of the same length.
+     *
+     * @param level        the level of the buckets.
+     * @param prefixLength the length of the prefixes.
+     * @param prefixes     the prefixes of the buckets one level up.
+     * @return the non-empty buckets below the prefixes, in no particular order.
+     */
+    @Query("SELECT * FROM item_buckets WHERE level = :level "
+            + "AND substr(prefix, 1, :prefixLength) IN (:prefixes)")
+    List<ItemBucket> getBuckets(int level, int prefixLength, List<String> prefixes);
+
+    /**
+     * Select all the buckets.
+     *
+     * @return all buckets, in level and prefix order.
+     */
+    @Query("SELECT * FROM item_buckets ORDER BY level, prefix")
+    List<ItemBucket> getAllBuckets();
+}
@@ -0,0 +1,118 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.keeping.itemstrack.data.source.ItemBuckets;
+
+/**
+ * Triggers that keep the item buckets table up to date as items are inserted, updated and
+ * deleted, so that each write adjusts the one bucket of the item at each level instead of every
+ * comparison hashing the whole items table.
+ * <p>
+ * The hash of an item is folded to its low 32 bits as in {@link ItemBuckets#bucketHash(long)},
+ * so that the sums never overflow SQLite integers, which would turn them into floating point.
+ * <p>
+ * Room 1.1 doesn't declare triggers, so they are created by {@link ItemsDatabase#MIGRATION_10_11}
+ * and {@link ItemsDatabase#EXTRA_SCHEMA_CALLBACK}.
+ */
+final class ItemBucketTriggers {
+
+    private ItemBucketTriggers() {
+    }
+
+    /**
+     * Creates the triggers. Call {@link #rebuild(SupportSQLiteDatabase)} if the items table
+     * already has items.
+     */
+    static void create(@NonNull SupportSQLiteDatabase database) {
+        // Room writes with INSERT OR REPLACE, and the delete triggers don't fire for the rows it
+        // replaces, so the replaced item is subtracted before the insert.
+        StringBuilder replaced = new StringBuilder();
+        for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+            String bucket = "`level` = " + level + " AND `prefix` = " + prefix("new", level);
+            replaced.append("UPDATE `item_buckets` SET `hash` = `hash` - (SELECT ")
+                    .append(hash("`items`"))
+                    .append(" FROM `items` WHERE `entryid` = new.`entryid`), ")
+                    .append("`itemCount` = `itemCount` - 1 WHERE ").append(bucket)
+                    .append(" AND EXISTS (SELECT 1 FROM `items` ")
+                    .append("WHERE `entryid` = new.`entryid`); ")
+                    .append("DELETE FROM `item_buckets` WHERE ").append(bucket)
+                    .append(" AND `itemCount` <= 0; ");
+        }
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `item_buckets_before_insert` "
+                + "BEFORE INSERT ON `items` BEGIN " + replaced + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `item_buckets_after_insert` "
+                + "AFTER INSERT ON `items` BEGIN "
+                + add("new") + " END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `item_buckets_after_update` "
+                + "AFTER UPDATE OF `entryid`, `contentHash` ON `items` BEGIN "
+                + subtract("old") + " "
+                + add("new") + " END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `item_buckets_after_delete` "
+                + "AFTER DELETE ON `items` BEGIN "
+                + subtract("old") + " END");
+    }
+
+    /**
+     * Recomputes all the buckets from the items.
+     */
+    static void rebuild(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("DELETE FROM `item_buckets`");
+        for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+            database.execSQL("INSERT INTO `item_buckets` (`level`, `prefix`, `hash`, `itemCount`) "
+                    + "SELECT " + level + ", " + prefix("`items`", level) + ", "
+                    + "SUM(" + hash("`items`") + "), COUNT(*) "
+                    + "FROM `items` GROUP BY " + prefix("`items`", level));
+        }
+    }
+
+    /**
+     * Returns the prefix of the bucket of the item {@code row} at {@code level}: its id if it is
+     * shorter, as {@link ItemBuckets#bucketOf(String, int)}.
+     */
+    private static String prefix(String row, int level) {
+        return "substr(" + row + ".`entryid`, 1, " + level + ")";
+    }
+
+    /**
+     * Returns the hash the item {@code row} adds to its buckets.
+     */
+    private static String hash(String row) {
+        return "(" + row + ".`contentHash` & 4294967295)";
+    }
+
+    /**
+     * Returns the statements adding the item {@code row} to its buckets.
+     */
+    private static String add(String row) {
+        StringBuilder statements = new StringBuilder();
+        for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+            String prefix = prefix(row, level);
+            statements.append("INSERT OR IGNORE INTO `item_buckets` ")
+                    .append("(`level`, `prefix`, `hash`, `itemCount`) VALUES (")
+                    .append(level).append(", ").append(prefix).append(", 0, 0); ")
+                    .append("UPDATE `item_buckets` SET `hash` = `hash` + ").append(hash(row))
+                    .append(", `itemCount` = `itemCount` + 1 ")
+                    .append("WHERE `level` = ").append(level)
+                    .append(" AND `prefix` = ").append(prefix).append(";");
+        }
+        return statements.toString();
+    }
+
+    /**
+     * Returns the statements removing the item {@code row} from its buckets, and the buckets
+     * themselves once they are empty.
+     */
+    private static String subtract(String row) {
+        StringBuilder statements = new StringBuilder();
+        for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+            String bucket = "`level` = " + level + " AND `prefix` = " + prefix(row, level);
+            statements.append("UPDATE `item_buckets` SET `hash` = `hash` - ").append(hash(row))
+                    .append(", `itemCount` = `itemCount` - 1 WHERE ").append(bucket).append("; ")
+                    .append("DELETE FROM `item_buckets` WHERE ").append(bucket)
+                    .append(" AND `itemCount` <= 0;");
+        }
+        return statements.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.support.annotation.NonNull;
+
+/**
+ * The content hash of a stored item, read without the rest of its row.
+ */
+public final class ItemHash {
+
+    @NonNull
+    @ColumnInfo(name = "entryid")
+    private final String mItemId;
+
+    @ColumnInfo(name = "contentHash")
+    private final long mContentHash;
+
+    public ItemHash(@NonNull String itemId, long contentHash) {
+        mItemId = itemId;
+        mContentHash = contentHash;
+    }
+
+    @NonNull
+    public String getItemId() {
+        return mItemId;
+    }
+
+    public long getContentHash() {
+        return mContentHash;
+    }
+}
@@ -0,0 +1,47 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+/**
+ * Records that an item was deleted, so that consumers reading the changes since their last visit
+ * learn about deletions and a refresh doesn't bring the item back from a backend that hasn't
+ * applied the delete yet. Kept for {@link ItemTombstonePurger#RETENTION_MILLIS}.
+ */
+@Entity(tableName = "item_tombstones", indices = {@Index("deletedAt")})
+public final class ItemTombstone {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "entryid")
+    private final String mItemId;
+
+    /**
+     * When the item was deleted, on the same clock as {@link
+     * com.keeping.itemstrack.data.Item#getUpdatedAt()}.
+     */
+    @ColumnInfo(name = "deletedAt")
+    private final long mDeletedAt;
+
+    public ItemTombstone(@NonNull String itemId, long deletedAt) {
+        mItemId = itemId;
+        mDeletedAt = deletedAt;
+    }
+
+    @NonNull
+    public String getItemId() {
+        return mItemId;
+    }
+
+    public long getDeletedAt() {
+        return mDeletedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ItemTombstone{" + mItemId + ", deletedAt=" + mDeletedAt + "}";
+    }
+}
@@ -0,0 +1,72 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the item tombstones table.
+ */
+@Dao
+public interface ItemTombstoneDao {
+
+    /**
+     * Insert tombstones, replacing the ones of the same items.
+     *
+     * @param tombstones the tombstones to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertTombstones(List<ItemTombstone> tombstones);
+
+    /**
+     * Select the items deleted after a given time, in the order they were deleted. Served from
+     * the deletedAt index.
+     *
+     * @param deletedAt time of the last deletion already seen, 0 for all tombstones.
+     * @return the tombstones with a later deletedAt, oldest first.
+     */
+    @Query("SELECT * FROM item_tombstones WHERE deletedAt > :deletedAt "
+            + "ORDER BY deletedAt, entryid")
+    List<ItemTombstone> getTombstonesSince(long deletedAt);
+
+    /**
+     * Select which of the given items were deleted. Callers must pass at most 999 ids.
+     *
+     * @param itemIds the item ids.
+     * @return the ids that have a tombstone, in no particular order.
+     */
+    @Query("SELECT entryid FROM item_tombstones WHERE entryid IN (:itemIds)")
+    List<String> getTombstonedIds(List<String> itemIds);
+
+    /**
+     * Select which of the given items were deleted after a given time. Callers must pass at most
+     * 998 ids.
+     *
+     * @param itemIds   the item ids.
+     * @param deletedAt time after which the deletes are selected.
+     * @return the ids that have a later tombstone, in no particular order.
+     */
+    @Query("SELECT entryid FROM item_tombstones WHERE entryid IN (:itemIds) "
+            + "AND deletedAt > :deletedAt")
+    List<String> getIdsDeletedSince(List<String> itemIds, long deletedAt);
+
+    /**
+     * @return the latest deletedAt, or 0 if there are no tombstones.
+     */
+    @Query("SELECT IFNULL(MAX(deletedAt), 0) FROM item_tombstones")
+    long getLastDeletedAt();
+
+    /**
+     * Delete the oldest tombstones of items deleted before a given time.
+     *
+     * @param deletedBefore the time before which tombstones are deleted.
+     * @param limit         maximum number of tombstones to delete.
+     * @return the number of tombstones deleted.
+     */
+    @Query("DELETE FROM item_tombstones WHERE entryid IN (SELECT entryid FROM item_tombstones "
+            + "WHERE deletedAt < :deletedBefore ORDER BY deletedAt LIMIT :limit)")
+    int purgeTombstones(long deletedBefore, int limit);
+}
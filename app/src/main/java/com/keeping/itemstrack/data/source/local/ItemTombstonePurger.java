@@ -0,0 +1,118 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Deletes the tombstones older than {@link #RETENTION_MILLIS} once a day, while the app runs.
+ * <p>
+ * Tombstones are deleted {@link #BATCH_SIZE} at a time, oldest first from the deletedAt index, each
+ * batch a statement of its own on {@link AppExecutors#diskWrite()} so that other writes aren't
+ * held up by a large purge.
+ */
+public class ItemTombstonePurger {
+
+    /**
+     * How long tombstones are kept. Longer than deletes can wait in the outbox for the backend,
+     * so a refresh doesn't bring back an item whose delete wasn't sent yet.
+     */
+    @VisibleForTesting
+    static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 500;
+
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Leaves the start of the app to the work the user is waiting for.
+    private static final long INITIAL_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile ItemTombstonePurger INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ItemTombstoneDao mTombstoneDao;
+
+    private final ScheduledExecutorService mScheduler;
+
+    @Nullable
+    private ScheduledFuture<?> mScheduledPurge;
+
+    @VisibleForTesting
+    ItemTombstonePurger(@NonNull AppExecutors appExecutors, @NonNull ItemsDatabase database,
+                        @NonNull ScheduledExecutorService scheduler) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mTombstoneDao = checkNotNull(database).itemTombstoneDao();
+        mScheduler = checkNotNull(scheduler);
+    }
+
+    public static ItemTombstonePurger getInstance(@NonNull AppExecutors appExecutors,
+                                                  @NonNull ItemsDatabase database) {
+        if (INSTANCE == null) {
+            synchronized (ItemTombstonePurger.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ItemTombstonePurger(appExecutors, database,
+                            Executors.newSingleThreadScheduledExecutor());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the daily purge, unless it is already scheduled.
+     */
+    public synchronized void start() {
+        if (mScheduledPurge != null) {
+            return;
+        }
+        mScheduledPurge = mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                purge(System.currentTimeMillis());
+            }
+        }, INITIAL_DELAY_MILLIS, PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (mScheduledPurge != null) {
+            mScheduledPurge.cancel(false);
+            mScheduledPurge = null;
+        }
+    }
+
+    /**
+     * Deletes the tombstones that expired at {@code now}.
+     */
+    @VisibleForTesting
+    void purge(long now) {
+        purgeBatch(now - RETENTION_MILLIS);
+    }
+
+    private void purgeBatch(final long deletedBefore) {
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                int purged = mTombstoneDao.purgeTombstones(deletedBefore, BATCH_SIZE);
+                if (purged == BATCH_SIZE) {
+                    purgeBatch(deletedBefore);
+                }
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+}
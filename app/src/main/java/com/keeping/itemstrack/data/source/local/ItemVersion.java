@@ -0,0 +1,31 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.support.annotation.NonNull;
+
+/**
+ * The version of a stored item, read without the rest of its row.
+ */
+public final class ItemVersion {
+
+    @NonNull
+    @ColumnInfo(name = "entryid")
+    private final String mItemId;
+
+    @ColumnInfo(name = "version")
+    private final long mVersion;
+
+    public ItemVersion(@NonNull String itemId, long version) {
+        mItemId = itemId;
+        mVersion = version;
+    }
+
+    @NonNull
+    public String getItemId() {
+        return mItemId;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+}
@@ -0,0 +1,143 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.support.annotation.NonNull;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stamps items with their {@link Item#getUpdatedAt()} and {@link Item#getVersion()} before they
+ * are written, and leaves an {@link ItemTombstone} for the items it deletes, so that consumers can
+ * read what changed since they last looked with {@link ItemsDao#getItemsChangedSince(long)} and
+ * {@link ItemTombstoneDao#getTombstonesSince(long)}.
+ * <p>
+ * Must be called inside the transaction that writes the items. SQLite runs one write transaction
+ * at a time, so every transaction reads the time of the previous one and stamps a later time,
+ * even if the wall clock went back: a consumer never misses a write by seeing a later one first,
+ * whichever thread or process made it.
+ */
+final class ItemWrites {
+
+    /**
+     * SQLite refuses statements with more than 999 bound parameters on older devices.
+     */
+    private static final int MAX_BIND_PARAMETERS = 999;
+
+    private ItemWrites() {
+    }
+
+    /**
+     * Creates the trigger removing the tombstone of an item that is written again, for instance
+     * when a delete is undone.
+     */
+    static void createTombstoneTrigger(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `item_tombstones_after_insert` "
+                + "AFTER INSERT ON `items` BEGIN "
+                + "DELETE FROM `item_tombstones` WHERE `entryid` = new.`entryid`; END");
+    }
+
+    /**
+     * Returns {@code item} stamped as its next version, written now.
+     */
+    @NonNull
+    static Item stamp(@NonNull ItemsDatabase database, @NonNull Item item) {
+        return stamp(database, Lists.newArrayList(item)).get(0);
+    }
+
+    /**
+     * Returns {@code items} stamped as their next versions, written now, in the same order. All
+     * items share the time of the transaction.
+     */
+    @NonNull
+    static List<Item> stamp(@NonNull ItemsDatabase database, @NonNull List<Item> items) {
+        long updatedAt = nextChangeAt(database);
+        Map<String, Long> versions = getVersions(database.itemDao(), getIds(items));
+        List<Item> stamped = new ArrayList<>(items.size());
+        for (Item item : items) {
+            Long version = versions.get(item.getId());
+            stamped.add(item.withWrite(updatedAt, version == null ? 1 : version + 1));
+        }
+        return stamped;
+    }
+
+    /**
+     * Deletes the items with the given ids, leaving a tombstone for each item that existed.
+     */
+    static void delete(@NonNull ItemsDatabase database, @NonNull List<String> itemIds) {
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        ItemsDao itemsDao = database.itemDao();
+        insertTombstones(database, getVersions(itemsDao, itemIds).keySet());
+        for (List<String> chunk : Lists.partition(itemIds, MAX_BIND_PARAMETERS)) {
+            itemsDao.deleteItemsByIds(chunk);
+        }
+    }
+
+    /**
+     * Deletes the items with the given ids without leaving tombstones, for deletes pulled from
+     * the cloud, which has them already.
+     */
+    static void deletePulled(@NonNull ItemsDatabase database, @NonNull List<String> itemIds) {
+        for (List<String> chunk : Lists.partition(itemIds, MAX_BIND_PARAMETERS)) {
+            database.itemDao().deleteItemsByIds(chunk);
+        }
+    }
+
+    /**
+     * Deletes all the items, leaving a tombstone for each.
+     */
+    static void deleteAll(@NonNull ItemsDatabase database) {
+        insertTombstones(database, database.itemDao().getItemIds());
+        database.itemDao().deleteItems();
+    }
+
+    private static void insertTombstones(@NonNull ItemsDatabase database,
+                                         @NonNull Iterable<String> itemIds) {
+        long deletedAt = nextChangeAt(database);
+        List<ItemTombstone> tombstones = new ArrayList<>();
+        for (String itemId : itemIds) {
+            tombstones.add(new ItemTombstone(itemId, deletedAt));
+        }
+        if (!tombstones.isEmpty()) {
+            database.itemTombstoneDao().insertTombstones(tombstones);
+        }
+    }
+
+    /**
+     * Returns the time of a change made now: the wall clock, unless it is not after the last
+     * write or delete.
+     */
+    private static long nextChangeAt(@NonNull ItemsDatabase database) {
+        long lastChangeAt = Math.max(database.itemDao().getLastUpdatedAt(),
+                database.itemTombstoneDao().getLastDeletedAt());
+        return Math.max(System.currentTimeMillis(), lastChangeAt + 1);
+    }
+
+    @NonNull
+    private static Map<String, Long> getVersions(@NonNull ItemsDao itemsDao,
+                                                 @NonNull List<String> itemIds) {
+        Map<String, Long> versions = new HashMap<>(itemIds.size());
+        for (List<String> chunk : Lists.partition(itemIds, MAX_BIND_PARAMETERS)) {
+            for (ItemVersion version : itemsDao.getItemVersions(chunk)) {
+                versions.put(version.getItemId(), version.getVersion());
+            }
+        }
+        return versions;
+    }
+
+    @NonNull
+    private static List<String> getIds(@NonNull List<Item> items) {
+        List<String> itemIds = new ArrayList<>(items.size());
+        for (Item item : items) {
+            itemIds.add(item.getId());
+        }
+        return itemIds;
+    }
+}
@@ -0,0 +1,1058 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+import com.keeping.itemstrack.data.source.ItemsCloud;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsDiff;
+import com.keeping.itemstrack.data.source.PulledItemsWriter;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+import com.keeping.itemstrack.data.source.remote.BatchingItemsWriter;
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Syncs the items of this device with an {@link ItemsCloud}, exchanging only what changed since
+ * the previous sync.
+ * <p>
+ * A sync first pushes the items written and deleted since the last successful push, found from
+ * the updatedAt and deletedAt indexes, {@link #PAGE_SIZE} at a time. Pages are grouped by a
+ * {@link BatchingItemsWriter} into single writes of up to {@link #MAX_BATCH_SIZE} changes, and the
+ * next pages are read while a batch is sent. It then pulls the cloud changes since the last pull
+ * and applies them through the repository. Both high-water marks are kept in the
+ * {@link SyncWatermarks} table: the push mark advances as the cloud confirms each batch, the pull
+ * mark once the pulled changes are applied. A failed sync is resumed by the next one, which at
+ * worst sends or applies some changes again.
+ * <p>
+ * Change times alone can miss changes, for instance ones stamped by a lagging clock before the
+ * pull mark. A sync ends by comparing the {@link ItemBuckets} hashes of the local items with the
+ * cloud's, level by level, and only reads the items of the leaf buckets that still differ: the
+ * cloud's items are applied like pulled ones, and the local items the cloud has no trace of are
+ * pushed again. When both sides agree this costs a single exchange of hashes. Both sides keep
+ * their bucket hashes up to date as items are written, locally in the {@link ItemBucket} table,
+ * so that comparing them doesn't read the items.
+ * <p>
+ * Between syncs, once {@link #start()} is called, the changes other devices make are observed
+ * with a single long-lived subscription to the cloud and applied as they come, grouped into
+ * batches of up to {@link #MAX_BATCH_SIZE} changes applied at once. The observation starts from
+ * the pull mark and moves it forward like a pull does, so a sync only pulls what the
+ * observation missed.
+ * <p>
+ * Pulled changes are written locally only, with the cloud's stamps, through
+ * {@link PulledItemsWriter}: they are never queued in the outbox nor found by the next push, so
+ * they don't echo back to the cloud. Pulled items equal to the local ones aren't written again.
+ * Local changes not pushed yet win over the pulled changes of the same items, and are pushed by
+ * the next sync.
+ */
+public class ItemsCloudSync {
+
+    /**
+     * Number of changes read at once.
+     */
+    @VisibleForTesting
+    static final int PAGE_SIZE = 250;
+
+    /**
+     * Number of changes sent to the cloud in a single write.
+     */
+    @VisibleForTesting
+    static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Pages submitted ahead of the cloud's confirmations: a batch is filled while the previous one
+     * is sent.
+     */
+    private static final int MAX_PAGES_IN_FLIGHT = 2 * MAX_BATCH_SIZE / PAGE_SIZE;
+
+    /**
+     * How long submitted changes wait for others to fill their batch. The push flushes its last
+     * batch itself, this only bounds the wait if a flush is missed.
+     */
+    private static final long MAX_BATCH_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * How long an observed change waits for others to be applied with it.
+     */
+    private static final long MAX_OBSERVED_DELAY_MILLIS = 250;
+
+    @VisibleForTesting
+    static final String SYNC_ID = "cloud";
+
+    /**
+     * SQLite refuses statements with more than 999 bound parameters on older devices.
+     */
+    private static final int MAX_BIND_PARAMETERS = 999;
+
+    private static final String TAG = "ItemsCloudSync";
+
+    private static volatile ItemsCloudSync INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ItemsDatabase mDatabase;
+
+    private final ItemsCloud mCloud;
+
+    private final BatchingItemsWriter mPushWriter;
+
+    private final PulledItemsWriter mItemsRepository;
+
+    private final ScheduledExecutorService mBatchScheduler;
+
+    private final AtomicBoolean mSyncing = new AtomicBoolean(false);
+
+    private final Object mObserveLock = new Object();
+
+    // Guarded by mObserveLock. Incremented on every start and stop, so that the changes of a
+    // stopped observation are dropped.
+    private int mObservation = 0;
+
+    // Guarded by mObserveLock.
+    private boolean mObserving = false;
+
+    // Guarded by mObserveLock.
+    @Nullable
+    private ItemsDataSource.Subscription mSubscription;
+
+    // Guarded by mObserveLock. The observed changes waiting to be applied, keyed by item id so
+    // that the last change of an item wins: the saved item, or null if the item is deleted.
+    private Map<String, Item> mObservedChanges = new LinkedHashMap<>();
+
+    // Guarded by mObserveLock. The latest change time of the observed changes.
+    private long mObservedUpTo = 0;
+
+    // Guarded by mObserveLock. Batches are applied one at a time, in order.
+    private boolean mApplyingObserved = false;
+
+    // Guarded by mObserveLock.
+    @Nullable
+    private ScheduledFuture<?> mScheduledApply;
+
+    /**
+     * Callbacks of a sync, called on the main thread.
+     */
+    public interface SyncCallback {
+
+        /**
+         * @param itemsPushed number of local changes sent to the cloud
+         * @param itemsPulled number of cloud changes applied locally
+         */
+        void onSyncFinished(int itemsPushed, int itemsPulled);
+
+        /**
+         * Called when the cloud can't be reached or refused a write. The steps that succeeded are
+         * kept, the next sync resumes after them.
+         */
+        void onSyncFailed(@NonNull Exception error);
+    }
+
+    @VisibleForTesting
+    ItemsCloudSync(@NonNull AppExecutors appExecutors, @NonNull ItemsDatabase database,
+                   @NonNull ItemsCloud cloud, @NonNull PulledItemsWriter itemsRepository,
+                   @NonNull ScheduledExecutorService batchScheduler) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mDatabase = checkNotNull(database);
+        mCloud = checkNotNull(cloud);
+        mBatchScheduler = checkNotNull(batchScheduler);
+        mPushWriter = new BatchingItemsWriter(cloud, MAX_BATCH_SIZE, MAX_BATCH_DELAY_MILLIS,
+                batchScheduler);
+        mItemsRepository = checkNotNull(itemsRepository);
+    }
+
+    public static ItemsCloudSync getInstance(@NonNull AppExecutors appExecutors,
+                                             @NonNull ItemsDatabase database,
+                                             @NonNull ItemsCloud cloud,
+                                             @NonNull PulledItemsWriter itemsRepository) {
+        if (INSTANCE == null) {
+            synchronized (ItemsCloudSync.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ItemsCloudSync(appExecutors, database, cloud,
+                            itemsRepository, Executors.newSingleThreadScheduledExecutor());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a sync, unless one is already running.
+     *
+     * @return false if a sync is already running, in which case {@code callback} isn't called
+     */
+    public boolean sync(@NonNull final SyncCallback callback) {
+        checkNotNull(callback);
+        if (!mSyncing.compareAndSet(false, true)) {
+            return false;
+        }
+        mAppExecutors.diskRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                SyncWatermarks watermarks =
+                        mDatabase.syncWatermarksDao().getWatermarks(SYNC_ID);
+                long pushedUpTo = watermarks == null ? 0 : watermarks.getPushedUpTo();
+                long pulledUpTo = watermarks == null ? 0 : watermarks.getPulledUpTo();
+                // Write transactions stamp times later than any committed one, so the changes
+                // committed after this read all have later times and are left to the next push.
+                long pushUpTo = Math.max(mDatabase.itemDao().getLastUpdatedAt(),
+                        mDatabase.itemTombstoneDao().getLastDeletedAt());
+                List<String> deletedItemIds = new ArrayList<>();
+                for (ItemTombstone tombstone :
+                        mDatabase.itemTombstoneDao().getTombstonesSince(pushedUpTo)) {
+                    deletedItemIds.add(tombstone.getItemId());
+                }
+                // Times are whole milliseconds: the items written after pushedUpTo are the ones
+                // written at pushedUpTo + 1 or later.
+                pushPages(new SyncRun(callback, pushUpTo, pulledUpTo, deletedItemIds,
+                        pushedUpTo + 1));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Starts observing the changes other devices make, unless they are observed already. The
+     * observation lasts until {@link #stop()} is called or the cloud ends it, in which case the
+     * next call starts it again.
+     */
+    public void start() {
+        final int observation;
+        synchronized (mObserveLock) {
+            if (mObserving) {
+                return;
+            }
+            mObserving = true;
+            observation = ++mObservation;
+        }
+        mAppExecutors.diskRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                SyncWatermarks watermarks =
+                        mDatabase.syncWatermarksDao().getWatermarks(SYNC_ID);
+                long pulledUpTo = watermarks == null ? 0 : watermarks.getPulledUpTo();
+                ItemsDataSource.Subscription subscription = mCloud.observeChanges(pulledUpTo,
+                        new ObservedChangesListener(observation));
+                synchronized (mObserveLock) {
+                    if (mObservation == observation) {
+                        mSubscription = subscription;
+                        return;
+                    }
+                }
+                // Stopped in the meantime.
+                subscription.unsubscribe();
+            }
+        });
+    }
+
+    public void stop() {
+        ItemsDataSource.Subscription subscription;
+        synchronized (mObserveLock) {
+            mObserving = false;
+            mObservation++;
+            subscription = mSubscription;
+            mSubscription = null;
+            mObservedChanges.clear();
+            if (mScheduledApply != null) {
+                mScheduledApply.cancel(false);
+                mScheduledApply = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Adds an observed change to the pending ones, and applies them once they fill a batch or
+     * waited long enough.
+     */
+    private void addObservedChange(int observation, @NonNull String itemId, @Nullable Item item,
+                                   long changedAt) {
+        boolean batchFull;
+        synchronized (mObserveLock) {
+            if (mObservation != observation) {
+                return;
+            }
+            mObservedChanges.put(itemId, item);
+            mObservedUpTo = Math.max(mObservedUpTo, changedAt);
+            batchFull = mObservedChanges.size() >= MAX_BATCH_SIZE;
+            if (!batchFull && mScheduledApply == null) {
+                mScheduledApply = mBatchScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyObservedChanges();
+                    }
+                }, MAX_OBSERVED_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batchFull) {
+            applyObservedChanges();
+        }
+    }
+
+    /**
+     * Applies the pending observed changes, unless a batch is being applied already, in which
+     * case they are applied once it is done.
+     */
+    @VisibleForTesting
+    void applyObservedChanges() {
+        final Map<String, Item> changes;
+        final long changedUpTo;
+        synchronized (mObserveLock) {
+            if (mScheduledApply != null) {
+                mScheduledApply.cancel(false);
+                mScheduledApply = null;
+            }
+            if (mApplyingObserved || mObservedChanges.isEmpty()) {
+                return;
+            }
+            mApplyingObserved = true;
+            changes = mObservedChanges;
+            changedUpTo = mObservedUpTo;
+            mObservedChanges = new LinkedHashMap<>();
+        }
+        mAppExecutors.diskRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Item> items = new ArrayList<>();
+                List<String> deletedItemIds = new ArrayList<>();
+                for (Map.Entry<String, Item> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        deletedItemIds.add(change.getKey());
+                    } else {
+                        items.add(change.getValue());
+                    }
+                }
+                SyncWatermarks watermarks =
+                        mDatabase.syncWatermarksDao().getWatermarks(SYNC_ID);
+                long pushedUpTo = watermarks == null ? 0 : watermarks.getPushedUpTo();
+                applyChanges(items, deletedItemIds, pushedUpTo, changedUpTo,
+                        new ChangesAppliedCallback() {
+                            @Override
+                            public void onChangesApplied(int itemsApplied) {
+                                synchronized (mObserveLock) {
+                                    mApplyingObserved = false;
+                                }
+                                applyObservedChanges();
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Submits pages of changes until {@link #MAX_PAGES_IN_FLIGHT} are waiting for the cloud, then
+     * records the push once the cloud confirmed the last page. Must be called on a disk thread.
+     */
+    private void pushPages(@NonNull SyncRun run) {
+        boolean pushed;
+        synchronized (run) {
+            while (!run.mFailed && !run.mAllSubmitted
+                    && run.mPagesInFlight < MAX_PAGES_IN_FLIGHT) {
+                submitNextPage(run);
+            }
+            pushed = !run.mFailed && run.mAllSubmitted && run.mPagesInFlight == 0
+                    && !run.mPushed;
+            run.mPushed |= pushed;
+        }
+        if (pushed) {
+            savePushed(run);
+        }
+    }
+
+    /**
+     * Submits the next page of deletes, then of items written after the last one submitted.
+     * Deletes go first: the push watermark only moves with the item pages, which the cloud
+     * confirms after them.
+     */
+    private void submitNextPage(@NonNull SyncRun run) {
+        List<Item> items = Collections.emptyList();
+        List<String> deletedItemIds = Collections.emptyList();
+        // The watermark to record once the page is confirmed, or -1 to leave it.
+        long pushedUpTo = -1;
+        if (run.mNextDeleteIndex < run.mDeletedItemIds.size()) {
+            int end = Math.min(run.mNextDeleteIndex + PAGE_SIZE, run.mDeletedItemIds.size());
+            deletedItemIds = run.mDeletedItemIds.subList(run.mNextDeleteIndex, end);
+            run.mNextDeleteIndex = end;
+        } else {
+            items = mDatabase.itemDao().getItemsChangedAfter(run.mNextUpdatedAt,
+                    run.mNextAfterItemId, PAGE_SIZE);
+            if (items.size() < PAGE_SIZE) {
+                run.mAllSubmitted = true;
+            } else {
+                Item last = items.get(items.size() - 1);
+                run.mNextUpdatedAt = last.getUpdatedAt();
+                run.mNextAfterItemId = last.getId();
+                // Items written at the same time as the last one may be on the next page.
+                pushedUpTo = Math.min(run.mPushUpTo, last.getUpdatedAt() - 1);
+            }
+        }
+        if (!items.isEmpty() || !deletedItemIds.isEmpty()) {
+            run.mPagesInFlight++;
+            mPushWriter.writeItems(items, deletedItemIds,
+                    new PageCallback(run, items.size() + deletedItemIds.size(), pushedUpTo));
+        }
+        if (run.mAllSubmitted) {
+            mPushWriter.flush();
+        }
+    }
+
+    private void saveWatermarks(final long pushedUpTo, final long pulledUpTo) {
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                advanceWatermarks(pushedUpTo, pulledUpTo);
+            }
+        });
+    }
+
+    /**
+     * Moves the watermarks forward, never back: syncs and observed changes record them
+     * concurrently. Must be called on the disk write thread.
+     */
+    private void advanceWatermarks(final long pushedUpTo, final long pulledUpTo) {
+        mDatabase.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                SyncWatermarksDao dao = mDatabase.syncWatermarksDao();
+                dao.insertWatermarksIfAbsent(
+                        new SyncWatermarks(SYNC_ID, pushedUpTo, pulledUpTo));
+                dao.advanceWatermarks(SYNC_ID, pushedUpTo, pulledUpTo);
+            }
+        });
+    }
+
+    private void savePushed(@NonNull final SyncRun run) {
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                advanceWatermarks(run.mPushUpTo, run.mPullSince);
+                pull(run);
+            }
+        });
+    }
+
+    private void pull(@NonNull final SyncRun run) {
+        mCloud.pullChanges(run.mPullSince, new ItemsCloud.PullCallback() {
+            @Override
+            public void onChangesPulled(@NonNull final List<Item> items,
+                                        @NonNull final List<String> deletedItemIds,
+                                        final long pulledUpTo) {
+                mAppExecutors.diskRead().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyPulled(run, items, deletedItemIds, pulledUpTo);
+                    }
+                });
+            }
+
+            @Override
+            public void onPullFailed(@NonNull Exception error) {
+                fail(run, error);
+            }
+        });
+    }
+
+    private void applyPulled(@NonNull final SyncRun run, @NonNull List<Item> items,
+                             @NonNull List<String> deletedItemIds, long pulledUpTo) {
+        applyChanges(items, deletedItemIds, run.mPushUpTo, pulledUpTo,
+                new ChangesAppliedCallback() {
+                    @Override
+                    public void onChangesApplied(int itemsApplied) {
+                        run.mItemsPulled = itemsApplied;
+                        compareBuckets(run,
+                                Collections.singletonList(Collections.singletonList("")), 0,
+                                new ArrayList<List<String>>(), new HashMap<String, Long>());
+                    }
+                });
+    }
+
+    /**
+     * Compares the {@link ItemBuckets} hashes one level below the prefixes of
+     * {@code prefixRuns} with the cloud's, then the hashes below the buckets that differ, down to
+     * the leaves, which are reconciled item by item. The differing buckets below each run are
+     * kept in runs that no agreeing bucket splits, so that the items of a run of leaves are read
+     * as a single range.
+     *
+     * @param level           the length of the prefixes
+     * @param leafRuns        the runs of differing leaves found so far
+     * @param cloudLeafHashes the hashes the cloud reported for the differing leaves found so far
+     */
+    private void compareBuckets(@NonNull final SyncRun run,
+                                @NonNull final List<List<String>> prefixRuns, final int level,
+                                @NonNull final List<List<String>> leafRuns,
+                                @NonNull final Map<String, Long> cloudLeafHashes) {
+        if (prefixRuns.isEmpty()) {
+            reconcileLeaves(run, leafRuns, cloudLeafHashes);
+            return;
+        }
+        final List<String> prefixes = new ArrayList<>();
+        for (List<String> prefixRun : prefixRuns) {
+            prefixes.addAll(prefixRun);
+        }
+        mCloud.getBucketHashes(prefixes, new ItemsCloud.BucketHashesCallback() {
+            @Override
+            public void onBucketHashesLoaded(@NonNull final Map<String, Long> bucketHashes) {
+                mAppExecutors.diskRead().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, Long> localHashes = getLocalBucketHashes(prefixes, level);
+                        List<List<String>> differingRuns = new ArrayList<>();
+                        for (List<String> prefixRun : prefixRuns) {
+                            Set<String> runPrefixes = new HashSet<>(prefixRun);
+                            for (List<String> differing : ItemBuckets.differingRuns(
+                                    bucketsBelow(localHashes, runPrefixes, level),
+                                    bucketsBelow(bucketHashes, runPrefixes, level))) {
+                                splitRun(differing, level + 1, bucketHashes, differingRuns,
+                                        leafRuns, cloudLeafHashes);
+                            }
+                        }
+                        compareBuckets(run, differingRuns, level + 1, leafRuns,
+                                cloudLeafHashes);
+                    }
+                });
+            }
+
+            @Override
+            public void onBucketHashesFailed(@NonNull Exception error) {
+                fail(run, error);
+            }
+        });
+    }
+
+    /**
+     * Adds the buckets of a run of differing buckets to {@code prefixRuns}, to compare the
+     * buckets below them, or to {@code leafRuns} with the hash the cloud reported for them if
+     * they are leaves. A leaf above the leaf level, of an id shorter than the leaves, gets a run
+     * of its own, which may only be read as all the ids it starts.
+     *
+     * @param level the length of the buckets
+     */
+    private static void splitRun(@NonNull List<String> differing, int level,
+                                 @NonNull Map<String, Long> bucketHashes,
+                                 @NonNull List<List<String>> prefixRuns,
+                                 @NonNull List<List<String>> leafRuns,
+                                 @NonNull Map<String, Long> cloudLeafHashes) {
+        List<String> prefixRun = new ArrayList<>();
+        List<String> leafRun = new ArrayList<>();
+        for (String bucket : differing) {
+            if (!ItemBuckets.isLeaf(bucket, level)) {
+                prefixRun.add(bucket);
+                continue;
+            }
+            Long hash = bucketHashes.get(bucket);
+            if (hash != null) {
+                cloudLeafHashes.put(bucket, hash);
+            }
+            if (level < ItemBuckets.LEAF_PREFIX_LENGTH) {
+                leafRuns.add(Collections.singletonList(bucket));
+            } else {
+                leafRun.add(bucket);
+            }
+        }
+        if (!prefixRun.isEmpty()) {
+            prefixRuns.add(prefixRun);
+        }
+        if (!leafRun.isEmpty()) {
+            leafRuns.add(leafRun);
+        }
+    }
+
+    /**
+     * Returns the hashes of {@code hashes} whose buckets are below one of {@code prefixes}.
+     *
+     * @param level the length of {@code prefixes}
+     */
+    @NonNull
+    private static Map<String, Long> bucketsBelow(@NonNull Map<String, Long> hashes,
+                                                  @NonNull Set<String> prefixes, int level) {
+        Map<String, Long> below = new HashMap<>();
+        for (Map.Entry<String, Long> hash : hashes.entrySet()) {
+            if (prefixes.contains(ItemBuckets.bucketOf(hash.getKey(), level))) {
+                below.put(hash.getKey(), hash.getValue());
+            }
+        }
+        return below;
+    }
+
+    /**
+     * Pulls the items of the differing leaves, repairs the cloud hashes of the leaves whose items
+     * don't add up to them, applies the items that differ and pushes the local ones the cloud
+     * doesn't have, then ends the sync.
+     */
+    private void reconcileLeaves(@NonNull final SyncRun run,
+                                 @NonNull List<List<String>> leafRuns,
+                                 @NonNull final Map<String, Long> cloudLeafHashes) {
+        if (leafRuns.isEmpty()) {
+            finish(run);
+            return;
+        }
+        final List<String> leaves = new ArrayList<>();
+        for (List<String> leafRun : leafRuns) {
+            leaves.addAll(leafRun);
+        }
+        mCloud.pullBuckets(leafRuns, new ItemsCloud.PullCallback() {
+            @Override
+            public void onChangesPulled(@NonNull final List<Item> items,
+                                        @NonNull final List<String> deletedItemIds,
+                                        long pulledUpTo) {
+                mAppExecutors.diskRead().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Set<String> cloudItemIds = new HashSet<>(deletedItemIds);
+                        for (Item item : items) {
+                            cloudItemIds.add(item.getId());
+                        }
+                        final List<Item> missingItems = new ArrayList<>();
+                        for (String leaf : leaves) {
+                            String afterItemId = null;
+                            List<Item> page;
+                            do {
+                                page = getLocalBucketPage(leaf, afterItemId);
+                                for (Item item : page) {
+                                    if (!cloudItemIds.contains(item.getId())) {
+                                        missingItems.add(item);
+                                    }
+                                    afterItemId = item.getId();
+                                }
+                            } while (page.size() == PAGE_SIZE);
+                        }
+                        repairCloudLeafHashes(leaves, cloudLeafHashes, items, deletedItemIds,
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        pushMissingItems(run, missingItems, items,
+                                                deletedItemIds);
+                                    }
+                                });
+                    }
+                });
+            }
+
+            @Override
+            public void onPullFailed(@NonNull Exception error) {
+                fail(run, error);
+            }
+        });
+    }
+
+    /**
+     * Rewrites the cloud hashes of the leaves whose pulled items don't add up to the hash the
+     * cloud reported for them, such as leaves of items written before the cloud kept hashes or
+     * by a write interrupted before its hashes. Otherwise every sync would find them differing
+     * and pull them again, however equal the items are. Then runs {@code next} on the disk read
+     * thread, whether or not the repair succeeded: the sync doesn't depend on it.
+     */
+    private void repairCloudLeafHashes(@NonNull List<String> leaves,
+                                       @NonNull Map<String, Long> cloudLeafHashes,
+                                       @NonNull List<Item> cloudItems,
+                                       @NonNull List<String> cloudDeletedItemIds,
+                                       @NonNull final Runnable next) {
+        Map<String, Long> pulledHashes = new HashMap<>();
+        for (String leaf : leaves) {
+            pulledHashes.put(leaf, 0L);
+        }
+        for (Item item : cloudItems) {
+            String leaf = ItemBuckets.bucketOf(item.getId(), ItemBuckets.LEAF_PREFIX_LENGTH);
+            Long hash = pulledHashes.get(leaf);
+            if (hash != null) {
+                pulledHashes.put(leaf,
+                        hash + ItemBuckets.bucketHash(ItemsDiff.contentHash(item)));
+            }
+        }
+        Set<String> brokenLeaves = new HashSet<>();
+        for (Map.Entry<String, Long> hash : pulledHashes.entrySet()) {
+            Long reported = cloudLeafHashes.get(hash.getKey());
+            if (hash.getValue() != (reported == null ? 0 : reported)) {
+                brokenLeaves.add(hash.getKey());
+            }
+        }
+        if (brokenLeaves.isEmpty()) {
+            next.run();
+            return;
+        }
+        List<Item> items = new ArrayList<>();
+        for (Item item : cloudItems) {
+            if (brokenLeaves.contains(
+                    ItemBuckets.bucketOf(item.getId(), ItemBuckets.LEAF_PREFIX_LENGTH))) {
+                items.add(item);
+            }
+        }
+        List<String> deletedItemIds = new ArrayList<>();
+        for (String itemId : cloudDeletedItemIds) {
+            if (brokenLeaves.contains(
+                    ItemBuckets.bucketOf(itemId, ItemBuckets.LEAF_PREFIX_LENGTH))) {
+                deletedItemIds.add(itemId);
+            }
+        }
+        mCloud.repairLeafHashes(new ArrayList<>(brokenLeaves), items, deletedItemIds,
+                new RemoteItemsWriter.WriteCallback() {
+                    @Override
+                    public void onWriteSucceeded() {
+                        mAppExecutors.diskRead().execute(next);
+                    }
+
+                    @Override
+                    public void onWriteFailed(@NonNull Exception error) {
+                        Log.w(TAG, "Repairing the cloud bucket hashes failed", error);
+                        mAppExecutors.diskRead().execute(next);
+                    }
+                });
+    }
+
+    /**
+     * Pushes the local items of the differing leaves that the cloud has no trace of, then applies
+     * the cloud's items and deletes of the leaves.
+     */
+    private void pushMissingItems(@NonNull final SyncRun run,
+                                  @NonNull final List<Item> missingItems,
+                                  @NonNull final List<Item> cloudItems,
+                                  @NonNull final List<String> cloudDeletedItemIds) {
+        final Runnable applyCloudItems = new Runnable() {
+            @Override
+            public void run() {
+                applyChanges(cloudItems, cloudDeletedItemIds, run.mPushUpTo, 0,
+                        new ChangesAppliedCallback() {
+                            @Override
+                            public void onChangesApplied(int itemsApplied) {
+                                run.mItemsPulled += itemsApplied;
+                                finish(run);
+                            }
+                        });
+            }
+        };
+        if (missingItems.isEmpty()) {
+            applyCloudItems.run();
+            return;
+        }
+        mPushWriter.writeItems(missingItems, Collections.<String>emptyList(),
+                new RemoteItemsWriter.WriteCallback() {
+                    @Override
+                    public void onWriteSucceeded() {
+                        synchronized (run) {
+                            run.mItemsPushed += missingItems.size();
+                        }
+                        mAppExecutors.diskRead().execute(applyCloudItems);
+                    }
+
+                    @Override
+                    public void onWriteFailed(@NonNull Exception error) {
+                        fail(run, error);
+                    }
+                });
+        mPushWriter.flush();
+    }
+
+    /**
+     * Returns the hashes of the local buckets one level below {@code prefixes}, as
+     * {@link ItemBuckets#getHashes()}, read from the buckets table rather than from the items.
+     * Must be called on a disk thread.
+     *
+     * @param level the length of {@code prefixes}
+     */
+    @NonNull
+    private Map<String, Long> getLocalBucketHashes(@NonNull List<String> prefixes, int level) {
+        Map<String, Long> hashes = new HashMap<>();
+        for (List<String> chunk : Lists.partition(prefixes, MAX_BIND_PARAMETERS - 2)) {
+            for (ItemBucket bucket : mDatabase.itemBucketDao().getBuckets(level + 1, level,
+                    chunk)) {
+                hashes.put(bucket.getPrefix(), bucket.getHash());
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Returns the next {@link #PAGE_SIZE} local items whose ids start with {@code prefix}, or
+     * fewer if there are no more. Must be called on a disk thread.
+     *
+     * @param afterItemId the id of the last item of the previous page, or null for the first page
+     */
+    @NonNull
+    private List<Item> getLocalBucketPage(@NonNull String prefix, @Nullable String afterItemId) {
+        List<Item> page = afterItemId == null
+                ? mDatabase.itemDao().getItemsPageFrom(prefix, PAGE_SIZE)
+                : mDatabase.itemDao().getItemsPageAfter(afterItemId, PAGE_SIZE);
+        for (int i = 0; i < page.size(); i++) {
+            // The ids starting with the prefix come first, the page ends at the first other one.
+            if (!page.get(i).getId().startsWith(prefix)) {
+                return page.subList(0, i);
+            }
+        }
+        return page;
+    }
+
+    private void finish(@NonNull final SyncRun run) {
+        mSyncing.set(false);
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                int itemsPushed;
+                synchronized (run) {
+                    itemsPushed = run.mItemsPushed;
+                }
+                run.mCallback.onSyncFinished(itemsPushed, run.mItemsPulled);
+            }
+        });
+    }
+
+    /**
+     * Applies the cloud changes that change something locally through the repository, up to
+     * {@link #MAX_BATCH_SIZE} at a time, then records {@code pulledUpTo} as the pull watermark.
+     * Local items written or deleted on this device after {@code pushedUpTo}, which the cloud
+     * doesn't have yet, are kept as they are. The changes are written as pulled, with the cloud's
+     * stamps: they are not queued for the cloud nor pushed back to it. Must be called on a disk
+     * thread.
+     */
+    private void applyChanges(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                              long pushedUpTo, final long pulledUpTo,
+                              @NonNull final ChangesAppliedCallback callback) {
+        List<String> itemIds = new ArrayList<>(items.size() + deletedItemIds.size());
+        for (Item item : items) {
+            itemIds.add(item.getId());
+        }
+        itemIds.addAll(deletedItemIds);
+        Map<String, Item> localItems = new HashMap<>(itemIds.size());
+        for (List<String> chunk : Lists.partition(itemIds, MAX_BIND_PARAMETERS)) {
+            for (Item item : mDatabase.itemDao().getItemsByIds(chunk)) {
+                localItems.put(item.getId(), item);
+            }
+        }
+        // Items deleted on this device since the last push: the cloud doesn't know of the
+        // delete yet, so its saves of these items must not bring them back.
+        Set<String> unpushedDeletes = new HashSet<>();
+        for (List<String> chunk : Lists.partition(itemIds.subList(0, items.size()),
+                MAX_BIND_PARAMETERS - 1)) {
+            unpushedDeletes.addAll(
+                    mDatabase.itemTombstoneDao().getIdsDeletedSince(chunk, pushedUpTo));
+        }
+        final List<Item> savedItems = new ArrayList<>();
+        for (Item item : items) {
+            Item localItem = localItems.get(item.getId());
+            if (localItem == null ? !unpushedDeletes.contains(item.getId())
+                    : !localItem.equals(item) && !isUnpushed(localItem, pushedUpTo)) {
+                savedItems.add(item);
+            }
+        }
+        final List<String> deletedIds = new ArrayList<>();
+        for (String itemId : deletedItemIds) {
+            Item localItem = localItems.get(itemId);
+            if (localItem != null && !isUnpushed(localItem, pushedUpTo)) {
+                deletedIds.add(itemId);
+            }
+        }
+        // One main thread task per chunk, so that the main thread is never held for long
+        // however many changes there are.
+        for (final List<Item> chunk : Lists.partition(savedItems, MAX_BATCH_SIZE)) {
+            mAppExecutors.mainThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mItemsRepository.writePulledItems(chunk,
+                            Collections.<String>emptyList());
+                }
+            });
+        }
+        for (final List<String> chunk : Lists.partition(deletedIds, MAX_BATCH_SIZE)) {
+            mAppExecutors.mainThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mItemsRepository.writePulledItems(Collections.<Item>emptyList(), chunk);
+                }
+            });
+        }
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                // Queued after the repository's writes, so the watermark never gets ahead of
+                // them.
+                mAppExecutors.diskWrite().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        advanceWatermarks(0, pulledUpTo);
+                        callback.onChangesApplied(savedItems.size() + deletedIds.size());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns whether {@code localItem} was written on this device after {@code pushedUpTo}, so
+     * that the cloud doesn't have it yet.
+     */
+    private static boolean isUnpushed(@NonNull Item localItem, long pushedUpTo) {
+        return !localItem.isSynced() && localItem.getUpdatedAt() > pushedUpTo;
+    }
+
+    private void fail(@NonNull final SyncRun run, @NonNull final Exception error) {
+        mSyncing.set(false);
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                run.mCallback.onSyncFailed(error);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+
+    /**
+     * Called on the disk write thread once changes are applied and the pull watermark recorded.
+     */
+    private interface ChangesAppliedCallback {
+
+        void onChangesApplied(int itemsApplied);
+    }
+
+    /**
+     * Receives the changes of one observation.
+     */
+    private final class ObservedChangesListener implements ItemsCloud.ChangeListener {
+
+        private final int mObservationId;
+
+        ObservedChangesListener(int observationId) {
+            mObservationId = observationId;
+        }
+
+        @Override
+        public void onItemSaved(@NonNull Item item, long updatedAt) {
+            addObservedChange(mObservationId, item.getId(), item, updatedAt);
+        }
+
+        @Override
+        public void onItemDeleted(@NonNull String itemId, long deletedAt) {
+            addObservedChange(mObservationId, itemId, null, deletedAt);
+        }
+
+        @Override
+        public void onObserveFailed(@NonNull Exception error) {
+            Log.w(TAG, "Stopped observing the cloud", error);
+            synchronized (mObserveLock) {
+                if (mObservation != mObservationId) {
+                    return;
+                }
+                mObserving = false;
+                mSubscription = null;
+            }
+            // The changes received so far are still applied.
+            applyObservedChanges();
+        }
+    }
+
+    /**
+     * The state of a running sync. The push fields are guarded by the instance.
+     */
+    private static final class SyncRun {
+
+        final SyncCallback mCallback;
+
+        final long mPushUpTo;
+
+        final long mPullSince;
+
+        final List<String> mDeletedItemIds;
+
+        int mNextDeleteIndex;
+
+        long mNextUpdatedAt;
+
+        String mNextAfterItemId = "";
+
+        boolean mAllSubmitted;
+
+        int mPagesInFlight;
+
+        boolean mFailed;
+
+        boolean mPushed;
+
+        int mItemsPushed;
+
+        int mItemsPulled;
+
+        SyncRun(@NonNull SyncCallback callback, long pushUpTo, long pullSince,
+                @NonNull List<String> deletedItemIds, long firstUpdatedAt) {
+            mCallback = callback;
+            mPushUpTo = pushUpTo;
+            mPullSince = pullSince;
+            mDeletedItemIds = deletedItemIds;
+            mNextUpdatedAt = firstUpdatedAt;
+        }
+    }
+
+    /**
+     * Records a page the cloud confirmed and submits the next ones, or ends the sync if the page
+     * failed. Pages are confirmed in the order they were submitted.
+     */
+    private final class PageCallback implements RemoteItemsWriter.WriteCallback {
+
+        private final SyncRun mRun;
+
+        private final int mItemCount;
+
+        private final long mPushedUpTo;
+
+        PageCallback(@NonNull SyncRun run, int itemCount, long pushedUpTo) {
+            mRun = run;
+            mItemCount = itemCount;
+            mPushedUpTo = pushedUpTo;
+        }
+
+        @Override
+        public void onWriteSucceeded() {
+            synchronized (mRun) {
+                mRun.mPagesInFlight--;
+                if (mRun.mFailed) {
+                    return;
+                }
+                mRun.mItemsPushed += mItemCount;
+                if (mPushedUpTo >= 0) {
+                    // Queued under the lock so that the watermarks are written in page order.
+                    saveWatermarks(mPushedUpTo, mRun.mPullSince);
+                }
+            }
+            mAppExecutors.diskRead().execute(new Runnable() {
+                @Override
+                public void run() {
+                    pushPages(mRun);
+                }
+            });
+        }
+
+        @Override
+        public void onWriteFailed(@NonNull Exception error) {
+            synchronized (mRun) {
+                mRun.mPagesInFlight--;
+                if (mRun.mFailed) {
+                    return;
+                }
+                mRun.mFailed = true;
+            }
+            fail(mRun, error);
+        }
+    }
+}
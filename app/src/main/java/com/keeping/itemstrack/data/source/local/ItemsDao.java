@@ -7,6 +7,7 @@ import android.arch.persistence.room.Query;
 import android.arch.persistence.room.Update;
 
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 
 import java.util.List;
 
@@ -16,6 +17,14 @@ import java.util.List;
 @Dao
 public interface ItemsDao {
 
+    /**
+     * Column of {@link ItemListRow#getTitleForList()}: the title, or the start of the
+     * description if there is no title, as {@link Item#getTitleForList()}.
+     */
+    String TITLE_FOR_LIST = "CASE WHEN title IS NULL OR title = '' "
+            + "THEN substr(description, 1, " + ItemListRow.MAX_TITLE_LENGTH + ") "
+            + "ELSE substr(title, 1, " + ItemListRow.MAX_TITLE_LENGTH + ") END AS titleForList";
+
     /**
      * Select all items from the items table.
      *
@@ -24,6 +33,177 @@ public interface ItemsDao {
     @Query("SELECT * FROM items")
     List<Item> getItems();
 
+    /**
+     * Select the first items of the items table in id order. Served straight from the primary key
+     * index, so the cost doesn't depend on the size of the table.
+     *
+     * @param limit maximum number of items to return.
+     * @return the first items.
+     */
+    @Query("SELECT * FROM items ORDER BY entryid LIMIT :limit")
+    List<Item> getItemsPage(int limit);
+
+    /**
+     * Select the items following a given id in id order (keyset pagination).
+     *
+     * @param afterItemId id of the last item of the previous page.
+     * @param limit       maximum number of items to return.
+     * @return the items following afterItemId.
+     */
+    @Query("SELECT * FROM items WHERE entryid > :afterItemId ORDER BY entryid LIMIT :limit")
+    List<Item> getItemsPageAfter(String afterItemId, int limit);
+
+    /**
+     * Select the items from a given id on in id order, that id included. Used to read the items
+     * whose ids start with a prefix, which all sort from the prefix on.
+     *
+     * @param fromItemId id of the first item to return, if it exists.
+     * @param limit      maximum number of items to return.
+     * @return the items from fromItemId on.
+     */
+    @Query("SELECT * FROM items WHERE entryid >= :fromItemId ORDER BY entryid LIMIT :limit")
+    List<Item> getItemsPageFrom(String fromItemId, int limit);
+
+    /**
+     * Select the list rows of the first items in id order. Descriptions are only read, and cut,
+     * for items without a title.
+     *
+     * @param limit maximum number of rows to return.
+     * @return the first rows.
+     */
+    @Query("SELECT entryid, " + TITLE_FOR_LIST + ", cost, imagePath FROM items "
+            + "ORDER BY entryid LIMIT :limit")
+    List<ItemListRow> getItemRowsPage(int limit);
+
+    /**
+     * Select the list rows of the items following a given id in id order (keyset pagination).
+     *
+     * @param afterItemId id of the last item of the previous page.
+     * @param limit       maximum number of rows to return.
+     * @return the rows following afterItemId.
+     */
+    @Query("SELECT entryid, " + TITLE_FOR_LIST + ", cost, imagePath FROM items "
+            + "WHERE entryid > :afterItemId ORDER BY entryid LIMIT :limit")
+    List<ItemListRow> getItemRowsPageAfter(String afterItemId, int limit);
+
+    /**
+     * Select the list rows of the items between two ids in id order, to reload a page.
+     *
+     * @param afterItemId id of the last item of the previous page.
+     * @param lastItemId  id of the last item of the page, included.
+     * @return the rows following afterItemId up to lastItemId.
+     */
+    @Query("SELECT entryid, " + TITLE_FOR_LIST + ", cost, imagePath FROM items "
+            + "WHERE entryid > :afterItemId AND entryid <= :lastItemId ORDER BY entryid")
+    List<ItemListRow> getItemRowsBetween(String afterItemId, String lastItemId);
+
+    /**
+     * Select the items with the given ids. Callers must pass at most 999 ids.
+     *
+     * @param itemIds the item ids.
+     * @return the items found, in no particular order.
+     */
+    @Query("SELECT * FROM items WHERE entryid IN (:itemIds)")
+    List<Item> getItemsByIds(List<String> itemIds);
+
+    /**
+     * Select the ids of all items.
+     *
+     * @return all item ids.
+     */
+    @Query("SELECT entryid FROM items")
+    List<String> getItemIds();
+
+    /**
+     * Select all items, cheapest first. Items without a numeric cost come first. Served in order
+     * from the cost index, without sorting.
+     *
+     * @return all items ordered by cost.
+     */
+    @Query("SELECT * FROM items ORDER BY costMinor")
+    List<Item> getItemsOrderedByCost();
+
+    /**
+     * Select the items whose cost is within a range, cheapest first. Served from the cost index,
+     * so only the matching rows are read.
+     *
+     * @param minCostMinor lowest cost, in minor units, inclusive.
+     * @param maxCostMinor highest cost, in minor units, inclusive.
+     * @return the items in the cost range ordered by cost.
+     */
+    @Query("SELECT * FROM items WHERE costMinor BETWEEN :minCostMinor AND :maxCostMinor "
+            + "ORDER BY costMinor")
+    List<Item> getItemsInCostRange(long minCostMinor, long maxCostMinor);
+
+    /**
+     * Select all items in title order. Served in order from the title index, without sorting.
+     *
+     * @return all items ordered by title.
+     */
+    @Query("SELECT * FROM items ORDER BY title")
+    List<Item> getItemsOrderedByTitle();
+
+    /**
+     * Select the items at a location, in title order.
+     *
+     * @param location the location.
+     * @return the items at location.
+     */
+    @Query("SELECT * FROM items WHERE location = :location ORDER BY title")
+    List<Item> getItemsAtLocation(String location);
+
+    /**
+     * Select the items written on this device after a given time, in the order they were
+     * written. Served from the updatedAt index, so only the changed rows are read. Items pulled
+     * from the cloud, see {@link Item#isSynced()}, are left out.
+     *
+     * @param updatedAt time of the last write already seen, 0 for all items.
+     * @return the items with a later {@link Item#getUpdatedAt()}, oldest write first.
+     */
+    @Query("SELECT * FROM items WHERE updatedAt > :updatedAt AND synced = 0 "
+            + "ORDER BY updatedAt, entryid")
+    List<Item> getItemsChangedSince(long updatedAt);
+
+    /**
+     * Select a page of the items written on this device after a given item, in the order they
+     * were written (keyset pagination). Items written in the same transaction share their
+     * updatedAt, so pages continue from the last item seen rather than from its time. Items
+     * pulled from the cloud are left out.
+     *
+     * @param updatedAt   updatedAt of the last item of the previous page.
+     * @param afterItemId id of the last item of the previous page.
+     * @param limit       maximum number of items to return.
+     * @return the items written after the given one, oldest write first.
+     */
+    @Query("SELECT * FROM items WHERE updatedAt >= :updatedAt "
+            + "AND (updatedAt > :updatedAt OR entryid > :afterItemId) AND synced = 0 "
+            + "ORDER BY updatedAt, entryid LIMIT :limit")
+    List<Item> getItemsChangedAfter(long updatedAt, String afterItemId, int limit);
+
+    /**
+     * @return the latest updatedAt of the items written on this device, or 0 if there are none.
+     *         Items pulled from the cloud carry the cloud's times, which are left out.
+     */
+    @Query("SELECT IFNULL(MAX(updatedAt), 0) FROM items WHERE synced = 0")
+    long getLastUpdatedAt();
+
+    /**
+     * Select the content hash of every item, without the rest of the rows.
+     *
+     * @return the content hashes of all items, in no particular order.
+     */
+    @Query("SELECT entryid, contentHash FROM items")
+    List<ItemHash> getItemHashes();
+
+    /**
+     * Select the versions of the items with the given ids. Callers must pass at most 999 ids.
+     *
+     * @param itemIds the item ids.
+     * @return the versions of the items found, in no particular order.
+     */
+    @Query("SELECT entryid, version FROM items WHERE entryid IN (:itemIds)")
+    List<ItemVersion> getItemVersions(List<String> itemIds);
+
     /**
      * Select a item by id.
      *
@@ -41,6 +221,15 @@ public interface ItemsDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertItem(Item item);
 
+    /**
+     * Insert items in the database, replacing the ones that already exist. All items are written
+     * in a single transaction.
+     *
+     * @param items the items to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertItems(List<Item> items);
+
     /**
      * Update a item.
      *
@@ -51,6 +240,15 @@ public interface ItemsDao {
     int updateItem(Item item);
 
 
+    /**
+     * Update items. Unlike {@link #insertItems(List)} this keeps the rows in place.
+     *
+     * @param items items to be updated
+     * @return the number of items updated.
+     */
+    @Update
+    int updateItems(List<Item> items);
+
     /**
      * Delete a item by id.
      *
@@ -59,6 +257,15 @@ public interface ItemsDao {
     @Query("DELETE FROM items WHERE entryid = :itemId")
     int deleteItemById(String itemId);
 
+    /**
+     * Delete the items with the given ids. SQLite limits the number of bound parameters of a
+     * statement (999 on older devices), so callers must pass at most that many ids.
+     *
+     * @return the number of items deleted.
+     */
+    @Query("DELETE FROM items WHERE entryid IN (:itemIds)")
+    int deleteItemsByIds(List<String> itemIds);
+
     /**
      * Delete all items.
      */
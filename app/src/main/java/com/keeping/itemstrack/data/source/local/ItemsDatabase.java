@@ -1,22 +1,245 @@
 package com.keeping.itemstrack.data.source.local;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteStatement;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
 
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemCosts;
+import com.keeping.itemstrack.data.LocationSummary;
 
 /**
  * The Room Database that contains the Task table.
  */
-@Database(entities = {Item.class}, version = 1, exportSchema = false)
+@Database(entities = {Item.class, OutboxEntry.class, LocationSummary.class,
+        ImportCheckpoint.class, ItemTombstone.class, SyncWatermarks.class, ItemBucket.class},
+        version = 11, exportSchema = true)
 public abstract class ItemsDatabase extends RoomDatabase {
 
+    /**
+     * Name of the table of {@link Item}s, as observed through the invalidation tracker.
+     */
+    public static final String ITEMS_TABLE = "items";
+
     private static ItemsDatabase INSTANCE;
 
+    /**
+     * Adds the outbox of writes pending for the backend.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`itemid` TEXT NOT NULL, "
+                    + "`operation` INTEGER NOT NULL, `sequence` INTEGER NOT NULL, "
+                    + "`attempts` INTEGER NOT NULL, `nextAttemptAt` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`itemid`))");
+        }
+    };
+
+    /**
+     * Adds the cost in minor units, computed from the existing costs, and the indexes used to sort
+     * and filter items by cost, title and location.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `items` ADD COLUMN `costMinor` INTEGER");
+            // Costs are parsed the same way as for new items, which SQL can't do.
+            SupportSQLiteStatement update =
+                    database.compileStatement("UPDATE `items` SET `costMinor` = ? WHERE `entryid` = ?");
+            Cursor cursor = database.query("SELECT `entryid`, `cost` FROM `items`");
+            try {
+                while (cursor.moveToNext()) {
+                    Long costMinor = ItemCosts.parseMinorUnits(cursor.getString(1));
+                    if (costMinor == null) {
+                        continue;
+                    }
+                    update.bindLong(1, costMinor);
+                    update.bindString(2, cursor.getString(0));
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+            }
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_items_costMinor` "
+                    + "ON `items` (`costMinor`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_items_title` ON `items` (`title`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_items_location` "
+                    + "ON `items` (`location`)");
+        }
+    };
+
+    /**
+     * Adds the full-text index of the items, see {@link ItemsSearchIndex}.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            ItemsSearchIndex.create(database);
+            ItemsSearchIndex.rebuild(database);
+        }
+    };
+
+    /**
+     * Adds the location summaries and the triggers maintaining them, see
+     * {@link LocationSummaryTriggers}.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `location_summaries` "
+                    + "(`location` TEXT NOT NULL, `itemCount` INTEGER NOT NULL, "
+                    + "`totalCostMinor` INTEGER NOT NULL, PRIMARY KEY(`location`))");
+            LocationSummaryTriggers.create(database);
+            LocationSummaryTriggers.rebuild(database);
+        }
+    };
+
+    /**
+     * Adds the checkpoints of resumable imports, see {@link ItemsImporter}.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `import_checkpoints` "
+                    + "(`importId` TEXT NOT NULL, `committedRecords` INTEGER NOT NULL, "
+                    + "`updatedAt` INTEGER NOT NULL, PRIMARY KEY(`importId`))");
+        }
+    };
+
+    /**
+     * Adds the time and version of the last write of each item, stamping the existing items as
+     * written once, by the migration.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `items` "
+                    + "ADD COLUMN `updatedAt` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `items` ADD COLUMN `version` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE `items` SET `updatedAt` = ?, `version` = 1",
+                    new Object[]{System.currentTimeMillis()});
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_items_updatedAt_entryid` "
+                    + "ON `items` (`updatedAt`, `entryid`)");
+        }
+    };
+
+    /**
+     * Adds the tombstones of deleted items, see {@link ItemWrites}.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `item_tombstones` "
+                    + "(`entryid` TEXT NOT NULL, `deletedAt` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`entryid`))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_item_tombstones_deletedAt` "
+                    + "ON `item_tombstones` (`deletedAt`)");
+            ItemWrites.createTombstoneTrigger(database);
+        }
+    };
+
+    /**
+     * Adds the watermarks of the cloud sync, see {@link ItemsCloudSync}.
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `sync_watermarks` "
+                    + "(`syncId` TEXT NOT NULL, `pushedUpTo` INTEGER NOT NULL, "
+                    + "`pulledUpTo` INTEGER NOT NULL, PRIMARY KEY(`syncId`))");
+        }
+    };
+
+    /**
+     * Adds whether an item is stored as pulled from the cloud. Existing items count as written
+     * on this device, which at worst pushes some of them again.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `items` ADD COLUMN `synced` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the content hash of each item, computed from the existing items, and the bucket hashes
+     * of the items with the triggers maintaining them, see {@link ItemBucketTriggers}.
+     */
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `items` "
+                    + "ADD COLUMN `contentHash` INTEGER NOT NULL DEFAULT 0");
+            // Hashes are computed the same way as for new items, which SQL can't do.
+            SupportSQLiteStatement update = database.compileStatement(
+                    "UPDATE `items` SET `contentHash` = ? WHERE `entryid` = ?");
+            Cursor cursor = database.query("SELECT `entryid`, `title`, `description`, `cost`, "
+                    + "`location`, `imagePath` FROM `items`");
+            try {
+                while (cursor.moveToNext()) {
+                    Item item = new Item(cursor.getString(1), cursor.getString(2),
+                            cursor.getString(3), cursor.getString(4), cursor.getString(5),
+                            cursor.getString(0));
+                    update.bindLong(1, item.getContentHash());
+                    update.bindString(2, item.getId());
+                    update.executeUpdateDelete();
+                }
+            } finally {
+                cursor.close();
+            }
+            database.execSQL("CREATE TABLE IF NOT EXISTS `item_buckets` "
+                    + "(`level` INTEGER NOT NULL, `prefix` TEXT NOT NULL, "
+                    + "`hash` INTEGER NOT NULL, `itemCount` INTEGER NOT NULL, "
+                    + "PRIMARY KEY(`level`, `prefix`))");
+            ItemBucketTriggers.create(database);
+            ItemBucketTriggers.rebuild(database);
+        }
+    };
+
+    /**
+     * Every migration, from the first version on.
+     */
+    static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4,
+            MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+            MIGRATION_9_10, MIGRATION_10_11};
+
+    /**
+     * Creates the parts of the schema Room doesn't know about with the database: the search index
+     * and the triggers maintaining derived tables. Must be added to every builder of an
+     * {@link ItemsDatabase} that is searched, summarized, synced, or has deleted items written
+     * again.
+     */
+    public static final Callback EXTRA_SCHEMA_CALLBACK = new Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase database) {
+            ItemsSearchIndex.create(database);
+            LocationSummaryTriggers.create(database);
+            ItemWrites.createTombstoneTrigger(database);
+            ItemBucketTriggers.create(database);
+        }
+    };
+
     public abstract ItemsDao itemDao();
 
+    public abstract OutboxDao outboxDao();
+
+    public abstract LocationSummaryDao locationSummaryDao();
+
+    public abstract ImportCheckpointDao importCheckpointDao();
+
+    public abstract ItemTombstoneDao itemTombstoneDao();
+
+    public abstract SyncWatermarksDao syncWatermarksDao();
+
+    public abstract ItemBucketDao itemBucketDao();
+
     private static final Object sLock = new Object();
 
     public static ItemsDatabase getInstance(Context context) {
@@ -24,6 +247,11 @@ public abstract class ItemsDatabase extends RoomDatabase {
             if (INSTANCE == null) {
                 INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                         ItemsDatabase.class, "Items.db")
+                        .addMigrations(MIGRATIONS)
+                        .addCallback(EXTRA_SCHEMA_CALLBACK)
+                        // Readers see the last commit while a write is in progress instead of
+                        // waiting for it, see AppExecutors.
+                        .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
                         .build();
             }
             return INSTANCE;
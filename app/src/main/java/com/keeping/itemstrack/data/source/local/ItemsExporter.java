@@ -0,0 +1,263 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.keeping.itemstrack.data.source.imports.ItemFileFormat;
+import com.keeping.itemstrack.data.source.imports.ItemRecord;
+import com.keeping.itemstrack.data.source.imports.ItemRecordWriter;
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exports the items table to CSV or JSON files, written as UTF-8, that {@link ItemsImporter}
+ * reads back.
+ * <p>
+ * Rows are read with raw cursors of {@link #CHUNK_SIZE} rows in primary key order, each chunk
+ * starting after the last id of the previous one, and written through a buffered writer as they
+ * are read: memory doesn't grow with the table and no read transaction is held between chunks.
+ * Exports run on {@link AppExecutors#diskRead()}. The file is written next to its destination and
+ * only renamed to it once complete, so a cancelled or failed export doesn't leave half a file.
+ */
+public class ItemsExporter {
+
+    @VisibleForTesting
+    static final int CHUNK_SIZE = 500;
+
+    private static final int BUFFER_CHARS = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String COLUMNS =
+            "`entryid`, `title`, `description`, `cost`, `location`, `imagePath`";
+
+    private static volatile ItemsExporter INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ItemsDatabase mDatabase;
+
+    /**
+     * Callbacks of an export, called on the main thread.
+     */
+    public interface ExportCallback {
+
+        /**
+         * Called after every chunk written.
+         *
+         * @param itemsExported items written so far
+         * @param itemCount     items in the table when the export started
+         */
+        void onProgress(int itemsExported, int itemCount);
+
+        void onExportFinished(@NonNull File file, int itemsExported);
+
+        void onExportCancelled();
+
+        void onExportFailed(@NonNull Exception error);
+    }
+
+    /**
+     * A running export.
+     */
+    public interface Export {
+
+        /**
+         * Stops the export after the chunk being written. Does nothing if it already ended.
+         */
+        void cancel();
+    }
+
+    @VisibleForTesting
+    ItemsExporter(@NonNull AppExecutors appExecutors, @NonNull ItemsDatabase database) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mDatabase = checkNotNull(database);
+    }
+
+    public static ItemsExporter getInstance(@NonNull AppExecutors appExecutors,
+                                            @NonNull ItemsDatabase database) {
+        if (INSTANCE == null) {
+            synchronized (ItemsExporter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ItemsExporter(appExecutors, database);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Writes all the items to {@code file}, replacing it if it exists.
+     */
+    @NonNull
+    public Export exportItems(@NonNull final File file, @NonNull final ItemFileFormat format,
+                              @NonNull final ExportCallback callback) {
+        checkNotNull(file);
+        checkNotNull(format);
+        checkNotNull(callback);
+        final RunningExport export = new RunningExport();
+        mAppExecutors.diskRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                runExport(file, format, callback, export);
+            }
+        });
+        return export;
+    }
+
+    private void runExport(@NonNull File file, @NonNull ItemFileFormat format,
+                           @NonNull ExportCallback callback, @NonNull RunningExport export) {
+        File partFile = new File(file.getPath() + ".part");
+        FileOutputStream output = null;
+        ItemRecordWriter writer = null;
+        boolean complete = false;
+        try {
+            output = new FileOutputStream(partFile);
+            writer = format.newWriter(
+                    new BufferedWriter(new OutputStreamWriter(output, UTF_8), BUFFER_CHARS));
+            int itemCount = countItems();
+            int itemsExported = 0;
+            String lastId = null;
+            while (!export.mCancelled) {
+                Cursor cursor = lastId == null
+                        ? mDatabase.query("SELECT " + COLUMNS + " FROM `items` "
+                        + "ORDER BY `entryid` LIMIT ?", new Object[]{CHUNK_SIZE})
+                        : mDatabase.query("SELECT " + COLUMNS + " FROM `items` "
+                        + "WHERE `entryid` > ? ORDER BY `entryid` LIMIT ?",
+                        new Object[]{lastId, CHUNK_SIZE});
+                int rows = 0;
+                try {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getString(0);
+                        writer.write(new ItemRecord(lastId, cursor.getString(1),
+                                cursor.getString(2), cursor.getString(3), cursor.getString(4),
+                                cursor.getString(5)));
+                        rows++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                itemsExported += rows;
+                if (rows < CHUNK_SIZE) {
+                    break;
+                }
+                notifyProgress(callback, itemsExported, itemCount);
+            }
+            if (export.mCancelled) {
+                notifyCancelled(callback);
+                return;
+            }
+            writer.finish();
+            output.getFD().sync();
+            writer.close();
+            writer = null;
+            if (!partFile.renameTo(file)) {
+                throw new IOException("Can't rename " + partFile + " to " + file);
+            }
+            complete = true;
+            notifyFinished(callback, file, itemsExported);
+        } catch (IOException | RuntimeException e) {
+            notifyFailed(callback, e);
+        } finally {
+            export.mCancelled = true;
+            closeQuietly(writer, output);
+            if (!complete) {
+                //noinspection ResultOfMethodCallIgnored
+                partFile.delete();
+            }
+        }
+    }
+
+    private int countItems() {
+        Cursor cursor = mDatabase.query("SELECT COUNT(*) FROM `items`", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Closes what is still open. The file is complete or about to be deleted, so errors don't
+     * matter.
+     */
+    private static void closeQuietly(ItemRecordWriter writer, FileOutputStream output) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // An unfinished JSON document can't be closed cleanly.
+            }
+        }
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+                // Already closed with the writer.
+            }
+        }
+    }
+
+    private void notifyProgress(@NonNull final ExportCallback callback, final int itemsExported,
+                                final int itemCount) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onProgress(itemsExported, itemCount);
+            }
+        });
+    }
+
+    private void notifyFinished(@NonNull final ExportCallback callback, @NonNull final File file,
+                                final int itemsExported) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExportFinished(file, itemsExported);
+            }
+        });
+    }
+
+    private void notifyCancelled(@NonNull final ExportCallback callback) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExportCancelled();
+            }
+        });
+    }
+
+    private void notifyFailed(@NonNull final ExportCallback callback,
+                              @NonNull final Exception error) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExportFailed(error);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+
+    private static final class RunningExport implements Export {
+
+        volatile boolean mCancelled;
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.google.common.io.CountingInputStream;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemsOutbox;
+import com.keeping.itemstrack.data.source.imports.ImportProgress;
+import com.keeping.itemstrack.data.source.imports.ItemFileFormat;
+import com.keeping.itemstrack.data.source.imports.ItemRecord;
+import com.keeping.itemstrack.data.source.imports.ItemRecordReader;
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Imports items from CSV or JSON files, read as UTF-8, into the items database.
+ * <p>
+ * Files are parsed as they are read and written {@link #BATCH_SIZE} items per transaction, so
+ * memory doesn't grow with the size of the file and a transaction never holds the database for
+ * long. Every transaction also records how many records of the file it covers, and an import
+ * started again with the same id and file skips the records already committed: an import
+ * interrupted by an error or by the process dying resumes after its last batch.
+ * <p>
+ * Imports run one at a time on their own thread rather than on {@link AppExecutors#diskWrite()},
+ * which they would otherwise hold for the whole file. Imported items are written to the database
+ * directly with an {@link ItemsIngestWriter}, not through the repository: callers refresh the
+ * items once the import finishes. Imported items are queued in the outbox by the transaction of
+ * their batch, and the outbox is replayed once the import ends.
+ */
+public class ItemsImporter {
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 500;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile ItemsImporter INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final Executor mImportExecutor;
+
+    private final ItemsDatabase mDatabase;
+
+    private final ItemsIngestWriter mIngestWriter;
+
+    private final ImportCheckpointDao mCheckpointDao;
+
+    private final ItemsOutbox mOutbox;
+
+    /**
+     * Callbacks of an import, called on the main thread.
+     */
+    public interface ImportCallback {
+
+        /**
+         * Called after every committed batch.
+         */
+        void onProgress(@NonNull ImportProgress progress);
+
+        void onImportFinished(@NonNull ImportProgress progress);
+
+        /**
+         * Called when the file can't be read or parsed. The batches committed so far are kept,
+         * importing the same file with the same id resumes after them.
+         */
+        void onImportFailed(@NonNull Exception error, @NonNull ImportProgress progress);
+    }
+
+    @VisibleForTesting
+    ItemsImporter(@NonNull AppExecutors appExecutors, @NonNull Executor importExecutor,
+                  @NonNull ItemsDatabase database, @NonNull ItemsOutbox outbox) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mImportExecutor = checkNotNull(importExecutor);
+        mDatabase = checkNotNull(database);
+        mIngestWriter = new ItemsIngestWriter(database, BATCH_SIZE);
+        mCheckpointDao = database.importCheckpointDao();
+        mOutbox = checkNotNull(outbox);
+    }
+
+    public static ItemsImporter getInstance(@NonNull AppExecutors appExecutors,
+                                            @NonNull ItemsDatabase database,
+                                            @NonNull ItemsOutbox outbox) {
+        if (INSTANCE == null) {
+            synchronized (ItemsImporter.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ItemsImporter(appExecutors,
+                            Executors.newSingleThreadExecutor(), database, outbox);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Imports the items of a file. Items are identified by their {@code id} field, records
+     * without one get an id derived from {@code importId} and their position in the file, so that
+     * resuming doesn't duplicate them. Empty records are skipped.
+     *
+     * @param importId   identifies the file across runs, for instance its URI
+     * @param input      the file, closed when the import ends
+     * @param totalBytes size of the file, or -1 if it isn't known
+     */
+    public void importItems(@NonNull final String importId, @NonNull final InputStream input,
+                            final long totalBytes, @NonNull final ItemFileFormat format,
+                            @NonNull final ImportCallback callback) {
+        checkNotNull(importId);
+        checkNotNull(input);
+        checkNotNull(format);
+        checkNotNull(callback);
+        mImportExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runImport(importId, input, totalBytes, format, callback);
+            }
+        });
+    }
+
+    private void runImport(@NonNull String importId, @NonNull InputStream input, long totalBytes,
+                           @NonNull ItemFileFormat format, @NonNull ImportCallback callback) {
+        long startedAt = SystemClock.elapsedRealtime();
+        CountingInputStream countingInput = new CountingInputStream(input);
+        ItemRecordReader reader = format.newReader(
+                new BufferedReader(new InputStreamReader(countingInput, UTF_8)));
+
+        ImportCheckpoint checkpoint = mCheckpointDao.getCheckpoint(importId);
+        int resumed = checkpoint == null ? 0 : checkpoint.getCommittedRecords();
+        // Position in the file of the next record, empty records included.
+        int position = 0;
+        int imported = resumed;
+        int skipped = 0;
+        List<Item> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            ItemRecord record;
+            while ((record = reader.next()) != null) {
+                position++;
+                if (position <= resumed) {
+                    continue;
+                }
+                if (record.isEmpty()) {
+                    skipped++;
+                } else {
+                    batch.add(record.toItem(newItemId(importId, position)));
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    commit(importId, batch, position);
+                    imported += batch.size();
+                    batch.clear();
+                    notifyProgress(callback, new ImportProgress(imported, resumed, skipped,
+                            countingInput.getCount(), totalBytes,
+                            SystemClock.elapsedRealtime() - startedAt));
+                }
+            }
+            commit(importId, batch, position);
+            imported += batch.size();
+            mCheckpointDao.deleteCheckpoint(importId);
+            mOutbox.replay();
+            notifyFinished(callback, new ImportProgress(imported, resumed, skipped,
+                    countingInput.getCount(), totalBytes,
+                    SystemClock.elapsedRealtime() - startedAt));
+        } catch (IOException | RuntimeException e) {
+            // What was committed is sent, the rest waits for the import to resume.
+            mOutbox.replay();
+            notifyFailed(callback, e, new ImportProgress(imported, resumed, skipped,
+                    countingInput.getCount(), totalBytes,
+                    SystemClock.elapsedRealtime() - startedAt));
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // The records were read already.
+            }
+        }
+    }
+
+    /**
+     * Writes {@code items}, their outbox entries and the position of the last record they cover
+     * in one transaction, so that a committed item is always queued for the backend, even if the
+     * process dies right after.
+     */
+    private void commit(@NonNull final String importId, @NonNull final List<Item> items,
+                        final int position) {
+        mDatabase.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                mIngestWriter.insert(items);
+                List<String> itemIds = new ArrayList<>(items.size());
+                for (Item item : items) {
+                    itemIds.add(item.getId());
+                }
+                OutboxWrites.enqueueSaves(mDatabase, itemIds);
+                mCheckpointDao.insertCheckpoint(
+                        new ImportCheckpoint(importId, position, System.currentTimeMillis()));
+            }
+        });
+    }
+
+    /**
+     * Returns the id of the record at {@code position} in the file, the same on every run.
+     */
+    @NonNull
+    private static String newItemId(@NonNull String importId, int position) {
+        return UUID.nameUUIDFromBytes((importId + "#" + position).getBytes(UTF_8)).toString();
+    }
+
+    private void notifyProgress(@NonNull final ImportCallback callback,
+                                @NonNull final ImportProgress progress) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onProgress(progress);
+            }
+        });
+    }
+
+    private void notifyFinished(@NonNull final ImportCallback callback,
+                                @NonNull final ImportProgress progress) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onImportFinished(progress);
+            }
+        });
+    }
+
+    private void notifyFailed(@NonNull final ImportCallback callback,
+                              @NonNull final Exception error,
+                              @NonNull final ImportProgress progress) {
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onImportFailed(error, progress);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.collect.Iterables;
+import com.keeping.itemstrack.data.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Inserts or replaces items in bulk, for sync and import.
+ * <p>
+ * Items are bound field by field to a single statement, compiled on first use and reused for
+ * every row the writer inserts, instead of going through the entity adapter of
+ * {@link ItemsDao#insertItems(List)}. Items are stamped with {@link ItemWrites} like any other
+ * write, unless they are pulled from the cloud, and the tables' triggers keep the search index,
+ * the location summaries, the bucket hashes and the tombstones up to date.
+ * <p>
+ * Not thread safe: a writer is used by one thread at a time, off the main thread.
+ */
+final class ItemsIngestWriter {
+
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final String INSERT_SQL = "INSERT OR REPLACE INTO `items` (`entryid`, "
+            + "`title`, `description`, `cost`, `location`, `imagePath`, `costMinor`, "
+            + "`updatedAt`, `version`, `synced`, `contentHash`) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final ItemsDatabase mDatabase;
+
+    private final int mChunkSize;
+
+    @Nullable
+    private SupportSQLiteStatement mInsertStatement;
+
+    ItemsIngestWriter(@NonNull ItemsDatabase database) {
+        this(database, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize number of items {@link #write(Iterable)} commits per transaction
+     */
+    ItemsIngestWriter(@NonNull ItemsDatabase database, int chunkSize) {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        mDatabase = checkNotNull(database);
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Writes {@code items} as they are iterated, committing every chunk of items in a
+     * transaction of its own. The chunks committed before a failure are kept.
+     *
+     * @return the number of items written
+     */
+    int write(@NonNull Iterable<Item> items) {
+        int written = 0;
+        for (final List<Item> chunk : Iterables.partition(items, mChunkSize)) {
+            mDatabase.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    insert(chunk);
+                }
+            });
+            written += chunk.size();
+        }
+        return written;
+    }
+
+    /**
+     * Stamps and writes {@code items}. Must be called inside a transaction.
+     */
+    void insert(@NonNull List<Item> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        bindAndInsert(ItemWrites.stamp(mDatabase, items));
+    }
+
+    /**
+     * Writes {@code items} as pulled from the cloud, with the stamps the cloud gave them. Must be
+     * called inside a transaction.
+     */
+    void insertPulled(@NonNull List<Item> items) {
+        List<Item> pulled = new ArrayList<>(items.size());
+        for (Item item : items) {
+            pulled.add(item.isSynced() ? item
+                    : item.withSync(item.getUpdatedAt(), item.getVersion()));
+        }
+        bindAndInsert(pulled);
+    }
+
+    private void bindAndInsert(@NonNull List<Item> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        SupportSQLiteStatement statement = getInsertStatement();
+        for (Item item : items) {
+            statement.bindString(1, item.getId());
+            bindNullable(statement, 2, item.getTitle());
+            bindNullable(statement, 3, item.getDescription());
+            bindNullable(statement, 4, item.getCost());
+            bindNullable(statement, 5, item.getLocation());
+            bindNullable(statement, 6, item.getImagePath());
+            Long costMinor = item.getCostMinor();
+            if (costMinor == null) {
+                statement.bindNull(7);
+            } else {
+                statement.bindLong(7, costMinor);
+            }
+            statement.bindLong(8, item.getUpdatedAt());
+            statement.bindLong(9, item.getVersion());
+            statement.bindLong(10, item.isSynced() ? 1 : 0);
+            statement.bindLong(11, item.getContentHash());
+            statement.executeInsert();
+        }
+    }
+
+    @NonNull
+    private SupportSQLiteStatement getInsertStatement() {
+        if (mInsertStatement == null) {
+            mInsertStatement = mDatabase.compileStatement(INSERT_SQL);
+        }
+        return mInsertStatement;
+    }
+
+    private static void bindNullable(@NonNull SupportSQLiteStatement statement, int index,
+                                     @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -1,41 +1,76 @@
 package com.keeping.itemstrack.data.source.local;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import com.google.common.collect.Lists;
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
+import com.keeping.itemstrack.data.LocationSummary;
 import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsDiff;
+import com.keeping.itemstrack.data.source.ItemsPaging;
+import com.keeping.itemstrack.data.source.LocalItemsDataSource;
 import com.keeping.itemstrack.util.AppExecutors;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
 /**
- * Concrete implementation of a data source as a db.
+ * Concrete implementation of a data source as a db. Saves and deletes are recorded in the outbox
+ * table in the transaction that writes them, see {@link OutboxWrites}.
  */
-public class ItemsLocalDataSource implements ItemsDataSource {
+public class ItemsLocalDataSource implements LocalItemsDataSource {
+
+    /**
+     * SQLite refuses statements with more than 999 bound parameters on older devices.
+     */
+    private static final int MAX_BIND_PARAMETERS = 999;
 
     private static volatile ItemsLocalDataSource INSTANCE;
 
+    private ItemsDatabase mDatabase;
+
     private ItemsDao mItemsDao;
 
+    // Used on the disk write executor only.
+    private ItemsIngestWriter mIngestWriter;
+
     private AppExecutors mAppExecutors;
 
+    // Number of refreshes queued on the disk write executor and not committed yet.
+    private final AtomicInteger mPendingRefreshes = new AtomicInteger();
+
+    private final List<ItemChangesCallback> mChangesCallbacks = new CopyOnWriteArrayList<>();
+
     // Prevent direct instantiation.
     private ItemsLocalDataSource(@NonNull AppExecutors appExecutors,
-                                 @NonNull ItemsDao tasksDao) {
+                                 @NonNull ItemsDatabase database) {
         mAppExecutors = appExecutors;
-        mItemsDao = tasksDao;
+        mDatabase = database;
+        mItemsDao = database.itemDao();
+        mIngestWriter = new ItemsIngestWriter(database);
     }
 
     public static ItemsLocalDataSource getInstance(@NonNull AppExecutors appExecutors,
-                                                   @NonNull ItemsDao tasksDao) {
+                                                   @NonNull ItemsDatabase database) {
         if (INSTANCE == null) {
             synchronized (ItemsLocalDataSource.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new ItemsLocalDataSource(appExecutors, tasksDao);
+                    INSTANCE = new ItemsLocalDataSource(appExecutors, database);
                 }
             }
         }
@@ -66,7 +101,266 @@ public class ItemsLocalDataSource implements ItemsDataSource {
             }
         };
 
-        mAppExecutors.diskIO().execute(runnable);
+        mAppExecutors.diskRead().execute(runnable);
+    }
+
+    /**
+     * Re-runs the query whenever the items table is written to, and calls {@code callback} on
+     * the main thread only when the result differs from the last one delivered.
+     * <p>
+     * Note: {@link LoadItemsCallback#onDataNotAvailable()} is fired when the table is or becomes
+     * empty.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItems(@NonNull final LoadItemsCallback callback) {
+        checkNotNull(callback);
+        return new ObservedQuery<List<Item>>(mAppExecutors, mDatabase.getInvalidationTracker()) {
+            @Nullable
+            @Override
+            List<Item> load() {
+                List<Item> items = mItemsDao.getItems();
+                return items.isEmpty() ? null : items;
+            }
+
+            @Override
+            long hash(@NonNull List<Item> items) {
+                long hash = items.size();
+                for (Item item : items) {
+                    hash = 31 * hash + ItemsDiff.contentHash(item);
+                }
+                return hash;
+            }
+
+            @Override
+            void onChanged(@NonNull List<Item> items) {
+                callback.onItemsLoaded(items);
+            }
+
+            @Override
+            void onNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        }.subscribe();
+    }
+
+    /**
+     * An empty table is delivered as an empty page, so the list can tell it apart from a failed
+     * load: {@link LoadItemRowsPageCallback#onDataNotAvailable()} is never fired.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItemRows(final int limit,
+                                        @NonNull final LoadItemRowsPageCallback callback) {
+        checkArgument(limit > 0, "limit must be positive");
+        checkNotNull(callback);
+        return new ObservedQuery<List<ItemListRow>>(mAppExecutors,
+                mDatabase.getInvalidationTracker()) {
+            @Nullable
+            @Override
+            List<ItemListRow> load() {
+                // One more row than needed, to know whether there is a next page.
+                return mItemsDao.getItemRowsPage(limit + 1);
+            }
+
+            @Override
+            long hash(@NonNull List<ItemListRow> rows) {
+                long hash = rows.size();
+                for (ItemListRow row : rows) {
+                    hash = 31 * hash + row.hashCode();
+                }
+                return hash;
+            }
+
+            @Override
+            void onChanged(@NonNull List<ItemListRow> rows) {
+                List<ItemListRow> page = new ArrayList<>(rows);
+                String nextPageKey = ItemsPaging.trimRowsToPageAndGetNextKey(page, limit);
+                callback.onItemRowsPageLoaded(page, nextPageKey);
+            }
+
+            @Override
+            void onNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        }.subscribe();
+    }
+
+    /**
+     * Note: {@link LoadItemsPageCallback#onDataNotAvailable()} is fired if the first page is
+     * requested and the table is new or empty. Pages requested while a refresh is pending are
+     * read once it is committed, see {@link #pageReadExecutor()}.
+     */
+    @Override
+    public void getItemsPage(final int pageSize, @Nullable final String pageKey,
+                             @NonNull final LoadItemsPageCallback callback) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                // Ask for one more row than needed to know whether there is a next page.
+                final List<Item> items = pageKey == null
+                        ? mItemsDao.getItemsPage(pageSize + 1)
+                        : mItemsDao.getItemsPageAfter(pageKey, pageSize + 1);
+                final String nextPageKey = ItemsPaging.trimToPageAndGetNextKey(items, pageSize);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (items.isEmpty() && pageKey == null) {
+                            // This will be called if the table is new or just empty.
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onItemsPageLoaded(items, nextPageKey);
+                        }
+                    }
+                });
+            }
+        };
+
+        pageReadExecutor().execute(runnable);
+    }
+
+    /**
+     * Reads only the columns shown in the list, see {@link ItemsDao#TITLE_FOR_LIST}. Like
+     * {@link #getItemsPage(int, String, LoadItemsPageCallback)}, pages wait for pending refreshes.
+     * <p>
+     * Note: {@link LoadItemRowsPageCallback#onDataNotAvailable()} is fired if the first page is
+     * requested and the table is new or empty.
+     */
+    @Override
+    public void getItemRowsPage(final int pageSize, @Nullable final String pageKey,
+                                @NonNull final LoadItemRowsPageCallback callback) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                // Ask for one more row than needed to know whether there is a next page.
+                final List<ItemListRow> rows = pageKey == null
+                        ? mItemsDao.getItemRowsPage(pageSize + 1)
+                        : mItemsDao.getItemRowsPageAfter(pageKey, pageSize + 1);
+                final String nextPageKey =
+                        ItemsPaging.trimRowsToPageAndGetNextKey(rows, pageSize);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (rows.isEmpty() && pageKey == null) {
+                            // This will be called if the table is new or just empty.
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onItemRowsPageLoaded(rows, nextPageKey);
+                        }
+                    }
+                });
+            }
+        };
+
+        pageReadExecutor().execute(runnable);
+    }
+
+    /**
+     * Reads the range with the primary key index, so only the rows of the page are read. Waits
+     * for pending refreshes like {@link #getItemRowsPage(int, String, LoadItemRowsPageCallback)}.
+     */
+    @Override
+    public void getItemRowsBetween(@NonNull final String afterKey, @NonNull final String lastKey,
+                                   @NonNull final LoadItemRowsPageCallback callback) {
+        checkNotNull(afterKey);
+        checkNotNull(lastKey);
+        checkNotNull(callback);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final List<ItemListRow> rows = mItemsDao.getItemRowsBetween(afterKey, lastKey);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onItemRowsPageLoaded(rows, lastKey);
+                    }
+                });
+            }
+        };
+
+        pageReadExecutor().execute(runnable);
+    }
+
+    /**
+     * Writes made to the database without this data source, like imports, aren't reported.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItemChanges(@NonNull final ItemChangesCallback callback) {
+        checkNotNull(callback);
+        mChangesCallbacks.add(callback);
+        return new Subscription() {
+            @Override
+            public void unsubscribe() {
+                mChangesCallbacks.remove(callback);
+            }
+        };
+    }
+
+    /**
+     * Ranks the matches with the full-text index, see {@link ItemsSearchIndex}. At most
+     * {@link ItemsSearchIndex#MAX_LIMIT} items can be requested.
+     * <p>
+     * Note: {@link LoadItemsCallback#onDataNotAvailable()} is fired if no item matches.
+     */
+    @Override
+    public void searchItems(@NonNull final String query, final int limit,
+                            @NonNull final LoadItemsCallback callback) {
+        checkNotNull(query);
+        checkArgument(limit > 0 && limit <= ItemsSearchIndex.MAX_LIMIT,
+                "limit must be in [1, " + ItemsSearchIndex.MAX_LIMIT + "]");
+        checkNotNull(callback);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final List<Item> items = ItemsSearchIndex.search(mDatabase, query, limit);
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (items.isEmpty()) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onItemsLoaded(items);
+                        }
+                    }
+                });
+            }
+        };
+
+        mAppExecutors.diskRead().execute(runnable);
+    }
+
+    /**
+     * Reads the summaries maintained by {@link LocationSummaryTriggers}, so the cost depends on
+     * the number of locations rather than of items.
+     * <p>
+     * Note: {@link LoadLocationSummariesCallback#onDataNotAvailable()} is fired if the table is
+     * new or empty.
+     */
+    @Override
+    public void getLocationSummaries(@NonNull final LoadLocationSummariesCallback callback) {
+        checkNotNull(callback);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final List<LocationSummary> summaries =
+                        mDatabase.locationSummaryDao().getLocationSummaries();
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (summaries.isEmpty()) {
+                            callback.onDataNotAvailable();
+                        } else {
+                            callback.onLocationSummariesLoaded(summaries);
+                        }
+                    }
+                });
+            }
+        };
+
+        mAppExecutors.diskRead().execute(runnable);
     }
 
     /**
@@ -93,7 +387,44 @@ public class ItemsLocalDataSource implements ItemsDataSource {
             }
         };
 
-        mAppExecutors.diskIO().execute(runnable);
+        mAppExecutors.diskRead().execute(runnable);
+    }
+
+    /**
+     * Re-reads the item by its primary key whenever the items table is written to, and calls
+     * {@code callback} on the main thread only when the item itself changed.
+     * <p>
+     * Note: {@link GetItemCallback#onDataNotAvailable()} is fired when the {@link Item} isn't
+     * found or gets deleted.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItem(@NonNull final String itemId,
+                                    @NonNull final GetItemCallback callback) {
+        checkNotNull(itemId);
+        checkNotNull(callback);
+        return new ObservedQuery<Item>(mAppExecutors, mDatabase.getInvalidationTracker()) {
+            @Nullable
+            @Override
+            Item load() {
+                return mItemsDao.getItemById(itemId);
+            }
+
+            @Override
+            long hash(@NonNull Item item) {
+                return ItemsDiff.contentHash(item);
+            }
+
+            @Override
+            void onChanged(@NonNull Item item) {
+                callback.onItemLoaded(item);
+            }
+
+            @Override
+            void onNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        }.subscribe();
     }
 
     @Override
@@ -102,10 +433,76 @@ public class ItemsLocalDataSource implements ItemsDataSource {
         Runnable saveRunnable = new Runnable() {
             @Override
             public void run() {
-                mItemsDao.insertItem(task);
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        mItemsDao.insertItem(ItemWrites.stamp(mDatabase, task));
+                        OutboxWrites.enqueueSaves(mDatabase,
+                                Collections.singletonList(task.getId()));
+                    }
+                });
+                notifyItemsChanged(Collections.singleton(task.getId()));
+            }
+        };
+        mAppExecutors.diskWrite().execute(saveRunnable);
+    }
+
+    /**
+     * Writes all {@code items} in a single transaction, so the whole batch costs one journal sync
+     * instead of one per row, with the statement of the {@link ItemsIngestWriter}.
+     */
+    @Override
+    public void saveItems(@NonNull final List<Item> items) {
+        checkNotNull(items);
+        if (items.isEmpty()) {
+            return;
+        }
+        Runnable saveRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIngestWriter.insert(items);
+                        OutboxWrites.enqueueSaves(mDatabase, getIds(items));
+                    }
+                });
+                notifyItemsChanged(new HashSet<>(getIds(items)));
+            }
+        };
+        mAppExecutors.diskWrite().execute(saveRunnable);
+    }
+
+    /**
+     * Writes the pulled items, and deletes, in a single transaction. Unlike
+     * {@link #saveItems(List)} and {@link #deleteItems(List)}, the items keep the stamps the cloud
+     * gave them, deletes leave no tombstone, and nothing is queued in the outbox or read back by
+     * {@link ItemsDao#getItemsChangedAfter(long, String, int)}: the cloud has them already.
+     */
+    @Override
+    public void writePulledItems(@NonNull final List<Item> items,
+                                 @NonNull final List<String> deletedItemIds) {
+        checkNotNull(items);
+        checkNotNull(deletedItemIds);
+        if (items.isEmpty() && deletedItemIds.isEmpty()) {
+            return;
+        }
+        Runnable writeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIngestWriter.insertPulled(items);
+                        ItemWrites.deletePulled(mDatabase, deletedItemIds);
+                    }
+                });
+                Set<String> changedIds = new HashSet<>(getIds(items));
+                changedIds.addAll(deletedItemIds);
+                notifyItemsChanged(changedIds);
             }
         };
-        mAppExecutors.diskIO().execute(saveRunnable);
+        mAppExecutors.diskWrite().execute(writeRunnable);
     }
 
     @Override
@@ -114,15 +511,153 @@ public class ItemsLocalDataSource implements ItemsDataSource {
         // tasks from all the available data sources.
     }
 
+    /**
+     * Compares {@code items} with the stored content hashes of the table and applies only the
+     * inserts, updates and deletes between the two, in a single transaction. Only the ids and
+     * hashes of the stored items are read, never their fields. The I/O cost of a refresh is then
+     * proportional to the number of changed items rather than the size of the table.
+     */
+    @Override
+    public void replaceAllItems(@NonNull final List<Item> items) {
+        checkNotNull(items);
+        Runnable replaceRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final Set<String> changedIds = new HashSet<>();
+                try {
+                    mDatabase.runInTransaction(new Runnable() {
+                        @Override
+                        public void run() {
+                            changedIds.addAll(
+                                    applyDiff(ItemsDiff.fromHashes(getItemHashes(), items)));
+                        }
+                    });
+                } finally {
+                    mPendingRefreshes.decrementAndGet();
+                }
+                if (!changedIds.isEmpty()) {
+                    notifyItemsChanged(changedIds);
+                }
+            }
+        };
+        mPendingRefreshes.incrementAndGet();
+        mAppExecutors.diskWrite().execute(replaceRunnable);
+    }
+
+    /**
+     * Returns the content hash of every stored item, by item id, read without the rest of the
+     * rows.
+     */
+    @NonNull
+    private Map<String, Long> getItemHashes() {
+        List<ItemHash> hashes = mItemsDao.getItemHashes();
+        Map<String, Long> hashesById = new HashMap<>(hashes.size());
+        for (ItemHash hash : hashes) {
+            hashesById.put(hash.getItemId(), hash.getContentHash());
+        }
+        return hashesById;
+    }
+
+    /**
+     * Returns the executor of page reads. A forced refresh delivers its first page from the
+     * network and queues the write of the table, so the pages that follow are requested while
+     * the write may still be pending. They are then queued behind it on the serial disk write
+     * executor, rather than read from the stale table on the disk read pool.
+     */
+    @NonNull
+    private Executor pageReadExecutor() {
+        return mPendingRefreshes.get() > 0 ? mAppExecutors.diskWrite() : mAppExecutors.diskRead();
+    }
+
+    /**
+     * Must be called from within a transaction. New items that were deleted here are left out:
+     * the backend doesn't know about the delete yet. So are the items with a pending outbox
+     * entry, whose local version the backend doesn't have yet either: an item saved offline
+     * isn't deleted because the backend lacks it, nor a local edit overwritten by the backend's
+     * older version.
+     *
+     * @return the ids of the items written or deleted
+     */
+    @NonNull
+    private Set<String> applyDiff(@NonNull ItemsDiff diff) {
+        Set<String> pendingIds = new HashSet<>(mDatabase.outboxDao().getItemIds());
+        List<Item> insertedItems =
+                withoutTombstoned(withoutPending(diff.getInsertedItems(), pendingIds));
+        mIngestWriter.insert(insertedItems);
+        List<Item> updatedItems = withoutPending(diff.getUpdatedItems(), pendingIds);
+        if (!updatedItems.isEmpty()) {
+            mItemsDao.updateItems(ItemWrites.stamp(mDatabase, updatedItems));
+        }
+        List<String> deletedItemIds = new ArrayList<>(diff.getDeletedItemIds().size());
+        for (String itemId : diff.getDeletedItemIds()) {
+            if (!pendingIds.contains(itemId)) {
+                deletedItemIds.add(itemId);
+            }
+        }
+        ItemWrites.delete(mDatabase, deletedItemIds);
+
+        Set<String> changedIds = new HashSet<>(getIds(insertedItems));
+        changedIds.addAll(getIds(updatedItems));
+        changedIds.addAll(deletedItemIds);
+        return changedIds;
+    }
+
+    @NonNull
+    private static List<Item> withoutPending(@NonNull List<Item> items,
+                                             @NonNull Set<String> pendingIds) {
+        if (pendingIds.isEmpty()) {
+            return items;
+        }
+        List<Item> kept = new ArrayList<>(items.size());
+        for (Item item : items) {
+            if (!pendingIds.contains(item.getId())) {
+                kept.add(item);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns {@code items} without the ones that have a tombstone, looked up by primary key.
+     */
+    @NonNull
+    private List<Item> withoutTombstoned(@NonNull List<Item> items) {
+        if (items.isEmpty()) {
+            return items;
+        }
+        List<String> itemIds = getIds(items);
+        Set<String> tombstonedIds = new HashSet<>();
+        for (List<String> chunk : Lists.partition(itemIds, MAX_BIND_PARAMETERS)) {
+            tombstonedIds.addAll(mDatabase.itemTombstoneDao().getTombstonedIds(chunk));
+        }
+        if (tombstonedIds.isEmpty()) {
+            return items;
+        }
+        List<Item> kept = new ArrayList<>(items.size());
+        for (Item item : items) {
+            if (!tombstonedIds.contains(item.getId())) {
+                kept.add(item);
+            }
+        }
+        return kept;
+    }
+
     @Override
     public void deleteAllItems() {
         Runnable deleteRunnable = new Runnable() {
             @Override
             public void run() {
-                mItemsDao.deleteItems();
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        OutboxWrites.enqueueDeleteAll(mDatabase);
+                        ItemWrites.deleteAll(mDatabase);
+                    }
+                });
+                notifyItemsChanged(null);
             }
         };
-        mAppExecutors.diskIO().execute(deleteRunnable);
+        mAppExecutors.diskWrite().execute(deleteRunnable);
     }
 
     @Override
@@ -130,11 +665,75 @@ public class ItemsLocalDataSource implements ItemsDataSource {
         Runnable deleteRunnable = new Runnable() {
             @Override
             public void run() {
-                mItemsDao.deleteItemById(taskId);
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<String> itemIds = Lists.newArrayList(taskId);
+                        ItemWrites.delete(mDatabase, itemIds);
+                        OutboxWrites.enqueueDeletes(mDatabase, itemIds);
+                    }
+                });
+                notifyItemsChanged(Collections.singleton(taskId));
             }
         };
 
-        mAppExecutors.diskIO().execute(deleteRunnable);
+        mAppExecutors.diskWrite().execute(deleteRunnable);
+    }
+
+    /**
+     * Deletes all items with the given ids in a single transaction, split into as many statements
+     * as the bound parameter limit requires.
+     */
+    @Override
+    public void deleteItems(@NonNull final List<String> itemIds) {
+        checkNotNull(itemIds);
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        Runnable deleteRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        ItemWrites.delete(mDatabase, itemIds);
+                        OutboxWrites.enqueueDeletes(mDatabase, itemIds);
+                    }
+                });
+                notifyItemsChanged(new HashSet<>(itemIds));
+            }
+        };
+
+        mAppExecutors.diskWrite().execute(deleteRunnable);
+    }
+
+    /**
+     * Reports a committed write to the {@link #observeItemChanges(ItemChangesCallback)}
+     * callbacks, on the main thread.
+     *
+     * @param itemIds ids of the items written or deleted, or null if any item may have changed
+     */
+    private void notifyItemsChanged(@Nullable final Set<String> itemIds) {
+        if (mChangesCallbacks.isEmpty()) {
+            return;
+        }
+        mAppExecutors.mainThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ItemChangesCallback callback : mChangesCallbacks) {
+                    callback.onItemsChanged(itemIds);
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private static List<String> getIds(@NonNull List<Item> items) {
+        List<String> itemIds = new ArrayList<>(items.size());
+        for (Item item : items) {
+            itemIds.add(item.getId());
+        }
+        return itemIds;
     }
 
     @VisibleForTesting
@@ -0,0 +1,234 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemsOutbox;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Concrete implementation of the outbox as a table of the items database, whose entries are
+ * inserted with {@link OutboxWrites} by the transactions that write the items.
+ * <p>
+ * Replaying sends the due entries oldest first, {@link #BATCH_SIZE} at a time, and removes them
+ * once the backend confirmed the batch. When a batch fails, its entries are postponed with an
+ * exponential backoff and the replay stops until the first of them is due again.
+ */
+public class ItemsLocalOutbox implements ItemsOutbox {
+
+    private static final String TAG = "ItemsOutbox";
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 100;
+
+    @VisibleForTesting
+    static final long INITIAL_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static volatile ItemsLocalOutbox INSTANCE;
+
+    private final AppExecutors mAppExecutors;
+
+    private final ItemsDatabase mDatabase;
+
+    private final OutboxDao mOutboxDao;
+
+    private final ItemsDao mItemsDao;
+
+    private final RemoteItemsWriter mRemoteWriter;
+
+    private final ScheduledExecutorService mRetryScheduler;
+
+    private final AtomicBoolean mReplaying = new AtomicBoolean(false);
+
+    private volatile boolean mReplayRequested = false;
+
+    @Nullable
+    private ScheduledFuture<?> mScheduledReplay;
+
+    @VisibleForTesting
+    ItemsLocalOutbox(@NonNull AppExecutors appExecutors, @NonNull ItemsDatabase database,
+                     @NonNull RemoteItemsWriter remoteWriter,
+                     @NonNull ScheduledExecutorService retryScheduler) {
+        mAppExecutors = checkNotNull(appExecutors);
+        mDatabase = checkNotNull(database);
+        mOutboxDao = database.outboxDao();
+        mItemsDao = database.itemDao();
+        mRemoteWriter = checkNotNull(remoteWriter);
+        mRetryScheduler = checkNotNull(retryScheduler);
+    }
+
+    public static ItemsLocalOutbox getInstance(@NonNull AppExecutors appExecutors,
+                                               @NonNull ItemsDatabase database,
+                                               @NonNull RemoteItemsWriter remoteWriter) {
+        if (INSTANCE == null) {
+            synchronized (ItemsLocalOutbox.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new ItemsLocalOutbox(appExecutors, database, remoteWriter,
+                            Executors.newSingleThreadScheduledExecutor());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    @Override
+    public void replay() {
+        replay(System.currentTimeMillis());
+    }
+
+    /**
+     * Sends the entries due at {@code now}.
+     */
+    @VisibleForTesting
+    void replay(final long now) {
+        if (!mReplaying.compareAndSet(false, true)) {
+            // Picked up when the replay in progress finishes.
+            mReplayRequested = true;
+            return;
+        }
+        mReplayRequested = false;
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                sendNextBatch(now);
+            }
+        });
+    }
+
+    /**
+     * Must be called on the disk write executor.
+     */
+    private void sendNextBatch(final long now) {
+        final List<OutboxEntry> entries = mOutboxDao.getDueEntries(now, BATCH_SIZE);
+        if (entries.isEmpty()) {
+            finishReplay();
+            return;
+        }
+        List<String> savedItemIds = new ArrayList<>();
+        final List<String> deletedItemIds = new ArrayList<>();
+        for (OutboxEntry entry : entries) {
+            if (entry.getOperation() == OutboxEntry.OPERATION_DELETE) {
+                deletedItemIds.add(entry.getItemId());
+            } else {
+                savedItemIds.add(entry.getItemId());
+            }
+        }
+        // Saves send the current local version. An item that is gone locally has nothing left
+        // to send, its entry is simply removed with the batch.
+        final List<Item> savedItems = savedItemIds.isEmpty()
+                ? Collections.<Item>emptyList() : mItemsDao.getItemsByIds(savedItemIds);
+
+        mAppExecutors.networkIO().execute(new Runnable() {
+            @Override
+            public void run() {
+                mRemoteWriter.writeItems(savedItems, deletedItemIds,
+                        new RemoteItemsWriter.WriteCallback() {
+                            @Override
+                            public void onWriteSucceeded() {
+                                onBatchSent(entries, now);
+                            }
+
+                            @Override
+                            public void onWriteFailed(@NonNull Exception error) {
+                                Log.w(TAG, "Failed to send " + entries.size() + " writes", error);
+                                onBatchFailed(entries, now);
+                            }
+                        });
+            }
+        });
+    }
+
+    private void onBatchSent(@NonNull final List<OutboxEntry> entries, final long now) {
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (OutboxEntry entry : entries) {
+                            mOutboxDao.deleteEntry(entry.getItemId(), entry.getSequence());
+                        }
+                    }
+                });
+                sendNextBatch(now);
+            }
+        });
+    }
+
+    private void onBatchFailed(@NonNull final List<OutboxEntry> entries, final long now) {
+        mAppExecutors.diskWrite().execute(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (OutboxEntry entry : entries) {
+                            int attempts = entry.getAttempts() + 1;
+                            mOutboxDao.postponeEntry(entry.getItemId(), entry.getSequence(),
+                                    attempts, now + getBackoffMillis(attempts));
+                        }
+                    }
+                });
+                // The backend is unreachable, don't hammer it with the following batches.
+                finishReplay();
+            }
+        });
+    }
+
+    /**
+     * Must be called on the disk write executor.
+     */
+    private void finishReplay() {
+        Long nextAttemptAt = mOutboxDao.getNextAttemptAt();
+        mReplaying.set(false);
+        if (mReplayRequested) {
+            replay();
+        } else if (nextAttemptAt != null) {
+            scheduleReplay(Math.max(0, nextAttemptAt - System.currentTimeMillis()));
+        }
+    }
+
+    private synchronized void scheduleReplay(long delayMillis) {
+        if (mScheduledReplay != null) {
+            mScheduledReplay.cancel(false);
+        }
+        mScheduledReplay = mRetryScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns how long to wait before the attempt following {@code attempts} failed ones: doubles
+     * with every failure, up to ten minutes.
+     */
+    @VisibleForTesting
+    static long getBackoffMillis(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(INITIAL_BACKOFF_MILLIS << doublings, MAX_BACKOFF_MILLIS);
+    }
+
+    @VisibleForTesting
+    static void clearInstance() {
+        INSTANCE = null;
+    }
+}
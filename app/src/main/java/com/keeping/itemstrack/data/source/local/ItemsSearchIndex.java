@@ -0,0 +1,211 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.keeping.itemstrack.data.Item;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Full-text index of the title, description and location of the items, in an FTS4 table that
+ * triggers keep in sync with the items table.
+ * <p>
+ * Room 1.1 doesn't support virtual tables, so the index is created by
+ * {@link ItemsDatabase#MIGRATION_3_4} and {@link ItemsDatabase#EXTRA_SCHEMA_CALLBACK} and queried
+ * with raw SQL.
+ */
+final class ItemsSearchIndex {
+
+    /**
+     * The best items are loaded in one statement, so at most as many as it can bind parameters.
+     */
+    static final int MAX_LIMIT = 999;
+
+    // Weight of a match in each indexed column, in the order of the table: title, description,
+    // location.
+    private static final double[] COLUMN_WEIGHTS = {4.0, 1.0, 2.0};
+
+    private ItemsSearchIndex() {
+    }
+
+    /**
+     * Creates the index and the triggers that maintain it. The index is filled as items are
+     * written, call {@link #rebuild(SupportSQLiteDatabase)} if the table already has items.
+     */
+    static void create(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `items_fts` "
+                + "USING fts4(`title`, `description`, `location`)");
+        // Room writes with INSERT OR REPLACE, and the delete triggers don't fire for the rows it
+        // replaces, so the old entry is removed before the insert.
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `items_fts_before_insert` "
+                + "BEFORE INSERT ON `items` BEGIN "
+                + "DELETE FROM `items_fts` WHERE `docid` IN "
+                + "(SELECT `rowid` FROM `items` WHERE `entryid` = new.`entryid`); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `items_fts_after_insert` "
+                + "AFTER INSERT ON `items` BEGIN "
+                + "INSERT INTO `items_fts` (`docid`, `title`, `description`, `location`) "
+                + "VALUES (new.`rowid`, new.`title`, new.`description`, new.`location`); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `items_fts_after_update` "
+                + "AFTER UPDATE OF `title`, `description`, `location` ON `items` BEGIN "
+                + "UPDATE `items_fts` SET `title` = new.`title`, "
+                + "`description` = new.`description`, `location` = new.`location` "
+                + "WHERE `docid` = new.`rowid`; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `items_fts_before_delete` "
+                + "BEFORE DELETE ON `items` BEGIN "
+                + "DELETE FROM `items_fts` WHERE `docid` = old.`rowid`; END");
+    }
+
+    /**
+     * Re-indexes all the items.
+     */
+    static void rebuild(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("DELETE FROM `items_fts`");
+        database.execSQL("INSERT INTO `items_fts` (`docid`, `title`, `description`, `location`) "
+                + "SELECT `rowid`, `title`, `description`, `location` FROM `items`");
+    }
+
+    /**
+     * Returns at most {@code limit} items matching every word of {@code query}, best match first.
+     * A word matches the words it is a prefix of, ignoring ASCII case. Matches in the title rank
+     * above matches in the location, which rank above matches in the description, and rare words
+     * count more than common ones.
+     * <p>
+     * Only the ids and match statistics of the matching items are read to rank them, the
+     * {@code limit} best items are then loaded by primary key.
+     */
+    @NonNull
+    static List<Item> search(@NonNull ItemsDatabase database, @NonNull String query, int limit) {
+        checkNotNull(query);
+        checkArgument(limit > 0 && limit <= MAX_LIMIT, "limit must be in [1, " + MAX_LIMIT + "]");
+        String matchQuery = toMatchQuery(query);
+        if (matchQuery == null) {
+            return Collections.emptyList();
+        }
+
+        PriorityQueue<ScoredItemId> best = new PriorityQueue<>(limit);
+        Cursor cursor = database.query("SELECT `items`.`entryid`, matchinfo(`items_fts`) "
+                + "FROM `items_fts` JOIN `items` ON `items`.`rowid` = `items_fts`.`docid` "
+                + "WHERE `items_fts` MATCH ?", new Object[]{matchQuery});
+        try {
+            while (cursor.moveToNext()) {
+                double score = score(cursor.getBlob(1));
+                if (best.size() < limit) {
+                    best.add(new ScoredItemId(cursor.getString(0), score));
+                } else if (score > best.peek().mScore) {
+                    best.poll();
+                    best.add(new ScoredItemId(cursor.getString(0), score));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (best.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, Double> scores = new HashMap<>(best.size());
+        for (ScoredItemId scoredItemId : best) {
+            scores.put(scoredItemId.mItemId, scoredItemId.mScore);
+        }
+        List<Item> items = new ArrayList<>(
+                database.itemDao().getItemsByIds(new ArrayList<>(scores.keySet())));
+        Collections.sort(items, new ItemScoreComparator(scores));
+        return items;
+    }
+
+    /**
+     * Returns the FTS query matching the items that contain every word of {@code query} as a
+     * prefix, or null if {@code query} has no words. Everything but letters and digits is ignored,
+     * so user input can't be interpreted as FTS operators.
+     */
+    @VisibleForTesting
+    @Nullable
+    static String toMatchQuery(@NonNull String query) {
+        StringBuilder matchQuery = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean inWord = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append('"').append(query, start, i).append("*\"");
+                start = -1;
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
+    /**
+     * Scores a match from the default {@code matchinfo} statistics ("pcx"): for every phrase and
+     * column, the hits in this row over the hits in all rows, weighted by column.
+     */
+    @VisibleForTesting
+    static double score(@NonNull byte[] matchInfo) {
+        IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = values.get(0);
+        int columnCount = values.get(1);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 2 + 3 * (phrase * columnCount + column);
+                int hitsInRow = values.get(offset);
+                int hitsInAllRows = values.get(offset + 1);
+                if (hitsInRow > 0 && column < COLUMN_WEIGHTS.length) {
+                    score += COLUMN_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return score;
+    }
+
+    private static final class ScoredItemId implements Comparable<ScoredItemId> {
+
+        final String mItemId;
+
+        final double mScore;
+
+        ScoredItemId(@NonNull String itemId, double score) {
+            mItemId = itemId;
+            mScore = score;
+        }
+
+        @Override
+        public int compareTo(@NonNull ScoredItemId other) {
+            return Double.compare(mScore, other.mScore);
+        }
+    }
+
+    private static final class ItemScoreComparator implements Comparator<Item> {
+
+        private final Map<String, Double> mScores;
+
+        ItemScoreComparator(@NonNull Map<String, Double> scores) {
+            mScores = scores;
+        }
+
+        @Override
+        public int compare(Item first, Item second) {
+            int byScore = Double.compare(mScores.get(second.getId()), mScores.get(first.getId()));
+            return byScore != 0 ? byScore : first.getId().compareTo(second.getId());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Query;
+
+import com.keeping.itemstrack.data.LocationSummary;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the location summaries table. The table is only written by the triggers
+ * of {@link LocationSummaryTriggers}.
+ */
+@Dao
+public interface LocationSummaryDao {
+
+    /**
+     * Select the summaries of all locations holding items.
+     *
+     * @return all summaries, in location order.
+     */
+    @Query("SELECT * FROM location_summaries ORDER BY location")
+    List<LocationSummary> getLocationSummaries();
+
+    /**
+     * Select the summary of a location.
+     *
+     * @param location the location, the empty string for items without a location.
+     * @return the summary, or null if no item is at that location.
+     */
+    @Query("SELECT * FROM location_summaries WHERE location = :location")
+    LocationSummary getLocationSummary(String location);
+}
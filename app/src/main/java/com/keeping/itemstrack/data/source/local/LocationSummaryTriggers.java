@@ -0,0 +1,91 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.support.annotation.NonNull;
+
+/**
+ * Triggers that keep the location summaries table up to date as items are inserted, updated and
+ * deleted, so that each write adjusts one or two summaries instead of every read aggregating the
+ * whole items table.
+ * <p>
+ * Room 1.1 doesn't declare triggers, so they are created by {@link ItemsDatabase#MIGRATION_4_5}
+ * and {@link ItemsDatabase#EXTRA_SCHEMA_CALLBACK}.
+ */
+final class LocationSummaryTriggers {
+
+    private LocationSummaryTriggers() {
+    }
+
+    /**
+     * Creates the triggers. Call {@link #rebuild(SupportSQLiteDatabase)} if the items table
+     * already has items.
+     */
+    static void create(@NonNull SupportSQLiteDatabase database) {
+        // Room writes with INSERT OR REPLACE, and the delete triggers don't fire for the rows it
+        // replaces, so the replaced item is subtracted before the insert.
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `location_summaries_before_insert` "
+                + "BEFORE INSERT ON `items` BEGIN "
+                + "UPDATE `location_summaries` SET `itemCount` = `itemCount` - 1, "
+                + "`totalCostMinor` = `totalCostMinor` - IFNULL((SELECT `costMinor` FROM `items` "
+                + "WHERE `entryid` = new.`entryid`), 0) "
+                + "WHERE `location` = (SELECT IFNULL(`location`, '') FROM `items` "
+                + "WHERE `entryid` = new.`entryid`); "
+                + "DELETE FROM `location_summaries` WHERE `itemCount` <= 0 AND `location` = "
+                + "(SELECT IFNULL(`location`, '') FROM `items` WHERE `entryid` = new.`entryid`); "
+                + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `location_summaries_after_insert` "
+                + "AFTER INSERT ON `items` BEGIN "
+                + add("new") + " END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `location_summaries_after_update` "
+                + "AFTER UPDATE OF `location`, `costMinor` ON `items` BEGIN "
+                + subtract("old") + " "
+                + add("new") + " END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `location_summaries_after_delete` "
+                + "AFTER DELETE ON `items` BEGIN "
+                + subtract("old") + " END");
+    }
+
+    /**
+     * Recomputes all the summaries from the items.
+     */
+    static void rebuild(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("DELETE FROM `location_summaries`");
+        database.execSQL("INSERT INTO `location_summaries` "
+                + "(`location`, `itemCount`, `totalCostMinor`) "
+                + "SELECT IFNULL(`location`, ''), COUNT(*), IFNULL(SUM(`costMinor`), 0) "
+                + "FROM `items` GROUP BY IFNULL(`location`, '')");
+    }
+
+    /**
+     * Returns the key of the summary of the item {@code row}. Items without a location are summed
+     * up under the empty string, since the key can't be null.
+     */
+    private static String location(String row) {
+        return "IFNULL(" + row + ".`location`, '')";
+    }
+
+    /**
+     * Returns the statements adding the item {@code row} to its summary.
+     */
+    private static String add(String row) {
+        String location = location(row);
+        return "INSERT OR IGNORE INTO `location_summaries` "
+                + "(`location`, `itemCount`, `totalCostMinor`) VALUES (" + location + ", 0, 0); "
+                + "UPDATE `location_summaries` SET `itemCount` = `itemCount` + 1, "
+                + "`totalCostMinor` = `totalCostMinor` + IFNULL(" + row + ".`costMinor`, 0) "
+                + "WHERE `location` = " + location + ";";
+    }
+
+    /**
+     * Returns the statements removing the item {@code row} from its summary, and the summary
+     * itself once it is empty.
+     */
+    private static String subtract(String row) {
+        String location = location(row);
+        return "UPDATE `location_summaries` SET `itemCount` = `itemCount` - 1, "
+                + "`totalCostMinor` = `totalCostMinor` - IFNULL(" + row + ".`costMinor`, 0) "
+                + "WHERE `location` = " + location + "; "
+                + "DELETE FROM `location_summaries` "
+                + "WHERE `location` = " + location + " AND `itemCount` <= 0;";
+    }
+}
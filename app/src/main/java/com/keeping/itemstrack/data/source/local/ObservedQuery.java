@@ -0,0 +1,132 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.InvalidationTracker;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.util.AppExecutors;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A query on the items table that is kept up to date: it runs once when {@link #subscribe()}d and
+ * again every time Room reports that the table was written to.
+ * <p>
+ * Room only tracks changes per table, so every write re-runs the query. Results are compared with
+ * the last delivered one by {@link #hash(Object)} and only pushed to the main thread when they
+ * differ, so a write to one item doesn't refresh a screen showing another.
+ *
+ * @param <T> type of the query result
+ */
+abstract class ObservedQuery<T> extends InvalidationTracker.Observer
+        implements ItemsDataSource.Subscription {
+
+    private final AppExecutors mAppExecutors;
+
+    private final InvalidationTracker mInvalidationTracker;
+
+    private final AtomicLong mRunCount = new AtomicLong();
+
+    private volatile boolean mUnsubscribed = false;
+
+    // Only accessed on the main thread.
+    private long mDeliveredRun = -1;
+
+    // Only accessed on the main thread.
+    private boolean mDeliveredAvailable;
+
+    // Only accessed on the main thread.
+    private long mDeliveredHash;
+
+    ObservedQuery(@NonNull AppExecutors appExecutors,
+                  @NonNull InvalidationTracker invalidationTracker) {
+        super(ItemsDatabase.ITEMS_TABLE);
+        mAppExecutors = checkNotNull(appExecutors);
+        mInvalidationTracker = checkNotNull(invalidationTracker);
+    }
+
+    /**
+     * Runs the query on a disk thread. Returns null if there is no result.
+     */
+    @Nullable
+    abstract T load();
+
+    /**
+     * Returns a hash of {@code result}, equal for results that would look the same on screen.
+     */
+    abstract long hash(@NonNull T result);
+
+    /**
+     * Called on the main thread with every new result.
+     */
+    abstract void onChanged(@NonNull T result);
+
+    /**
+     * Called on the main thread when the query first has no result, or stops having one.
+     */
+    abstract void onNotAvailable();
+
+    ObservedQuery<T> subscribe() {
+        mInvalidationTracker.addObserver(this);
+        run();
+        return this;
+    }
+
+    @Override
+    public void onInvalidated(@NonNull Set<String> tables) {
+        if (!mUnsubscribed) {
+            run();
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        mUnsubscribed = true;
+        mInvalidationTracker.removeObserver(this);
+    }
+
+    private void run() {
+        final long run = mRunCount.getAndIncrement();
+        mAppExecutors.diskRead().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mUnsubscribed) {
+                    return;
+                }
+                final T result = load();
+                mAppExecutors.mainThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(run, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(long run, @Nullable T result) {
+        // Drop results that are older than the one already delivered.
+        if (mUnsubscribed || run < mDeliveredRun) {
+            return;
+        }
+        boolean firstDelivery = mDeliveredRun < 0;
+        mDeliveredRun = run;
+        if (result == null) {
+            if (firstDelivery || mDeliveredAvailable) {
+                mDeliveredAvailable = false;
+                onNotAvailable();
+            }
+            return;
+        }
+        long hash = hash(result);
+        if (firstDelivery || !mDeliveredAvailable || hash != mDeliveredHash) {
+            mDeliveredAvailable = true;
+            mDeliveredHash = hash;
+            onChanged(result);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the outbox table.
+ */
+@Dao
+public interface OutboxDao {
+
+    /**
+     * Insert entries, replacing the pending entries of the same items.
+     *
+     * @param entries the entries to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertEntries(List<OutboxEntry> entries);
+
+    /**
+     * Select the oldest entries that are due.
+     *
+     * @param now   current wall clock time in milliseconds.
+     * @param limit maximum number of entries to return.
+     * @return the entries to send, oldest first.
+     */
+    @Query("SELECT * FROM outbox WHERE nextAttemptAt <= :now ORDER BY sequence LIMIT :limit")
+    List<OutboxEntry> getDueEntries(long now, int limit);
+
+    /**
+     * @return the sequence of the last entry enqueued, or 0 if the outbox is empty.
+     */
+    @Query("SELECT IFNULL(MAX(sequence), 0) FROM outbox")
+    long getLastSequence();
+
+    /**
+     * @return the earliest time at which an entry is due, or null if the outbox is empty.
+     */
+    @Query("SELECT MIN(nextAttemptAt) FROM outbox")
+    Long getNextAttemptAt();
+
+    /**
+     * @return the ids of the items with a pending entry.
+     */
+    @Query("SELECT itemid FROM outbox")
+    List<String> getItemIds();
+
+    /**
+     * @return the number of pending entries.
+     */
+    @Query("SELECT COUNT(*) FROM outbox")
+    int getEntryCount();
+
+    /**
+     * Delete an entry, unless it was replaced by a newer write in the meantime.
+     *
+     * @return the number of entries deleted.
+     */
+    @Query("DELETE FROM outbox WHERE itemid = :itemId AND sequence = :sequence")
+    int deleteEntry(String itemId, long sequence);
+
+    /**
+     * Postpone an entry after a failed attempt, unless it was replaced by a newer write in the
+     * meantime.
+     *
+     * @return the number of entries updated.
+     */
+    @Query("UPDATE outbox SET attempts = :attempts, nextAttemptAt = :nextAttemptAt "
+            + "WHERE itemid = :itemId AND sequence = :sequence")
+    int postponeEntry(String itemId, long sequence, int attempts, long nextAttemptAt);
+}
@@ -0,0 +1,78 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+/**
+ * A write of an item that still has to reach the backend. There is at most one entry per item
+ * id: a newer write replaces the pending one, since only the latest state has to be sent.
+ */
+@Entity(tableName = "outbox")
+public final class OutboxEntry {
+
+    public static final int OPERATION_SAVE = 0;
+
+    public static final int OPERATION_DELETE = 1;
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "itemid")
+    private final String mItemId;
+
+    @ColumnInfo(name = "operation")
+    private final int mOperation;
+
+    /**
+     * Increases with every write enqueued, so that an entry replaced while it was being sent
+     * isn't removed when the older write succeeds.
+     */
+    @ColumnInfo(name = "sequence")
+    private final long mSequence;
+
+    @ColumnInfo(name = "attempts")
+    private final int mAttempts;
+
+    /**
+     * Wall clock time before which the entry must not be sent again, in milliseconds.
+     */
+    @ColumnInfo(name = "nextAttemptAt")
+    private final long mNextAttemptAt;
+
+    public OutboxEntry(@NonNull String itemId, int operation, long sequence, int attempts,
+                       long nextAttemptAt) {
+        mItemId = itemId;
+        mOperation = operation;
+        mSequence = sequence;
+        mAttempts = attempts;
+        mNextAttemptAt = nextAttemptAt;
+    }
+
+    @NonNull
+    public String getItemId() {
+        return mItemId;
+    }
+
+    public int getOperation() {
+        return mOperation;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    public long getNextAttemptAt() {
+        return mNextAttemptAt;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry{" + mItemId + ", operation=" + mOperation
+                + ", attempts=" + mAttempts + "}";
+    }
+}
@@ -0,0 +1,55 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records writes in the outbox table, replayed by the {@link ItemsLocalOutbox}.
+ * <p>
+ * Must be called inside the transaction that writes the items, so that a write is never committed
+ * without its entry, which would keep it from the backend, nor an entry without its write.
+ */
+final class OutboxWrites {
+
+    private OutboxWrites() {
+    }
+
+    /**
+     * Records that the current local version of the items with ids {@code itemIds} has to be
+     * saved to the backend.
+     */
+    static void enqueueSaves(@NonNull ItemsDatabase database, @NonNull List<String> itemIds) {
+        insertEntries(database, itemIds, OutboxEntry.OPERATION_SAVE);
+    }
+
+    /**
+     * Records that the items with ids {@code itemIds} have to be deleted from the backend.
+     */
+    static void enqueueDeletes(@NonNull ItemsDatabase database, @NonNull List<String> itemIds) {
+        insertEntries(database, itemIds, OutboxEntry.OPERATION_DELETE);
+    }
+
+    /**
+     * Records that every item stored locally has to be deleted from the backend. Must be called
+     * before the items are deleted.
+     */
+    static void enqueueDeleteAll(@NonNull ItemsDatabase database) {
+        enqueueDeletes(database, database.itemDao().getItemIds());
+    }
+
+    private static void insertEntries(@NonNull ItemsDatabase database,
+                                      @NonNull List<String> itemIds, int operation) {
+        if (itemIds.isEmpty()) {
+            return;
+        }
+        OutboxDao outboxDao = database.outboxDao();
+        long sequence = outboxDao.getLastSequence();
+        List<OutboxEntry> entries = new ArrayList<>(itemIds.size());
+        for (String itemId : itemIds) {
+            entries.add(new OutboxEntry(itemId, operation, ++sequence, 0, 0));
+        }
+        outboxDao.insertEntries(entries);
+    }
+}
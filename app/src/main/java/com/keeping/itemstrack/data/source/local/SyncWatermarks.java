@@ -0,0 +1,57 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+import android.support.annotation.NonNull;
+
+/**
+ * How far this device got syncing with a cloud, so that a sync only pushes the local changes
+ * made since the last successful push and only pulls the cloud changes since the last pull.
+ */
+@Entity(tableName = "sync_watermarks")
+public final class SyncWatermarks {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "syncId")
+    private final String mSyncId;
+
+    /**
+     * Time of the latest local change pushed, on the clock of {@link
+     * com.keeping.itemstrack.data.Item#getUpdatedAt()} and {@link ItemTombstone#getDeletedAt()}.
+     */
+    @ColumnInfo(name = "pushedUpTo")
+    private final long mPushedUpTo;
+
+    /**
+     * Time of the latest cloud change pulled, on the cloud's clock.
+     */
+    @ColumnInfo(name = "pulledUpTo")
+    private final long mPulledUpTo;
+
+    public SyncWatermarks(@NonNull String syncId, long pushedUpTo, long pulledUpTo) {
+        mSyncId = syncId;
+        mPushedUpTo = pushedUpTo;
+        mPulledUpTo = pulledUpTo;
+    }
+
+    @NonNull
+    public String getSyncId() {
+        return mSyncId;
+    }
+
+    public long getPushedUpTo() {
+        return mPushedUpTo;
+    }
+
+    public long getPulledUpTo() {
+        return mPulledUpTo;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncWatermarks{" + mSyncId + ", pushedUpTo=" + mPushedUpTo
+                + ", pulledUpTo=" + mPulledUpTo + "}";
+    }
+}
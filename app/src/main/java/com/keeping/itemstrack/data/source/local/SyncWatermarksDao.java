@@ -0,0 +1,42 @@
+package com.keeping.itemstrack.data.source.local;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+/**
+ * Data Access Object for the sync watermarks table.
+ */
+@Dao
+public interface SyncWatermarksDao {
+
+    /**
+     * Select the watermarks of a sync.
+     *
+     * @param syncId the sync id.
+     * @return the watermarks, or null if the sync never succeeded.
+     */
+    @Query("SELECT * FROM sync_watermarks WHERE syncId = :syncId")
+    SyncWatermarks getWatermarks(String syncId);
+
+    /**
+     * Insert watermarks, unless the sync has some already.
+     *
+     * @param watermarks the watermarks to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertWatermarksIfAbsent(SyncWatermarks watermarks);
+
+    /**
+     * Move the watermarks of a sync forward. A watermark later than the given one is kept, so
+     * that writers finishing out of order never move a watermark back.
+     *
+     * @param syncId     the sync id.
+     * @param pushedUpTo the new push watermark.
+     * @param pulledUpTo the new pull watermark.
+     */
+    @Query("UPDATE sync_watermarks SET pushedUpTo = MAX(pushedUpTo, :pushedUpTo), "
+            + "pulledUpTo = MAX(pulledUpTo, :pulledUpTo) WHERE syncId = :syncId")
+    void advanceWatermarks(String syncId, long pushedUpTo, long pulledUpTo);
+}
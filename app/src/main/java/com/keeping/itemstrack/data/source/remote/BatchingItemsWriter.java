@@ -0,0 +1,204 @@
+package com.keeping.itemstrack.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Groups the writes made through it into batches of up to {@code maxBatchSize} saves and deletes,
+ * each sent to the backend as a single write, so that many small writes cost a few round trips.
+ * <p>
+ * Pending writes are sent once they add up to {@code maxBatchSize} items, {@code maxDelayMillis}
+ * after the first of them, or when {@link #flush()} is called, whichever comes first. A write is
+ * never split across batches, and one larger than {@code maxBatchSize} is sent on its own. Within
+ * a batch the last write of an item wins. Batches are sent one at a time, in order, and the
+ * callback of every write is called once the batch holding it was applied or failed.
+ */
+public class BatchingItemsWriter implements RemoteItemsWriter {
+
+    private final RemoteItemsWriter mWriter;
+
+    private final int mMaxBatchSize;
+
+    private final long mMaxDelayMillis;
+
+    private final ScheduledExecutorService mScheduler;
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock.
+    private Batch mPending = new Batch();
+
+    // Guarded by mLock.
+    private final Queue<Batch> mReadyBatches = new ArrayDeque<>();
+
+    // Guarded by mLock.
+    private boolean mSending = false;
+
+    // Guarded by mLock.
+    @Nullable
+    private ScheduledFuture<?> mScheduledFlush;
+
+    public BatchingItemsWriter(@NonNull RemoteItemsWriter writer, int maxBatchSize,
+                               long maxDelayMillis, @NonNull ScheduledExecutorService scheduler) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        mWriter = checkNotNull(writer);
+        mMaxBatchSize = maxBatchSize;
+        mMaxDelayMillis = maxDelayMillis;
+        mScheduler = checkNotNull(scheduler);
+    }
+
+    @Override
+    public void writeItems(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                           @NonNull WriteCallback callback) {
+        checkNotNull(items);
+        checkNotNull(deletedItemIds);
+        checkNotNull(callback);
+        synchronized (mLock) {
+            if (!mPending.isEmpty()
+                    && mPending.size() + items.size() + deletedItemIds.size() > mMaxBatchSize) {
+                closePendingBatch();
+            }
+            mPending.add(items, deletedItemIds, callback);
+            if (mPending.size() >= mMaxBatchSize) {
+                closePendingBatch();
+            } else if (mScheduledFlush == null) {
+                mScheduledFlush = mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, mMaxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        sendNextBatch();
+    }
+
+    /**
+     * Sends the pending writes without waiting for more.
+     */
+    public void flush() {
+        synchronized (mLock) {
+            if (!mPending.isEmpty()) {
+                closePendingBatch();
+            }
+        }
+        sendNextBatch();
+    }
+
+    private void closePendingBatch() {
+        mReadyBatches.add(mPending);
+        mPending = new Batch();
+        if (mScheduledFlush != null) {
+            mScheduledFlush.cancel(false);
+            mScheduledFlush = null;
+        }
+    }
+
+    private void sendNextBatch() {
+        final Batch batch;
+        synchronized (mLock) {
+            if (mSending || mReadyBatches.isEmpty()) {
+                return;
+            }
+            mSending = true;
+            batch = mReadyBatches.remove();
+        }
+        mWriter.writeItems(batch.getSavedItems(), batch.getDeletedItemIds(),
+                new WriteCallback() {
+                    @Override
+                    public void onWriteSucceeded() {
+                        for (WriteCallback callback : batch.mCallbacks) {
+                            callback.onWriteSucceeded();
+                        }
+                        onBatchSent();
+                    }
+
+                    @Override
+                    public void onWriteFailed(@NonNull Exception error) {
+                        for (WriteCallback callback : batch.mCallbacks) {
+                            callback.onWriteFailed(error);
+                        }
+                        onBatchSent();
+                    }
+                });
+    }
+
+    /**
+     * Called once the callbacks of a batch returned, so that the callbacks of the next one are
+     * called after them even if the backend answers on the calling thread.
+     */
+    private void onBatchSent() {
+        synchronized (mLock) {
+            mSending = false;
+        }
+        sendNextBatch();
+    }
+
+    /**
+     * The writes sent together, keyed by item id so that the last write of an item wins.
+     */
+    private static final class Batch {
+
+        // The saved item, or null if the item is deleted.
+        final Map<String, Item> mWrites = new LinkedHashMap<>();
+
+        final List<WriteCallback> mCallbacks = new ArrayList<>();
+
+        void add(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                 @NonNull WriteCallback callback) {
+            for (String itemId : deletedItemIds) {
+                mWrites.put(itemId, null);
+            }
+            for (Item item : items) {
+                mWrites.put(item.getId(), item);
+            }
+            mCallbacks.add(callback);
+        }
+
+        boolean isEmpty() {
+            return mCallbacks.isEmpty();
+        }
+
+        int size() {
+            return mWrites.size();
+        }
+
+        @NonNull
+        List<Item> getSavedItems() {
+            List<Item> items = new ArrayList<>();
+            for (Item item : mWrites.values()) {
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+
+        @NonNull
+        List<String> getDeletedItemIds() {
+            List<String> itemIds = new ArrayList<>();
+            for (Map.Entry<String, Item> write : mWrites.entrySet()) {
+                if (write.getValue() == null) {
+                    itemIds.add(write.getKey());
+                }
+            }
+            return itemIds;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.keeping.itemstrack.data.source.remote;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+import com.keeping.itemstrack.data.source.ItemsCloud;
+import com.keeping.itemstrack.data.source.ItemsDiff;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the {@link ItemBuckets} hashes of the items of the Firebase database up to date as items
+ * are written, so that reading the hashes of the buckets below a prefix reads one value per
+ * bucket instead of one per item.
+ * <p>
+ * The content hash of each item is kept in {@link #LEAF_HASHES_NODE}, grouped by leaf bucket, and
+ * the hash of each bucket in {@link #BUCKETS_NODE}, under the length of its prefix. Both are
+ * strings, as the database keeps numbers as doubles, which can't hold 64 bits.
+ * <p>
+ * The database can't add to a value itself, so a write runs a transaction per leaf it touches,
+ * which replaces the hashes of its items and yields how much the hash of the leaf changed, then
+ * adds the changes to the buckets of every level, one transaction per bucket. Firebase runs a
+ * transaction again when another writer got there first, so concurrent writes all count. A write
+ * interrupted between the two steps leaves the hashes of its buckets off, and items written before
+ * bucket hashes were kept are missing from them. A sync finds such leaves, whose items don't add
+ * up to their hash, and sets their hashes again from the items with
+ * {@link #repair(List, List, List, ItemsCloud.WriteCallback)}, so that later syncs agree on them.
+ */
+final class FirebaseBucketHashes {
+
+    static final String LEAF_HASHES_NODE = "item_leaf_hashes";
+
+    static final String BUCKETS_NODE = "item_buckets";
+
+    private FirebaseBucketHashes() {
+    }
+
+    /**
+     * Returns the node holding the hashes of the buckets one level below {@code prefix}.
+     */
+    @NonNull
+    static String bucketsNode(@NonNull String prefix) {
+        return BUCKETS_NODE + "/" + (prefix.length() + 1);
+    }
+
+    /**
+     * Returns the bucket hash stored in a node, or null if there is none.
+     */
+    @Nullable
+    static Long parseHash(@Nullable Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+        try {
+            return Long.parseLong((String) value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the items written and deleted by a batch already applied to the items node to the
+     * hashes. {@code callback} is called on the main thread, once all the hashes are written or
+     * one transaction failed.
+     */
+    static void write(@NonNull List<Item> items, @NonNull List<String> deletedItemIds,
+                      @NonNull final ItemsCloud.WriteCallback callback) {
+        checkNotNull(callback);
+        // The content hash of each item, by leaf, null for the deleted items.
+        Map<String, Map<String, Long>> leaves = new HashMap<>();
+        for (String itemId : checkNotNull(deletedItemIds)) {
+            putHash(leaves, itemId, null);
+        }
+        for (Item item : checkNotNull(items)) {
+            putHash(leaves, item.getId(), ItemsDiff.contentHash(item));
+        }
+        if (leaves.isEmpty()) {
+            callback.onWriteSucceeded();
+            return;
+        }
+        final DatabaseReference root;
+        try {
+            root = FirebaseDatabase.getInstance().getReference();
+        } catch (RuntimeException e) {
+            // Firebase isn't initialized.
+            callback.onWriteFailed(e);
+            return;
+        }
+        // How much the hash of each bucket changed, by node. Only touched on the main thread,
+        // like pending.
+        final Map<String, Long> changes = new HashMap<>();
+        final int[] pending = {leaves.size()};
+        for (Map.Entry<String, Map<String, Long>> leaf : leaves.entrySet()) {
+            final String leafPrefix = leaf.getKey();
+            final Map<String, Long> hashes = leaf.getValue();
+            root.child(LEAF_HASHES_NODE).child(leafPrefix).runTransaction(
+                    new Transaction.Handler() {
+                        // How much the hash of the leaf changed in the last run, the committed
+                        // one.
+                        private long mChange;
+
+                        @Override
+                        public Transaction.Result doTransaction(MutableData leafData) {
+                            mChange = 0;
+                            for (Map.Entry<String, Long> hash : hashes.entrySet()) {
+                                MutableData itemData = leafData.child(hash.getKey());
+                                Long oldHash = parseHash(itemData.getValue());
+                                if (oldHash != null) {
+                                    mChange -= ItemBuckets.bucketHash(oldHash);
+                                }
+                                if (hash.getValue() == null) {
+                                    itemData.setValue(null);
+                                } else {
+                                    mChange += ItemBuckets.bucketHash(hash.getValue());
+                                    itemData.setValue(Long.toString(hash.getValue()));
+                                }
+                            }
+                            return Transaction.success(leafData);
+                        }
+
+                        @Override
+                        public void onComplete(DatabaseError error, boolean committed,
+                                               DataSnapshot snapshot) {
+                            if (pending[0] <= 0) {
+                                return;
+                            }
+                            if (error != null) {
+                                pending[0] = 0;
+                                callback.onWriteFailed(error.toException());
+                                return;
+                            }
+                            for (int level = 1; level <= ItemBuckets.LEAF_PREFIX_LENGTH;
+                                 level++) {
+                                String node = level + "/" + ItemBuckets.bucketOf(leafPrefix, level);
+                                Long change = changes.get(node);
+                                changes.put(node, change == null ? mChange : change + mChange);
+                            }
+                            if (--pending[0] == 0) {
+                                addChanges(root.child(BUCKETS_NODE), changes, callback);
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Sets the hashes of the items and deletes read from {@code leaves}, then the hash of each
+     * leaf to the sum of the hashes kept for its items, and adds the difference to the buckets
+     * above. Unlike {@link #write(List, List, ItemsCloud.WriteCallback)}, which adds the changes
+     * of a write to hashes assumed to be right, this corrects them however they came to be off.
+     * Items of the leaves written since they were read get back the hashes read, which only
+     * makes the next sync repair their leaves again. {@code callback} is called on the main
+     * thread, once all the hashes are written or one transaction failed.
+     */
+    static void repair(@NonNull List<String> leaves, @NonNull List<Item> items,
+                       @NonNull List<String> deletedItemIds,
+                       @NonNull final ItemsCloud.WriteCallback callback) {
+        checkNotNull(callback);
+        // The content hash of each item, by leaf, null for the deleted items.
+        Map<String, Map<String, Long>> leafHashes = new HashMap<>();
+        for (String itemId : checkNotNull(deletedItemIds)) {
+            putHash(leafHashes, itemId, null);
+        }
+        for (Item item : checkNotNull(items)) {
+            putHash(leafHashes, item.getId(), ItemsDiff.contentHash(item));
+        }
+        if (checkNotNull(leaves).isEmpty()) {
+            callback.onWriteSucceeded();
+            return;
+        }
+        final DatabaseReference root;
+        try {
+            root = FirebaseDatabase.getInstance().getReference();
+        } catch (RuntimeException e) {
+            // Firebase isn't initialized.
+            callback.onWriteFailed(e);
+            return;
+        }
+        // How much the hash of each bucket above the leaves changed, by node. Only touched on the
+        // main thread, like pending.
+        final Map<String, Long> changes = new HashMap<>();
+        final int[] pending = {leaves.size()};
+        for (final String leafPrefix : leaves) {
+            Map<String, Long> readHashes = leafHashes.get(leafPrefix);
+            final Map<String, Long> hashes = readHashes == null
+                    ? Collections.<String, Long>emptyMap() : readHashes;
+            root.child(LEAF_HASHES_NODE).child(leafPrefix).runTransaction(
+                    new Transaction.Handler() {
+                        // The sum of the hashes of the items of the leaf in the last run, the
+                        // committed one.
+                        private long mSum;
+
+                        @Override
+                        public Transaction.Result doTransaction(MutableData leafData) {
+                            for (Map.Entry<String, Long> hash : hashes.entrySet()) {
+                                leafData.child(hash.getKey()).setValue(hash.getValue() == null
+                                        ? null : Long.toString(hash.getValue()));
+                            }
+                            mSum = 0;
+                            for (MutableData itemData : leafData.getChildren()) {
+                                Long itemHash = parseHash(itemData.getValue());
+                                if (itemHash != null) {
+                                    mSum += ItemBuckets.bucketHash(itemHash);
+                                }
+                            }
+                            return Transaction.success(leafData);
+                        }
+
+                        @Override
+                        public void onComplete(DatabaseError error, boolean committed,
+                                               DataSnapshot snapshot) {
+                            if (pending[0] <= 0) {
+                                return;
+                            }
+                            if (error != null) {
+                                pending[0] = 0;
+                                callback.onWriteFailed(error.toException());
+                                return;
+                            }
+                            setLeafHash(root, leafPrefix, mSum, changes, pending, callback);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Sets the hash of a leaf to {@code sum}, adds how much it changed to {@code changes} for the
+     * buckets above it, and adds {@code changes} to them once no other leaf is {@code pending}.
+     */
+    private static void setLeafHash(@NonNull final DatabaseReference root,
+                                    @NonNull final String leafPrefix, final long sum,
+                                    @NonNull final Map<String, Long> changes,
+                                    @NonNull final int[] pending,
+                                    @NonNull final ItemsCloud.WriteCallback callback) {
+        root.child(BUCKETS_NODE).child(ItemBuckets.LEAF_PREFIX_LENGTH + "/" + leafPrefix)
+                .runTransaction(new Transaction.Handler() {
+                    // How much the hash of the leaf changed in the last run, the committed one.
+                    private long mChange;
+
+                    @Override
+                    public Transaction.Result doTransaction(MutableData bucketData) {
+                        Long hash = parseHash(bucketData.getValue());
+                        mChange = sum - (hash == null ? 0 : hash);
+                        bucketData.setValue(sum == 0 ? null : Long.toString(sum));
+                        return Transaction.success(bucketData);
+                    }
+
+                    @Override
+                    public void onComplete(DatabaseError error, boolean committed,
+                                           DataSnapshot snapshot) {
+                        if (pending[0] <= 0) {
+                            return;
+                        }
+                        if (error != null) {
+                            pending[0] = 0;
+                            callback.onWriteFailed(error.toException());
+                            return;
+                        }
+                        for (int level = 1; level < ItemBuckets.LEAF_PREFIX_LENGTH; level++) {
+                            String node = level + "/" + ItemBuckets.bucketOf(leafPrefix, level);
+                            Long change = changes.get(node);
+                            changes.put(node, change == null ? mChange : change + mChange);
+                        }
+                        if (--pending[0] == 0) {
+                            addChanges(root.child(BUCKETS_NODE), changes, callback);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Adds {@code changes} to the hashes of the buckets, then calls {@code callback}.
+     */
+    private static void addChanges(@NonNull DatabaseReference buckets,
+                                   @NonNull Map<String, Long> changes,
+                                   @NonNull final ItemsCloud.WriteCallback callback) {
+        final int[] pending = {0};
+        for (Long change : changes.values()) {
+            if (change != 0) {
+                pending[0]++;
+            }
+        }
+        if (pending[0] == 0) {
+            callback.onWriteSucceeded();
+            return;
+        }
+        for (Map.Entry<String, Long> change : changes.entrySet()) {
+            final long amount = change.getValue();
+            if (amount == 0) {
+                continue;
+            }
+            buckets.child(change.getKey()).runTransaction(new Transaction.Handler() {
+                @Override
+                public Transaction.Result doTransaction(MutableData bucketData) {
+                    Long hash = parseHash(bucketData.getValue());
+                    long newHash = (hash == null ? 0 : hash) + amount;
+                    // Empty buckets are removed, as they have no hash locally.
+                    bucketData.setValue(newHash == 0 ? null : Long.toString(newHash));
+                    return Transaction.success(bucketData);
+                }
+
+                @Override
+                public void onComplete(DatabaseError error, boolean committed,
+                                       DataSnapshot snapshot) {
+                    if (pending[0] <= 0) {
+                        return;
+                    }
+                    if (error != null) {
+                        pending[0] = 0;
+                        callback.onWriteFailed(error.toException());
+                    } else if (--pending[0] == 0) {
+                        callback.onWriteSucceeded();
+                    }
+                }
+            });
+        }
+    }
+
+    private static void putHash(@NonNull Map<String, Map<String, Long>> leaves,
+                                @NonNull String itemId, @Nullable Long contentHash) {
+        String leaf = ItemBuckets.bucketOf(itemId, ItemBuckets.LEAF_PREFIX_LENGTH);
+        Map<String, Long> hashes = leaves.get(leaf);
+        if (hashes == null) {
+            hashes = new HashMap<>();
+            leaves.put(leaf, hashes);
+        }
+        hashes.put(itemId, contentHash);
+    }
+}
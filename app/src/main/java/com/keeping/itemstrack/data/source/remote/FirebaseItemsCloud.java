@@ -0,0 +1,567 @@
+package com.keeping.itemstrack.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.ValueEventListener;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.CloudItem;
+import com.keeping.itemstrack.data.source.ItemBuckets;
+import com.keeping.itemstrack.data.source.ItemsCloud;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads and writes items in the {@code items} node of the Firebase database. A batch is sent as a
+ * single multi-path update, so it is applied atomically and costs one round trip.
+ * <p>
+ * Every write sets the {@code updatedAt} child of the item to the server time, and its
+ * {@code version} to the local version of the item. Deletes leave a tombstone in place of the
+ * item, so that changes are pulled with a query on {@code updatedAt}. The node must be indexed
+ * on it in the database rules
+ * ({@code ".indexOn": "updatedAt"}), otherwise the query downloads the whole node.
+ * <p>
+ * Changes are observed with a single child event listener on the same query, so that only the
+ * children added or changed are downloaded, once each, rather than the whole node on every
+ * change.
+ * <p>
+ * Firebase calls its listeners on the main thread, but the snapshots they receive are read into
+ * items on a background thread of this class, one snapshot at a time in the order they arrived:
+ * a pull of the whole node would otherwise hold the main thread for as long as it takes to
+ * deserialize every child. Callbacks and listeners are called on that thread.
+ * <p>
+ * Once a write is applied, the {@link ItemBuckets} hashes of the items it touched are updated
+ * by {@link FirebaseBucketHashes}, and the write only succeeds once they are. Reading the hashes
+ * of the buckets below a prefix reads one value per bucket, whatever the number of items, and
+ * the items of a run of differing buckets are read with a single range query.
+ */
+public class FirebaseItemsCloud implements ItemsCloud {
+
+    private static final String ITEMS_NODE = "items";
+
+    /**
+     * Sorts after any character of an id, so that the keys starting with a prefix are the keys
+     * from the prefix to the prefix followed by this.
+     */
+    private static final String LAST_KEY_CHARACTER = "\uf8ff";
+
+    private static final String UPDATED_AT = "updatedAt";
+
+    /**
+     * Above this many prefixes, the buckets below them are read as the whole level at once
+     * rather than with one query each: a level holds at most a few thousand short values.
+     */
+    private static final int MAX_BUCKET_QUERIES = 16;
+
+    private static FirebaseItemsCloud INSTANCE;
+
+    private final Executor mReadExecutor;
+
+    // Prevent direct instantiation.
+    private FirebaseItemsCloud() {
+        mReadExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    public static FirebaseItemsCloud getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new FirebaseItemsCloud();
+        }
+        return INSTANCE;
+    }
+
+    @Override
+    public void writeItems(@NonNull final List<Item> items,
+                           @NonNull final List<String> deletedItemIds,
+                           @NonNull final WriteCallback callback) {
+        checkNotNull(items);
+        checkNotNull(deletedItemIds);
+        checkNotNull(callback);
+        Map<String, Object> updates = new HashMap<>(items.size() + deletedItemIds.size());
+        for (String itemId : deletedItemIds) {
+            Map<String, Object> tombstone = new HashMap<>();
+            tombstone.put("id", itemId);
+            tombstone.put("deleted", true);
+            tombstone.put(UPDATED_AT, ServerValue.TIMESTAMP);
+            updates.put(ITEMS_NODE + "/" + itemId, tombstone);
+        }
+        for (Item item : items) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("id", item.getId());
+            values.put("title", item.getTitle());
+            values.put("description", item.getDescription());
+            values.put("cost", item.getCost());
+            values.put("location", item.getLocation());
+            values.put("imagePath", item.getImagePath());
+            values.put(UPDATED_AT, ServerValue.TIMESTAMP);
+            values.put("version", item.getVersion());
+            updates.put(ITEMS_NODE + "/" + item.getId(), values);
+        }
+        if (updates.isEmpty()) {
+            callback.onWriteSucceeded();
+            return;
+        }
+        try {
+            FirebaseDatabase.getInstance().getReference().updateChildren(updates,
+                    new DatabaseReference.CompletionListener() {
+                        @Override
+                        public void onComplete(DatabaseError error, DatabaseReference reference) {
+                            if (error == null) {
+                                FirebaseBucketHashes.write(items, deletedItemIds, callback);
+                            } else {
+                                callback.onWriteFailed(error.toException());
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // Firebase isn't initialized or rejected the values.
+            callback.onWriteFailed(e);
+        }
+    }
+
+    @Override
+    public void pullChanges(final long since, @NonNull final PullCallback callback) {
+        checkNotNull(callback);
+        try {
+            changesSince(since).addListenerForSingleValueEvent(new ValueEventListener() {
+                @Override
+                public void onDataChange(final DataSnapshot dataSnapshot) {
+                    mReadExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                readChanges(dataSnapshot, since, callback);
+                            } catch (DatabaseException e) {
+                                callback.onPullFailed(e);
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void onCancelled(final DatabaseError databaseError) {
+                    mReadExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onPullFailed(databaseError.toException());
+                        }
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            // Firebase isn't initialized.
+            callback.onPullFailed(e);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ItemsDataSource.Subscription observeChanges(long since,
+                                                       @NonNull ChangeListener changeListener) {
+        checkNotNull(changeListener);
+        final AtomicBoolean subscribed = new AtomicBoolean(true);
+        // Drops the snapshots still being read when the subscription ends.
+        final ChangeListener listener = new SubscribedChangeListener(changeListener, subscribed);
+        final Query query;
+        try {
+            query = changesSince(since);
+        } catch (RuntimeException e) {
+            // Firebase isn't initialized.
+            listener.onObserveFailed(e);
+            return new ItemsDataSource.Subscription() {
+                @Override
+                public void unsubscribe() {
+                }
+            };
+        }
+        final ChildEventListener childListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                readChangeLater(dataSnapshot, listener);
+            }
+
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                readChangeLater(dataSnapshot, listener);
+            }
+
+            @Override
+            public void onChildRemoved(final DataSnapshot dataSnapshot) {
+                mReadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Deletes leave tombstones, only items removed by hand end up here.
+                        listener.onItemDeleted(dataSnapshot.getKey(), 0);
+                    }
+                });
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                // Only the order changed, onChildChanged was called for the change itself.
+            }
+
+            @Override
+            public void onCancelled(final DatabaseError databaseError) {
+                mReadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onObserveFailed(databaseError.toException());
+                    }
+                });
+            }
+        };
+        query.addChildEventListener(childListener);
+        return new ItemsDataSource.Subscription() {
+            @Override
+            public void unsubscribe() {
+                subscribed.set(false);
+                query.removeEventListener(childListener);
+            }
+        };
+    }
+
+    @Override
+    public void getBucketHashes(@NonNull final List<String> prefixes,
+                                @NonNull final BucketHashesCallback callback) {
+        checkNotNull(prefixes);
+        checkNotNull(callback);
+        final int level = prefixes.isEmpty() ? 0 : prefixes.get(0).length();
+        final Set<String> prefixSet = new HashSet<>(prefixes);
+        List<String> nodes = new ArrayList<>();
+        List<String> firstKeys = new ArrayList<>();
+        if (prefixes.size() > MAX_BUCKET_QUERIES) {
+            nodes.add(FirebaseBucketHashes.bucketsNode(prefixes.get(0)));
+            firstKeys.add("");
+        } else {
+            for (String prefix : prefixes) {
+                nodes.add(FirebaseBucketHashes.bucketsNode(prefix));
+                firstKeys.add(prefix);
+            }
+        }
+        readBuckets(nodes, firstKeys, firstKeys, new BucketsCallback() {
+            @Override
+            public void onBucketsRead(@NonNull List<DataSnapshot> snapshots) {
+                Map<String, Long> hashes = new HashMap<>();
+                for (DataSnapshot snapshot : snapshots) {
+                    for (DataSnapshot childSnapshot : snapshot.getChildren()) {
+                        String bucket = childSnapshot.getKey();
+                        if (!prefixSet.contains(ItemBuckets.bucketOf(bucket, level))) {
+                            continue;
+                        }
+                        // Buckets without a valid hash are compared item by item.
+                        Long hash = FirebaseBucketHashes.parseHash(childSnapshot.getValue());
+                        if (hash != null) {
+                            hashes.put(bucket, hash);
+                        }
+                    }
+                }
+                callback.onBucketHashesLoaded(hashes);
+            }
+
+            @Override
+            public void onBucketsFailed(@NonNull Exception error) {
+                callback.onBucketHashesFailed(error);
+            }
+        });
+    }
+
+    @Override
+    public void pullBuckets(@NonNull List<List<String>> prefixRuns,
+                            @NonNull final PullCallback callback) {
+        checkNotNull(prefixRuns);
+        checkNotNull(callback);
+        final Set<String> prefixes = new HashSet<>();
+        List<String> firstKeys = new ArrayList<>(prefixRuns.size());
+        List<String> lastKeys = new ArrayList<>(prefixRuns.size());
+        for (List<String> run : prefixRuns) {
+            prefixes.addAll(run);
+            firstKeys.add(run.get(0));
+            lastKeys.add(run.get(run.size() - 1));
+        }
+        List<String> nodes = Collections.nCopies(prefixRuns.size(), ITEMS_NODE);
+        readBuckets(nodes, firstKeys, lastKeys, new BucketsCallback() {
+            @Override
+            public void onBucketsRead(@NonNull List<DataSnapshot> snapshots) {
+                List<Item> items = new ArrayList<>();
+                List<String> deletedItemIds = new ArrayList<>();
+                long pulledUpTo = 0;
+                try {
+                    for (DataSnapshot snapshot : snapshots) {
+                        pulledUpTo = Math.max(pulledUpTo,
+                                readChildren(snapshot, items, deletedItemIds));
+                    }
+                } catch (DatabaseException e) {
+                    callback.onPullFailed(e);
+                    return;
+                }
+                // The range of a run also covers the buckets between its prefixes that have no
+                // hash, which may still hold items whose hashes the cloud lacks.
+                for (Iterator<Item> it = items.iterator(); it.hasNext(); ) {
+                    if (!startsWithAny(it.next().getId(), prefixes)) {
+                        it.remove();
+                    }
+                }
+                for (Iterator<String> it = deletedItemIds.iterator(); it.hasNext(); ) {
+                    if (!startsWithAny(it.next(), prefixes)) {
+                        it.remove();
+                    }
+                }
+                callback.onChangesPulled(items, deletedItemIds, pulledUpTo);
+            }
+
+            @Override
+            public void onBucketsFailed(@NonNull Exception error) {
+                callback.onPullFailed(error);
+            }
+        });
+    }
+
+    @Override
+    public void repairLeafHashes(@NonNull List<String> leaves, @NonNull List<Item> items,
+                                 @NonNull List<String> deletedItemIds,
+                                 @NonNull WriteCallback callback) {
+        FirebaseBucketHashes.repair(leaves, items, deletedItemIds, callback);
+    }
+
+    /**
+     * Reads the children of each of {@code nodes} whose keys are from the key at the same index
+     * of {@code firstKeys} to the keys starting with the one at the same index of
+     * {@code lastPrefixes}, one query per node, or the whole node if its first key is empty.
+     * {@code callback} is called on the read thread once all are read or one failed.
+     */
+    private void readBuckets(@NonNull List<String> nodes, @NonNull List<String> firstKeys,
+                             @NonNull List<String> lastPrefixes,
+                             @NonNull final BucketsCallback callback) {
+        final List<DataSnapshot> snapshots = new ArrayList<>(nodes.size());
+        if (nodes.isEmpty()) {
+            mReadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onBucketsRead(snapshots);
+                }
+            });
+            return;
+        }
+        // Only touched on the read thread.
+        final int[] pending = {nodes.size()};
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                String firstKey = firstKeys.get(i);
+                DatabaseReference reference =
+                        FirebaseDatabase.getInstance().getReference(nodes.get(i));
+                Query query = firstKey.isEmpty() ? reference : reference.orderByKey()
+                        .startAt(firstKey).endAt(lastPrefixes.get(i) + LAST_KEY_CHARACTER);
+                query.addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(final DataSnapshot dataSnapshot) {
+                        mReadExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (pending[0] <= 0) {
+                                    return;
+                                }
+                                snapshots.add(dataSnapshot);
+                                if (--pending[0] == 0) {
+                                    callback.onBucketsRead(snapshots);
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onCancelled(final DatabaseError databaseError) {
+                        mReadExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (pending[0] <= 0) {
+                                    return;
+                                }
+                                pending[0] = 0;
+                                callback.onBucketsFailed(databaseError.toException());
+                            }
+                        });
+                    }
+                });
+            }
+        } catch (final RuntimeException e) {
+            // Firebase isn't initialized.
+            mReadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    pending[0] = 0;
+                    callback.onBucketsFailed(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the whole node if {@code since} is 0, so that items written before changes were
+     * stamped are read too, and only the children stamped at or after {@code since} otherwise.
+     */
+    @NonNull
+    private static Query changesSince(long since) {
+        Query query = FirebaseDatabase.getInstance().getReference(ITEMS_NODE);
+        if (since > 0) {
+            query = query.orderByChild(UPDATED_AT).startAt(since);
+        }
+        return query;
+    }
+
+    private void readChangeLater(@NonNull final DataSnapshot dataSnapshot,
+                                 @NonNull final ChangeListener listener) {
+        mReadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readChange(dataSnapshot, listener);
+            }
+        });
+    }
+
+    private static void readChange(@NonNull DataSnapshot dataSnapshot,
+                                   @NonNull ChangeListener listener) {
+        CloudItem cloudItem;
+        try {
+            cloudItem = dataSnapshot.getValue(CloudItem.class);
+        } catch (DatabaseException e) {
+            // Not an item. Skipped, so that one bad child doesn't stop the observation.
+            return;
+        }
+        if (cloudItem == null) {
+            return;
+        }
+        String itemId = cloudItem.id != null ? cloudItem.id : dataSnapshot.getKey();
+        long updatedAt = cloudItem.updatedAt != null ? cloudItem.updatedAt : 0;
+        if (cloudItem.deleted) {
+            listener.onItemDeleted(itemId, updatedAt);
+        } else {
+            listener.onItemSaved(toItem(cloudItem, itemId), updatedAt);
+        }
+    }
+
+    private static void readChanges(@NonNull DataSnapshot dataSnapshot, long since,
+                                    @NonNull PullCallback callback) {
+        List<Item> items = new ArrayList<>();
+        List<String> deletedItemIds = new ArrayList<>();
+        long pulledUpTo = Math.max(since, readChildren(dataSnapshot, items, deletedItemIds));
+        callback.onChangesPulled(items, deletedItemIds, pulledUpTo);
+    }
+
+    /**
+     * Adds the items and tombstones among the children of {@code dataSnapshot} to
+     * {@code items} and {@code deletedItemIds}.
+     *
+     * @return the latest change time read, or 0 if there is none
+     */
+    private static long readChildren(@NonNull DataSnapshot dataSnapshot,
+                                     @NonNull List<Item> items,
+                                     @NonNull List<String> deletedItemIds) {
+        long changedUpTo = 0;
+        for (DataSnapshot childSnapshot : dataSnapshot.getChildren()) {
+            CloudItem cloudItem = childSnapshot.getValue(CloudItem.class);
+            if (cloudItem == null) {
+                continue;
+            }
+            String itemId = cloudItem.id != null ? cloudItem.id : childSnapshot.getKey();
+            if (cloudItem.deleted) {
+                deletedItemIds.add(itemId);
+            } else {
+                items.add(toItem(cloudItem, itemId));
+            }
+            if (cloudItem.updatedAt != null) {
+                changedUpTo = Math.max(changedUpTo, cloudItem.updatedAt);
+            }
+        }
+        return changedUpTo;
+    }
+
+    /**
+     * Returns the item of {@code cloudItem}, stamped with the time the cloud wrote it and the
+     * version it was written with, see {@link Item#withSync(long, long)}.
+     */
+    @NonNull
+    private static Item toItem(@NonNull CloudItem cloudItem, @NonNull String itemId) {
+        return new Item(cloudItem.title, cloudItem.description, cloudItem.cost,
+                cloudItem.location, cloudItem.imagePath, itemId).withSync(
+                cloudItem.updatedAt != null ? cloudItem.updatedAt : 0,
+                cloudItem.version != null ? cloudItem.version : 0);
+    }
+
+    private static final class SubscribedChangeListener implements ChangeListener {
+
+        private final ChangeListener mListener;
+
+        private final AtomicBoolean mSubscribed;
+
+        SubscribedChangeListener(@NonNull ChangeListener listener,
+                                 @NonNull AtomicBoolean subscribed) {
+            mListener = listener;
+            mSubscribed = subscribed;
+        }
+
+        @Override
+        public void onItemSaved(@NonNull Item item, long updatedAt) {
+            if (mSubscribed.get()) {
+                mListener.onItemSaved(item, updatedAt);
+            }
+        }
+
+        @Override
+        public void onItemDeleted(@NonNull String itemId, long deletedAt) {
+            if (mSubscribed.get()) {
+                mListener.onItemDeleted(itemId, deletedAt);
+            }
+        }
+
+        @Override
+        public void onObserveFailed(@NonNull Exception error) {
+            if (mSubscribed.get()) {
+                mListener.onObserveFailed(error);
+            }
+        }
+    }
+
+    /**
+     * Called on the read thread with the snapshots of the buckets, in no particular order.
+     */
+    /**
+     * Returns whether {@code itemId} starts with one of {@code prefixes}, which are no longer
+     * than the leaf prefixes.
+     */
+    private static boolean startsWithAny(@NonNull String itemId, @NonNull Set<String> prefixes) {
+        int maxLength = Math.min(itemId.length(), ItemBuckets.LEAF_PREFIX_LENGTH);
+        for (int length = 0; length <= maxLength; length++) {
+            if (prefixes.contains(itemId.substring(0, length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface BucketsCallback {
+
+        void onBucketsRead(@NonNull List<DataSnapshot> snapshots);
+
+        void onBucketsFailed(@NonNull Exception error);
+    }
+}
@@ -42,6 +42,11 @@ public interface ItemDetailContract {
 
     interface Presenter extends BasePresenter {
 
+        /**
+         * Stops pushing updates of the item to the view.
+         */
+        void stop();
+
         void editItem();
 
         void deleteItem();
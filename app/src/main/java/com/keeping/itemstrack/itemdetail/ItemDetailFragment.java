@@ -56,6 +56,12 @@ public class ItemDetailFragment extends Fragment implements ItemDetailContract.V
         mPresenter.start();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPresenter.stop();
+    }
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
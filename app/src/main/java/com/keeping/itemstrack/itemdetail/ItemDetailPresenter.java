@@ -23,6 +23,9 @@ public class ItemDetailPresenter implements ItemDetailContract.Presenter {
     @Nullable
     private String mItemId;
 
+    @Nullable
+    private ItemsDataSource.Subscription mItemSubscription;
+
     public ItemDetailPresenter(@Nullable String taskId,
                                @NonNull ItemsRepository tasksRepository,
                                @NonNull ItemDetailContract.View taskDetailView) {
@@ -38,31 +41,43 @@ public class ItemDetailPresenter implements ItemDetailContract.Presenter {
         openItem();
     }
 
+    @Override
+    public void stop() {
+        if (mItemSubscription != null) {
+            mItemSubscription.unsubscribe();
+            mItemSubscription = null;
+        }
+    }
+
     private void openItem() {
         if (Strings.isNullOrEmpty(mItemId)) {
             mItemDetailView.showMissingItem();
             return;
         }
 
+        // Edits made elsewhere are pushed to the view for as long as it is started.
+        stop();
         mItemDetailView.setLoadingIndicator(true);
-        mItemsRepository.getItem(mItemId, new ItemsDataSource.GetItemCallback() {
-            @Override
-            public void onItemLoaded(Item item) {
-                // The view may not be able to handle UI updates anymore
-                mItemDetailView.setLoadingIndicator(false);
-                if (null == item) {
-                    mItemDetailView.showMissingItem();
-                } else {
-                    showItem(item);
-                }
-            }
-
-            @Override
-            public void onDataNotAvailable() {
-                // The view may not be able to handle UI updates anymore
-                mItemDetailView.showMissingItem();
-            }
-        });
+        mItemSubscription = mItemsRepository.observeItem(mItemId,
+                new ItemsDataSource.GetItemCallback() {
+                    @Override
+                    public void onItemLoaded(Item item) {
+                        // The view may not be able to handle UI updates anymore
+                        mItemDetailView.setLoadingIndicator(false);
+                        if (null == item) {
+                            mItemDetailView.showMissingItem();
+                        } else {
+                            showItem(item);
+                        }
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        // The view may not be able to handle UI updates anymore
+                        mItemDetailView.setLoadingIndicator(false);
+                        mItemDetailView.showMissingItem();
+                    }
+                });
     }
 
     @Override
@@ -80,6 +95,8 @@ public class ItemDetailPresenter implements ItemDetailContract.Presenter {
             mItemDetailView.showMissingItem();
             return;
         }
+        // The deletion would otherwise be pushed back as a missing item.
+        stop();
         mItemsRepository.deleteItem(mItemId);
         mItemDetailView.showItemDeleted();
     }
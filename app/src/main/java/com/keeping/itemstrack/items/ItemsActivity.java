@@ -36,7 +36,8 @@ public class ItemsActivity extends AppCompatActivity {
 
         // Create the presenter
         mItemsPresenter = new ItemsPresenter(
-                Injection.provideTasksRepository(getApplicationContext()), itemsFragment);
+                Injection.provideTasksRepository(getApplicationContext()),
+                Injection.provideItemsCloudSync(getApplicationContext()), itemsFragment);
     }
 
     @Override
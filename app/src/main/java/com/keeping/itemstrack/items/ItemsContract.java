@@ -4,7 +4,7 @@ import android.support.annotation.NonNull;
 
 import com.keeping.itemstrack.BasePresenter;
 import com.keeping.itemstrack.BaseView;
-import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 
 import java.util.List;
 
@@ -17,7 +17,9 @@ public interface ItemsContract {
 
         void setLoadingIndicator(boolean active);
 
-        void showItems(List<Item> items);
+        void showItems(List<ItemListRow> items);
+
+        void appendItems(List<ItemListRow> items);
 
         void showAddItem();
 
@@ -37,13 +39,20 @@ public interface ItemsContract {
 
     interface Presenter extends BasePresenter {
 
+        /**
+         * Stops pushing changes of the items to the view.
+         */
+        void stop();
+
         void result(int requestCode, int resultCode);
 
         void loadItems(boolean forceUpdate);
 
+        void loadMoreItems();
+
         void addNewItem();
 
-        void openItemDetails(@NonNull Item requestedTask);
+        void openItemDetails(@NonNull ItemListRow requestedItem);
 
         void syncItemsWithCloud();
 
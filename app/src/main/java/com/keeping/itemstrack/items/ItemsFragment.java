@@ -15,6 +15,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -26,7 +27,7 @@ import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.request.RequestOptions;
 import com.keeping.itemstrack.R;
 import com.keeping.itemstrack.addedititem.AddEditItemActivity;
-import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 import com.keeping.itemstrack.itemdetail.ItemDetailActivity;
 
 import java.util.ArrayList;
@@ -35,10 +36,15 @@ import java.util.List;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Display a grid of {@link Item}s. User can choose to view all, active or completed items.
+ * Display a grid of {@link ItemListRow}s. User can choose to view all, active or completed items.
  */
 public class ItemsFragment extends Fragment implements ItemsContract.View {
 
+    /**
+     * How many rows before the end of the list the next page starts loading.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
     private ItemsContract.Presenter mPresenter;
 
     private ItemsAdapter mListAdapter;
@@ -64,7 +70,7 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mListAdapter = new ItemsAdapter(new ArrayList<Item>(0), mItemListener);
+        mListAdapter = new ItemsAdapter(new ArrayList<ItemListRow>(0), mItemListener);
     }
 
     @Override
@@ -73,6 +79,12 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
         mPresenter.start();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        mPresenter.stop();
+    }
+
     @Override
     public void setPresenter(@NonNull ItemsContract.Presenter presenter) {
         mPresenter = checkNotNull(presenter);
@@ -92,6 +104,20 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
         // Set up items view
         ListView listView = (ListView) root.findViewById(R.id.items_list);
         listView.setAdapter(mListAdapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                int lastVisibleItem = firstVisibleItem + visibleItemCount;
+                if (totalItemCount > 0 && lastVisibleItem >= totalItemCount - LOAD_MORE_THRESHOLD) {
+                    mPresenter.loadMoreItems();
+                }
+            }
+        });
         mItemsView = (LinearLayout) root.findViewById(R.id.itemsLL);
 
         // Set up  no items view
@@ -164,7 +190,7 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
      */
     ItemItemListener mItemListener = new ItemItemListener() {
         @Override
-        public void onItemClick(Item clickedItem) {
+        public void onItemClick(ItemListRow clickedItem) {
             mPresenter.openItemDetails(clickedItem);
         }
     };
@@ -188,13 +214,18 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
     }
 
     @Override
-    public void showItems(List<Item> items) {
+    public void showItems(List<ItemListRow> items) {
         mListAdapter.replaceData(items);
 
         mItemsView.setVisibility(View.VISIBLE);
         mNoItemsView.setVisibility(View.GONE);
     }
 
+    @Override
+    public void appendItems(List<ItemListRow> items) {
+        mListAdapter.addData(items);
+    }
+
     @Override
     public void showNoItems() {
         showNoItemsViews(
@@ -254,21 +285,26 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
 
     private static class ItemsAdapter extends BaseAdapter {
 
-        private List<Item> mItems;
+        private List<ItemListRow> mItems;
         private ItemItemListener mItemListener;
 
-        public ItemsAdapter(List<Item> items, ItemItemListener itemListener) {
+        public ItemsAdapter(List<ItemListRow> items, ItemItemListener itemListener) {
             setList(items);
             mItemListener = itemListener;
         }
 
-        public void replaceData(List<Item> items) {
+        public void replaceData(List<ItemListRow> items) {
             setList(items);
             notifyDataSetChanged();
         }
 
-        private void setList(List<Item> items) {
-            mItems = checkNotNull(items);
+        public void addData(List<ItemListRow> items) {
+            mItems.addAll(items);
+            notifyDataSetChanged();
+        }
+
+        private void setList(List<ItemListRow> items) {
+            mItems = new ArrayList<>(checkNotNull(items));
         }
 
         @Override
@@ -277,7 +313,7 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
         }
 
         @Override
-        public Item getItem(int i) {
+        public ItemListRow getItem(int i) {
             return mItems.get(i);
         }
 
@@ -294,7 +330,7 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
                 rowView = inflater.inflate(R.layout.listitem_item, viewGroup, false);
             }
 
-            final Item item = getItem(i);
+            final ItemListRow item = getItem(i);
 
             ImageView list_item_image = (ImageView) rowView.findViewById(R.id.list_item_image);
             TextView titleTV = (TextView) rowView.findViewById(R.id.title);
@@ -326,7 +362,7 @@ public class ItemsFragment extends Fragment implements ItemsContract.View {
 
     public interface ItemItemListener {
 
-        void onItemClick(Item clickedItem);
+        void onItemClick(ItemListRow clickedItem);
 
     }
 
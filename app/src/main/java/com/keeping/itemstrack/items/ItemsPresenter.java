@@ -2,21 +2,21 @@ package com.keeping.itemstrack.items;
 
 import android.app.Activity;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.ValueEventListener;
 import com.keeping.itemstrack.addedititem.AddEditItemActivity;
 import com.keeping.itemstrack.data.Item;
-import com.keeping.itemstrack.data.source.CloudItem;
+import com.keeping.itemstrack.data.ItemListRow;
 import com.keeping.itemstrack.data.source.ItemsDataSource;
 import com.keeping.itemstrack.data.source.ItemsRepository;
+import com.keeping.itemstrack.data.source.LocalItemsDataSource;
+import com.keeping.itemstrack.data.source.ReadPolicy;
+import com.keeping.itemstrack.data.source.local.ItemsCloudSync;
 import com.keeping.itemstrack.util.EspressoIdlingResource;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -26,14 +26,96 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class ItemsPresenter implements ItemsContract.Presenter {
 
+    /**
+     * Number of items loaded at once, enough to fill the screen a few times over.
+     */
+    static final int PAGE_SIZE = 50;
+
     private final ItemsRepository mItemsRepository;
 
+    private final ItemsCloudSync mItemsCloudSync;
+
     private final ItemsContract.View mItemsView;
 
     private boolean mFirstLoad = true;
 
-    public ItemsPresenter(@NonNull ItemsRepository itemsRepository, @NonNull ItemsContract.View itemsView) {
+    /**
+     * Observation of the first page, null while the presenter is stopped.
+     */
+    @Nullable
+    private ItemsDataSource.Subscription mItemsSubscription;
+
+    /**
+     * Observation of the writes to the items, which reloads the following pages they touch. Null
+     * while the presenter is stopped.
+     */
+    @Nullable
+    private ItemsDataSource.Subscription mChangesSubscription;
+
+    /**
+     * Pages shown, in id order. The first one is observed, the following ones are loaded by
+     * {@link #loadMoreItems()} as the user scrolls.
+     */
+    private List<RowsPage> mPages = new ArrayList<>();
+
+    /**
+     * Key of the page following the pages shown, or null if the last page was shown.
+     */
+    @Nullable
+    private String mNextPageKey;
+
+    private boolean mIsLoadingPage = false;
+
+    /**
+     * Rows of the items whose ids follow {@link #mAfterKey} up to {@link #mLastKey}. A page keeps
+     * its bounds when items are added to or removed from it, so that a write only reloads the
+     * page holding the item, not the ones after it.
+     */
+    private static final class RowsPage {
+
+        /**
+         * Null for the first page.
+         */
+        @Nullable
+        String mAfterKey;
+
+        /**
+         * Null for the last page when there is no page after it: the page then ends with the
+         * table.
+         */
+        @Nullable
+        String mLastKey;
+
+        List<ItemListRow> mRows;
+
+        /**
+         * Number of reloads requested, to drop the results of the older ones.
+         */
+        int mLoads;
+
+        RowsPage(@Nullable String afterKey, @Nullable String lastKey,
+                 @NonNull List<ItemListRow> rows) {
+            mAfterKey = afterKey;
+            mLastKey = lastKey;
+            mRows = rows;
+        }
+
+        boolean containsAny(@NonNull Set<String> itemIds) {
+            for (String itemId : itemIds) {
+                if ((mAfterKey == null || itemId.compareTo(mAfterKey) > 0)
+                        && (mLastKey == null || itemId.compareTo(mLastKey) <= 0)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public ItemsPresenter(@NonNull ItemsRepository itemsRepository,
+                          @NonNull ItemsCloudSync itemsCloudSync,
+                          @NonNull ItemsContract.View itemsView) {
         mItemsRepository = checkNotNull(itemsRepository, "itemsRepository cannot be null");
+        mItemsCloudSync = checkNotNull(itemsCloudSync, "itemsCloudSync cannot be null");
         mItemsView = checkNotNull(itemsView, "itemsView cannot be null!");
 
         mItemsView.setPresenter(this);
@@ -47,6 +129,18 @@ public class ItemsPresenter implements ItemsContract.Presenter {
         loadItems(false);
     }
 
+    @Override
+    public void stop() {
+        if (mItemsSubscription != null) {
+            mItemsSubscription.unsubscribe();
+            mItemsSubscription = null;
+        }
+        if (mChangesSubscription != null) {
+            mChangesSubscription.unsubscribe();
+            mChangesSubscription = null;
+        }
+    }
+
     /**
      * If a item was successfully added, show snackbar
      */
@@ -70,47 +164,230 @@ public class ItemsPresenter implements ItemsContract.Presenter {
      * @param forceUpdate   Pass in true to refresh the data in the {@link ItemsDataSource}
      * @param showLoadingUI Pass in true to display a loading icon in the UI
      */
-    private void loadItems(boolean forceUpdate, final boolean showLoadingUI) {
+    private void loadItems(boolean forceUpdate, boolean showLoadingUI) {
         if (showLoadingUI) {
             mItemsView.setLoadingIndicator(true);
         }
         if (forceUpdate) {
-            mItemsRepository.refreshItems();
+            refreshFromRemote();
         }
 
         // The network request might be handled in a different thread so make sure Espresso knows
         // that the app is busy until the response is handled.
         EspressoIdlingResource.increment(); // App is busy until further notice
 
-        mItemsRepository.getItems(new ItemsDataSource.LoadItemsCallback() {
+        // Only the first page is observed here, the following ones are added by loadMoreItems()
+        // as the user scrolls.
+        stop();
+        mPages = new ArrayList<>();
+        mNextPageKey = null;
+        mIsLoadingPage = false;
+        mChangesSubscription = mItemsRepository.observeItemChanges(
+                new LocalItemsDataSource.ItemChangesCallback() {
+                    @Override
+                    public void onItemsChanged(@Nullable Set<String> itemIds) {
+                        // The first page is observed already.
+                        for (int i = 1; i < mPages.size(); i++) {
+                            RowsPage page = mPages.get(i);
+                            if (itemIds == null || page.containsAny(itemIds)) {
+                                reloadPage(page);
+                            }
+                        }
+                    }
+                });
+        observeFirstPage(showLoadingUI);
+    }
+
+    /**
+     * Reloads the items from the network, sharing the load with any other one in flight. The rows
+     * stored on the device are shown meanwhile: the observation of the first page and the
+     * reloads of the following ones push the refreshed rows once they are stored.
+     */
+    private void refreshFromRemote() {
+        mItemsRepository.getItems(ReadPolicy.REMOTE_FIRST, new ItemsDataSource.LoadItemsCallback() {
             @Override
             public void onItemsLoaded(List<Item> items) {
-                List<Item> itemsToShow = new ArrayList<Item>();
-                if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
-                    EspressoIdlingResource.decrement(); // Set app as idle.
-                }
-
-                for (Item item : items) {
-                    itemsToShow.add(item);
-                }
-                if (showLoadingUI) {
-                    mItemsView.setLoadingIndicator(false);
-                }
-
-                processItems(itemsToShow);
+                // The refreshed items are stored locally, which shows their rows.
             }
 
             @Override
             public void onDataNotAvailable() {
+                // Neither the network nor the device has the items.
                 mItemsView.showLoadingItemsError();
             }
         });
     }
 
+    /**
+     * Observes the first {@link #PAGE_SIZE} rows. The list only loads what its rows show, the
+     * details screen loads the whole item. Every write to the items, whether made here, by a
+     * refresh or by a sync, pushes the new rows.
+     *
+     * @param showLoadingUI Pass in true to hide the loading icon once loaded
+     */
+    private void observeFirstPage(final boolean showLoadingUI) {
+        mItemsSubscription = mItemsRepository.observeItemRows(PAGE_SIZE,
+                new ItemsDataSource.LoadItemRowsPageCallback() {
+
+                    private boolean mLoaded = false;
+
+                    @Override
+                    public void onItemRowsPageLoaded(List<ItemListRow> items,
+                                                     @Nullable String nextPageKey) {
+                        onFirstResult();
+                        showFirstPage(items, nextPageKey);
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        onFirstResult();
+                        mPages = new ArrayList<>();
+                        mNextPageKey = null;
+                        mItemsView.showLoadingItemsError();
+                    }
+
+                    private void onFirstResult() {
+                        if (mLoaded) {
+                            return;
+                        }
+                        mLoaded = true;
+                        if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
+                            EspressoIdlingResource.decrement(); // Set app as idle.
+                        }
+                        if (showLoadingUI) {
+                            mItemsView.setLoadingIndicator(false);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Shows the new rows of the first page. When items were added to or removed from it, its end
+     * moves: the following pages it now overlaps, or leaves a gap before, are reloaded from its
+     * new end.
+     */
+    private void showFirstPage(List<ItemListRow> items, @Nullable String nextPageKey) {
+        if (mPages.isEmpty()) {
+            mPages.add(new RowsPage(null, nextPageKey, items));
+        }
+        RowsPage first = mPages.get(0);
+        first.mRows = items;
+        first.mLastKey = nextPageKey;
+        if (nextPageKey == null) {
+            // Every row fits in the first page now.
+            mPages.subList(1, mPages.size()).clear();
+            mNextPageKey = null;
+        } else if (mPages.size() == 1) {
+            mNextPageKey = nextPageKey;
+        } else {
+            for (int i = 1; i < mPages.size(); i++) {
+                RowsPage page = mPages.get(i);
+                if (i > 1 && page.mAfterKey.compareTo(nextPageKey) >= 0) {
+                    break;
+                }
+                if (!nextPageKey.equals(page.mAfterKey)) {
+                    page.mAfterKey = nextPageKey;
+                    reloadPage(page);
+                }
+            }
+        }
+        showPages();
+    }
+
+    /**
+     * Loads the page following the pages shown, if there is one and it isn't being loaded
+     * already, and appends it to the list.
+     */
+    @Override
+    public void loadMoreItems() {
+        if (mNextPageKey == null || mIsLoadingPage) {
+            return;
+        }
+        mIsLoadingPage = true;
+        final List<RowsPage> pages = mPages;
+        final String pageKey = mNextPageKey;
+        mItemsRepository.getItemRowsPage(PAGE_SIZE, pageKey,
+                new ItemsDataSource.LoadItemRowsPageCallback() {
+                    @Override
+                    public void onItemRowsPageLoaded(List<ItemListRow> items,
+                                                     @Nullable String nextPageKey) {
+                        if (pages != mPages) {
+                            // The items were loaded again meanwhile.
+                            return;
+                        }
+                        mIsLoadingPage = false;
+                        if (!pageKey.equals(mNextPageKey)) {
+                            // The end of the pages shown moved meanwhile, the next scroll
+                            // loads the page following the new one.
+                            return;
+                        }
+                        mPages.add(new RowsPage(pageKey, nextPageKey, items));
+                        mNextPageKey = nextPageKey;
+                        if (!items.isEmpty()) {
+                            mItemsView.appendItems(new ArrayList<>(items));
+                        }
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        if (pages == mPages) {
+                            mIsLoadingPage = false;
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Reads the rows of a page following the first one again, within the same bounds. The last
+     * page, when it ends with the table, is read as a page of {@link #PAGE_SIZE} rows instead,
+     * which gets it an end if rows were added past it.
+     */
+    private void reloadPage(final RowsPage page) {
+        final int load = ++page.mLoads;
+        final boolean openEnded = page.mLastKey == null;
+        ItemsDataSource.LoadItemRowsPageCallback callback =
+                new ItemsDataSource.LoadItemRowsPageCallback() {
+                    @Override
+                    public void onItemRowsPageLoaded(List<ItemListRow> items,
+                                                     @Nullable String nextPageKey) {
+                        if (page.mLoads != load || !mPages.contains(page)) {
+                            return;
+                        }
+                        page.mRows = items;
+                        if (openEnded && page.mLastKey == null) {
+                            page.mLastKey = nextPageKey;
+                            mNextPageKey = nextPageKey;
+                        }
+                        showPages();
+                    }
+
+                    @Override
+                    public void onDataNotAvailable() {
+                        // The rows shown are kept until the next change.
+                    }
+                };
+        if (openEnded) {
+            mItemsRepository.getItemRowsPage(PAGE_SIZE, page.mAfterKey, callback);
+        } else {
+            mItemsRepository.getItemRowsBetween(page.mAfterKey, page.mLastKey, callback);
+        }
+    }
+
+    /**
+     * Shows the rows of every page.
+     */
+    private void showPages() {
+        List<ItemListRow> items = new ArrayList<>();
+        for (RowsPage page : mPages) {
+            items.addAll(page.mRows);
+        }
+        processItems(items);
+    }
+
     /**
      * @param items Process items, Check if data is empty otherwise show items
      */
-    private void processItems(List<Item> items) {
+    private void processItems(List<ItemListRow> items) {
         if (items.isEmpty()) {
             processEmptyItems();
         } else {
@@ -138,56 +415,30 @@ public class ItemsPresenter implements ItemsContract.Presenter {
      * @param requestedItem Open requested item details
      */
     @Override
-    public void openItemDetails(@NonNull Item requestedItem) {
+    public void openItemDetails(@NonNull ItemListRow requestedItem) {
         checkNotNull(requestedItem, "RequestedItem cannot be null!");
         mItemsView.showItemDetailsUi(requestedItem.getId());
     }
 
-    /*
-     * Push local items to Firebase cloud and fetch all items from cloud
+    /**
+     * Push the local changes to the cloud and apply the cloud changes made since the last sync.
      */
     @Override
     public void syncItemsWithCloud() {
+        // A sync requested while one runs is left to the running one, which clears the indicator.
         mItemsView.setLoadingIndicator(true);
-        FirebaseDatabase mFirebaseInstance = FirebaseDatabase.getInstance();
-        DatabaseReference mFirebaseDatabase = mFirebaseInstance.getReference("items");
-
-        mItemsRepository.getItems(new ItemsDataSource.LoadItemsCallback() {
+        mItemsCloudSync.sync(new ItemsCloudSync.SyncCallback() {
             @Override
-            public void onItemsLoaded(List<Item> items) {
-                if (!EspressoIdlingResource.getIdlingResource().isIdleNow()) {
-                    EspressoIdlingResource.decrement(); // Set app as idle.
-                }
-                if (!items.isEmpty()) {
-                    for (Item item : items) {
-                        mFirebaseDatabase.child(item.getId()).setValue(item);
-                    }
-                }
-            }
-
-            @Override
-            public void onDataNotAvailable() {
-                mItemsView.showLoadingItemsError();
-            }
-        });
-        FirebaseDatabase.getInstance().getReference("items").addValueEventListener(new ValueEventListener() {
-            @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-
-                for (DataSnapshot childSnapshot : dataSnapshot.getChildren()) {
-                    CloudItem cloudItem = childSnapshot.getValue(CloudItem.class);
-                    mItemsRepository.saveItem(new Item(cloudItem.title, cloudItem.description, cloudItem.cost,
-                            cloudItem.location, cloudItem.imagePath, cloudItem.id));
-                }
-                loadItems(true);
+            public void onSyncFinished(int itemsPushed, int itemsPulled) {
+                // The pulled changes are pushed to the list by the observation of its rows.
                 mItemsView.showSuccessfullySyncingItems();
                 mItemsView.setLoadingIndicator(false);
             }
 
             @Override
-            public void onCancelled(DatabaseError databaseError) {
-                mItemsView.showGeneralError(databaseError.getMessage());
-
+            public void onSyncFailed(@NonNull Exception error) {
+                mItemsView.setLoadingIndicator(false);
+                mItemsView.showGeneralError(error.getMessage());
             }
         });
     }
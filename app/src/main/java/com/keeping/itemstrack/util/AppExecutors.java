@@ -13,31 +13,56 @@ import java.util.concurrent.Executors;
  * <p>
  * Grouping tasks like this avoids the effects of task starvation (e.g. disk reads don't wait behind
  * webservice requests).
+ * <p>
+ * Disk reads run on a pool, since the database is in write-ahead logging mode and serves readers
+ * concurrently with the writer. Disk writes run one at a time in submission order, as SQLite only
+ * has one writer anyway. A read doesn't wait for the writes submitted before it: code that must
+ * see its own write either reads on {@link #diskWrite()} after it, or observes the table.
  */
 public class AppExecutors {
 
     private static final int THREAD_COUNT = 3;
 
-    private final Executor diskIO;
+    /**
+     * Fewer than the connections the framework pools in write-ahead logging mode, so readers
+     * don't wait for each other.
+     */
+    private static final int DISK_READ_THREAD_COUNT = 3;
+
+    private final Executor diskRead;
+
+    private final Executor diskWrite;
 
     private final Executor networkIO;
 
     private final Executor mainThread;
 
     @VisibleForTesting
-    AppExecutors(Executor diskIO, Executor networkIO, Executor mainThread) {
-        this.diskIO = diskIO;
+    AppExecutors(Executor diskRead, Executor diskWrite, Executor networkIO, Executor mainThread) {
+        this.diskRead = diskRead;
+        this.diskWrite = diskWrite;
         this.networkIO = networkIO;
         this.mainThread = mainThread;
     }
 
     public AppExecutors() {
-        this(new DiskIOThreadExecutor(), Executors.newFixedThreadPool(THREAD_COUNT),
-                new MainThreadExecutor());
+        this(Executors.newFixedThreadPool(DISK_READ_THREAD_COUNT), new DiskIOThreadExecutor(),
+                Executors.newFixedThreadPool(THREAD_COUNT), new MainThreadExecutor());
+    }
+
+    /**
+     * Runs database queries, concurrently with each other and with the writes.
+     */
+    public Executor diskRead() {
+        return diskRead;
     }
 
-    public Executor diskIO() {
-        return diskIO;
+    /**
+     * Runs database writes, and reads that must see the writes submitted before them, one at a
+     * time in submission order.
+     */
+    public Executor diskWrite() {
+        return diskWrite;
     }
 
     public Executor networkIO() {
@@ -1,15 +1,27 @@
 package com.keeping.itemstrack;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.keeping.itemstrack.data.FakeItemsRemoteDataSource;
+import com.keeping.itemstrack.data.Item;
 import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsLruCache;
 import com.keeping.itemstrack.data.source.ItemsRepository;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+import com.keeping.itemstrack.data.source.local.ItemTombstonePurger;
+import com.keeping.itemstrack.data.source.local.ItemsCloudSync;
 import com.keeping.itemstrack.data.source.local.ItemsDatabase;
+import com.keeping.itemstrack.data.source.local.ItemsExporter;
+import com.keeping.itemstrack.data.source.local.ItemsImporter;
 import com.keeping.itemstrack.data.source.local.ItemsLocalDataSource;
+import com.keeping.itemstrack.data.source.local.ItemsLocalOutbox;
+import com.keeping.itemstrack.data.source.remote.FirebaseItemsCloud;
 import com.keeping.itemstrack.util.AppExecutors;
 
+import java.util.List;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -22,8 +34,76 @@ public class Injection {
     public static ItemsRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
         ItemsDatabase database = ItemsDatabase.getInstance(context);
+        AppExecutors appExecutors = new AppExecutors();
+        ItemTombstonePurger.getInstance(appExecutors, database).start();
         return ItemsRepository.getInstance(FakeItemsRemoteDataSource.getInstance(),
-                ItemsLocalDataSource.getInstance(new AppExecutors(),
-                        database.itemDao()));
+                ItemsLocalDataSource.getInstance(appExecutors, database),
+                ItemsLocalOutbox.getInstance(appExecutors, database, provideRemoteItemsWriter()),
+                provideItemsCacheMaxBytes(context));
+    }
+
+    public static ItemsImporter provideItemsImporter(@NonNull Context context) {
+        checkNotNull(context);
+        ItemsDatabase database = ItemsDatabase.getInstance(context);
+        AppExecutors appExecutors = new AppExecutors();
+        return ItemsImporter.getInstance(appExecutors, database,
+                ItemsLocalOutbox.getInstance(appExecutors, database, provideRemoteItemsWriter()));
+    }
+
+    public static ItemsExporter provideItemsExporter(@NonNull Context context) {
+        checkNotNull(context);
+        return ItemsExporter.getInstance(new AppExecutors(), ItemsDatabase.getInstance(context));
+    }
+
+    /**
+     * Syncs the items with Firebase, storing the pulled changes through the repository. The
+     * changes made on other devices are observed for as long as the process lives.
+     */
+    public static ItemsCloudSync provideItemsCloudSync(@NonNull Context context) {
+        checkNotNull(context);
+        ItemsCloudSync cloudSync = ItemsCloudSync.getInstance(new AppExecutors(),
+                ItemsDatabase.getInstance(context), FirebaseItemsCloud.getInstance(),
+                provideTasksRepository(context));
+        cloudSync.start();
+        return cloudSync;
+    }
+
+    /**
+     * Writes to the fake backend, which the repository reads from, and to Firebase, which the
+     * items screen syncs with. The write only succeeds once both applied it.
+     */
+    private static RemoteItemsWriter provideRemoteItemsWriter() {
+        final RemoteItemsWriter fakeWriter = FakeItemsRemoteDataSource.getInstance();
+        final RemoteItemsWriter firebaseWriter = FirebaseItemsCloud.getInstance();
+        return new RemoteItemsWriter() {
+            @Override
+            public void writeItems(@NonNull final List<Item> items,
+                                   @NonNull final List<String> deletedItemIds,
+                                   @NonNull final WriteCallback callback) {
+                fakeWriter.writeItems(items, deletedItemIds, new WriteCallback() {
+                    @Override
+                    public void onWriteSucceeded() {
+                        firebaseWriter.writeItems(items, deletedItemIds, callback);
+                    }
+
+                    @Override
+                    public void onWriteFailed(@NonNull Exception error) {
+                        callback.onWriteFailed(error);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Gives the items cache 1/64 of the app's heap limit, so it shrinks on low-RAM devices.
+     */
+    private static long provideItemsCacheMaxBytes(@NonNull Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null || activityManager.getMemoryClass() <= 0) {
+            return ItemsLruCache.DEFAULT_MAX_BYTES;
+        }
+        return activityManager.getMemoryClass() * 1024L * 1024L / 64;
     }
 }
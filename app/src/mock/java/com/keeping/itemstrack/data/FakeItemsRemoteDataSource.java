@@ -1,23 +1,41 @@
 package com.keeping.itemstrack.data;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import com.google.common.collect.Lists;
 import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsPaging;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Implementation of a remote data source with static access to the data for easy testing.
  */
-public class FakeItemsRemoteDataSource implements ItemsDataSource {
+public class FakeItemsRemoteDataSource implements ItemsDataSource, RemoteItemsWriter {
 
     private static FakeItemsRemoteDataSource INSTANCE;
 
     private static final Map<String, Item> TASKS_SERVICE_DATA = new LinkedHashMap<>();
 
+    private static final Subscription NO_OP_SUBSCRIPTION = new Subscription() {
+        @Override
+        public void unsubscribe() {
+        }
+    };
+
+    private int mWriteFailuresToInject = 0;
+
+    private int mWriteCount = 0;
+
     // Prevent direct instantiation.
     private FakeItemsRemoteDataSource() {
     }
@@ -34,33 +52,194 @@ public class FakeItemsRemoteDataSource implements ItemsDataSource {
         callback.onItemsLoaded(Lists.newArrayList(TASKS_SERVICE_DATA.values()));
     }
 
+    /**
+     * The fake service doesn't push changes, so {@code callback} only gets the current items.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItems(@NonNull LoadItemsCallback callback) {
+        getItems(callback);
+        return NO_OP_SUBSCRIPTION;
+    }
+
+    @Override
+    public void getItemsPage(int pageSize, @Nullable String pageKey,
+                             @NonNull LoadItemsPageCallback callback) {
+        ItemsPaging.deliverPage(Lists.newArrayList(TASKS_SERVICE_DATA.values()), pageSize, pageKey,
+                callback);
+    }
+
+    /**
+     * The service only returns whole items, the rows are made from them.
+     */
+    @Override
+    public void getItemRowsPage(int pageSize, @Nullable String pageKey,
+                                @NonNull final LoadItemRowsPageCallback callback) {
+        getItemsPage(pageSize, pageKey, new LoadItemsPageCallback() {
+            @Override
+            public void onItemsPageLoaded(List<Item> items, @Nullable String nextPageKey) {
+                callback.onItemRowsPageLoaded(ItemListRow.fromItems(items), nextPageKey);
+            }
+
+            @Override
+            public void onDataNotAvailable() {
+                callback.onDataNotAvailable();
+            }
+        });
+    }
+
+    /**
+     * The fake service doesn't push changes, so {@code callback} only gets the current rows.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItemRows(int limit,
+                                        @NonNull LoadItemRowsPageCallback callback) {
+        getItemRowsPage(limit, null, callback);
+        return NO_OP_SUBSCRIPTION;
+    }
+
+    /**
+     * Sums up the items on every call, the fake service has few of them.
+     */
+    @Override
+    public void getLocationSummaries(@NonNull LoadLocationSummariesCallback callback) {
+        Map<String, LocationSummary> summaries = new TreeMap<>();
+        for (Item item : TASKS_SERVICE_DATA.values()) {
+            String location = item.getLocation() == null ? "" : item.getLocation();
+            Long costMinor = item.getCostMinor();
+            LocationSummary summary = summaries.get(location);
+            summaries.put(location, new LocationSummary(location,
+                    (summary == null ? 0 : summary.getItemCount()) + 1,
+                    (summary == null ? 0 : summary.getTotalCostMinor())
+                            + (costMinor == null ? 0 : costMinor)));
+        }
+        callback.onLocationSummariesLoaded(new ArrayList<>(summaries.values()));
+    }
+
+    /**
+     * Returns the items containing every word of {@code query}, in insertion order, without
+     * ranking them.
+     */
+    @Override
+    public void searchItems(@NonNull String query, int limit,
+                            @NonNull LoadItemsCallback callback) {
+        String[] words = query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+");
+        List<Item> items = new ArrayList<>();
+        for (Item item : TASKS_SERVICE_DATA.values()) {
+            String text = (item.getTitle() + " " + item.getDescription() + " "
+                    + item.getLocation()).toLowerCase(Locale.US);
+            boolean matches = true;
+            for (String word : words) {
+                matches &= text.contains(word);
+            }
+            if (matches && items.size() < limit) {
+                items.add(item);
+            }
+        }
+        callback.onItemsLoaded(items);
+    }
+
     @Override
     public void getItem(@NonNull String taskId, @NonNull GetItemCallback callback) {
         Item task = TASKS_SERVICE_DATA.get(taskId);
         callback.onItemLoaded(task);
     }
 
+    /**
+     * The fake service doesn't push changes, so {@code callback} only gets the current item.
+     */
+    @NonNull
+    @Override
+    public Subscription observeItem(@NonNull String itemId, @NonNull GetItemCallback callback) {
+        getItem(itemId, callback);
+        return NO_OP_SUBSCRIPTION;
+    }
+
     @Override
     public void saveItem(@NonNull Item task) {
         TASKS_SERVICE_DATA.put(task.getId(), task);
     }
 
 
+    @Override
+    public void saveItems(@NonNull List<Item> items) {
+        for (Item item : items) {
+            TASKS_SERVICE_DATA.put(item.getId(), item);
+        }
+    }
+
     public void refreshItems() {
         // Not required because the {@link TasksRepository} handles the logic of refreshing the
         // tasks from all the available data sources.
     }
 
+    @Override
+    public void replaceAllItems(@NonNull List<Item> items) {
+        TASKS_SERVICE_DATA.clear();
+        saveItems(items);
+    }
+
     @Override
     public void deleteItem(@NonNull String taskId) {
         TASKS_SERVICE_DATA.remove(taskId);
     }
 
+    @Override
+    public void deleteItems(@NonNull List<String> itemIds) {
+        for (String itemId : itemIds) {
+            TASKS_SERVICE_DATA.remove(itemId);
+        }
+    }
+
+    /**
+     * Applies the batch, or fails it without applying anything if failures were injected with
+     * {@link #failNextWrites(int)}.
+     */
+    @Override
+    public synchronized void writeItems(@NonNull List<Item> items,
+                                        @NonNull List<String> deletedItemIds,
+                                        @NonNull WriteCallback callback) {
+        mWriteCount++;
+        if (mWriteFailuresToInject > 0) {
+            mWriteFailuresToInject--;
+            callback.onWriteFailed(new IOException("Injected write failure"));
+            return;
+        }
+        deleteItems(deletedItemIds);
+        saveItems(items);
+        callback.onWriteSucceeded();
+    }
+
     @Override
     public void deleteAllItems() {
         TASKS_SERVICE_DATA.clear();
     }
 
+    /**
+     * Makes the next {@code count} calls to
+     * {@link #writeItems(List, List, RemoteItemsWriter.WriteCallback)} fail.
+     */
+    @VisibleForTesting
+    public synchronized void failNextWrites(int count) {
+        mWriteFailuresToInject = count;
+    }
+
+    /**
+     * Returns the number of batches written, including failed ones, since the last
+     * {@link #resetWriteCount()}.
+     */
+    @VisibleForTesting
+    public synchronized int getWriteCount() {
+        return mWriteCount;
+    }
+
+    @VisibleForTesting
+    public synchronized void resetWriteCount() {
+        mWriteCount = 0;
+        mWriteFailuresToInject = 0;
+    }
+
     @VisibleForTesting
     public void addTasks(Item... items) {
         for (Item task : items) {
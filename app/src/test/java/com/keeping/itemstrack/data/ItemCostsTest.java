@@ -0,0 +1,50 @@
+package com.keeping.itemstrack.data;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link ItemCosts}.
+ */
+public class ItemCostsTest {
+
+    @Test
+    public void plainNumbers_areConvertedToMinorUnits() {
+        assertThat(ItemCosts.parseMinorUnits("12"), is(1200L));
+        assertThat(ItemCosts.parseMinorUnits("12.5"), is(1250L));
+        assertThat(ItemCosts.parseMinorUnits("0.99"), is(99L));
+        assertThat(ItemCosts.parseMinorUnits("-3.10"), is(-310L));
+    }
+
+    @Test
+    public void currencySymbolsAndGroupingSeparators_areIgnored() {
+        assertThat(ItemCosts.parseMinorUnits("$1,234.56"), is(123456L));
+        assertThat(ItemCosts.parseMinorUnits("1,234"), is(123400L));
+        assertThat(ItemCosts.parseMinorUnits(" 1 000 EUR"), is(100000L));
+    }
+
+    @Test
+    public void commaFollowedByCents_isDecimalSeparator() {
+        assertThat(ItemCosts.parseMinorUnits("9,99 EUR"), is(999L));
+        assertThat(ItemCosts.parseMinorUnits("9,5"), is(950L));
+        assertThat(ItemCosts.parseMinorUnits("1.234,56"), is(123456L));
+    }
+
+    @Test
+    public void extraDecimals_areRoundedHalfUp() {
+        assertThat(ItemCosts.parseMinorUnits("0.125"), is(13L));
+        assertThat(ItemCosts.parseMinorUnits("0.124"), is(12L));
+    }
+
+    @Test
+    public void nonNumericCosts_haveNoMinorUnits() {
+        assertThat(ItemCosts.parseMinorUnits(null), is(nullValue()));
+        assertThat(ItemCosts.parseMinorUnits(""), is(nullValue()));
+        assertThat(ItemCosts.parseMinorUnits("free"), is(nullValue()));
+        assertThat(ItemCosts.parseMinorUnits("1.2.3"), is(nullValue()));
+        assertThat(ItemCosts.parseMinorUnits("99999999999999999999"), is(nullValue()));
+    }
+}
@@ -0,0 +1,34 @@
+package com.keeping.itemstrack.data;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link ItemListRow}.
+ */
+public class ItemListRowTest {
+
+    @Test
+    public void fromItem_keepsListColumns() {
+        ItemListRow row = ItemListRow.fromItem(new Item("Title", "Description", "12", "Location",
+                "path", "id"));
+
+        assertThat(row, is(new ItemListRow("id", "Title", "12", "path")));
+    }
+
+    @Test
+    public void fromItemWithoutTitle_showsStartOfDescription() {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < ItemListRow.MAX_TITLE_LENGTH + 10; i++) {
+            description.append('d');
+        }
+
+        ItemListRow row = ItemListRow.fromItem(new Item("", description.toString(), "", "", "",
+                "id"));
+
+        assertThat(row.getTitleForList(),
+                is(description.substring(0, ItemListRow.MAX_TITLE_LENGTH)));
+    }
+}
@@ -0,0 +1,109 @@
+package com.keeping.itemstrack.data.source;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ItemBuckets}.
+ */
+public class ItemBucketsTest {
+
+    private static final Item FIRST = new Item("Title1", "Description1", "100", "Location", "", "a1");
+
+    private static final Item SECOND = new Item("Title2", "Description2", "200", "Location", "", "a2");
+
+    private static final Item THIRD = new Item("Title3", "Description3", "300", "Location", "", "b1");
+
+    @Test
+    public void hashes_doNotDependOnOrder() {
+        Map<String, Long> hashes = hash(Collections.singletonList(""), FIRST, SECOND, THIRD);
+        Map<String, Long> reversed = hash(Collections.singletonList(""), THIRD, SECOND, FIRST);
+
+        assertThat(hashes, is(reversed));
+        assertThat(hashes.keySet().size(), is(2));
+    }
+
+    @Test
+    public void hashes_coverOnlyItemsBelowPrefixes() {
+        Map<String, Long> hashes = hash(Collections.singletonList("a"), FIRST, SECOND, THIRD);
+
+        assertThat(hashes.size(), is(2));
+        assertTrue(hashes.containsKey("a1"));
+        assertTrue(hashes.containsKey("a2"));
+        assertFalse(hashes.containsKey("b1"));
+    }
+
+    @Test
+    public void differingBuckets_containsChangedAndMissingBuckets() {
+        Item changed = new Item("Title2 edited", "Description2", "200", "Location", "", "a2");
+        Map<String, Long> hashes = hash(Collections.singletonList(""), FIRST, SECOND, THIRD);
+        Map<String, Long> otherHashes = hash(Collections.singletonList(""), FIRST, changed);
+
+        List<String> differing = ItemBuckets.differingBuckets(hashes, otherHashes);
+
+        assertThat(differing.size(), is(2));
+        assertTrue(differing.contains("a"));
+        assertTrue(differing.contains("b"));
+    }
+
+    @Test
+    public void differingRuns_areSplitByTheBucketsThatAgree() {
+        Map<String, Long> hashes = new HashMap<>();
+        hashes.put("a", 1L);
+        hashes.put("b", 2L);
+        hashes.put("c", 3L);
+        hashes.put("d", 4L);
+        Map<String, Long> otherHashes = new HashMap<>(hashes);
+        otherHashes.put("a", 10L);
+        otherHashes.remove("b");
+        otherHashes.put("d", 40L);
+        otherHashes.put("e", 5L);
+
+        List<List<String>> runs = ItemBuckets.differingRuns(hashes, otherHashes);
+
+        assertThat(runs, is(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("d", "e"))));
+    }
+
+    @Test
+    public void identicalItems_haveNoDifferingBuckets() {
+        Map<String, Long> hashes = hash(Collections.singletonList(""), FIRST, SECOND, THIRD);
+
+        assertTrue(ItemBuckets.differingBuckets(hashes,
+                hash(Collections.singletonList(""), FIRST, SECOND, THIRD)).isEmpty());
+    }
+
+    @Test
+    public void shortIds_areLeaves() {
+        assertThat(ItemBuckets.bucketOf("a", 2), is("a"));
+        assertThat(ItemBuckets.bucketOf("abc", 2), is("ab"));
+        assertTrue(ItemBuckets.isLeaf("a", 2));
+        assertFalse(ItemBuckets.isLeaf("ab", 2));
+        assertTrue(ItemBuckets.isLeaf("abc", ItemBuckets.LEAF_PREFIX_LENGTH));
+    }
+
+    @Test
+    public void bucketHashes_areTheLow32BitsOfTheContentHash() {
+        assertThat(ItemBuckets.bucketHash(-1L), is(0xFFFFFFFFL));
+        assertThat(ItemBuckets.bucketHash(0x123456789L), is(0x23456789L));
+    }
+
+    private static Map<String, Long> hash(List<String> prefixes, Item... items) {
+        ItemBuckets buckets = new ItemBuckets(prefixes);
+        for (Item item : items) {
+            buckets.add(item);
+        }
+        return buckets.getHashes();
+    }
+}
@@ -0,0 +1,285 @@
+package com.keeping.itemstrack.data.source;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit and multi-threaded stress tests for {@link ItemsCache}.
+ */
+public class ItemsCacheTest {
+
+    private static final int THREAD_COUNT = 8;
+
+    private static final int ITEMS_PER_THREAD = 2000;
+
+    private ItemsCache mCache;
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setupCache() {
+        mCache = new ItemsCache();
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void newCache_isNotInitialized() {
+        assertThat(mCache.isInitialized(), is(false));
+        assertThat(mCache.isEmpty(), is(true));
+    }
+
+    @Test
+    public void put_keepsInsertionOrder() {
+        Item first = newItem("1");
+        Item second = newItem("2");
+        Item third = newItem("3");
+
+        mCache.put(first);
+        mCache.put(second);
+        mCache.put(third);
+
+        assertThat(mCache.isInitialized(), is(true));
+        assertThat(mCache.values(), is((List<Item>) Lists.newArrayList(first, second, third)));
+    }
+
+    @Test
+    public void put_existingItemKeepsItsPosition() {
+        Item first = newItem("1");
+        Item second = newItem("2");
+        mCache.put(first);
+        mCache.put(second);
+
+        Item updatedFirst = new Item("updated", "", "", "", "", "1");
+        mCache.put(updatedFirst);
+
+        assertThat(mCache.values(), is((List<Item>) Lists.newArrayList(updatedFirst, second)));
+        assertThat(mCache.get("1"), is(updatedFirst));
+    }
+
+    @Test
+    public void remove_thenPutMovesItemToTheEnd() {
+        Item first = newItem("1");
+        Item second = newItem("2");
+        mCache.put(first);
+        mCache.put(second);
+
+        mCache.remove("1");
+        mCache.put(first);
+
+        assertThat(mCache.values(), is((List<Item>) Lists.newArrayList(second, first)));
+    }
+
+    @Test
+    public void remove_beforeAnyLoadLeavesTheCacheNotInitialized() {
+        mCache.remove("1");
+
+        assertThat(mCache.isInitialized(), is(false));
+    }
+
+    @Test
+    public void replaceAll_replacesContentInListOrder() {
+        mCache.put(newItem("old"));
+        Item first = newItem("b");
+        Item second = newItem("a");
+
+        mCache.replaceAll(Lists.newArrayList(first, second));
+
+        assertThat(mCache.get("old"), is(nullValue()));
+        assertThat(mCache.values(), is((List<Item>) Lists.newArrayList(first, second)));
+    }
+
+    @Test
+    public void invalidate_clearsAndMarksNotInitialized() {
+        mCache.put(newItem("1"));
+
+        mCache.invalidate();
+
+        assertThat(mCache.isEmpty(), is(true));
+        assertThat(mCache.isInitialized(), is(false));
+    }
+
+    @Test
+    public void values_isASnapshotNotAffectedByLaterWrites() {
+        mCache.put(newItem("1"));
+        List<Item> snapshot = mCache.values();
+
+        mCache.put(newItem("2"));
+        mCache.remove("1");
+
+        assertThat(snapshot.size(), is(1));
+        assertThat(snapshot.get(0).getId(), is("1"));
+    }
+
+    @Test
+    public void concurrentPuts_noUpdateIsLost() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int thread = t;
+            writers.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+                        mCache.put(newItem(thread + "-" + i));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(writers);
+
+        assertThat(mCache.size(), is(THREAD_COUNT * ITEMS_PER_THREAD));
+        assertThat(mCache.values().size(), is(THREAD_COUNT * ITEMS_PER_THREAD));
+    }
+
+    @Test
+    public void concurrentPutsOfSameIds_lastWriteWinsAndNoDuplicates() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final String title = "writer" + t;
+            writers.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+                        mCache.put(new Item(title, "", "", "", "", String.valueOf(i % 100)));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(writers);
+
+        // values() drops duplicates itself, so count the entries the cache holds instead.
+        assertThat(mCache.size(), is(100));
+        assertThat(mCache.orderedEntryCount(), is(100));
+        for (Item item : mCache.values()) {
+            assertThat(mCache.get(item.getId()), is(item));
+        }
+    }
+
+    @Test
+    public void readersIterateWhileWritersMutate_noConcurrentModification() throws Exception {
+        for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+            mCache.put(newItem("seed-" + i));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT / 2; t++) {
+            final int thread = t;
+            workers.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+                        mCache.put(newItem(thread + "-" + i));
+                        mCache.remove("seed-" + i);
+                    }
+                    return null;
+                }
+            }));
+            workers.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        // Each snapshot must be free of duplicates even while it is rewritten.
+                        Set<String> ids = new HashSet<>();
+                        for (Item item : mCache.values()) {
+                            assertTrue(ids.add(item.getId()));
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(workers);
+
+        assertThat(mCache.size(), is(THREAD_COUNT / 2 * ITEMS_PER_THREAD));
+        assertThat(mCache.values().size(), is(mCache.size()));
+    }
+
+    @Test
+    public void bulkReplaceWhileReading_snapshotsAreNeverHalfReplaced() throws Exception {
+        final List<Item> first = new ArrayList<>();
+        final List<Item> second = new ArrayList<>();
+        for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+            first.add(newItem("first-" + i));
+            second.add(newItem("second-" + i));
+        }
+        mCache.replaceAll(first);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        workers.add(mExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    mCache.replaceAll(i % 2 == 0 ? second : first);
+                }
+                return null;
+            }
+        }));
+        for (int t = 1; t < THREAD_COUNT; t++) {
+            workers.add(mExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        List<Item> snapshot = mCache.values();
+                        assertTrue(snapshot.equals(first) || snapshot.equals(second));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        awaitAll(workers);
+    }
+
+    private static Item newItem(String id) {
+        return new Item("title " + id, "description", "1", "location", "", id);
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws Exception {
+        for (Future<?> future : futures) {
+            // Rethrows any assertion error raised on a worker thread.
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.keeping.itemstrack.data.source;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link ItemsDiff}.
+ */
+public class ItemsDiffTest {
+
+    private static final Item UNCHANGED = new Item("Title1", "Description1", "100", "Location", "", "1");
+
+    private static final Item CHANGED = new Item("Title2", "Description2", "200", "Location", "", "2");
+
+    private static final Item REMOVED = new Item("Title3", "Description3", "300", "Location", "", "3");
+
+    @Test
+    public void identicalLists_produceEmptyDiff() {
+        List<Item> items = Lists.newArrayList(UNCHANGED, CHANGED);
+
+        ItemsDiff diff = ItemsDiff.between(items, Lists.newArrayList(items));
+
+        assertThat(diff.isEmpty(), is(true));
+        assertThat(diff.size(), is(0));
+    }
+
+    @Test
+    public void diff_containsOnlyInsertsUpdatesAndDeletes() {
+        Item changed = new Item("Title2 edited", "Description2", "200", "Location", "", "2");
+        Item added = new Item("Title4", "Description4", "400", "Location", "", "4");
+
+        ItemsDiff diff = ItemsDiff.between(Lists.newArrayList(UNCHANGED, CHANGED, REMOVED),
+                Lists.newArrayList(UNCHANGED, changed, added));
+
+        assertThat(diff.getInsertedItems(), is((List<Item>) Lists.newArrayList(added)));
+        assertThat(diff.getUpdatedItems(), is((List<Item>) Lists.newArrayList(changed)));
+        assertThat(diff.getDeletedItemIds(), is((List<String>) Lists.newArrayList("3")));
+        assertThat(diff.size(), is(3));
+    }
+
+    @Test
+    public void emptyTarget_deletesEverything() {
+        ItemsDiff diff = ItemsDiff.between(Lists.newArrayList(UNCHANGED, CHANGED),
+                Collections.<Item>emptyList());
+
+        assertThat(diff.getDeletedItemIds().size(), is(2));
+        assertThat(diff.getInsertedItems().isEmpty(), is(true));
+    }
+
+    @Test
+    public void duplicateTargetIds_keepFirstOccurrence() {
+        Item duplicate = new Item("Other", "", "", "", "", "1");
+
+        ItemsDiff diff = ItemsDiff.between(Collections.<Item>emptyList(),
+                Lists.newArrayList(UNCHANGED, duplicate));
+
+        assertThat(diff.getInsertedItems(), is((List<Item>) Lists.newArrayList(UNCHANGED)));
+    }
+
+    @Test
+    public void contentHash_distinguishesNullFromEmptyAndShiftedFields() {
+        Item withNull = new Item(null, "", "", "", "", "1");
+        Item withEmpty = new Item("", "", "", "", "", "1");
+        Item first = new Item("ab", "c", "", "", "", "1");
+        Item second = new Item("a", "bc", "", "", "", "1");
+
+        assertThat(ItemsDiff.contentHash(withNull), not(ItemsDiff.contentHash(withEmpty)));
+        assertThat(ItemsDiff.contentHash(first), not(ItemsDiff.contentHash(second)));
+        assertThat(ItemsDiff.contentHash(UNCHANGED),
+                is(ItemsDiff.contentHash(new Item("Title1", "Description1", "100", "Location", "", "1"))));
+    }
+}
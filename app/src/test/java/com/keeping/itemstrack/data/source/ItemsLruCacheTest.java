@@ -0,0 +1,73 @@
+package com.keeping.itemstrack.data.source;
+
+import com.google.common.base.Strings;
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ItemsLruCache}.
+ */
+public class ItemsLruCacheTest {
+
+    @Test
+    public void estimateSize_growsWithStringFields() {
+        Item small = new Item("t", "d", "1", "l", "", "1");
+        Item large = new Item("t", Strings.repeat("d", 1000), "1", "l", "", "1");
+
+        assertTrue(ItemsLruCache.estimateSize(large) - ItemsLruCache.estimateSize(small) >= 2 * 999);
+    }
+
+    @Test
+    public void exceedingBudget_evictsLeastRecentlyUsed() {
+        // Given a cache with room for about two items
+        Item first = newItem("1");
+        Item second = newItem("2");
+        Item third = newItem("3");
+        ItemsLruCache cache = new ItemsLruCache(2 * ItemsLruCache.estimateSize(first) + 10);
+        cache.put(first);
+        cache.put(second);
+
+        // When the first item is used and a third one is added
+        cache.get(first.getId());
+        cache.put(third);
+
+        // Then the second item, used least recently, is evicted
+        assertThat(cache.get(first.getId()), is(first));
+        assertThat(cache.get(second.getId()), is(nullValue()));
+        assertThat(cache.get(third.getId()), is(third));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.stats().evictionCount(), is(1L));
+    }
+
+    @Test
+    public void itemLargerThanBudget_isNotKept() {
+        Item huge = new Item("t", Strings.repeat("d", 10000), "", "", "", "1");
+        ItemsLruCache cache = new ItemsLruCache(1024);
+
+        cache.put(huge);
+
+        assertThat(cache.containsKey(huge.getId()), is(false));
+    }
+
+    @Test
+    public void stats_countHitsAndMisses() {
+        ItemsLruCache cache = new ItemsLruCache(ItemsLruCache.DEFAULT_MAX_BYTES);
+        cache.put(newItem("1"));
+
+        cache.get("1");
+        cache.get("2");
+
+        assertThat(cache.stats().hitCount(), is(1L));
+        assertThat(cache.stats().missCount(), is(1L));
+    }
+
+    private static Item newItem(String id) {
+        return new Item("Title" + id, "Description" + id, id, "Location", "", id);
+    }
+}
@@ -2,6 +2,7 @@ package com.keeping.itemstrack.data.source;
 
 import com.google.common.collect.Lists;
 import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.ItemListRow;
 
 import org.junit.After;
 import org.junit.Before;
@@ -11,15 +12,21 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 /**
  * Unit tests for the implementation of the in-memory repository with cache.
@@ -41,7 +48,10 @@ public class ItemsRepositoryTest {
     private ItemsDataSource mItemsRemoteDataSource;
 
     @Mock
-    private ItemsDataSource mItemsLocalDataSource;
+    private LocalItemsDataSource mItemsLocalDataSource;
+
+    @Mock
+    private ItemsOutbox mItemsOutbox;
 
     @Mock
     private ItemsDataSource.GetItemCallback mGetItemsCallback;
@@ -49,6 +59,12 @@ public class ItemsRepositoryTest {
     @Mock
     private ItemsDataSource.LoadItemsCallback mLoadItemsCallback;
 
+    @Mock
+    private ItemsDataSource.LoadItemsPageCallback mLoadItemsPageCallback;
+
+    @Mock
+    private ItemsDataSource.LoadItemRowsPageCallback mLoadItemRowsPageCallback;
+
     /**
      * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
      * perform further actions or assertions on them.
@@ -63,6 +79,9 @@ public class ItemsRepositoryTest {
     @Captor
     private ArgumentCaptor<ItemsDataSource.GetItemCallback> mItemCallbackCaptor;
 
+    @Captor
+    private ArgumentCaptor<ItemsDataSource.LoadItemsPageCallback> mItemsPageCallbackCaptor;
+
     @Before
     public void setupItemsRepository() {
         // Mockito has a very convenient way to inject mocks by using the @Mock annotation. To
@@ -71,7 +90,7 @@ public class ItemsRepositoryTest {
 
         // Get a reference to the class under test
         mItemsRepository = ItemsRepository.getInstance(
-                mItemsRemoteDataSource, mItemsLocalDataSource);
+                mItemsRemoteDataSource, mItemsLocalDataSource, mItemsOutbox);
     }
 
     @After
@@ -106,8 +125,10 @@ public class ItemsRepositoryTest {
         // When a task is saved to the tasks repository
         mItemsRepository.saveItem(newItem);
 
-        // Then the service API and persistent repository are called and the cache is updated
-        verify(mItemsRemoteDataSource).saveItem(newItem);
+        // Then the persistent repository is called, which queues the save for the service API,
+        // the queue is replayed and the cache is updated
+        verify(mItemsOutbox).replay();
+        verify(mItemsRemoteDataSource, never()).saveItem(any(Item.class));
         verify(mItemsLocalDataSource).saveItem(newItem);
         assertThat(mItemsRepository.mCachedItems.size(), is(1));
     }
@@ -136,7 +157,6 @@ public class ItemsRepositoryTest {
         mItemsRepository.deleteAllItems();
 
         // Verify the data sources were called
-        verify(mItemsRemoteDataSource).deleteAllItems();
         verify(mItemsLocalDataSource).deleteAllItems();
 
         assertThat(mItemsRepository.mCachedItems.size(), is(0));
@@ -153,13 +173,66 @@ public class ItemsRepositoryTest {
         mItemsRepository.deleteItem(newTask.getId());
 
         // Verify the data sources were called
-        verify(mItemsRemoteDataSource).deleteItem(newTask.getId());
         verify(mItemsLocalDataSource).deleteItem(newTask.getId());
 
         // Verify it's removed from repository
         assertThat(mItemsRepository.mCachedItems.containsKey(newTask.getId()), is(false));
     }
 
+    @Test
+    public void saveItems_savesBatchToBothDataSourcesAndCache() {
+        // When a batch of items is saved to the repository
+        mItemsRepository.saveItems(ITEM);
+
+        // Then the batch is saved locally at once, which queues it for the service API, and the
+        // cache is updated
+        verify(mItemsLocalDataSource).saveItems(ITEM);
+        verify(mItemsLocalDataSource, never()).saveItem(any(Item.class));
+        assertThat(mItemsRepository.mCachedItems.size(), is(ITEM.size()));
+    }
+
+    @Test
+    public void deleteItems_deletesBatchFromBothDataSourcesAndCache() {
+        // Given two items in the repository
+        mItemsRepository.saveItems(ITEM);
+        List<String> ids = Lists.newArrayList(ITEM.get(0).getId(), ITEM.get(1).getId());
+
+        // When they are deleted as a batch
+        mItemsRepository.deleteItems(ids);
+
+        // Then the batch is deleted locally, which queues it for the service API, and the cache
+        // is emptied
+        verify(mItemsLocalDataSource).deleteItems(ids);
+        assertThat(mItemsRepository.mCachedItems.size(), is(0));
+    }
+
+    @Test
+    public void searchItems_searchesLocalDataSourceOnly() {
+        // When searching the repository
+        mItemsRepository.searchItems("lamp", 20, mLoadItemsCallback);
+
+        // Then the search runs on the local data source and its results are delivered
+        verify(mItemsLocalDataSource).searchItems(eq("lamp"), eq(20),
+                mItemsCallbackCaptor.capture());
+        mItemsCallbackCaptor.getValue().onItemsLoaded(ITEM);
+        verify(mLoadItemsCallback).onItemsLoaded(ITEM);
+        verifyZeroInteractions(mItemsRemoteDataSource);
+    }
+
+    @Test
+    public void getLocationSummaries_readsLocalDataSourceOnly() {
+        // Given a callback
+        ItemsDataSource.LoadLocationSummariesCallback callback =
+                mock(ItemsDataSource.LoadLocationSummariesCallback.class);
+
+        // When the summaries are requested
+        mItemsRepository.getLocationSummaries(callback);
+
+        // Then they are read from the local data source only
+        verify(mItemsLocalDataSource).getLocationSummaries(callback);
+        verifyZeroInteractions(mItemsRemoteDataSource);
+    }
+
     @Test
     public void getTasksWithDirtyCache_tasksAreRetrievedFromRemote() {
         // When calling getItems in the repository with dirty cache
@@ -222,6 +295,40 @@ public class ItemsRepositoryTest {
         verify(mGetItemsCallback).onDataNotAvailable();
     }
 
+    @Test
+    public void getMissingItemTwice_secondLookupFailsWithoutQueryingDataSources() {
+        // Given an item that neither data source has
+        final String itemId = "123";
+        mItemsRepository.getItem(itemId, mGetItemsCallback);
+        setItemNotAvailable(mItemsLocalDataSource, itemId);
+        setItemNotAvailable(mItemsRemoteDataSource, itemId);
+
+        // When it is requested again
+        ItemsDataSource.GetItemCallback secondCallback =
+                mock(ItemsDataSource.GetItemCallback.class);
+        mItemsRepository.getItem(itemId, secondCallback);
+
+        // Then it fails right away without another lookup
+        verify(secondCallback).onDataNotAvailable();
+        verify(mItemsLocalDataSource).getItem(eq(itemId), any(ItemsDataSource.GetItemCallback.class));
+        assertThat(mItemsRepository.getMissingItemsCacheStats().hitCount(), is(1L));
+    }
+
+    @Test
+    public void saveMissingItem_invalidatesMissingIdsCache() {
+        // Given an item that was found missing
+        Item item = new Item(ITEM_TITLE, "", "", "", "", "123");
+        mItemsRepository.getItem(item.getId(), mGetItemsCallback);
+        setItemNotAvailable(mItemsLocalDataSource, item.getId());
+        setItemNotAvailable(mItemsRemoteDataSource, item.getId());
+
+        // When it is saved
+        mItemsRepository.saveItem(item);
+
+        // Then it is no longer considered missing
+        assertThat(mItemsRepository.mMissingItems.isMissing(item.getId()), is(false));
+    }
+
     @Test
     public void getTasks_refreshesLocalDataSource() {
         // Mark cache as dirty to force a reload of data from remote data source.
@@ -233,8 +340,300 @@ public class ItemsRepositoryTest {
         // Make the remote data source return data
         setItemsAvailable(mItemsRemoteDataSource, ITEM);
 
-        // Verify that the data fetched from the remote data source was saved in local.
-        verify(mItemsLocalDataSource, times(ITEM.size())).saveItem(any(Item.class));
+        // Verify that the local data source was reconciled with the remote data, rather than
+        // wiped and rewritten.
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+        verify(mItemsLocalDataSource, never()).deleteAllItems();
+    }
+
+    @Test
+    public void replaceAllItems_isStoredLocallyOnly() {
+        // When the content of the backend is stored
+        mItemsRepository.replaceAllItems(ITEM);
+
+        // Then the local data source applies it and the backend isn't written to outside the
+        // outbox
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+        verify(mItemsRemoteDataSource, never()).replaceAllItems(ITEM);
+        assertThat(mItemsRepository.mItemsSnapshot.size(), is(ITEM.size()));
+    }
+
+    @Test
+    public void writePulledItems_isStoredLocallyOnly() {
+        // When changes read from the backend are stored
+        List<String> deletedItemIds = Collections.singletonList("deleted");
+        mItemsRepository.writePulledItems(ITEM, deletedItemIds);
+
+        // Then the local data source writes them as pulled, and nothing is replayed to the
+        // backend
+        verify(mItemsLocalDataSource).writePulledItems(ITEM, deletedItemIds);
+        verify(mItemsLocalDataSource, never()).saveItems(ITEM);
+        verify(mItemsLocalDataSource, never()).deleteItems(deletedItemIds);
+        verifyZeroInteractions(mItemsOutbox);
+    }
+
+    @Test
+    public void getItemsPage_requestsPageFromLocalDataSource() {
+        // When a page is requested from the repository
+        mItemsRepository.getItemsPage(2, "key", mLoadItemsPageCallback);
+
+        // Then the page is loaded from the local data source with the same key
+        verify(mItemsLocalDataSource).getItemsPage(eq(2), eq("key"),
+                mItemsPageCallbackCaptor.capture());
+        mItemsPageCallbackCaptor.getValue().onItemsPageLoaded(ITEM, "next");
+        verify(mLoadItemsPageCallback).onItemsPageLoaded(ITEM, "next");
+    }
+
+    @Test
+    public void getFirstItemsPageWithLocalDataSourceUnavailable_pageIsSlicedFromRemote() {
+        // When the first page of one item is requested
+        mItemsRepository.getItemsPage(1, null, mLoadItemsPageCallback);
+
+        // And the local data source has no data available
+        verify(mItemsLocalDataSource).getItemsPage(eq(1), (String) isNull(),
+                mItemsPageCallbackCaptor.capture());
+        mItemsPageCallbackCaptor.getValue().onDataNotAvailable();
+
+        // And the remote data source has data available
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+
+        // Then the item with the lowest id is returned along with the key of the next page
+        Item first = ITEM.get(0).getId().compareTo(ITEM.get(1).getId()) < 0
+                ? ITEM.get(0) : ITEM.get(1);
+        verify(mLoadItemsPageCallback).onItemsPageLoaded(Lists.newArrayList(first),
+                first.getId());
+        // And the local data source is refreshed
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+    }
+
+    @Test
+    public void getItemRowsPage_requestsRowsFromLocalDataSource() {
+        // When a page of rows is requested from the repository
+        mItemsRepository.getItemRowsPage(2, "key", mLoadItemRowsPageCallback);
+
+        // Then the rows are loaded from the local data source with the same key
+        ArgumentCaptor<ItemsDataSource.LoadItemRowsPageCallback> captor =
+                ArgumentCaptor.forClass(ItemsDataSource.LoadItemRowsPageCallback.class);
+        verify(mItemsLocalDataSource).getItemRowsPage(eq(2), eq("key"), captor.capture());
+        List<ItemListRow> rows = ItemListRow.fromItems(ITEM);
+        captor.getValue().onItemRowsPageLoaded(rows, "next");
+        verify(mLoadItemRowsPageCallback).onItemRowsPageLoaded(rows, "next");
+        // And whole items aren't loaded
+        verify(mItemsLocalDataSource, never()).getItemsPage(anyInt(), anyString(),
+                any(ItemsDataSource.LoadItemsPageCallback.class));
+    }
+
+    @Test
+    public void observeItemRowsWithDirtyCache_refreshesLocalDataSourceFromRemote() {
+        // When the rows are observed after a refresh is requested
+        mItemsRepository.refreshItems();
+        mItemsRepository.observeItemRows(2, mLoadItemRowsPageCallback);
+
+        // And the remote data source has data available
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+
+        // Then the rows of the local data source are observed, which the refresh is written to
+        verify(mItemsLocalDataSource).observeItemRows(2, mLoadItemRowsPageCallback);
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+        assertThat(mItemsRepository.mCacheIsDirty, is(false));
+    }
+
+    @Test
+    public void observeItemRowsWithDirtyCache_sharesTheRemoteLoadInFlight() {
+        // Given a refresh already loading the items from the remote data source
+        mItemsRepository.refreshItems();
+        mItemsRepository.getItems(ReadPolicy.REMOTE_FIRST, mLoadItemsCallback);
+
+        // When the rows are observed
+        mItemsRepository.observeItemRows(2, mLoadItemRowsPageCallback);
+
+        // Then the remote data source is only queried once, and both are served by that load
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+        verify(mLoadItemsCallback).onItemsLoaded(any(List.class));
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+    }
+
+    @Test
+    public void getFirstItemRowsPageWithDirtyCache_rowsAreMadeFromRemoteItems() {
+        // When the first page of rows is requested with a dirty cache
+        mItemsRepository.refreshItems();
+        mItemsRepository.getItemRowsPage(10, null, mLoadItemRowsPageCallback);
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+
+        // Then the rows of the remote items are returned and the local data source is refreshed
+        verify(mLoadItemRowsPageCallback).onItemRowsPageLoaded(any(List.class),
+                (String) isNull());
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+    }
+
+    @Test
+    public void getFirstItemsPageWithDirtyCache_pageIsRetrievedFromRemote() {
+        // When the first page is requested with a dirty cache
+        mItemsRepository.refreshItems();
+        mItemsRepository.getItemsPage(10, null, mLoadItemsPageCallback);
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+
+        // Then the local data source isn't queried and the remote items are returned
+        verify(mItemsLocalDataSource, never()).getItemsPage(anyInt(), anyString(),
+                any(ItemsDataSource.LoadItemsPageCallback.class));
+        verify(mLoadItemsPageCallback).onItemsPageLoaded(any(List.class), (String) isNull());
+    }
+
+    @Test
+    public void concurrentGetItems_shareSingleLocalLoad() {
+        // Given a second caller
+        ItemsDataSource.LoadItemsCallback secondCallback =
+                mock(ItemsDataSource.LoadItemsCallback.class);
+
+        // When items are requested twice before the first load completes
+        mItemsRepository.getItems(mLoadItemsCallback);
+        mItemsRepository.getItems(secondCallback);
+
+        // Then the local data source is queried only once
+        verify(mItemsLocalDataSource).getItems(mItemsCallbackCaptor.capture());
+        mItemsCallbackCaptor.getValue().onItemsLoaded(ITEM);
+
+        // And both callers are notified
+        verify(mLoadItemsCallback).onItemsLoaded(any(List.class));
+        verify(secondCallback).onItemsLoaded(any(List.class));
+        assertThat(mItemsRepository.getStartedLoadCount(), is(1L));
+        assertThat(mItemsRepository.getCoalescedLoadCount(), is(1L));
+    }
+
+    @Test
+    public void concurrentGetItem_shareSingleLoadAndFailTogether() {
+        // Given a second caller
+        ItemsDataSource.GetItemCallback secondCallback =
+                mock(ItemsDataSource.GetItemCallback.class);
+
+        // When the same item is requested twice before the first load completes
+        mItemsRepository.getItem(ITEM_TITLE, mGetItemsCallback);
+        mItemsRepository.getItem(ITEM_TITLE, secondCallback);
+
+        // And neither data source has it
+        setItemNotAvailable(mItemsLocalDataSource, ITEM_TITLE);
+        setItemNotAvailable(mItemsRemoteDataSource, ITEM_TITLE);
+
+        // Then both callers are notified of the single failed load
+        verify(mGetItemsCallback).onDataNotAvailable();
+        verify(secondCallback).onDataNotAvailable();
+
+        // And a later request starts a new load
+        mItemsRepository.getItem(ITEM_TITLE, mGetItemsCallback);
+        verify(mItemsLocalDataSource, times(2)).getItem(eq(ITEM_TITLE),
+                any(ItemsDataSource.GetItemCallback.class));
+    }
+
+    @Test
+    public void concurrentGetItemsPage_differentKeysAreNotCoalesced() {
+        // When two different pages are requested concurrently
+        mItemsRepository.getItemsPage(2, "a", mLoadItemsPageCallback);
+        mItemsRepository.getItemsPage(2, "b", mLoadItemsPageCallback);
+        mItemsRepository.getItemsPage(2, "b", mLoadItemsPageCallback);
+
+        // Then each distinct page is loaded once
+        verify(mItemsLocalDataSource).getItemsPage(eq(2), eq("a"),
+                any(ItemsDataSource.LoadItemsPageCallback.class));
+        verify(mItemsLocalDataSource).getItemsPage(eq(2), eq("b"),
+                any(ItemsDataSource.LoadItemsPageCallback.class));
+        assertThat(mItemsRepository.getCoalescedLoadCount(), is(1L));
+    }
+
+    @Test
+    public void observeItemMissingLocally_isFetchedOnceFromRemoteAndStored() {
+        // Given an item only the remote data source has
+        Item item = ITEM.get(0);
+
+        // When the item is observed
+        mItemsRepository.observeItem(item.getId(), mGetItemsCallback);
+        verify(mItemsLocalDataSource).observeItem(eq(item.getId()),
+                mItemCallbackCaptor.capture());
+        ItemsDataSource.GetItemCallback localCallback = mItemCallbackCaptor.getValue();
+        localCallback.onDataNotAvailable();
+        setItemAvailable(mItemsRemoteDataSource, item);
+
+        // Then it is stored locally without being queued back to the network, which keeps it
+        // observed, and pushed to the caller
+        verify(mItemsLocalDataSource).writePulledItems(Collections.singletonList(item),
+                Collections.<String>emptyList());
+        verify(mItemsLocalDataSource, never()).saveItem(any(Item.class));
+        verify(mGetItemsCallback).onItemLoaded(item);
+
+        // And a later deletion is pushed without going back to the network
+        localCallback.onDataNotAvailable();
+        verify(mGetItemsCallback).onDataNotAvailable();
+        verify(mItemsRemoteDataSource).getItem(eq(item.getId()),
+                any(ItemsDataSource.GetItemCallback.class));
+    }
+
+    @Test
+    public void getItemsCacheOnly_doesNotQueryDataSources() {
+        // When items are requested from the cache only before anything was loaded
+        mItemsRepository.getItems(ReadPolicy.CACHE_ONLY, mLoadItemsCallback);
+
+        // Then no data source is queried and no data is returned
+        verify(mItemsLocalDataSource, never()).getItems(any(ItemsDataSource.LoadItemsCallback.class));
+        verify(mItemsRemoteDataSource, never()).getItems(any(ItemsDataSource.LoadItemsCallback.class));
+        verify(mLoadItemsCallback).onDataNotAvailable();
+    }
+
+    @Test
+    public void getItemsRemoteFirstWithRemoteUnavailable_itemsAreRetrievedFromLocal() {
+        // When items are requested from the network first
+        mItemsRepository.getItems(ReadPolicy.REMOTE_FIRST, mLoadItemsCallback);
+
+        // And the network fails
+        setItemsNotAvailable(mItemsRemoteDataSource);
+
+        // Then the local items are returned
+        setItemsAvailable(mItemsLocalDataSource, ITEM);
+        verify(mLoadItemsCallback).onItemsLoaded(ITEM);
+    }
+
+    @Test
+    public void getItemsStaleWhileRevalidate_servesLocalThenReconciledRemote() {
+        // When items are requested with stale-while-revalidate
+        mItemsRepository.getItems(ReadPolicy.STALE_WHILE_REVALIDATE, mLoadItemsCallback);
+
+        // Then the local items are served right away
+        List<Item> localItems = Lists.newArrayList(ITEM.get(0));
+        setItemsAvailable(mItemsLocalDataSource, localItems);
+        verify(mLoadItemsCallback).onItemsLoaded(localItems);
+
+        // And once the network answers with different items, they are served too
+        setItemsAvailable(mItemsRemoteDataSource, ITEM);
+        verify(mLoadItemsCallback).onItemsLoaded(ITEM);
+        verify(mItemsLocalDataSource).replaceAllItems(ITEM);
+    }
+
+    @Test
+    public void getItemsStaleWhileRevalidate_unchangedRemoteIsNotServedTwice() {
+        // When items are requested with stale-while-revalidate
+        mItemsRepository.getItems(ReadPolicy.STALE_WHILE_REVALIDATE, mLoadItemsCallback);
+
+        // And both data sources have the same items
+        setItemsAvailable(mItemsLocalDataSource, ITEM);
+        setItemsAvailable(mItemsRemoteDataSource, Lists.newArrayList(ITEM));
+
+        // Then the items are served only once
+        verify(mLoadItemsCallback, times(1)).onItemsLoaded(any(List.class));
+    }
+
+    @Test
+    public void getItemsRemoteFirstJoiningRevalidation_fallsBackToLocal() {
+        // Given a stale-while-revalidate load waiting for the network, with nothing served yet
+        mItemsRepository.getItems(ReadPolicy.STALE_WHILE_REVALIDATE,
+                mock(ItemsDataSource.LoadItemsCallback.class));
+        setItemsNotAvailable(mItemsLocalDataSource);
+
+        // When items are requested from the network first, and the network fails
+        mItemsRepository.getItems(ReadPolicy.REMOTE_FIRST, mLoadItemsCallback);
+        setItemsNotAvailable(mItemsRemoteDataSource);
+
+        // Then the local items are returned
+        verify(mItemsLocalDataSource, times(2)).getItems(mItemsCallbackCaptor.capture());
+        mItemsCallbackCaptor.getValue().onItemsLoaded(ITEM);
+        verify(mLoadItemsCallback).onItemsLoaded(ITEM);
     }
 
     /**
@@ -0,0 +1,69 @@
+package com.keeping.itemstrack.data.source;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link MissingItemsCache}.
+ */
+public class MissingItemsCacheTest {
+
+    private static final long TTL_MILLIS = 1000;
+
+    private final ManualTicker mTicker = new ManualTicker();
+
+    private final MissingItemsCache mCache = new MissingItemsCache(TTL_MILLIS, mTicker);
+
+    @Test
+    public void missingId_isRememberedUntilTtlElapses() {
+        mCache.markMissing("1");
+
+        mTicker.advanceMillis(TTL_MILLIS - 1);
+        assertThat(mCache.isMissing("1"), is(true));
+
+        mTicker.advanceMillis(1);
+        assertThat(mCache.isMissing("1"), is(false));
+    }
+
+    @Test
+    public void invalidate_forgetsOnlyThatId() {
+        mCache.markMissing("1");
+        mCache.markMissing("2");
+
+        mCache.invalidate("1");
+
+        assertThat(mCache.isMissing("1"), is(false));
+        assertThat(mCache.isMissing("2"), is(true));
+    }
+
+    @Test
+    public void stats_countHitsAndMisses() {
+        mCache.markMissing("1");
+
+        mCache.isMissing("1");
+        mCache.isMissing("2");
+
+        assertThat(mCache.stats().hitCount(), is(1L));
+        assertThat(mCache.stats().missCount(), is(1L));
+    }
+
+    private static class ManualTicker extends Ticker {
+
+        private long mNanos = 0;
+
+        void advanceMillis(long millis) {
+            mNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return mNanos;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import com.keeping.itemstrack.data.Item;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CsvItemRecordReader}.
+ */
+public class CsvItemRecordReaderTest {
+
+    @Test
+    public void next_mapsColumnsByHeader() throws IOException {
+        // Given a file with its columns in another order and an unknown column
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader(
+                "Location,unknown,TITLE,id,cost\nShed,x,Lamp,1,12.50\n"));
+
+        // When reading the record
+        Item item = reader.next().toItem("fallback");
+
+        // Then the fields are mapped by name
+        assertThat(item, is(new Item("Lamp", null, "12.50", "Shed", "", "1")));
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void next_readsQuotedFields() throws IOException {
+        // Given quoted fields with separators, doubled quotes and line breaks, and CRLF endings
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader(
+                "id,title,description\r\n1,\"Lamp, big\",\"Says \"\"hi\"\"\r\ntwice\"\r\n"));
+
+        // When reading the record
+        Item item = reader.next().toItem("fallback");
+
+        // Then the quotes are removed and the content kept
+        assertThat(item.getTitle(), is("Lamp, big"));
+        assertThat(item.getDescription(), is("Says \"hi\"\r\ntwice"));
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void next_skipsByteOrderMarkAndBlankLines() throws IOException {
+        // Given a file starting with a byte order mark and with blank lines
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader(
+                "\uFEFFtitle\n\nLamp\n\r\nChair"));
+
+        // When reading the records
+        // Then the header is recognized and the blank lines skipped
+        assertThat(reader.next().toItem("1").getTitle(), is("Lamp"));
+        assertThat(reader.next().toItem("2").getTitle(), is("Chair"));
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void next_withoutId_usesFallbackId() throws IOException {
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader("id,title\n,Lamp"));
+
+        assertThat(reader.next().toItem("fallback").getId(), is("fallback"));
+    }
+
+    @Test
+    public void next_rowWithoutItemFields_isEmpty() throws IOException {
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader("id,title\n7,\n"));
+
+        assertTrue(reader.next().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void next_unterminatedQuote_throws() throws IOException {
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader("title\n\"Lamp"));
+
+        reader.next();
+    }
+}
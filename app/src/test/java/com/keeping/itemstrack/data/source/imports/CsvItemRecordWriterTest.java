@@ -0,0 +1,60 @@
+package com.keeping.itemstrack.data.source.imports;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link CsvItemRecordWriter}.
+ */
+public class CsvItemRecordWriterTest {
+
+    @Test
+    public void write_quotesFieldsWhenNeeded() throws IOException {
+        // Given a record with separators, quotes and line breaks
+        StringWriter output = new StringWriter();
+        CsvItemRecordWriter writer = new CsvItemRecordWriter(output);
+
+        // When written
+        writer.write(new ItemRecord("1", "Lamp, big", "Says \"hi\"\nTwice", "12", null, ""));
+        writer.finish();
+
+        // Then only those fields are quoted, with quotes doubled
+        assertThat(output.toString(), is("id,title,description,cost,location,imagepath\r\n"
+                + "1,\"Lamp, big\",\"Says \"\"hi\"\"\nTwice\",12,,\r\n"));
+    }
+
+    @Test
+    public void write_isReadBackByReader() throws IOException {
+        // Given a written record
+        StringWriter output = new StringWriter();
+        CsvItemRecordWriter writer = new CsvItemRecordWriter(output);
+        writer.write(new ItemRecord("1", "\"Lamp\"", "a,b\r\nc", "9,99", "Shed", "path"));
+        writer.finish();
+
+        // When read back
+        CsvItemRecordReader reader = new CsvItemRecordReader(new StringReader(output.toString()));
+
+        // Then the fields are the same
+        assertArrayEquals(new String[]{"1", "\"Lamp\"", "a,b\r\nc", "9,99", "Shed", "path"},
+                reader.next().getValues());
+        assertThat(reader.next(), is(nullValue()));
+    }
+
+    @Test
+    public void finish_withoutRecords_writesHeader() throws IOException {
+        StringWriter output = new StringWriter();
+        CsvItemRecordWriter writer = new CsvItemRecordWriter(output);
+
+        writer.finish();
+
+        assertThat(output.toString(), is("id,title,description,cost,location,imagepath\r\n"));
+    }
+}
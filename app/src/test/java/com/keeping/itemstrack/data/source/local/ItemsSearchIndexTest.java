@@ -0,0 +1,60 @@
+package com.keeping.itemstrack.data.source.local;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the query building and ranking of {@link ItemsSearchIndex}.
+ */
+public class ItemsSearchIndexTest {
+
+    @Test
+    public void toMatchQuery_turnsEveryWordIntoAQuotedPrefix() {
+        assertThat(ItemsSearchIndex.toMatchQuery("red  chair"), is("\"red*\" \"chair*\""));
+        assertThat(ItemsSearchIndex.toMatchQuery("Lamp2"), is("\"Lamp2*\""));
+    }
+
+    @Test
+    public void toMatchQuery_dropsFtsSyntax() {
+        assertThat(ItemsSearchIndex.toMatchQuery("\"a\" OR -b* (c)"),
+                is("\"a*\" \"OR*\" \"b*\" \"c*\""));
+    }
+
+    @Test
+    public void toMatchQuery_withoutWords_isNull() {
+        assertThat(ItemsSearchIndex.toMatchQuery(""), is(nullValue()));
+        assertThat(ItemsSearchIndex.toMatchQuery(" *-\" "), is(nullValue()));
+    }
+
+    @Test
+    public void score_titleMatchOutranksDescriptionMatch() {
+        // One phrase, three columns: {hits in row, hits in all rows, rows with hits}
+        byte[] inTitle = matchInfo(1, 3, 1, 10, 5, 0, 20, 10, 0, 0, 0);
+        byte[] inDescription = matchInfo(1, 3, 0, 10, 5, 1, 20, 10, 0, 0, 0);
+
+        assertTrue(ItemsSearchIndex.score(inTitle) > ItemsSearchIndex.score(inDescription));
+    }
+
+    @Test
+    public void score_rareWordOutranksCommonWord() {
+        byte[] rare = matchInfo(1, 3, 1, 2, 2, 0, 0, 0, 0, 0, 0);
+        byte[] common = matchInfo(1, 3, 1, 200, 150, 0, 0, 0, 0, 0, 0);
+
+        assertTrue(ItemsSearchIndex.score(rare) > ItemsSearchIndex.score(common));
+    }
+
+    private static byte[] matchInfo(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(ByteOrder.nativeOrder());
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,200 @@
+package com.keeping.itemstrack.data.source.remote;
+
+import android.support.annotation.NonNull;
+
+import com.google.common.collect.Lists;
+import com.keeping.itemstrack.data.Item;
+import com.keeping.itemstrack.data.source.RemoteItemsWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the implementation of {@link BatchingItemsWriter}.
+ */
+public class BatchingItemsWriterTest {
+
+    private static final long NO_DELAY_FLUSH = TimeUnit.HOURS.toMillis(1);
+
+    private static final List<String> NO_IDS = Collections.emptyList();
+
+    private static final List<Item> NO_ITEMS = Collections.emptyList();
+
+    private ScheduledExecutorService mScheduler;
+
+    private RecordingWriter mRemote;
+
+    @Before
+    public void setup() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        mRemote = new RecordingWriter();
+    }
+
+    @After
+    public void cleanUp() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void write_sendsBatchOnceFull() {
+        // Given a writer of batches of three items
+        BatchingItemsWriter writer = new BatchingItemsWriter(mRemote, 3, NO_DELAY_FLUSH,
+                mScheduler);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        // When two items are written
+        writer.writeItems(Lists.newArrayList(newItem("1"), newItem("2")), NO_IDS, first);
+
+        // Then nothing is sent yet
+        assertThat(mRemote.mBatches.size(), is(0));
+
+        // When a delete fills the batch
+        writer.writeItems(NO_ITEMS, Lists.newArrayList("3"), second);
+
+        // Then the three writes are sent at once, and both callbacks are called
+        assertThat(mRemote.mBatches.size(), is(1));
+        assertThat(mRemote.mBatches.get(0).size(), is(3));
+        assertThat(first.mSucceeded, is(1));
+        assertThat(second.mSucceeded, is(1));
+    }
+
+    @Test
+    public void write_sendsPendingWritesAfterDelay() throws InterruptedException {
+        // Given a writer waiting 10 milliseconds for a batch to fill
+        BatchingItemsWriter writer = new BatchingItemsWriter(mRemote, 100, 10, mScheduler);
+        final CountDownLatch written = new CountDownLatch(1);
+
+        // When a single item is written
+        writer.writeItems(Lists.newArrayList(newItem("1")), NO_IDS, new RecordingCallback() {
+            @Override
+            public void onWriteSucceeded() {
+                written.countDown();
+            }
+        });
+
+        // Then it is sent once the delay elapsed
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertThat(mRemote.mBatches.size(), is(1));
+    }
+
+    @Test
+    public void write_neverSplitsWrite() {
+        // Given a writer of batches of three items
+        BatchingItemsWriter writer = new BatchingItemsWriter(mRemote, 3, NO_DELAY_FLUSH,
+                mScheduler);
+
+        // When two writes of two items are made, then flushed
+        writer.writeItems(Lists.newArrayList(newItem("1"), newItem("2")), NO_IDS,
+                new RecordingCallback());
+        writer.writeItems(Lists.newArrayList(newItem("3"), newItem("4")), NO_IDS,
+                new RecordingCallback());
+        writer.flush();
+
+        // Then each is sent in a batch of its own
+        assertThat(mRemote.mBatches.size(), is(2));
+        assertThat(mRemote.mBatches.get(0).size(), is(2));
+        assertThat(mRemote.mBatches.get(1).size(), is(2));
+    }
+
+    @Test
+    public void write_sendsLastWriteOfItem() {
+        // Given an item saved, then deleted in the same batch
+        BatchingItemsWriter writer = new BatchingItemsWriter(mRemote, 10, NO_DELAY_FLUSH,
+                mScheduler);
+        writer.writeItems(Lists.newArrayList(newItem("1")), NO_IDS, new RecordingCallback());
+        writer.writeItems(NO_ITEMS, Lists.newArrayList("1"), new RecordingCallback());
+
+        // When flushed
+        writer.flush();
+
+        // Then only the delete is sent
+        assertThat(mRemote.mSavedIds.get(0).size(), is(0));
+        assertThat(mRemote.mDeletedIds.get(0), is((List<String>) Lists.newArrayList("1")));
+    }
+
+    @Test
+    public void failedBatch_failsEveryWriteOfIt() {
+        // Given a backend refusing writes
+        mRemote.mFail = true;
+        BatchingItemsWriter writer = new BatchingItemsWriter(mRemote, 10, NO_DELAY_FLUSH,
+                mScheduler);
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        writer.writeItems(Lists.newArrayList(newItem("1")), NO_IDS, first);
+        writer.writeItems(Lists.newArrayList(newItem("2")), NO_IDS, second);
+
+        // When flushed
+        writer.flush();
+
+        // Then both writes fail
+        assertThat(first.mFailed, is(1));
+        assertThat(second.mFailed, is(1));
+    }
+
+    private static Item newItem(String id) {
+        return new Item("title " + id, "", "", "", "", id);
+    }
+
+    private static class RecordingWriter implements RemoteItemsWriter {
+
+        final List<List<String>> mBatches = new ArrayList<>();
+
+        final List<List<String>> mSavedIds = new ArrayList<>();
+
+        final List<List<String>> mDeletedIds = new ArrayList<>();
+
+        boolean mFail;
+
+        @Override
+        public synchronized void writeItems(@NonNull List<Item> items,
+                                            @NonNull List<String> deletedItemIds,
+                                            @NonNull WriteCallback callback) {
+            List<String> savedIds = new ArrayList<>();
+            for (Item item : items) {
+                savedIds.add(item.getId());
+            }
+            List<String> batch = new ArrayList<>(savedIds);
+            batch.addAll(deletedItemIds);
+            mBatches.add(batch);
+            mSavedIds.add(savedIds);
+            mDeletedIds.add(new ArrayList<>(deletedItemIds));
+            if (mFail) {
+                callback.onWriteFailed(new IOException("Connection lost"));
+            } else {
+                callback.onWriteSucceeded();
+            }
+        }
+    }
+
+    private static class RecordingCallback implements RemoteItemsWriter.WriteCallback {
+
+        int mSucceeded;
+
+        int mFailed;
+
+        @Override
+        public void onWriteSucceeded() {
+            mSucceeded++;
+        }
+
+        @Override
+        public void onWriteFailed(@NonNull Exception error) {
+            mFailed++;
+        }
+    }
+}
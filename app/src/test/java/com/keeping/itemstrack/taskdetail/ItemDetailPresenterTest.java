@@ -14,9 +14,11 @@ import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for the implementation of {@link ItemDetailPresenter}
@@ -40,6 +42,9 @@ public class ItemDetailPresenterTest {
     @Mock
     private ItemDetailContract.View mItemDetailView;
 
+    @Mock
+    private ItemsDataSource.Subscription mSubscription;
+
     /**
      * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
      * perform further actions or assertions on them.
@@ -74,7 +79,7 @@ public class ItemDetailPresenterTest {
         mItemDetailPresenter.start();
 
         // Then task is loaded from model, callback is captured and progress indicator is shown
-        verify(mItemRepository).getItem(eq(ITEM.getId()), mGetItemCallbackCaptor.capture());
+        verify(mItemRepository).observeItem(eq(ITEM.getId()), mGetItemCallbackCaptor.capture());
         InOrder inOrder = inOrder(mItemDetailView);
         inOrder.verify(mItemDetailView).setLoadingIndicator(true);
 
@@ -95,7 +100,7 @@ public class ItemDetailPresenterTest {
         mItemDetailPresenter.start();
 
         // Then task is loaded from model, callback is captured and progress indicator is shown
-        verify(mItemRepository).getItem(
+        verify(mItemRepository).observeItem(
                 eq(ITEM.getId()), mGetItemCallbackCaptor.capture());
         InOrder inOrder = inOrder(mItemDetailView);
         inOrder.verify(mItemDetailView).setLoadingIndicator(true);
@@ -110,6 +115,30 @@ public class ItemDetailPresenterTest {
         verify(mItemDetailView).showDescription(DESCRIPTION_TEST);
     }
 
+    @Test
+    public void itemChangesArePushedToViewUntilStopped() {
+        // Given a started presenter observing an item
+        when(mItemRepository.observeItem(eq(ITEM.getId()),
+                any(ItemsDataSource.GetItemCallback.class))).thenReturn(mSubscription);
+        mItemDetailPresenter = new ItemDetailPresenter(
+                ITEM.getId(), mItemRepository, mItemDetailView);
+        mItemDetailPresenter.start();
+        verify(mItemRepository).observeItem(eq(ITEM.getId()), mGetItemCallbackCaptor.capture());
+        mGetItemCallbackCaptor.getValue().onItemLoaded(ITEM);
+
+        // When the item is edited elsewhere
+        Item edited = new Item("edited", DESCRIPTION_TEST, COST_TEST, LOCATION_TEST, IMAGE_TEST,
+                ITEM.getId());
+        mGetItemCallbackCaptor.getValue().onItemLoaded(edited);
+
+        // Then the view shows the edit without reloading
+        verify(mItemDetailView).showTitle("edited");
+
+        // And the observation ends when the presenter is stopped
+        mItemDetailPresenter.stop();
+        verify(mSubscription).unsubscribe();
+    }
+
     @Test
     public void getUnknownItemFromRepositoryAndLoadIntoView() {
         // When loading of a task is requested with an invalid Item ID.
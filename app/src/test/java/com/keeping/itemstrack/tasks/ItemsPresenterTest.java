@@ -2,8 +2,13 @@ package com.keeping.itemstrack.tasks;
 
 import com.google.common.collect.Lists;
 import com.keeping.itemstrack.data.Item;
-import com.keeping.itemstrack.data.source.ItemsDataSource.LoadItemsCallback;
+import com.keeping.itemstrack.data.ItemListRow;
+import com.keeping.itemstrack.data.source.ItemsDataSource;
+import com.keeping.itemstrack.data.source.ItemsDataSource.LoadItemRowsPageCallback;
 import com.keeping.itemstrack.data.source.ItemsRepository;
+import com.keeping.itemstrack.data.source.LocalItemsDataSource.ItemChangesCallback;
+import com.keeping.itemstrack.data.source.ReadPolicy;
+import com.keeping.itemstrack.data.source.local.ItemsCloudSync;
 import com.keeping.itemstrack.items.ItemsContract;
 import com.keeping.itemstrack.items.ItemsPresenter;
 
@@ -15,32 +20,61 @@ import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for the implementation of {@link ItemsPresenter}
  */
 public class ItemsPresenterTest {
 
-    private static List<Item> TASKS;
+    private static List<ItemListRow> TASKS;
 
     @Mock
     private ItemsRepository mTasksRepository;
 
+    @Mock
+    private ItemsCloudSync mItemsCloudSync;
+
     @Mock
     private ItemsContract.View mTasksView;
 
+    @Mock
+    private ItemsDataSource.Subscription mSubscription;
+
+    @Mock
+    private ItemsDataSource.Subscription mChangesSubscription;
+
     /**
      * {@link ArgumentCaptor} is a powerful Mockito API to capture argument values and use them to
      * perform further actions or assertions on them.
      */
     @Captor
-    private ArgumentCaptor<LoadItemsCallback> mLoadTasksCallbackCaptor;
+    private ArgumentCaptor<LoadItemRowsPageCallback> mLoadTasksCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<LoadItemRowsPageCallback> mLoadPageCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<ItemChangesCallback> mChangesCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<ItemsDataSource.LoadItemsCallback> mRefreshCallbackCaptor;
+
+    @Captor
+    private ArgumentCaptor<ItemsCloudSync.SyncCallback> mSyncCallbackCaptor;
 
     private ItemsPresenter mTasksPresenter;
 
@@ -51,18 +85,23 @@ public class ItemsPresenterTest {
         MockitoAnnotations.initMocks(this);
 
         // Get a reference to the class under test
-        mTasksPresenter = new ItemsPresenter(mTasksRepository, mTasksView);
+        mTasksPresenter = new ItemsPresenter(mTasksRepository, mItemsCloudSync, mTasksView);
+        when(mTasksRepository.observeItemRows(anyInt(), any(LoadItemRowsPageCallback.class)))
+                .thenReturn(mSubscription);
+        when(mTasksRepository.observeItemChanges(any(ItemChangesCallback.class)))
+                .thenReturn(mChangesSubscription);
 
         // We start the tasks to 3, with one active and two completed
-        TASKS = Lists.newArrayList(new Item("Title1", "Description1", "100", "Location1", "path"),
+        TASKS = ItemListRow.fromItems(Lists.newArrayList(
+                new Item("Title1", "Description1", "100", "Location1", "path"),
                 new Item("Title2", "Description2", "200", "Location2", "path"),
-                new Item("Title3", "Description3", "300", "Location3", "path"));
+                new Item("Title3", "Description3", "300", "Location3", "path")));
     }
 
     @Test
     public void createPresenter_setsThePresenterToView() {
         // Get a reference to the class under test
-        mTasksPresenter = new ItemsPresenter(mTasksRepository, mTasksView);
+        mTasksPresenter = new ItemsPresenter(mTasksRepository, mItemsCloudSync, mTasksView);
 
         // Then the presenter is set to the view
         verify(mTasksView).setPresenter(mTasksPresenter);
@@ -75,8 +114,8 @@ public class ItemsPresenterTest {
         mTasksPresenter.loadItems(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getItems(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onItemsLoaded(TASKS);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, null);
 
         // Then progress indicator is shown
         InOrder inOrder = inOrder(mTasksView);
@@ -95,8 +134,8 @@ public class ItemsPresenterTest {
         mTasksPresenter.loadItems(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getItems(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onItemsLoaded(TASKS);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, null);
 
         // Then progress indicator is hidden and active tasks are shown in UI
         verify(mTasksView).setLoadingIndicator(false);
@@ -112,8 +151,8 @@ public class ItemsPresenterTest {
         mTasksPresenter.loadItems(true);
 
         // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getItems(mLoadTasksCallbackCaptor.capture());
-        mLoadTasksCallbackCaptor.getValue().onItemsLoaded(TASKS);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, null);
 
         // Then progress indicator is hidden and completed tasks are shown in UI
         verify(mTasksView).setLoadingIndicator(false);
@@ -122,6 +161,152 @@ public class ItemsPresenterTest {
         assertTrue(showTasksArgumentCaptor.getValue().size() == 3);
     }
 
+    @Test
+    public void forcedLoad_reloadsFromRemoteWhileShowingStoredRows() {
+        // When a refresh is requested
+        mTasksPresenter.loadItems(true);
+
+        // Then the items are reloaded from the network first, in a load shared with other callers
+        verify(mTasksRepository).getItems(eq(ReadPolicy.REMOTE_FIRST),
+                any(ItemsDataSource.LoadItemsCallback.class));
+        verify(mTasksRepository, never()).refreshItems();
+        // And the stored rows are observed meanwhile
+        verify(mTasksRepository).observeItemRows(anyInt(), any(LoadItemRowsPageCallback.class));
+    }
+
+    @Test
+    public void loadAfterFirstOne_doesNotReloadFromRemote() {
+        // Given a first load
+        mTasksPresenter.loadItems(false);
+
+        // When loading again without forcing it
+        mTasksPresenter.loadItems(false);
+
+        // Then only the first load reloaded from the network
+        verify(mTasksRepository, times(1)).getItems(any(ReadPolicy.class),
+                any(ItemsDataSource.LoadItemsCallback.class));
+    }
+
+    @Test
+    public void forcedLoadWithNoItemsAnywhere_showsError() {
+        // When a refresh is requested
+        mTasksPresenter.loadItems(true);
+
+        // And neither the network nor the device has the items
+        verify(mTasksRepository).getItems(eq(ReadPolicy.REMOTE_FIRST),
+                mRefreshCallbackCaptor.capture());
+        mRefreshCallbackCaptor.getValue().onDataNotAvailable();
+
+        // Then an error message is shown
+        verify(mTasksView).showLoadingItemsError();
+    }
+
+    @Test
+    public void loadMoreItems_appendsNextPageToView() {
+        // Given a first page that has a following page
+        mTasksPresenter.loadItems(true);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, "nextKey");
+
+        // When more items are requested
+        mTasksPresenter.loadMoreItems();
+
+        // Then only the next page is read, the first one still being observed
+        verify(mTasksRepository).getItemRowsPage(anyInt(), eq("nextKey"),
+                mLoadPageCallbackCaptor.capture());
+        verify(mSubscription, never()).unsubscribe();
+        verify(mTasksRepository, times(1)).observeItemRows(anyInt(),
+                any(LoadItemRowsPageCallback.class));
+        // And it is appended to the list
+        List<ItemListRow> more = ItemListRow.fromItems(Lists.newArrayList(
+                new Item("Title4", "Description4", "400", "Location4", "path")));
+        mLoadPageCallbackCaptor.getValue().onItemRowsPageLoaded(more, null);
+        verify(mTasksView).appendItems(more);
+    }
+
+    @Test
+    public void loadMoreItemsAfterLastPage_doesNothing() {
+        // Given a first page that is also the last one
+        mTasksPresenter.loadItems(true);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, null);
+
+        // When more items are requested
+        mTasksPresenter.loadMoreItems();
+
+        // Then no other page is read
+        verify(mTasksRepository, never()).getItemRowsPage(anyInt(), anyString(),
+                any(LoadItemRowsPageCallback.class));
+    }
+
+    @Test
+    public void changedItemOfALaterPage_reloadsOnlyThatPage() {
+        // Given three pages: "a" and "b", "c" and "d", then "e"
+        showThreePages();
+
+        // When an item of the second page is edited
+        verify(mTasksRepository).observeItemChanges(mChangesCallbackCaptor.capture());
+        mChangesCallbackCaptor.getValue().onItemsChanged(Collections.singleton("c"));
+
+        // Then only the second page is read again, within the same bounds
+        verify(mTasksRepository).getItemRowsBetween(eq("b"), eq("d"),
+                mLoadPageCallbackCaptor.capture());
+        verify(mTasksRepository, times(2)).getItemRowsPage(anyInt(), anyString(),
+                any(LoadItemRowsPageCallback.class));
+        // And the list shows its new rows
+        List<ItemListRow> reloaded = rows("c edited", "d");
+        mLoadPageCallbackCaptor.getValue().onItemRowsPageLoaded(reloaded, "d");
+        List<ItemListRow> shown = new ArrayList<>(rows("a", "b"));
+        shown.addAll(reloaded);
+        shown.addAll(rows("e"));
+        verify(mTasksView).showItems(shown);
+    }
+
+    @Test
+    public void firstPageWithAnAddedItem_reloadsTheSecondPageFromItsNewEnd() {
+        // Given three pages: "a" and "b", "c" and "d", then "e"
+        showThreePages();
+
+        // When an item is added to the first page, which pushes "b" out of it
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(rows("a", "a2"), "a2");
+
+        // Then the second page is read again from the new end of the first one
+        verify(mTasksRepository).getItemRowsBetween(eq("a2"), eq("d"),
+                any(LoadItemRowsPageCallback.class));
+        // And the third one is left alone
+        verify(mTasksRepository, never()).getItemRowsBetween(eq("d"), anyString(),
+                any(LoadItemRowsPageCallback.class));
+    }
+
+    @Test
+    public void changedRows_areShownAsTheyChange() {
+        // Given loaded items
+        mTasksPresenter.loadItems(false);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(TASKS, null);
+
+        // When the rows change, for instance with the changes of a sync
+        List<ItemListRow> changed = TASKS.subList(0, 2);
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(changed, null);
+
+        // Then the new rows are shown without loading again
+        verify(mTasksView).showItems(changed);
+        verify(mTasksView, times(1)).setLoadingIndicator(false);
+    }
+
+    @Test
+    public void stop_unsubscribesFromRows() {
+        // Given loaded items
+        mTasksPresenter.start();
+
+        // When stopped
+        mTasksPresenter.stop();
+
+        // Then the rows and the writes are no longer observed
+        verify(mSubscription).unsubscribe();
+        verify(mChangesSubscription).unsubscribe();
+    }
+
     @Test
     public void clickOnFab_ShowsAddTaskUi() {
         // When adding a new task
@@ -134,7 +319,8 @@ public class ItemsPresenterTest {
     @Test
     public void clickOnTask_ShowsDetailUi() {
         // Given a stubbed active task
-        Item requestedTask = new Item("Details Requested", "For this item", "200", "location", "path");
+        ItemListRow requestedTask = ItemListRow.fromItem(
+                new Item("Details Requested", "For this item", "200", "location", "path"));
 
         // When open task details is requested
         mTasksPresenter.openItemDetails(requestedTask);
@@ -143,16 +329,91 @@ public class ItemsPresenterTest {
         verify(mTasksView).showItemDetailsUi(any(String.class));
     }
 
+    @Test
+    public void noItems_ShowsNoItemsInsteadOfError() {
+        // When tasks are loaded
+        mTasksPresenter.loadItems(true);
+
+        // And the repository has none
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(new ArrayList<ItemListRow>(),
+                null);
+
+        // Then the empty list is shown, not an error
+        verify(mTasksView).showNoItems();
+        verify(mTasksView, never()).showLoadingItemsError();
+    }
+
     @Test
     public void unavailableTasks_ShowsError() {
         // When tasks are loaded
         mTasksPresenter.loadItems(true);
 
         // And the tasks aren't available in the repository
-        verify(mTasksRepository).getItems(mLoadTasksCallbackCaptor.capture());
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
         mLoadTasksCallbackCaptor.getValue().onDataNotAvailable();
 
         // Then an error message is shown
         verify(mTasksView).showLoadingItemsError();
     }
+
+    @Test
+    public void syncWithCloud_showsSuccessWithoutReloading() {
+        // When the items are synced
+        mTasksPresenter.syncItemsWithCloud();
+        verify(mTasksView).setLoadingIndicator(true);
+        verify(mItemsCloudSync).sync(mSyncCallbackCaptor.capture());
+
+        // And the sync finishes
+        mSyncCallbackCaptor.getValue().onSyncFinished(1, 2);
+
+        // Then the success is shown, the observed rows show the changes without a reload
+        verify(mTasksRepository, never()).refreshItems();
+        verify(mTasksRepository, never()).observeItemRows(anyInt(),
+                any(LoadItemRowsPageCallback.class));
+        verify(mTasksView).showSuccessfullySyncingItems();
+        verify(mTasksView).setLoadingIndicator(false);
+    }
+
+    @Test
+    public void syncWithCloudFailure_showsError() {
+        // When the items are synced
+        mTasksPresenter.syncItemsWithCloud();
+        verify(mItemsCloudSync).sync(mSyncCallbackCaptor.capture());
+
+        // And the cloud can't be reached
+        mSyncCallbackCaptor.getValue().onSyncFailed(new Exception("offline"));
+
+        // Then the error is shown
+        verify(mTasksView).setLoadingIndicator(false);
+        verify(mTasksView).showGeneralError("offline");
+    }
+
+    /**
+     * Loads the pages "a" and "b", "c" and "d", then "e", the last one.
+     */
+    private void showThreePages() {
+        mTasksPresenter.loadItems(true);
+        verify(mTasksRepository).observeItemRows(anyInt(), mLoadTasksCallbackCaptor.capture());
+        mLoadTasksCallbackCaptor.getValue().onItemRowsPageLoaded(rows("a", "b"), "b");
+        mTasksPresenter.loadMoreItems();
+        verify(mTasksRepository).getItemRowsPage(anyInt(), eq("b"),
+                mLoadPageCallbackCaptor.capture());
+        mLoadPageCallbackCaptor.getValue().onItemRowsPageLoaded(rows("c", "d"), "d");
+        mTasksPresenter.loadMoreItems();
+        verify(mTasksRepository).getItemRowsPage(anyInt(), eq("d"),
+                mLoadPageCallbackCaptor.capture());
+        mLoadPageCallbackCaptor.getValue().onItemRowsPageLoaded(rows("e"), null);
+    }
+
+    /**
+     * Returns rows whose ids are their titles.
+     */
+    private static List<ItemListRow> rows(String... ids) {
+        List<ItemListRow> rows = new ArrayList<>();
+        for (String id : ids) {
+            rows.add(ItemListRow.fromItem(new Item(id, "", "", "", "", id.split(" ")[0])));
+        }
+        return rows;
+    }
 }